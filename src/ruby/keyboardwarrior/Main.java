@@ -17,15 +17,21 @@ public class Main extends Application implements Stoppable{
     public static final String VERSION = "Keyboard Warrior - Version 0.1";
 
     private Gui gui;
+    private Logic logic;
 
     @Override
     public void start(Stage primaryStage) throws Exception{
-        gui = new Gui(new Logic(), VERSION);
+        logic = new Logic();
+        gui = new Gui(logic, VERSION);
         gui.start(primaryStage, this);
     }
 
     @Override
     public void stop() throws Exception {
+        // Saves may still be waiting to be written in the background
+        if (logic != null) {
+            logic.close();
+        }
         super.stop();
         Platform.exit();
         System.exit(0);
@@ -4,6 +4,8 @@ import ruby.keyboardwarrior.data.TasksList;
 import ruby.keyboardwarrior.data.exception.IllegalValueException;
 import ruby.keyboardwarrior.data.task.*;
 
+import java.util.List;
+
 /**
  * Adds a task to Keyboard Warrior.
  */
@@ -12,12 +14,17 @@ public class AddCommand extends Command {
     public static final String COMMAND_WORD = "add";
 
     public static final String MESSAGE_USAGE = COMMAND_WORD + ":\n" + "Adds a task to the Keyboard Warrior. "
-            + "Only supports task details which can be enter after the command word seperated by a space. \n\t"
+            + "Enter the task details after the command word seperated by a space, "
+            + "followed by a due time for a deadline or a start and end time for an event. \n\t"
+            + "Parameters: DETAILS [by DDMMYY/HHMM | from DDMMYY/HHMM to DDMMYY/HHMM]\n\t"
+            + "Example: " + COMMAND_WORD
+            + " do something\n\t"
             + "Example: " + COMMAND_WORD
-            + " do something";
+            + " project meeting from 130816/1400 to 130816/1600";
 
     public static final String MESSAGE_SUCCESS = "New task added: %1$s";
     public static final String MESSAGE_DUPLICATE_TASK = "This task already exists in the Keyboard Warrior";
+    public static final String MESSAGE_OVERLAP_WARNING = "\nWarning: this overlaps with %1$d existing event(s):";
 
     private final TodoTask toAdd;
 
@@ -38,13 +45,36 @@ public class AddCommand extends Command {
     @Override
     public CommandResult execute() throws Exception{
         try {
+            final String overlapWarning = getOverlapWarning();
             tasksList.addTask(toAdd);
-            return new CommandResult(String.format(MESSAGE_SUCCESS, toAdd));
+            return new CommandResult(String.format(MESSAGE_SUCCESS, toAdd) + overlapWarning);
         } catch (TasksList.DuplicateTaskException dpe) {
             return new CommandResult(MESSAGE_DUPLICATE_TASK);
         }
     }
     
+    /**
+     * Returns a warning listing the existing events that an event being added overlaps with,
+     * or an empty string if it overlaps with none or is not an event.
+     */
+    private String getOverlapWarning() {
+        if (!(toAdd instanceof EventTask)) {
+            return "";
+        }
+        final EventTask event = (EventTask) toAdd;
+        final List<TodoTask> overlapping = tasksList.snapshot()
+                .findTasksOverlapping(event.getStartMinutes(), event.getEndMinutes());
+        final StringBuilder warning = new StringBuilder();
+        int events = 0;
+        for (TodoTask task : overlapping) {
+            if (task instanceof EventTask && !task.equals(toAdd)) {
+                warning.append("\n\t").append(task);
+                events++;
+            }
+        }
+        return events == 0 ? "" : String.format(MESSAGE_OVERLAP_WARNING, events) + warning;
+    }
+
     public TodoTask getTask(){
         return toAdd;
     }
@@ -0,0 +1,47 @@
+package ruby.keyboardwarrior.commands;
+
+import ruby.keyboardwarrior.data.task.EndTime;
+import ruby.keyboardwarrior.data.task.StartTime;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.List;
+
+/**
+ * Lists all events and deadlines in Keyboard Warrior that fall within a span of time, ordered by start time.
+ */
+public class AgendaCommand extends Command {
+
+    public static final String COMMAND_WORD = "agenda";
+
+    public static final String MESSAGE_USAGE = COMMAND_WORD + ":\n"
+            + "Displays all events and deadlines between two times, earliest first, as a list with index numbers.\n\t"
+            + "Parameters: FROM TO (in the format DDMMYY/HHMM)\n\t"
+            + "Example: " + COMMAND_WORD + " 130816/0000 200816/2359";
+
+    private final StartTime from;
+    private final EndTime to;
+
+    public AgendaCommand(StartTime from, EndTime to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public StartTime getFrom() {
+        return from;
+    }
+
+    public EndTime getTo() {
+        return to;
+    }
+
+    @Override
+    public CommandResult execute() {
+        final List<TodoTask> itemsFound = tasksList.snapshot().findTasksOverlapping(from.toMinutes(), to.toMinutes());
+        return new CommandResult(getMessageForTasksListShownSummary(itemsFound), itemsFound);
+    }
+
+    @Override
+    public boolean isMutating() {
+        return false;
+    }
+}
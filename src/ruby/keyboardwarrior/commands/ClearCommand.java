@@ -1,5 +1,8 @@
 package ruby.keyboardwarrior.commands;
 
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
 /**
  * Clears all the items in the Keyboard Warrior.
  */
@@ -15,7 +18,10 @@ public class ClearCommand extends Command {
 
 
     @Override
-    public CommandResult execute() {
+    public CommandResult execute() throws StorageOperationException {
+        for (TodoTask task : tasksList.getAllTasks()) {
+            archive.drop(task.getId());
+        }
         tasksList.clear();
         return new CommandResult(MESSAGE_SUCCESS);
     }
@@ -1,12 +1,18 @@
 package ruby.keyboardwarrior.commands;
 
 import ruby.keyboardwarrior.common.Messages;
+import ruby.keyboardwarrior.data.ReadOnlyTasksList;
 import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
 import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.data.task.TodoTask.TaskNotFoundException;
+import ruby.keyboardwarrior.storage.Storage;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+import ruby.keyboardwarrior.storage.TaskArchive;
 
+import java.util.HashMap;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Map;
 
 import static ruby.keyboardwarrior.ui.Gui.DISPLAYED_INDEX_OFFSET;
 
@@ -15,8 +21,12 @@ import static ruby.keyboardwarrior.ui.Gui.DISPLAYED_INDEX_OFFSET;
  */
 public abstract class Command {
     protected TasksList tasksList;
-    protected static Stack<TodoTask> deletedList = new Stack<TodoTask>();
-    protected List<TodoTask> relevantTasks;
+    /** Where the tasks are kept. */
+    protected Storage storage;
+    /** Where tasks marked done are moved to. */
+    protected TaskArchive archive;
+    /** IDs of the tasks in the last shown listing, in display order. */
+    protected long[] relevantTasks;
     private int targetIndex = -1;
  
     /**
@@ -49,18 +59,53 @@ public abstract class Command {
     /**
      * Supplies the data the command will operate on.
      */
-    public void setData(TasksList tasksList, List<TodoTask> relevantTasks) {
+    public void setData(TasksList tasksList, Storage storage, long[] relevantTasks) {
         this.tasksList = tasksList;
+        this.storage = storage;
+        this.archive = storage.getArchive();
         this.relevantTasks = relevantTasks;
     }
 
     /**
-     * Extracts the the target person in the last shown list from the given arguments.
+     * Extracts the the target task in the last shown list from the given arguments.
      *
      * @throws IndexOutOfBoundsException if the target index is out of bounds of the last viewed listing
+     * @throws TaskNotFoundException if the target task is no longer in the tasks list
      */
-    protected TodoTask getTargetTask() throws IndexOutOfBoundsException {
-        return relevantTasks.get(getTargetIndex() - DISPLAYED_INDEX_OFFSET);
+    protected TodoTask getTargetTask() throws IndexOutOfBoundsException, TaskNotFoundException {
+        return getTargetTask(tasksList);
+    }
+
+    /**
+     * Extracts the the target task in the last shown list from the given arguments, as it is in {@code tasks}.
+     *
+     * @throws IndexOutOfBoundsException if the target index is out of bounds of the last viewed listing
+     * @throws TaskNotFoundException if the target task is not in {@code tasks}
+     */
+    protected TodoTask getTargetTask(ReadOnlyTasksList tasks) throws IndexOutOfBoundsException, TaskNotFoundException {
+        final TodoTask target = tasks.getTaskById(relevantTasks[getTargetIndex() - DISPLAYED_INDEX_OFFSET]);
+        if (target == null) {
+            throw new TaskNotFoundException();
+        }
+        return target;
+    }
+
+    /**
+     * Moves the tasks that the list moved into or out of the archive since {@code before} in or out of the archive
+     * too, as undoing and redoing change the list alone.
+     *
+     * @throws StorageOperationException if the archive could not be written.
+     */
+    protected void updateArchive(TasksListSnapshot before) throws StorageOperationException {
+        final Map<Long, TodoTask> moved = new HashMap<>();
+        tasksList.snapshot().forEachArchivedChangeSince(before, moved::put);
+        for (Map.Entry<Long, TodoTask> move : moved.entrySet()) {
+            if (move.getValue() == null) {
+                archive.drop(move.getKey());
+            } else {
+                archive.archive(move.getValue());
+            }
+        }
     }
 
     public int getTargetIndex() {
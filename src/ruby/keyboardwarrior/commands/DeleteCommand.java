@@ -3,6 +3,7 @@ package ruby.keyboardwarrior.commands;
 import ruby.keyboardwarrior.common.Messages;
 import ruby.keyboardwarrior.data.task.TodoTask;
 import ruby.keyboardwarrior.data.task.TodoTask.TaskNotFoundException;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
 
 /**
  * Deletes a item identified using it's last displayed index from the task manager.
@@ -25,15 +26,18 @@ public class DeleteCommand extends Command {
 
 
     @Override
-    public CommandResult execute() throws TaskNotFoundException {
+    public CommandResult execute() throws StorageOperationException {
         try {
             final TodoTask target = getTargetTask();
             tasksList.removeTask(target);
-            deletedList.push(target);
+            // Only there if an undone done command put the task back
+            archive.drop(target.getId());
             return new CommandResult(String.format(MESSAGE_DELETE_ITEM_SUCCESS, target));
 
         } catch (IndexOutOfBoundsException ie) {
             return new CommandResult(Messages.MESSAGE_INVALID_TASK_DISPLAYED_INDEX);
+        } catch (TaskNotFoundException pnfe) {
+            return new CommandResult(Messages.MESSAGE_TASK_NOT_IN_TASKSLIST);
         }
     }
     
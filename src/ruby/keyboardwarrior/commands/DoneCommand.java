@@ -0,0 +1,53 @@
+package ruby.keyboardwarrior.commands;
+
+import ruby.keyboardwarrior.common.Messages;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.data.task.TodoTask.TaskNotFoundException;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+/**
+ * Marks a item identified using it's last displayed index as done, moving it from the task manager to the archive.
+ */
+public class DoneCommand extends Command {
+
+    public static final String COMMAND_WORD = "done";
+
+    public static final String MESSAGE_USAGE = COMMAND_WORD + ":\n"
+            + "Marks the item identified by the index number used in the last item listing as done, "
+            + "and moves it to the archive, where " + FindCommand.COMMAND_WORD + " " + FindCommand.ARCHIVED_FLAG
+            + " finds it.\n\t"
+            + "Parameters: INDEX\n\t"
+            + "Example: " + COMMAND_WORD + " 1";
+
+    public static final String MESSAGE_DONE_ITEM_SUCCESS = "Done: %1$s";
+
+
+    public DoneCommand(int targetVisibleIndex) {
+        super(targetVisibleIndex);
+    }
+
+
+    /**
+     * Archives the task before removing it from the list, so that a crash in between leaves it in both, where
+     * the list shadows the archive, rather than in neither.
+     */
+    @Override
+    public CommandResult execute() throws StorageOperationException {
+        try {
+            final TodoTask target = getTargetTask();
+            archive.archive(target);
+            tasksList.moveToArchive(target);
+            return new CommandResult(String.format(MESSAGE_DONE_ITEM_SUCCESS, target));
+
+        } catch (IndexOutOfBoundsException ie) {
+            return new CommandResult(Messages.MESSAGE_INVALID_TASK_DISPLAYED_INDEX);
+        } catch (TaskNotFoundException pnfe) {
+            return new CommandResult(Messages.MESSAGE_TASK_NOT_IN_TASKSLIST);
+        }
+    }
+    
+    @Override
+    public boolean isMutating() {
+    	return true;
+    }
+}
@@ -1,6 +1,7 @@
 package ruby.keyboardwarrior.commands;
 
 import ruby.keyboardwarrior.common.Messages;
+import ruby.keyboardwarrior.data.TasksList.DuplicateTaskException;
 import ruby.keyboardwarrior.data.task.TodoTask;
 import ruby.keyboardwarrior.data.task.TodoTask.TaskNotFoundException;
 
@@ -30,13 +31,14 @@ public class EditCommand extends Command {
     public CommandResult execute() {
         try {
             final TodoTask target = getTargetTask();
-            deletedList.push(target);
             tasksList.setTask(target,editTask);
             return new CommandResult(String.format(MESSAGE_EDIT_TASK_SUCCESS, target));
         } catch (IndexOutOfBoundsException ie) {
             return new CommandResult(Messages.MESSAGE_INVALID_TASK_DISPLAYED_INDEX);
         } catch (TaskNotFoundException pnfe) {
             return new CommandResult(Messages.MESSAGE_TASK_NOT_IN_TASKSLIST);
+        } catch (DuplicateTaskException dte) {
+            return new CommandResult(AddCommand.MESSAGE_DUPLICATE_TASK);
         }
     }
     
@@ -1,26 +1,40 @@
 package ruby.keyboardwarrior.commands;
 
 import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
 
 import java.util.*;
 
 /**
- * Finds and lists all tasks in Keyboard Warrior whose details contains any of the argument keywords.
+ * Finds and lists all tasks in Keyboard Warrior whose details contains any of the argument keywords,
+ * or all tasks marked done that do if the search is of the archive.
  * Keyword matching is not case sensitive.
  */
 public class FindCommand extends Command {
 
     public static final String COMMAND_WORD = "find";
 
+    public static final String ARCHIVED_FLAG = "--archived";
+
     public static final String MESSAGE_USAGE = COMMAND_WORD + ":\n" + "Finds all items whose details contain any of "
-            + "the specified keywords (not case sensitive) and displays them as a list with index numbers.\n\t"
-            + "Parameters: KEYWORD [MORE_KEYWORDS]...\n\t"
+            + "the specified keywords (not case sensitive) and displays them as a list with index numbers. "
+            + "With " + ARCHIVED_FLAG + ", finds the items marked done instead.\n\t"
+            + "Parameters: [" + ARCHIVED_FLAG + "] KEYWORD [MORE_KEYWORDS]...\n\t"
             + "Example: " + COMMAND_WORD + " alice bob charlie";
 
     private final Set<String> keywords;
+    private final boolean archived;
 
     public FindCommand(Set<String> keywords) {
+        this(keywords, false);
+    }
+
+    /**
+     * @param archived whether to search the tasks marked done rather than those still to be done
+     */
+    public FindCommand(Set<String> keywords, boolean archived) {
         this.keywords = keywords;
+        this.archived = archived;
     }
 
     /**
@@ -30,9 +44,14 @@ public class FindCommand extends Command {
         return new HashSet<>(keywords);
     }
 
+    public boolean isArchived() {
+        return archived;
+    }
+
     @Override
-    public CommandResult execute() {
-        final List<TodoTask> itemsFound = getItemsWithDetailsContainingAnyKeyword(keywords);
+    public CommandResult execute() throws StorageOperationException {
+        final List<TodoTask> itemsFound = archived ? archive.find(keywords, tasksList)
+                : getItemsWithDetailsContainingAnyKeyword(keywords);
         return new CommandResult(getMessageForTasksListShownSummary(itemsFound), itemsFound);
     }
 
@@ -41,31 +60,16 @@ public class FindCommand extends Command {
     	return false;
     }
     /**
-     * Retrieve all items in Keyboard Warrior whose details contain some of the specified keywords.
+     * Retrieve all items in Keyboard Warrior whose details contain some of the specified keywords, from the
+     * storage if it can search the stored tasks itself.
      *
      * @param keywords for searching
      * @return list of items found
      */
-    private List<TodoTask> getItemsWithDetailsContainingAnyKeyword(Set<String> keywords) {
-        final List<TodoTask> matchedItems = new ArrayList<>();
-        Set<String> lowerCaseKeywords = new HashSet<String>();
-        Iterator<String> keywordsItr = keywords.iterator();
-        while (keywordsItr.hasNext()){
-            lowerCaseKeywords.add(keywordsItr.next().toLowerCase());	//makes it all lower case so can have non-case-sensitive searching
-        }
-        for (TodoTask todoTask : tasksList.getAllTasks()) {
-            final Set<String> wordsInName = new HashSet<>(todoTask.getDetails().getWordsInDetails());
-            Set<String> lowerCaseWordsInName = new HashSet<String>();
-            Iterator<String> nameItr = wordsInName.iterator();
-            while (nameItr.hasNext())
-            {
-                lowerCaseWordsInName.add(nameItr.next().toLowerCase());
-            }
-            if (!Collections.disjoint(lowerCaseWordsInName, lowerCaseKeywords)) {
-                matchedItems.add(todoTask);
-            }
-        }
-        return matchedItems;
+    private List<TodoTask> getItemsWithDetailsContainingAnyKeyword(Set<String> keywords)
+            throws StorageOperationException {
+        final Optional<List<TodoTask>> stored = storage.findTasksContainingAnyKeyword(keywords);
+        return stored.isPresent() ? stored.get() : tasksList.snapshot().findTasksContainingAnyKeyword(keywords);
     }
 
 }
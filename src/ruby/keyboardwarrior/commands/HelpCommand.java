@@ -13,11 +13,15 @@ public class HelpCommand extends Command {
 
     public static final String MESSAGE_ALL_USAGES = AddCommand.MESSAGE_USAGE
             + "\n" + "\n" + DeleteCommand.MESSAGE_USAGE
+            + "\n" + "\n" + DoneCommand.MESSAGE_USAGE
             + "\n" + "\n" + ClearCommand.MESSAGE_USAGE
             + "\n" + "\n" + FindCommand.MESSAGE_USAGE
+            + "\n" + "\n" + AgendaCommand.MESSAGE_USAGE
             + "\n" + "\n" + ListCommand.MESSAGE_USAGE
             + "\n" + "\n" + ViewCommand.MESSAGE_USAGE
             + "\n" + "\n" + ViewAllCommand.MESSAGE_USAGE
+            + "\n" + "\n" + UndoCommand.MESSAGE_USAGE
+            + "\n" + "\n" + RedoCommand.MESSAGE_USAGE
             + "\n" + "\n" + HelpCommand.MESSAGE_USAGE
             + "\n" + "\n" + ExitCommand.MESSAGE_USAGE;
 
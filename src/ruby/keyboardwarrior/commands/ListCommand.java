@@ -19,7 +19,7 @@ public class ListCommand extends Command {
 
     @Override
     public CommandResult execute() {
-        List<TodoTask> allTasks = tasksList.getAllTasks();
+        List<TodoTask> allTasks = tasksList.snapshot().getAllTasks();
         return new CommandResult(getMessageForTasksListShownSummary(allTasks), allTasks);
     }
     
@@ -0,0 +1,36 @@
+package ruby.keyboardwarrior.commands;
+
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+/**
+ * Re-applies the most recently undone change to the Keyboard Warrior. Repeating it steps further forward.
+ */
+public class RedoCommand extends Command {
+
+    public static final String COMMAND_WORD = "redo";
+
+    public static final String MESSAGE_USAGE = COMMAND_WORD + ":\n"
+            + "Re-applies the most recently undone change. Repeat to go further forward.\n\t"
+            + "Example: " + COMMAND_WORD;
+
+    public static final String MESSAGE_REDO_SUCCESS = "Last undone change redone";
+    public static final String MESSAGE_NOTHING_TO_REDO = "There is no undone change to redo";
+
+    public RedoCommand() {}
+
+    @Override
+    public CommandResult execute() throws StorageOperationException {
+        final TasksListSnapshot before = tasksList.snapshot();
+        if (!tasksList.redo()) {
+            return new CommandResult(MESSAGE_NOTHING_TO_REDO);
+        }
+        updateArchive(before);
+        return new CommandResult(MESSAGE_REDO_SUCCESS);
+    }
+    
+    @Override
+    public boolean isMutating() {
+    	return true;
+    }
+}
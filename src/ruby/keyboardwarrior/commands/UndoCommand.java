@@ -1,59 +1,36 @@
 package ruby.keyboardwarrior.commands;
 
-import ruby.keyboardwarrior.data.TasksList.DuplicateTaskException;
-import ruby.keyboardwarrior.data.exception.IllegalValueException;
-import ruby.keyboardwarrior.data.task.TodoTask;
-import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
 
 /**
- * Undo the last command.
+ * Reverts the most recent change to the Keyboard Warrior. Repeating it steps further back.
  */
 public class UndoCommand extends Command {
 
     public static final String COMMAND_WORD = "undo";
 
-    public static final String MESSAGE_USAGE = COMMAND_WORD + "\n";
+    public static final String MESSAGE_USAGE = COMMAND_WORD + ":\n"
+            + "Reverts the most recent change. Repeat to go further back.\n\t"
+            + "Example: " + COMMAND_WORD;
 
-    public static final String MESSAGE_UNDO_TASK_SUCCESS = "Undo Item: %1$s";
-
-    private String toUndo;
-    
-    /**
-     * Convenience constructor using raw values.
-     *
-     * @throws IllegalValueException if any of the raw values are invalid
-     */
-
-    public UndoCommand(String toUndo) {
-        this.toUndo = toUndo;
-    }
+    public static final String MESSAGE_UNDO_SUCCESS = "Last change undone";
+    public static final String MESSAGE_NOTHING_TO_UNDO = "There is no change to undo";
 
+    public UndoCommand() {}
 
     @Override
-    public CommandResult execute() throws DuplicateTaskException, ruby.keyboardwarrior.data.task.TodoTask.TaskNotFoundException {
-		int space = toUndo.indexOf(' ');
-    	String command = toUndo.substring(0, space);
-    	String task = toUndo.substring(space+1);
-    	
-    	if(command.equals("add")){
-    		tasksList.removeTask(new TodoTask(new TaskDetails(task)));
-    	}
-    	
-    	if(command.equals("delete")){
-    		tasksList.addTask(deletedList.pop());
-    	}
-    	
-    	if(command.equals("edit")){
-    		int whiteSpace = task.indexOf(' ');
-        	String index = task.substring(0, whiteSpace);
-    		tasksList.setTask(Integer.parseInt(index)-1,deletedList.pop());
-    	}
-    	
-        return new CommandResult(String.format(MESSAGE_UNDO_TASK_SUCCESS, toUndo));
+    public CommandResult execute() throws StorageOperationException {
+        final TasksListSnapshot before = tasksList.snapshot();
+        if (!tasksList.undo()) {
+            return new CommandResult(MESSAGE_NOTHING_TO_UNDO);
+        }
+        updateArchive(before);
+        return new CommandResult(MESSAGE_UNDO_SUCCESS);
     }
     
     @Override
     public boolean isMutating() {
-    	return false;
+    	return true;
     }
 }
@@ -2,6 +2,7 @@ package ruby.keyboardwarrior.commands;
 
 import ruby.keyboardwarrior.common.Messages;
 import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.data.task.TodoTask.TaskNotFoundException;
 
 
 /**
@@ -28,13 +29,12 @@ public class ViewAllCommand extends Command {
     @Override
     public CommandResult execute() {
         try {
-            final TodoTask target = getTargetTask();
-            if (!tasksList.containsTask(target)) {
-                return new CommandResult(Messages.MESSAGE_TASK_NOT_IN_TASKSLIST);
-            }
+            final TodoTask target = getTargetTask(tasksList.snapshot());
             return new CommandResult(String.format(MESSAGE_VIEW_PERSON_DETAILS, target.toString()));
         } catch (IndexOutOfBoundsException ie) {
             return new CommandResult(Messages.MESSAGE_INVALID_TASK_DISPLAYED_INDEX);
+        } catch (TaskNotFoundException pnfe) {
+            return new CommandResult(Messages.MESSAGE_TASK_NOT_IN_TASKSLIST);
         }
     }
     
@@ -13,4 +13,5 @@ public class Messages {
             "java ruby.keyboardwarrior.Main [STORAGE_FILE_PATH]";
     public static final String MESSAGE_WELCOME = "Welcome to your Keyboard Warrior!";
     public static final String MESSAGE_USING_STORAGE_FILE = "Using storage file : %1$s";
+    public static final String MESSAGE_READ_ONLY = "Tasks cannot be changed here, as this copy is %1$s";
 }
@@ -0,0 +1,217 @@
+package ruby.keyboardwarrior.data;
+
+import ruby.keyboardwarrior.data.task.TimedTask;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable augmented AVL tree of the {@link TimedTask}s of a {@link TasksList}, ordered by start time and then
+ * by task ID. Every node records the latest end time in its subtree, so the tasks overlapping a span of time
+ * are found in O(log n + k) for k matches, skipping every subtree that ends before the span.
+ *
+ * Updates copy only the O(log n) nodes on the path to the change and share the rest with the old tree.
+ */
+final class IntervalTree {
+
+    private static final IntervalTree EMPTY = new IntervalTree(null);
+
+    private static final class Node {
+        private final int start;
+        private final int end;
+        private final long id;
+        private final TodoTask task;
+        private final Node left;
+        private final Node right;
+        private final int height;
+        private final int maxEnd;
+
+        private Node(int start, int end, long id, TodoTask task, Node left, Node right) {
+            this.start = start;
+            this.end = end;
+            this.id = id;
+            this.task = task;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.maxEnd = Math.max(end, Math.max(maxEnd(left), maxEnd(right)));
+        }
+
+        private Node withLeft(Node newLeft) {
+            return new Node(start, end, id, task, newLeft, right);
+        }
+
+        private Node withRight(Node newRight) {
+            return new Node(start, end, id, task, left, newRight);
+        }
+
+        private int compareTo(int otherStart, long otherId) {
+            final int byStart = Integer.compare(start, otherStart);
+            return byStart != 0 ? byStart : Long.compare(id, otherId);
+        }
+    }
+
+    private final Node root;
+
+    private IntervalTree(Node root) {
+        this.root = root;
+    }
+
+    static IntervalTree empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a tree holding the {@link TimedTask}s among {@code tasks}, which must already have their IDs,
+     * built balanced in one pass.
+     */
+    static IntervalTree of(Collection<TodoTask> tasks) {
+        final ArrayList<TodoTask> timed = new ArrayList<>();
+        for (TodoTask task : tasks) {
+            if (task instanceof TimedTask) {
+                timed.add(task);
+            }
+        }
+        timed.sort(Comparator.comparingInt((TodoTask task) -> ((TimedTask) task).getStartMinutes())
+                .thenComparingLong(TodoTask::getId));
+        return new IntervalTree(build(timed, 0, timed.size()));
+    }
+
+    private static Node build(List<TodoTask> sorted, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        final int middle = (from + to) >>> 1;
+        final TodoTask task = sorted.get(middle);
+        final TimedTask timed = (TimedTask) task;
+        return new Node(timed.getStartMinutes(), timed.getEndMinutes(), task.getId(), task,
+                build(sorted, from, middle), build(sorted, middle + 1, to));
+    }
+
+    /**
+     * Returns a tree that also holds {@code task} if it is a {@link TimedTask}; returns this tree otherwise.
+     * The task must already have its ID.
+     */
+    IntervalTree add(TodoTask task) {
+        if (!(task instanceof TimedTask)) {
+            return this;
+        }
+        final TimedTask timed = (TimedTask) task;
+        return new IntervalTree(insert(root, timed.getStartMinutes(), timed.getEndMinutes(), task.getId(), task));
+    }
+
+    /**
+     * Returns a tree that no longer holds {@code task}; returns this tree if it is not a {@link TimedTask}.
+     */
+    IntervalTree remove(TodoTask task) {
+        if (!(task instanceof TimedTask)) {
+            return this;
+        }
+        return new IntervalTree(remove(root, ((TimedTask) task).getStartMinutes(), task.getId()));
+    }
+
+    /**
+     * Returns every task whose time span shares at least one moment with {@code [from, to]}, both ends
+     * inclusive, ordered by start time.
+     */
+    List<TodoTask> findOverlapping(int from, int to) {
+        final ArrayList<TodoTask> found = new ArrayList<>();
+        collectOverlapping(root, from, to, found);
+        return found;
+    }
+
+    private static void collectOverlapping(Node node, int from, int to, List<TodoTask> found) {
+        while (node != null && node.maxEnd >= from) {
+            collectOverlapping(node.left, from, to, found);
+            if (node.start > to) {
+                return;
+            }
+            if (node.end >= from) {
+                found.add(node.task);
+            }
+            node = node.right;
+        }
+    }
+
+    private static Node insert(Node node, int start, int end, long id, TodoTask task) {
+        if (node == null) {
+            return new Node(start, end, id, task, null, null);
+        }
+        if (node.compareTo(start, id) > 0) {
+            return rebalance(node.withLeft(insert(node.left, start, end, id, task)));
+        }
+        return rebalance(node.withRight(insert(node.right, start, end, id, task)));
+    }
+
+    private static Node remove(Node node, int start, long id) {
+        if (node == null) {
+            return null;
+        }
+        final int comparison = node.compareTo(start, id);
+        if (comparison > 0) {
+            return rebalance(node.withLeft(remove(node.left, start, id)));
+        }
+        if (comparison < 0) {
+            return rebalance(node.withRight(remove(node.right, start, id)));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return rebalance(new Node(successor.start, successor.end, successor.id, successor.task,
+                node.left, removeMin(node.right)));
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return rebalance(node.withLeft(removeMin(node.left)));
+    }
+
+    private static Node rebalance(Node node) {
+        final int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            Node left = node.left;
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left);
+            }
+            return rotateRight(node.withLeft(left));
+        }
+        if (balance < -1) {
+            Node right = node.right;
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right);
+            }
+            return rotateLeft(node.withRight(right));
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node) {
+        final Node pivot = node.left;
+        return pivot.withRight(node.withLeft(pivot.right));
+    }
+
+    private static Node rotateLeft(Node node) {
+        final Node pivot = node.right;
+        return pivot.withLeft(node.withRight(pivot.left));
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int maxEnd(Node node) {
+        return node == null ? Integer.MIN_VALUE : node.maxEnd;
+    }
+}
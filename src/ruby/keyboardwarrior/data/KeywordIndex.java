@@ -0,0 +1,354 @@
+package ruby.keyboardwarrior.data;
+
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.data.task.TokenDictionary;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Immutable inverted index from a normalized word to the tasks whose details contain that word, by task ID.
+ * {@link TasksList} derives a new index on every mutation so that searching only touches matching tasks;
+ * the new index shares every posting list the mutation did not touch with the old one.
+ *
+ * Words are keyed by the {@link TokenDictionary} ID of their lower case form, which task details already
+ * hold, so updating the index does not touch the text of the task.
+ *
+ * The index of a list that has just been loaded can be {@link #deferred(Collection)}: it is built on a
+ * background thread, so loading does not wait for it, and changes made meanwhile are queued behind it and
+ * applied once it is built, or once a search needs it, whichever comes first. Such an index can also be given a
+ * {@link StoredKeywordIndex} of the tasks it is built from (see {@link #useStored(StoredKeywordIndex,
+ * PersistentHashMap)}), which searches are answered from, along with the changes queued, until it is built.
+ */
+final class KeywordIndex {
+
+    private static final KeywordIndex EMPTY = new KeywordIndex(PersistentHashMap.empty());
+
+    /** Builds deferred indexes, one at a time, off the thread that loads. */
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "keyword-index-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Held while deferred indexes are built or brought up to date. */
+    private static final Object BUILD_LOCK = new Object();
+
+    /** The posting lists, or null until this index is built. */
+    private volatile PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> postings;
+
+    /* Until this index is built, either the tasks to build it from, or the index it changes and the change. */
+    private Collection<TodoTask> source;
+    /** The deferred index this one derives from, which once built lets this one catch up at the next change. */
+    private KeywordIndex base;
+    private KeywordIndex previous;
+    private long changedId;
+    /** The task added under {@link #changedId}, or null if the task under that ID was removed. */
+    private TodoTask added;
+    /** Keys of the words of the task added or removed, taken at once as its details may not outlive it. */
+    private int[] changedKeys;
+    /** Until this index is built, what searches are answered from instead, or null if they wait for the build. */
+    private volatile StoredView stored;
+
+    /**
+     * A stored index of the tasks a deferred index is built from, and the tasks changed since, by ID, each
+     * mapped to the task now under that ID or to null if it was removed.
+     */
+    private static final class StoredView {
+        private final StoredKeywordIndex index;
+        private final PersistentHashMap<Long, TodoTask> tasksById;
+        private final PersistentHashMap<Long, TodoTask> changed;
+
+        private StoredView(StoredKeywordIndex index, PersistentHashMap<Long, TodoTask> tasksById,
+                           PersistentHashMap<Long, TodoTask> changed) {
+            this.index = index;
+            this.tasksById = tasksById;
+            this.changed = changed;
+        }
+
+        private StoredView with(long id, TodoTask task) {
+            return new StoredView(index, tasksById, changed.put(id, task));
+        }
+
+        /**
+         * Returns every task containing at least one of the given keywords, ordered by ID: those the stored
+         * index lists that have not changed since, and those changed since that contain one.
+         */
+        private List<TodoTask> findAny(Collection<String> keywords) {
+            final Map<Long, TodoTask> matches = new HashMap<>();
+            final Set<Integer> keys = new HashSet<>();
+            for (String keyword : keywords) {
+                final String word = normalize(keyword);
+                final int key = TokenDictionary.shared().find(word);
+                if (key == TokenDictionary.NOT_FOUND) {
+                    continue;
+                }
+                keys.add(key);
+                for (long id : index.findIds(word)) {
+                    final TodoTask task = tasksById.get(id);
+                    if (task != null && !changed.containsKey(id)) {
+                        matches.put(id, task);
+                    }
+                }
+            }
+            if (!keys.isEmpty()) {
+                changed.forEach((id, task) -> {
+                    if (task != null && containsAnyKey(task, keys)) {
+                        matches.put(id, task);
+                    }
+                });
+            }
+            final ArrayList<TodoTask> found = new ArrayList<>(matches.values());
+            found.sort(Comparator.comparingLong(TodoTask::getId));
+            return found;
+        }
+    }
+
+    private KeywordIndex(PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> postings) {
+        this.postings = postings;
+    }
+
+    private KeywordIndex(Collection<TodoTask> source) {
+        this.source = source;
+        this.base = this;
+    }
+
+    private KeywordIndex(KeywordIndex previous, long changedId, TodoTask added, int[] changedKeys) {
+        this.base = previous.base;
+        this.previous = previous;
+        this.changedId = changedId;
+        this.added = added;
+        this.changedKeys = changedKeys;
+        final StoredView previousStored = previous.stored;
+        this.stored = previousStored == null ? null : previousStored.with(changedId, added);
+    }
+
+    static KeywordIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns an index holding {@code tasks}, which must already have their IDs and must not change, that is
+     * built on a background thread. The tasks' details must stay readable until it is.
+     */
+    static KeywordIndex deferred(Collection<TodoTask> tasks) {
+        if (tasks.isEmpty()) {
+            return EMPTY;
+        }
+        final KeywordIndex index = new KeywordIndex(tasks);
+        BUILDER.execute(index::postings);
+        return index;
+    }
+
+    /**
+     * Answers searches from {@code index} until this index is built, if it is a deferred index nothing has been
+     * derived from yet. {@code index} must hold exactly the tasks this index is built from, which are those in
+     * {@code tasksById}.
+     */
+    void useStored(StoredKeywordIndex index, PersistentHashMap<Long, TodoTask> tasksById) {
+        if (postings == null && previous == null && base == this) {
+            stored = new StoredView(index, tasksById, PersistentHashMap.empty());
+        }
+    }
+
+    /**
+     * Returns an index holding {@code tasks}, which must already have their IDs, built in one pass.
+     * The occurrences of all words are grouped by word with a counting sort on their dictionary IDs, and
+     * each group becomes a posting list directly, without a mutable map per word.
+     */
+    static KeywordIndex of(Collection<TodoTask> tasks) {
+        final TokenDictionary dictionary = TokenDictionary.shared();
+        final int[] starts = new int[dictionary.size() + 1];
+        int occurrences = 0;
+        for (TodoTask task : tasks) {
+            final TaskDetails details = task.getDetails();
+            for (int i = 0; i < details.getWordCount(); i++) {
+                starts[dictionary.foldedIdOf(details.getWordId(i)) + 1]++;
+                occurrences++;
+            }
+        }
+        for (int key = 0; key < starts.length - 1; key++) {
+            starts[key + 1] += starts[key];
+        }
+        final int[] next = Arrays.copyOf(starts, starts.length - 1);
+        final Object[] ids = new Object[occurrences];
+        final Object[] owners = new Object[occurrences];
+        for (TodoTask task : tasks) {
+            final TaskDetails details = task.getDetails();
+            for (int i = 0; i < details.getWordCount(); i++) {
+                final int key = dictionary.foldedIdOf(details.getWordId(i));
+                // A word repeated within a task is only listed once
+                if (next[key] > starts[key] && owners[next[key] - 1] == task) {
+                    continue;
+                }
+                ids[next[key]] = task.getId();
+                owners[next[key]++] = task;
+            }
+        }
+
+        final ArrayList<Object> keys = new ArrayList<>();
+        final ArrayList<Object> postings = new ArrayList<>();
+        for (int key = 0; key < next.length; key++) {
+            if (next[key] > starts[key]) {
+                keys.add(key);
+                postings.add(PersistentHashMap.of(ids, owners, starts[key], next[key]));
+            }
+        }
+        return new KeywordIndex(PersistentHashMap.of(keys.toArray(), postings.toArray(), 0, keys.size()));
+    }
+
+    /**
+     * Returns the form in which words are indexed and looked up. Matching is not case sensitive.
+     */
+    static String normalize(String word) {
+        return word.toLowerCase();
+    }
+
+    /**
+     * Returns an index that also holds {@code task}, which must already have its ID.
+     */
+    KeywordIndex add(TodoTask task) {
+        final PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> built = builtOrCaughtUp();
+        if (built == null) {
+            return new KeywordIndex(this, task.getId(), task, keysOf(task));
+        }
+        return new KeywordIndex(added(built, keysOf(task), task.getId(), task));
+    }
+
+    /**
+     * Returns an index that no longer holds {@code task}.
+     */
+    KeywordIndex remove(TodoTask task) {
+        final PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> built = builtOrCaughtUp();
+        if (built == null) {
+            return new KeywordIndex(this, task.getId(), null, keysOf(task));
+        }
+        return new KeywordIndex(removed(built, keysOf(task), task.getId()));
+    }
+
+    /**
+     * Returns the posting lists if this index is built, or can be brought up to date without building the
+     * index it derives from, or null otherwise.
+     */
+    private PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> builtOrCaughtUp() {
+        final PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> built = postings;
+        if (built != null) {
+            return built;
+        }
+        final KeywordIndex deferredBase = base;
+        return deferredBase != null && deferredBase.postings != null ? postings() : null;
+    }
+
+    private static boolean containsAnyKey(TodoTask task, Set<Integer> keys) {
+        final TaskDetails details = task.getDetails();
+        for (int i = 0; i < details.getWordCount(); i++) {
+            if (keys.contains(TokenDictionary.shared().foldedIdOf(details.getWordId(i)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] keysOf(TodoTask task) {
+        final TaskDetails details = task.getDetails();
+        final int[] keys = new int[details.getWordCount()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = TokenDictionary.shared().foldedIdOf(details.getWordId(i));
+        }
+        return keys;
+    }
+
+    private static PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> added(
+            PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> postings, int[] keys, long id,
+            TodoTask task) {
+        PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> updated = postings;
+        for (int key : keys) {
+            PersistentHashMap<Long, TodoTask> posting = updated.get(key);
+            if (posting == null) {
+                posting = PersistentHashMap.empty();
+            }
+            updated = updated.put(key, posting.put(id, task));
+        }
+        return updated;
+    }
+
+    private static PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> removed(
+            PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> postings, int[] keys, long id) {
+        PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> updated = postings;
+        for (int key : keys) {
+            final PersistentHashMap<Long, TodoTask> posting = updated.get(key);
+            if (posting == null) {
+                continue;
+            }
+            final PersistentHashMap<Long, TodoTask> remaining = posting.remove(id);
+            updated = remaining.isEmpty() ? updated.remove(key) : updated.put(key, remaining);
+        }
+        return updated;
+    }
+
+    /**
+     * Returns the posting lists, first building the index this one was derived from if need be and applying
+     * the changes queued since, and keeping the result for every index along the way.
+     */
+    private PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> postings() {
+        PersistentHashMap<Integer, PersistentHashMap<Long, TodoTask>> built = postings;
+        if (built != null) {
+            return built;
+        }
+        synchronized (BUILD_LOCK) {
+            final ArrayDeque<KeywordIndex> changes = new ArrayDeque<>();
+            KeywordIndex at = this;
+            while (at.postings == null && at.previous != null) {
+                changes.push(at);
+                at = at.previous;
+            }
+            built = at.postings;
+            if (built == null) {
+                built = of(at.source).postings;
+                at.postings = built;
+                at.source = null;
+                at.base = null;
+                at.stored = null;
+            }
+            while (!changes.isEmpty()) {
+                final KeywordIndex change = changes.pop();
+                built = change.added != null
+                        ? added(built, change.changedKeys, change.changedId, change.added)
+                        : removed(built, change.changedKeys, change.changedId);
+                change.postings = built;
+                change.base = null;
+                change.previous = null;
+                change.added = null;
+                change.changedKeys = null;
+                change.stored = null;
+            }
+            return built;
+        }
+    }
+
+    /**
+     * Returns every task containing at least one of the given keywords, ordered by ID.
+     */
+    List<TodoTask> findAny(Collection<String> keywords) {
+        final StoredView storedView = stored;
+        if (storedView != null && builtOrCaughtUp() == null) {
+            return storedView.findAny(keywords);
+        }
+        final Map<Long, TodoTask> matches = new HashMap<>();
+        for (String keyword : keywords) {
+            final int key = TokenDictionary.shared().find(normalize(keyword));
+            if (key == TokenDictionary.NOT_FOUND) {
+                continue;
+            }
+            final PersistentHashMap<Long, TodoTask> posting = postings().get(key);
+            if (posting != null) {
+                posting.forEach(matches::put);
+            }
+        }
+        final ArrayList<TodoTask> found = new ArrayList<>(matches.values());
+        found.sort(Comparator.comparingLong(TodoTask::getId));
+        return found;
+    }
+}
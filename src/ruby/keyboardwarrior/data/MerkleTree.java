@@ -0,0 +1,356 @@
+package ruby.keyboardwarrior.data;
+
+import ruby.keyboardwarrior.data.task.DeadlineTask;
+import ruby.keyboardwarrior.data.task.EventTask;
+import ruby.keyboardwarrior.data.task.TimedTask;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.Arrays;
+
+/**
+ * Immutable Merkle tree of the tasks of a {@link TasksListSnapshot}, so that two copies of a list can find the
+ * tasks they hold differently by comparing hashes rather than tasks. See {@link TasksList#merkleTree()}.
+ *
+ * Every task is placed by a hash of its ID, four bits per level, so the tree of a list has the same shape
+ * wherever it is built: the node at a given depth and prefix holds exactly the tasks whose ID hashes start with
+ * that prefix. Each node records how many tasks it holds and the sum of their entry hashes, which cover the ID
+ * and content of a task, so two nodes with the same hash hold the same tasks. Content is hashed from the kind,
+ * text and times of a task, not from {@link TodoTask#hashCode()}, which depends on word IDs that differ from
+ * one run to another.
+ *
+ * Subtrees of at most {@link #LEAF_TASKS} tasks are kept as leaves. Updates copy only the O(log n) nodes on the
+ * path to the change and share the rest with the old tree.
+ */
+public final class MerkleTree {
+
+    /** Number of children of a node; each level consumes as many bits of the ID hash as this takes. */
+    public static final int FANOUT = 16;
+    /** Most tasks a subtree holds before it is split into children, and below which syncing lists its tasks. */
+    public static final int LEAF_TASKS = 16;
+    /** Depth below which the ID hash has no bits left. */
+    public static final int MAX_DEPTH = Long.SIZE / 4;
+
+    private static final int BITS = 4;
+    private static final long[] NO_ENTRIES = new long[0];
+
+    private static final class Node {
+        private final long hash;
+        private final int count;
+        /** Children by the next four bits of the ID hash, any of them null, or null for a leaf. */
+        private final Node[] children;
+        /** IDs of the tasks of a leaf in increasing order, and their entry hashes. */
+        private final long[] ids;
+        private final long[] hashes;
+
+        private Node(Node[] children) {
+            long sum = 0;
+            int total = 0;
+            for (Node child : children) {
+                if (child != null) {
+                    sum += child.hash;
+                    total += child.count;
+                }
+            }
+            this.hash = sum;
+            this.count = total;
+            this.children = children;
+            this.ids = null;
+            this.hashes = null;
+        }
+
+        private Node(long[] ids, long[] hashes) {
+            long sum = 0;
+            for (long entryHash : hashes) {
+                sum += entryHash;
+            }
+            this.hash = sum;
+            this.count = ids.length;
+            this.children = null;
+            this.ids = ids;
+            this.hashes = hashes;
+        }
+
+        private boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    private static final Node EMPTY_LEAF = new Node(NO_ENTRIES, NO_ENTRIES);
+
+    private final Node root;
+    private final TasksListSnapshot snapshot;
+
+    private MerkleTree(Node root, TasksListSnapshot snapshot) {
+        this.root = root;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Builds the tree of every task of {@code snapshot}.
+     */
+    static MerkleTree of(TasksListSnapshot snapshot) {
+        Node root = EMPTY_LEAF;
+        for (TodoTask task : snapshot.getAllTasks()) {
+            root = put(root, 0, task.getId(), position(task.getId()), entryHash(task.getId(), task));
+        }
+        return new MerkleTree(root, snapshot);
+    }
+
+    /**
+     * Returns the tree of {@code newer}, a later version of the list this tree's snapshot was taken from,
+     * updated with the tasks changed in between only, in O(changes log n).
+     */
+    MerkleTree updatedTo(TasksListSnapshot newer) {
+        final Node[] updated = { root };
+        newer.forEachChangeSince(snapshot, (id, task) -> updated[0] = task == null
+                ? remove(updated[0], 0, id, position(id))
+                : put(updated[0], 0, id, position(id), entryHash(id, task)));
+        return new MerkleTree(updated[0], newer);
+    }
+
+    /**
+     * Returns the version of the list this tree holds the tasks of.
+     */
+    public TasksListSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the hash of the whole tree, equal for two lists exactly if they hold the same tasks under the same IDs.
+     */
+    public long getHash() {
+        return root.hash;
+    }
+
+    public int size() {
+        return root.count;
+    }
+
+    /**
+     * Returns the hash and the number of tasks of each child of the node at {@code depth} with {@code prefix},
+     * as {@link #FANOUT} pairs, in the order of the children's prefixes {@code prefix * FANOUT + i}.
+     */
+    public long[] childDigests(int depth, long prefix) {
+        final long[] digests = new long[2 * FANOUT];
+        final Node node = find(depth, prefix);
+        if (node == null) {
+            return digests;
+        }
+        if (!node.isLeaf()) {
+            for (int i = 0; i < FANOUT; i++) {
+                final Node child = node.children[i];
+                if (child != null) {
+                    digests[2 * i] = child.hash;
+                    digests[2 * i + 1] = child.count;
+                }
+            }
+            return digests;
+        }
+        for (int i = 0; i < node.count; i++) {
+            final long position = position(node.ids[i]);
+            if (prefix(position, depth) == prefix) {
+                final int child = nibble(position, depth);
+                digests[2 * child] += node.hashes[i];
+                digests[2 * child + 1]++;
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Returns the ID and entry hash of every task under the node at {@code depth} with {@code prefix}, as pairs
+     * in increasing order of ID.
+     */
+    public long[] entries(int depth, long prefix) {
+        final Node node = find(depth, prefix);
+        if (node == null || node.count == 0) {
+            return NO_ENTRIES;
+        }
+        final long[] pairs = new long[2 * node.count];
+        final int found = collect(node, depth, prefix, pairs, 0) / 2;
+        // Leaves are in ID order, but the subtrees of a node are not
+        final Integer[] order = new Integer[found];
+        for (int i = 0; i < found; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> Long.compare(pairs[2 * first], pairs[2 * second]));
+        final long[] sorted = new long[2 * found];
+        for (int i = 0; i < found; i++) {
+            sorted[2 * i] = pairs[2 * order[i]];
+            sorted[2 * i + 1] = pairs[2 * order[i] + 1];
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the hash a task is entered in the tree with, covering its ID and content.
+     */
+    public static long entryHash(long id, TodoTask task) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, task instanceof EventTask ? 2 : task instanceof DeadlineTask ? 1 : 0);
+        final String text = task.getDetails().toString();
+        for (int i = 0; i < text.length(); i++) {
+            hash = fnv(hash, text.charAt(i));
+        }
+        if (task instanceof TimedTask) {
+            hash = fnv(hash, ((TimedTask) task).getStartMinutes());
+            hash = fnv(hash, ((TimedTask) task).getEndMinutes());
+        }
+        return mix(mix(id) ^ hash);
+    }
+
+    /**
+     * Returns the node at {@code depth} with {@code prefix}, or the leaf above it that holds its tasks, or null
+     * if there are none.
+     */
+    private Node find(int depth, long prefix) {
+        Node node = root;
+        int at = 0;
+        while (at < depth && !node.isLeaf()) {
+            node = node.children[(int) (prefix >>> (BITS * (depth - at - 1))) & (FANOUT - 1)];
+            if (node == null) {
+                return null;
+            }
+            at++;
+        }
+        return node;
+    }
+
+    /**
+     * Copies the ID and entry hash of the tasks under {@code node} whose ID hashes start with {@code prefix} at
+     * {@code depth} into {@code pairs} from {@code at}, and returns where the next pair goes.
+     */
+    private static int collect(Node node, int depth, long prefix, long[] pairs, int at) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.count; i++) {
+                if (prefix(position(node.ids[i]), depth) == prefix) {
+                    pairs[at++] = node.ids[i];
+                    pairs[at++] = node.hashes[i];
+                }
+            }
+            return at;
+        }
+        for (Node child : node.children) {
+            if (child != null) {
+                at = collect(child, depth, prefix, pairs, at);
+            }
+        }
+        return at;
+    }
+
+    private static Node put(Node node, int depth, long id, long position, long entryHash) {
+        if (!node.isLeaf()) {
+            final int i = nibble(position, depth);
+            final Node child = node.children[i];
+            final Node[] children = node.children.clone();
+            children[i] = put(child == null ? EMPTY_LEAF : child, depth + 1, id, position, entryHash);
+            return new Node(children);
+        }
+        final int at = Arrays.binarySearch(node.ids, id);
+        if (at >= 0) {
+            if (node.hashes[at] == entryHash) {
+                return node;
+            }
+            final long[] hashes = node.hashes.clone();
+            hashes[at] = entryHash;
+            return new Node(node.ids, hashes);
+        }
+        final int insertAt = -at - 1;
+        final long[] ids = new long[node.count + 1];
+        final long[] hashes = new long[node.count + 1];
+        System.arraycopy(node.ids, 0, ids, 0, insertAt);
+        System.arraycopy(node.hashes, 0, hashes, 0, insertAt);
+        ids[insertAt] = id;
+        hashes[insertAt] = entryHash;
+        System.arraycopy(node.ids, insertAt, ids, insertAt + 1, node.count - insertAt);
+        System.arraycopy(node.hashes, insertAt, hashes, insertAt + 1, node.count - insertAt);
+        if (ids.length <= LEAF_TASKS || depth == MAX_DEPTH) {
+            return new Node(ids, hashes);
+        }
+        Node split = new Node(new Node[FANOUT]);
+        for (int i = 0; i < ids.length; i++) {
+            split = put(split, depth, ids[i], position(ids[i]), hashes[i]);
+        }
+        return split;
+    }
+
+    private static Node remove(Node node, int depth, long id, long position) {
+        if (!node.isLeaf()) {
+            final int i = nibble(position, depth);
+            final Node child = node.children[i];
+            if (child == null) {
+                return node;
+            }
+            final Node newChild = remove(child, depth + 1, id, position);
+            if (newChild == child) {
+                return node;
+            }
+            final Node[] children = node.children.clone();
+            children[i] = newChild.count == 0 ? null : newChild;
+            final Node updated = new Node(children);
+            if (updated.count > LEAF_TASKS) {
+                return updated;
+            }
+            final long[] pairs = new long[2 * updated.count];
+            collect(updated, 0, 0, pairs, 0);
+            return leafOf(pairs);
+        }
+        final int at = Arrays.binarySearch(node.ids, id);
+        if (at < 0) {
+            return node;
+        }
+        final long[] ids = new long[node.count - 1];
+        final long[] hashes = new long[node.count - 1];
+        System.arraycopy(node.ids, 0, ids, 0, at);
+        System.arraycopy(node.hashes, 0, hashes, 0, at);
+        System.arraycopy(node.ids, at + 1, ids, at, node.count - at - 1);
+        System.arraycopy(node.hashes, at + 1, hashes, at, node.count - at - 1);
+        return new Node(ids, hashes);
+    }
+
+    /**
+     * Returns a leaf of the given ID and entry hash pairs, in any order.
+     */
+    private static Node leafOf(long[] pairs) {
+        Node leaf = EMPTY_LEAF;
+        for (int i = 0; i < pairs.length; i += 2) {
+            leaf = put(leaf, MAX_DEPTH, pairs[i], 0, pairs[i + 1]);
+        }
+        return leaf;
+    }
+
+    /**
+     * Returns the hash of an ID that places its task in the tree.
+     */
+    public static long position(long id) {
+        return mix(id);
+    }
+
+    /**
+     * Returns the first {@code depth} levels' worth of bits of {@code position}, which the node holding it at that
+     * depth is identified by.
+     */
+    public static long prefix(long position, int depth) {
+        return depth == 0 ? 0 : position >>> (Long.SIZE - BITS * depth);
+    }
+
+    private static int nibble(long position, int depth) {
+        return (int) (position >>> (Long.SIZE - BITS * (depth + 1))) & (FANOUT - 1);
+    }
+
+    private static long fnv(long hash, int value) {
+        for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * SplitMix64 finalizer, which spreads consecutive IDs evenly over the tree.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,412 @@
+package ruby.keyboardwarrior.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie. Every update returns a new map that shares all untouched nodes with
+ * the old one, so keeping old versions around costs only the O(log32 n) nodes on the updated path.
+ */
+final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private static final class Entry {
+        private final int hash;
+        private final Object key;
+        private final Object value;
+
+        private Entry(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** Interior node; each slot is either an {@link Entry} or a deeper {@link Node}. */
+    private static class Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    /** Node for keys whose hashes are identical once all hash bits have been used. */
+    private static final class CollisionNode extends Node {
+        private CollisionNode(Object[] entries) {
+            super(0, entries);
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a map holding the entries of {@code source}, built in one pass over them rather than by
+     * copying a path for every put.
+     */
+    static <K, V> PersistentHashMap<K, V> of(Map<K, V> source) {
+        final Object[] keys = new Object[source.size()];
+        final Object[] values = new Object[source.size()];
+        int count = 0;
+        for (Map.Entry<K, V> entry : source.entrySet()) {
+            keys[count] = entry.getKey();
+            values[count++] = entry.getValue();
+        }
+        return of(keys, values, 0, count);
+    }
+
+    /**
+     * Returns a map from each of {@code keys[from, to)}, which must be distinct, to the value at the same
+     * position of {@code values}, built in one pass.
+     */
+    static <K, V> PersistentHashMap<K, V> of(Object[] keys, Object[] values, int from, int to) {
+        final int count = to - from;
+        if (count == 0) {
+            return empty();
+        }
+        final Entry[] entries = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = new Entry(hash(keys[from + i]), keys[from + i], values[from + i]);
+        }
+        final Object root = build(entries, 0, count, 0, new Entry[count]);
+        if (root instanceof Entry) {
+            final Entry sole = (Entry) root;
+            return new PersistentHashMap<>(new Node(bit(sole.hash, 0), new Object[] { sole }), 1);
+        }
+        return new PersistentHashMap<>((Node) root, count);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        final Entry entry = find(key);
+        return entry == null ? null : (V) entry.value;
+    }
+
+    /**
+     * Returns a map with {@code key} mapped to {@code value}; returns this map if that is already the case.
+     */
+    PersistentHashMap<K, V> put(K key, V value) {
+        final int hash = hash(key);
+        final Entry entry = new Entry(hash, key, value);
+        if (root == null) {
+            return new PersistentHashMap<>(new Node(bit(hash, 0), new Object[] { entry }), 1);
+        }
+        final boolean[] added = new boolean[1];
+        final Node newRoot = put(root, 0, entry, added);
+        return newRoot == root ? this : new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without {@code key}; returns this map if it has no such key.
+     */
+    PersistentHashMap<K, V> remove(Object key) {
+        if (root == null) {
+            return this;
+        }
+        final Object newRoot = remove(root, 0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot instanceof Entry) {
+            final Entry sole = (Entry) newRoot;
+            return new PersistentHashMap<>(new Node(bit(sole.hash, 0), new Object[] { sole }), size - 1);
+        }
+        return new PersistentHashMap<>((Node) newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            forEach(root, (BiConsumer<Object, Object>) action);
+        }
+    }
+
+    /**
+     * Calls {@code changed} with every key whose value differs between {@code older} and this map, by equals,
+     * along with its value in this map, or null if this map no longer has it. Subtrees the two maps share are
+     * skipped, so comparing a map with an earlier version of itself costs O(changes log32 n).
+     */
+    @SuppressWarnings("unchecked")
+    void forEachChangeSince(PersistentHashMap<K, V> older, BiConsumer<? super K, ? super V> changed) {
+        diff(older.root, root, (BiConsumer<Object, Object>) changed);
+    }
+
+    private Entry find(Object key) {
+        final int hash = hash(key);
+        Node node = root;
+        int shift = 0;
+        while (node != null) {
+            if (node instanceof CollisionNode) {
+                for (Object slot : node.slots) {
+                    if (((Entry) slot).key.equals(key)) {
+                        return (Entry) slot;
+                    }
+                }
+                return null;
+            }
+            final int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            final Object slot = node.slots[index(node.bitmap, bit)];
+            if (slot instanceof Entry) {
+                final Entry entry = (Entry) slot;
+                return entry.hash == hash && entry.key.equals(key) ? entry : null;
+            }
+            node = (Node) slot;
+            shift += BITS;
+        }
+        return null;
+    }
+
+    private static Node put(Node node, int shift, Entry entry, boolean[] added) {
+        if (node instanceof CollisionNode) {
+            final Object[] slots = node.slots;
+            for (int i = 0; i < slots.length; i++) {
+                if (((Entry) slots[i]).key.equals(entry.key)) {
+                    return ((Entry) slots[i]).value == entry.value ? node : new CollisionNode(with(slots, i, entry));
+                }
+            }
+            added[0] = true;
+            return new CollisionNode(inserted(slots, slots.length, entry));
+        }
+        final int bit = bit(entry.hash, shift);
+        final int index = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            return new Node(node.bitmap | bit, inserted(node.slots, index, entry));
+        }
+        final Object slot = node.slots[index];
+        if (slot instanceof Entry) {
+            final Entry existing = (Entry) slot;
+            if (existing.hash == entry.hash && existing.key.equals(entry.key)) {
+                return existing.value == entry.value ? node : new Node(node.bitmap, with(node.slots, index, entry));
+            }
+            added[0] = true;
+            return new Node(node.bitmap, with(node.slots, index, merge(existing, entry, shift + BITS)));
+        }
+        final Node child = put((Node) slot, shift + BITS, entry, added);
+        return child == slot ? node : new Node(node.bitmap, with(node.slots, index, child));
+    }
+
+    /**
+     * Removes {@code key} below {@code node}. Returns the same node if the key is absent, null if the node
+     * becomes empty, or a lone {@link Entry} if only one entry remains so the parent can inline it.
+     */
+    private static Object remove(Node node, int shift, int hash, Object key) {
+        if (node instanceof CollisionNode) {
+            final Object[] slots = node.slots;
+            for (int i = 0; i < slots.length; i++) {
+                if (((Entry) slots[i]).key.equals(key)) {
+                    return slots.length == 2 ? slots[1 - i] : new CollisionNode(without(slots, i));
+                }
+            }
+            return node;
+        }
+        final int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        final int index = index(node.bitmap, bit);
+        final Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof Entry) {
+            final Entry entry = (Entry) slot;
+            if (entry.hash != hash || !entry.key.equals(key)) {
+                return node;
+            }
+            replacement = null;
+        } else {
+            replacement = remove((Node) slot, shift + BITS, hash, key);
+            if (replacement == slot) {
+                return node;
+            }
+        }
+        if (replacement != null) {
+            if (replacement instanceof Entry && node.slots.length == 1) {
+                return replacement;
+            }
+            return new Node(node.bitmap, with(node.slots, index, replacement));
+        }
+        if (node.bitmap == bit) {
+            return null;
+        }
+        final Object[] slots = without(node.slots, index);
+        if (slots.length == 1 && slots[0] instanceof Entry) {
+            return slots[0];
+        }
+        return new Node(node.bitmap & ~bit, slots);
+    }
+
+    private static Node merge(Entry first, Entry second, int shift) {
+        if (shift >= Integer.SIZE) {
+            return new CollisionNode(new Object[] { first, second });
+        }
+        final int firstBit = bit(first.hash, shift);
+        final int secondBit = bit(second.hash, shift);
+        if (firstBit == secondBit) {
+            return new Node(firstBit, new Object[] { merge(first, second, shift + BITS) });
+        }
+        final Object[] slots = Integer.compareUnsigned(firstBit, secondBit) < 0
+                ? new Object[] { first, second }
+                : new Object[] { second, first };
+        return new Node(firstBit | secondBit, slots);
+    }
+
+    /**
+     * Builds the slot holding {@code entries[from, to)}, whose hashes agree below {@code shift}, by sorting
+     * them on the next bits of their hash into the same layout that putting them one by one produces.
+     */
+    private static Object build(Entry[] entries, int from, int to, int shift, Entry[] scratch) {
+        if (to - from == 1) {
+            return entries[from];
+        }
+        if (shift >= Integer.SIZE) {
+            return new CollisionNode(Arrays.copyOfRange(entries, from, to, Object[].class));
+        }
+        final int[] starts = new int[MASK + 2];
+        for (int i = from; i < to; i++) {
+            starts[((entries[i].hash >>> shift) & MASK) + 1]++;
+        }
+        int bitmap = 0;
+        for (int index = 0; index <= MASK; index++) {
+            if (starts[index + 1] > 0) {
+                bitmap |= 1 << index;
+            }
+            starts[index + 1] += starts[index];
+        }
+        final int[] next = Arrays.copyOf(starts, MASK + 1);
+        for (int i = from; i < to; i++) {
+            scratch[from + next[(entries[i].hash >>> shift) & MASK]++] = entries[i];
+        }
+        System.arraycopy(scratch, from, entries, from, to - from);
+
+        final Object[] slots = new Object[Integer.bitCount(bitmap)];
+        int slot = 0;
+        for (int index = 0; index <= MASK; index++) {
+            if (starts[index + 1] > starts[index]) {
+                slots[slot++] = build(entries, from + starts[index], from + starts[index + 1], shift + BITS, scratch);
+            }
+        }
+        return new Node(bitmap, slots);
+    }
+
+    private static void forEach(Node node, BiConsumer<Object, Object> action) {
+        for (Object slot : node.slots) {
+            if (slot instanceof Entry) {
+                action.accept(((Entry) slot).key, ((Entry) slot).value);
+            } else {
+                forEach((Node) slot, action);
+            }
+        }
+    }
+
+    /**
+     * Compares two slots at the same position of two maps: entries, nodes, or null for an empty slot.
+     * Plain nodes are compared slot by slot; anything else is compared entry by entry.
+     */
+    private static void diff(Object older, Object newer, BiConsumer<Object, Object> changed) {
+        if (older == newer) {
+            return;
+        }
+        if (isPlainNode(older) && isPlainNode(newer)) {
+            final Node olderNode = (Node) older;
+            final Node newerNode = (Node) newer;
+            for (int bits = olderNode.bitmap | newerNode.bitmap; bits != 0; bits &= bits - 1) {
+                final int bit = bits & -bits;
+                diff(slotAt(olderNode, bit), slotAt(newerNode, bit), changed);
+            }
+            return;
+        }
+        final HashMap<Object, Object> olderEntries = new HashMap<>();
+        forEachEntry(older, (key, value) -> olderEntries.put(key, value));
+        forEachEntry(newer, (key, value) -> {
+            final Object olderValue = olderEntries.remove(key);
+            if (olderValue == null || (olderValue != value && !olderValue.equals(value))) {
+                changed.accept(key, value);
+            }
+        });
+        olderEntries.forEach((key, value) -> changed.accept(key, null));
+    }
+
+    private static boolean isPlainNode(Object slot) {
+        return slot instanceof Node && !(slot instanceof CollisionNode);
+    }
+
+    private static Object slotAt(Node node, int bit) {
+        return (node.bitmap & bit) == 0 ? null : node.slots[index(node.bitmap, bit)];
+    }
+
+    private static void forEachEntry(Object slot, BiConsumer<Object, Object> action) {
+        if (slot instanceof Entry) {
+            action.accept(((Entry) slot).key, ((Entry) slot).value);
+        } else if (slot != null) {
+            forEach((Node) slot, action);
+        }
+    }
+
+    private static int hash(Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static Object[] with(Object[] slots, int index, Object slot) {
+        final Object[] copy = slots.clone();
+        copy[index] = slot;
+        return copy;
+    }
+
+    private static Object[] inserted(Object[] slots, int index, Object slot) {
+        final Object[] copy = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, copy, 0, index);
+        copy[index] = slot;
+        System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+        return copy;
+    }
+
+    private static Object[] without(Object[] slots, int index) {
+        final Object[] copy = new Object[slots.length - 1];
+        System.arraycopy(slots, 0, copy, 0, index);
+        System.arraycopy(slots, index + 1, copy, index, slots.length - index - 1);
+        return copy;
+    }
+}
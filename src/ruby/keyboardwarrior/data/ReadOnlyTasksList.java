@@ -0,0 +1,61 @@
+package ruby.keyboardwarrior.data;
+
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Unmodifiable view of a Keyboard Warrior.
+ */
+public interface ReadOnlyTasksList {
+
+    /**
+     * Returns an unmodifiable, positionally indexed list of all tasks in display order.
+     */
+    List<TodoTask> getAllTasks();
+
+    /**
+     * Checks if an equivalent task exists.
+     */
+    boolean containsTask(TodoTask key);
+
+    /**
+     * Returns the stored task with the given ID, or null if there is no such task.
+     */
+    TodoTask getTaskById(long id);
+
+    /**
+     * Returns the display position of the equivalent task, or -1 if there is no such task.
+     */
+    int indexOf(TodoTask task);
+
+    /**
+     * Returns the task at the given display position.
+     *
+     * @throws IndexOutOfBoundsException if there is no task at the given position.
+     */
+    TodoTask getTask(int index);
+
+    /**
+     * Retrieves all tasks whose details contain any of the given keywords, in display order.
+     * Keyword matching is not case sensitive and only matches whole words.
+     */
+    List<TodoTask> findTasksContainingAnyKeyword(Collection<String> keywords);
+
+    /**
+     * Retrieves all {@link ruby.keyboardwarrior.data.task.TimedTask}s that overlap the given span of time,
+     * both ends inclusive, ordered by start time. Times are in minutes since 1 Jan 2000 00:00.
+     */
+    List<TodoTask> findTasksOverlapping(int fromMinutes, int toMinutes);
+
+    /**
+     * Returns the number of tasks.
+     */
+    int size();
+
+    /**
+     * Returns the ID the next new task will be given.
+     */
+    long getNextId();
+}
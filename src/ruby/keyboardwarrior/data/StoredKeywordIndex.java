@@ -0,0 +1,14 @@
+package ruby.keyboardwarrior.data;
+
+/**
+ * Keyword index kept outside the heap, such as in a file next to the storage file, that a {@link TasksList} just
+ * loaded can answer searches from until its own keyword index is built.
+ * See {@link TasksList#useStoredKeywordIndex(StoredKeywordIndex)}.
+ */
+public interface StoredKeywordIndex {
+
+    /**
+     * Returns the IDs of the tasks whose details contain {@code word}, which is in lower case, in increasing order.
+     */
+    long[] findIds(String word);
+}
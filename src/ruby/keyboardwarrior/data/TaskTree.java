@@ -0,0 +1,249 @@
+package ruby.keyboardwarrior.data;
+
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable order-statistic AVL tree holding the tasks of a {@link TasksList}, ordered by task ID.
+ * Every node records the size of its subtree, so a task can be reached by its display position, and an ID
+ * converted to a display position, in O(log n).
+ *
+ * Updates copy only the O(log n) nodes on the path to the change and share the rest with the old tree.
+ */
+final class TaskTree {
+
+    private static final TaskTree EMPTY = new TaskTree(null);
+
+    private static final class Node {
+        private final long key;
+        private final TodoTask task;
+        private final Node left;
+        private final Node right;
+        private final int height;
+        private final int size;
+
+        private Node(long key, TodoTask task, Node left, Node right) {
+            this.key = key;
+            this.task = task;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        private Node withLeft(Node newLeft) {
+            return new Node(key, task, newLeft, right);
+        }
+
+        private Node withRight(Node newRight) {
+            return new Node(key, task, left, newRight);
+        }
+    }
+
+    private final Node root;
+
+    private TaskTree(Node root) {
+        this.root = root;
+    }
+
+    static TaskTree empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a balanced tree in O(n) from tasks that are already in strictly increasing ID order.
+     */
+    static TaskTree fromSorted(List<TodoTask> tasks) {
+        return new TaskTree(build(tasks, 0, tasks.size()));
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns the task at the given display position.
+     *
+     * @throws IndexOutOfBoundsException if there is no task at the given position.
+     */
+    TodoTask get(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size());
+        }
+        Node node = root;
+        while (true) {
+            final int leftSize = size(node.left);
+            if (position < leftSize) {
+                node = node.left;
+            } else if (position > leftSize) {
+                position -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.task;
+            }
+        }
+    }
+
+    /**
+     * Returns the task with the given key, or null if there is none.
+     */
+    TodoTask find(long key) {
+        Node node = root;
+        while (node != null && node.key != key) {
+            node = key < node.key ? node.left : node.right;
+        }
+        return node == null ? null : node.task;
+    }
+
+    /**
+     * Returns the display position of the task with the given key, or -1 if there is none.
+     */
+    int rank(long key) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a tree that also holds {@code task} under a key that is not yet in this tree.
+     */
+    TaskTree insert(long key, TodoTask task) {
+        return new TaskTree(insert(root, key, task));
+    }
+
+    /**
+     * Returns a tree where the task under an existing key is replaced with {@code task}.
+     */
+    TaskTree set(long key, TodoTask task) {
+        return new TaskTree(set(root, key, task));
+    }
+
+    /**
+     * Returns a tree without the task under an existing key.
+     */
+    TaskTree remove(long key) {
+        return new TaskTree(remove(root, key));
+    }
+
+    /**
+     * Returns all tasks in display order.
+     */
+    List<TodoTask> toList() {
+        final ArrayList<TodoTask> tasks = new ArrayList<>(size());
+        collect(root, tasks);
+        return tasks;
+    }
+
+    private static Node build(List<TodoTask> tasks, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        final int middle = (from + to) >>> 1;
+        final TodoTask task = tasks.get(middle);
+        return new Node(task.getId(), task, build(tasks, from, middle), build(tasks, middle + 1, to));
+    }
+
+    private static void collect(Node node, List<TodoTask> tasks) {
+        while (node != null) {
+            collect(node.left, tasks);
+            tasks.add(node.task);
+            node = node.right;
+        }
+    }
+
+    private static Node insert(Node node, long key, TodoTask task) {
+        if (node == null) {
+            return new Node(key, task, null, null);
+        }
+        if (key < node.key) {
+            return rebalance(node.withLeft(insert(node.left, key, task)));
+        }
+        return rebalance(node.withRight(insert(node.right, key, task)));
+    }
+
+    private static Node set(Node node, long key, TodoTask task) {
+        if (key < node.key) {
+            return node.withLeft(set(node.left, key, task));
+        }
+        if (key > node.key) {
+            return node.withRight(set(node.right, key, task));
+        }
+        return new Node(key, task, node.left, node.right);
+    }
+
+    private static Node remove(Node node, long key) {
+        if (key < node.key) {
+            return rebalance(node.withLeft(remove(node.left, key)));
+        }
+        if (key > node.key) {
+            return rebalance(node.withRight(remove(node.right, key)));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return rebalance(new Node(successor.key, successor.task, node.left, removeMin(node.right)));
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return rebalance(node.withLeft(removeMin(node.left)));
+    }
+
+    private static Node rebalance(Node node) {
+        final int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            Node left = node.left;
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left);
+            }
+            return rotateRight(node.withLeft(left));
+        }
+        if (balance < -1) {
+            Node right = node.right;
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right);
+            }
+            return rotateLeft(node.withRight(right));
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node) {
+        final Node pivot = node.left;
+        return pivot.withRight(node.withLeft(pivot.right));
+    }
+
+    private static Node rotateLeft(Node node) {
+        final Node pivot = node.right;
+        return pivot.withLeft(node.withRight(pivot.left));
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -10,13 +10,44 @@ import java.util.*;
  * Represents the entire address book. Contains the data of the address book.
  *
  * Guarantees:
- *  - Every tag found in every person will also be found in the tag list.
- *  - The tags in each person point to tag objects in the master list. (== equality)
+ *  - No two tasks in the list are equal.
+ *  - Tasks are kept in insertion order; a replaced task keeps the position of the task it replaced.
+ *
+ * The data lives in an immutable {@link TasksListSnapshot}; every mutation derives the next snapshot and
+ * publishes it, so {@link #snapshot()} is O(1) and readers never block or copy while a writer proceeds.
+ * Mutations are serialized with each other. Replaced versions are kept, within a memory budget, so that
+ * {@link #undo()} and {@link #redo()} can step back and forth between them in O(1).
+ *
+ * Tasks are indexed both by {@link TodoTask} equality and by {@link TodoTask#getId()}, and are stored in a
+ * {@link TaskTree} keyed by ID, IDs being handed out in increasing order, so that add, remove and replace,
+ * by task or by display position, are O(log n). A {@link KeywordIndex} over the words of every
+ * task is maintained alongside, so keyword searches cost O(matches), and an {@link IntervalTree} over the
+ * times of every {@link TimedTask}, so finding the tasks in a span of time costs O(log n + matches).
+ * A list constructed from existing tasks builds its keyword index in the background, so that loading does not
+ * wait for it; a search made before it is ready waits instead, unless the list was given a
+ * {@link StoredKeywordIndex} of its tasks to search meanwhile. A {@link MerkleTree} of the tasks, for syncing
+ * with another copy of the list, is kept up to date on request.
  */
-public class TasksList {
+public class TasksList implements ReadOnlyTasksList {
+
+    /** Default memory budget for versions kept for {@link #undo()} and {@link #redo()}. */
+    public static final long DEFAULT_HISTORY_BUDGET_BYTES = 16L * 1024 * 1024;
+
+    /*
+     * Rough sizes used to estimate how many bytes of new nodes a mutation allocates,
+     * which is what each step of the undo history retains.
+     */
+    private static final int TREE_NODE_BYTES = 40;
+    private static final int TRIE_NODE_BYTES = 160;
+    private static final int TASK_BYTES = 64;
+    private static final int STORED_TASK_BYTES = 200;
+
+    private volatile TasksListSnapshot current;
+    private final TasksListHistory history = new TasksListHistory(DEFAULT_HISTORY_BUDGET_BYTES);
+
+    /** Merkle tree last handed out, or null if none was yet. */
+    private MerkleTree merkleTree;
 
-    private final ArrayList<TodoTask> allTasks;
-    
     public static class DuplicateTaskException extends DuplicateDataException {
         protected DuplicateTaskException() {
             super("Operation would result in duplicate task");
@@ -31,18 +62,126 @@ public class TasksList {
      * Creates an empty address book.
      */
     public TasksList() {
-        allTasks = new ArrayList<TodoTask>();
+        current = TasksListSnapshot.EMPTY;
     }
 
     /**
      * Constructs an address book with the given data.
-     * Also updates the tag list with any missing tags found in any person.
+     * If the given tasks contain duplicates, only the first occurrence is kept.
      *
      * @param tasks external changes to this will not affect this address book
      * @param tags external changes to this will not affect this address book
      */
     public TasksList(ArrayList<TodoTask> tasks) {
-        this.allTasks = new ArrayList<TodoTask>(tasks);
+        this(tasks, TodoTask.UNASSIGNED_ID + 1);
+    }
+
+    /**
+     * Constructs an address book with the given data, handing out IDs to new tasks from {@code nextId}
+     * onwards (or from past the largest ID among {@code tasks}, whichever is greater).
+     * If the given tasks contain duplicates, only the first occurrence is kept.
+     *
+     * @param tasks external changes to this will not affect this address book
+     */
+    public TasksList(ArrayList<TodoTask> tasks, long nextId) {
+        for (TodoTask task : tasks) {
+            if (task.hasId()) {
+                nextId = Math.max(nextId, task.getId() + 1);
+            }
+        }
+
+        final HashSet<TodoTask> seen = new HashSet<>();
+        final HashSet<Long> ids = new HashSet<>();
+        final ArrayList<TodoTask> stored = new ArrayList<TodoTask>(tasks.size());
+        for (TodoTask task : tasks) {
+            if (!seen.add(task)) {
+                continue;
+            }
+            if (!task.hasId()) {
+                task.assignId(nextId++);
+            } else if (ids.contains(task.getId())) {
+                task = task.withId(nextId++);
+            }
+            ids.add(task.getId());
+            stored.add(task);
+        }
+        stored.sort(Comparator.comparingLong(TodoTask::getId));
+
+        current = indexed(0, stored, nextId);
+    }
+
+    /**
+     * Builds a version holding {@code sorted}, which must have distinct IDs and be ordered by them, with every
+     * index built in one pass rather than task by task, the keyword index, which takes longest, in the background.
+     */
+    private static TasksListSnapshot indexed(long version, ArrayList<TodoTask> sorted, long nextId) {
+        final HashMap<TodoTask, Long> keys = new HashMap<>(sorted.size() * 2);
+        final HashMap<Long, TodoTask> tasksById = new HashMap<>(sorted.size() * 2);
+        for (TodoTask task : sorted) {
+            keys.put(task, task.getId());
+            tasksById.put(task.getId(), task);
+        }
+        return new TasksListSnapshot(version, TaskTree.fromSorted(sorted), PersistentHashMap.of(keys),
+                PersistentHashMap.of(tasksById), KeywordIndex.deferred(sorted), IntervalTree.of(sorted),
+                PersistentHashMap.empty(), nextId);
+    }
+
+    /**
+     * Answers keyword searches from {@code stored}, which must hold exactly the tasks in the list, until the keyword
+     * index being built in the background is ready, rather than waiting for it. Does nothing if the list has
+     * changed since it was constructed.
+     */
+    public synchronized void useStoredKeywordIndex(StoredKeywordIndex stored) {
+        if (current.getVersion() == 0) {
+            current.keywordIndex.useStored(stored, current.tasksById);
+        }
+    }
+
+    /**
+     * Returns the {@link MerkleTree} of the current version, for syncing with another copy of the list. The first
+     * call builds it; later calls update the tree last returned with the tasks changed since, in
+     * O(changes log n).
+     */
+    public synchronized MerkleTree merkleTree() {
+        if (merkleTree == null) {
+            merkleTree = MerkleTree.of(current);
+        } else if (merkleTree.getSnapshot() != current) {
+            merkleTree = merkleTree.updatedTo(current);
+        }
+        return merkleTree;
+    }
+
+    /**
+     * Returns the current version of this list in O(1).
+     * The returned snapshot is not affected by later changes to this list.
+     */
+    public TasksListSnapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Reverts the most recent change that has not been undone yet.
+     *
+     * @return false if there is nothing to undo
+     */
+    public synchronized boolean undo() {
+        return restore(history.undo(current));
+    }
+
+    /**
+     * Re-applies the most recently undone change, unless the list has been changed since.
+     *
+     * @return false if there is nothing to redo
+     */
+    public synchronized boolean redo() {
+        return restore(history.redo(current));
+    }
+
+    /**
+     * Sets how many bytes of replaced versions may be kept for undo and redo; the oldest are dropped first.
+     */
+    public synchronized void setHistoryBudget(long budgetBytes) {
+        history.setBudget(budgetBytes);
     }
 
     /**
@@ -52,18 +191,31 @@ public class TasksList {
      *
      * @throws DuplicateTaskException if an equivalent person already exists.
      */
-    public void addTask(TodoTask toAdd) throws DuplicateTaskException{
+    public synchronized void addTask(TodoTask toAdd) throws DuplicateTaskException{
         if (containsTask(toAdd)) {
             throw new DuplicateTaskException();
         }
-        allTasks.add(toAdd);
+        append(toAdd);
     }
 
-    /**
-     * Checks if an equivalent person exists in the address book.
-     */
+    @Override
     public boolean containsTask(TodoTask key) {
-        return allTasks.contains(key);
+        return current.containsTask(key);
+    }
+
+    @Override
+    public TodoTask getTaskById(long id) {
+        return current.getTaskById(id);
+    }
+
+    @Override
+    public int indexOf(TodoTask task) {
+        return current.indexOf(task);
+    }
+
+    @Override
+    public TodoTask getTask(int index) {
+        return current.getTask(index);
     }
 
     /**
@@ -71,50 +223,307 @@ public class TasksList {
      *
      * @throws TaskNotFoundException if no such Person could be found.
      */
-    public void removeTask(TodoTask toRemove) throws TaskNotFoundException{
-        if (!containsTask(toRemove)) {
+    public synchronized void removeTask(TodoTask toRemove) throws TaskNotFoundException{
+        final Long key = current.keys.get(toRemove);
+        if (key == null) {
+            throw new TaskNotFoundException();
+        }
+        remove(current.tasksById.get(key));
+    }
+
+    /**
+     * Removes the equivalent task as moved to the archive, so that the versions before and after tell undo and
+     * redo to move it back out and in again. See {@link TasksListSnapshot#forEachArchivedChangeSince}.
+     *
+     * @throws TaskNotFoundException if no such task could be found.
+     */
+    public synchronized void moveToArchive(TodoTask toArchive) throws TaskNotFoundException {
+        final Long key = current.keys.get(toArchive);
+        if (key == null) {
             throw new TaskNotFoundException();
         }
-        allTasks.remove(toRemove);
+        final TodoTask stored = current.tasksById.get(key);
+        remove(stored, current.archived.put(key, stored));
     }
-    
+
     /**
-     * Sets the equivalent Task from the Task Manager.
+     * Removes the task at the given display position.
+     *
+     * @return the removed task
+     * @throws IndexOutOfBoundsException if there is no task at the given position.
+     */
+    public synchronized TodoTask removeTask(int index) {
+        final TodoTask toRemove = current.tree.get(index);
+        remove(toRemove);
+        return toRemove;
+    }
+
+    /**
+     * Replaces the equivalent task in the Task Manager with {@code editTask}, keeping its position.
      *
      * @throws TaskNotFoundException if no such Task could be found.
+     * @throws DuplicateTaskException if {@code editTask} is equal to another task already in the list.
      */
-    public void setTask(TodoTask toChange, TodoTask editTask) throws TaskNotFoundException{
-        if (!containsTask(toChange)) {
+    public synchronized void setTask(TodoTask toChange, TodoTask editTask)
+            throws TaskNotFoundException, DuplicateTaskException{
+        final Long key = current.keys.get(toChange);
+        if (key == null) {
             throw new TaskNotFoundException();
         }
-        allTasks.set(allTasks.indexOf(toChange), editTask);
+        replace(current.tasksById.get(key), editTask);
     }
-    
-    public void setTask(int toChangeIndex, TodoTask editTask){
-        allTasks.set(toChangeIndex, editTask);
+
+    /**
+     * Replaces the task at the given display position with {@code editTask}.
+     *
+     * @throws IndexOutOfBoundsException if there is no task at the given position.
+     * @throws DuplicateTaskException if {@code editTask} is equal to another task already in the list.
+     */
+    public synchronized void setTask(int toChangeIndex, TodoTask editTask) throws DuplicateTaskException{
+        replace(current.tree.get(toChangeIndex), editTask);
     }
-    
+
+    /**
+     * Returns an unmodifiable, positionally indexed view of all tasks in insertion order.
+     * The view is not affected by later changes to this list.
+     */
+    @Override
     public List<TodoTask> getAllTasks(){
-        return allTasks;
+        return current.getAllTasks();
+    }
+
+    @Override
+    public List<TodoTask> findTasksContainingAnyKeyword(Collection<String> keywords) {
+        return current.findTasksContainingAnyKeyword(keywords);
+    }
+
+    @Override
+    public List<TodoTask> findTasksOverlapping(int fromMinutes, int toMinutes) {
+        return current.findTasksOverlapping(fromMinutes, toMinutes);
+    }
+
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * Returns the ID the next new task will be given. IDs are never reused, even after {@link #clear()}.
+     */
+    @Override
+    public long getNextId() {
+        return current.getNextId();
     }
 
     /**
      * Clears all persons and tags from the address book.
      */
-    public void clear() {
-        allTasks.clear();
+    public synchronized void clear() {
+        final TasksListSnapshot old = current;
+        publish(new TasksListSnapshot(old.getVersion() + 1, TaskTree.empty(), PersistentHashMap.empty(),
+                PersistentHashMap.empty(), KeywordIndex.empty(), IntervalTree.empty(), old.archived, old.getNextId()),
+                (long) old.size() * STORED_TASK_BYTES);
+    }
+
+    /**
+     * Applies the changes made from {@code base} to {@code changed} elsewhere, such as by another copy of
+     * Keyboard Warrior writing the storage file, as one change that {@link #undo()} reverts. Tasks are compared
+     * by ID and content, and only those that differ are touched, so the indexes are updated for them alone and
+     * IDs shown earlier still refer to the same tasks.
+     *
+     * A task also changed in this list since {@code base} keeps the change made here; a task added here under
+     * an ID that a different task was added under there is moved to a new ID, as it is the one not known
+     * elsewhere yet; and a change that would make two tasks equal is skipped.
+     *
+     * @return the number of tasks added, replaced or removed
+     */
+    public synchronized int applyChanges(TasksListSnapshot base, TasksListSnapshot changed) {
+        final HashMap<Long, TodoTask> changes = new HashMap<>();
+        changed.forEachChangeSince(base, changes::put);
+
+        final TasksListSnapshot old = current;
+        TaskTree tree = old.tree;
+        PersistentHashMap<TodoTask, Long> keys = old.keys;
+        PersistentHashMap<Long, TodoTask> tasksById = old.tasksById;
+        KeywordIndex keywordIndex = old.keywordIndex;
+        IntervalTree timeIndex = old.timeIndex;
+        long nextId = Math.max(old.getNextId(), changed.getNextId());
+        long changedBytes = 0;
+        int applied = 0;
+        // Tasks are taken out first and put in after, so that tasks swapping details are not taken for duplicates
+        final ArrayList<Long> putIds = new ArrayList<>();
+        final ArrayList<TodoTask> putTasks = new ArrayList<>();
+        final ArrayList<TodoTask> replaced = new ArrayList<>();
+        for (Map.Entry<Long, TodoTask> change : changes.entrySet()) {
+            final long id = change.getKey();
+            final TodoTask theirs = change.getValue();
+            final TodoTask original = base.getTaskById(id);
+            TodoTask ours = tasksById.get(id);
+            if (original == null && ours != null) {
+                if (ours.equals(theirs)) {
+                    continue;
+                }
+                final TodoTask moved = ours.withId(nextId++);
+                tree = tree.remove(id).insert(moved.getId(), moved);
+                keys = keys.remove(ours).put(moved, moved.getId());
+                tasksById = tasksById.remove(id).put(moved.getId(), moved);
+                keywordIndex = keywordIndex.remove(ours).add(moved);
+                timeIndex = timeIndex.remove(ours).add(moved);
+                changedBytes += 2 * estimateChangedBytes(old.size(), ours);
+                applied++;
+                ours = null;
+            } else if (!Objects.equals(ours, original)) {
+                continue;
+            }
+            if (ours != null) {
+                tree = tree.remove(id);
+                keys = keys.remove(ours);
+                tasksById = tasksById.remove(id);
+                keywordIndex = keywordIndex.remove(ours);
+                timeIndex = timeIndex.remove(ours);
+                changedBytes += estimateChangedBytes(old.size(), ours);
+            }
+            if (theirs == null) {
+                if (ours != null) {
+                    applied++;
+                }
+                continue;
+            }
+            putIds.add(id);
+            putTasks.add(theirs);
+            replaced.add(ours);
+        }
+        for (int i = 0; i < putIds.size(); i++) {
+            final long id = putIds.get(i);
+            final TodoTask ours = replaced.get(i);
+            TodoTask toPut = putTasks.get(i);
+            if (keys.containsKey(toPut)) {
+                // Would make two tasks equal, so the task here stays, unless it is among them itself
+                if (ours == null || keys.containsKey(ours)) {
+                    if (ours != null) {
+                        applied++;
+                    }
+                    continue;
+                }
+                toPut = ours;
+            } else {
+                applied++;
+            }
+            tree = tree.insert(id, toPut);
+            keys = keys.put(toPut, id);
+            tasksById = tasksById.put(id, toPut);
+            keywordIndex = keywordIndex.add(toPut);
+            timeIndex = timeIndex.add(toPut);
+            changedBytes += estimateChangedBytes(old.size(), toPut);
+        }
+        if (applied > 0) {
+            publish(new TasksListSnapshot(old.getVersion() + 1, tree, keys, tasksById, keywordIndex, timeIndex,
+                    old.archived, nextId), changedBytes);
+        }
+        return applied;
+    }
+
+    /**
+     * Stores a task under the ID it already has, if that ID is free, or else under a new ID.
+     * A task restored under its old ID therefore goes back to its old display position.
+     */
+    private void append(TodoTask task) {
+        final TasksListSnapshot old = current;
+        long nextId = old.getNextId();
+        if (!task.hasId()) {
+            task.assignId(nextId++);
+        } else if (old.tasksById.containsKey(task.getId())) {
+            task = task.withId(nextId++);
+        } else {
+            nextId = Math.max(nextId, task.getId() + 1);
+        }
+        final long id = task.getId();
+        publish(new TasksListSnapshot(old.getVersion() + 1, old.tree.insert(id, task), old.keys.put(task, id),
+                old.tasksById.put(id, task), old.keywordIndex.add(task), old.timeIndex.add(task), old.archived,
+                nextId),
+                estimateChangedBytes(old.size(), task));
+    }
+
+    private void remove(TodoTask stored) {
+        remove(stored, current.archived);
+    }
+
+    private void remove(TodoTask stored, PersistentHashMap<Long, TodoTask> archived) {
+        final TasksListSnapshot old = current;
+        final long id = stored.getId();
+        publish(new TasksListSnapshot(old.getVersion() + 1, old.tree.remove(id), old.keys.remove(stored),
+                old.tasksById.remove(id), old.keywordIndex.remove(stored), old.timeIndex.remove(stored), archived,
+                old.getNextId()),
+                estimateChangedBytes(old.size(), stored));
+    }
+
+    private void replace(TodoTask toChange, TodoTask editTask) throws DuplicateTaskException {
+        final TasksListSnapshot old = current;
+        final long id = toChange.getId();
+        final Long existing = old.keys.get(editTask);
+        if (existing != null && existing != id) {
+            throw new DuplicateTaskException();
+        }
+        if (editTask.getId() != id) {
+            if (editTask.hasId()) {
+                editTask = editTask.withId(id);
+            } else {
+                editTask.assignId(id);
+            }
+        }
+        publish(new TasksListSnapshot(old.getVersion() + 1, old.tree.set(id, editTask),
+                old.keys.remove(toChange).put(editTask, id), old.tasksById.put(id, editTask),
+                old.keywordIndex.remove(toChange).add(editTask), old.timeIndex.remove(toChange).add(editTask),
+                old.archived, old.getNextId()),
+                estimateChangedBytes(old.size(), toChange) + estimateChangedBytes(old.size(), editTask));
+    }
+
+    /**
+     * Makes {@code next} the current version, keeping the replaced version for undo.
+     */
+    private void publish(TasksListSnapshot next, long changedBytes) {
+        history.record(current, changedBytes);
+        current = next;
+    }
+
+    /**
+     * Makes the tasks of an earlier or later version current again, under a new version number.
+     * IDs handed out in between are not handed out again.
+     */
+    private boolean restore(TasksListSnapshot target) {
+        if (target == null) {
+            return false;
+        }
+        final TasksListSnapshot old = current;
+        current = target.asVersion(old.getVersion() + 1, Math.max(old.getNextId(), target.getNextId()));
+        return true;
+    }
+
+    /**
+     * Estimates the bytes of new tree and trie nodes a mutation involving {@code task} allocates
+     * in a list of {@code size} tasks: one tree path, one more for a timed task, and one trie path in each of
+     * the two task indexes and in the keyword index for every word of the task.
+     */
+    private static long estimateChangedBytes(int size, TodoTask task) {
+        final int treeDepth = Integer.SIZE - Integer.numberOfLeadingZeros(size + 1);
+        final int trieDepth = treeDepth / 5 + 1;
+        final int words = task.getDetails().getWordCount();
+        final int treePaths = task instanceof TimedTask ? 2 : 1;
+        return (long) treeDepth * TREE_NODE_BYTES * treePaths
+                + (long) trieDepth * TRIE_NODE_BYTES * (2 + 2 * words)
+                + TASK_BYTES + 4L * words;
     }
 
     @Override
     public boolean equals(Object other) {
         return other == this // short circuit if same object
                 || (other instanceof TasksList // instanceof handles nulls
-                && this.allTasks.equals(((TasksList) other).allTasks));
+                && this.getAllTasks().equals(((TasksList) other).getAllTasks()));
     }
 
     @Override
     public int hashCode() {
         // use this method for custom fields hashing instead of implementing your own
-        return Objects.hash(allTasks);
+        return Objects.hash(getAllTasks());
     }
 }
@@ -0,0 +1,85 @@
+package ruby.keyboardwarrior.data;
+
+import java.util.ArrayDeque;
+
+/**
+ * Undo and redo stacks of {@link TasksListSnapshot} versions.
+ * Versions share structure with each other, so each step only retains the nodes its mutation changed;
+ * the estimated size of those nodes is recorded with the step, and the oldest steps are dropped once the
+ * total exceeds the memory budget.
+ */
+final class TasksListHistory {
+
+    private static final class Step {
+        private final TasksListSnapshot version;
+        private final long bytes;
+
+        private Step(TasksListSnapshot version, long bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ArrayDeque<Step> undoSteps = new ArrayDeque<>();
+    private final ArrayDeque<Step> redoSteps = new ArrayDeque<>();
+    private long budgetBytes;
+    private long usedBytes;
+
+    TasksListHistory(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        trim();
+    }
+
+    /**
+     * Records that the list moved on from {@code previous} through a mutation that changed about
+     * {@code bytes} bytes of nodes. Anything that could be redone is forgotten.
+     */
+    void record(TasksListSnapshot previous, long bytes) {
+        for (Step step : redoSteps) {
+            usedBytes -= step.bytes;
+        }
+        redoSteps.clear();
+        undoSteps.push(new Step(previous, bytes));
+        usedBytes += bytes;
+        trim();
+    }
+
+    /**
+     * Returns the version before {@code current}, remembering {@code current} for redo,
+     * or null if there is nothing to undo.
+     */
+    TasksListSnapshot undo(TasksListSnapshot current) {
+        return step(undoSteps, redoSteps, current);
+    }
+
+    /**
+     * Returns the version after {@code current}, remembering {@code current} for undo,
+     * or null if there is nothing to redo.
+     */
+    TasksListSnapshot redo(TasksListSnapshot current) {
+        return step(redoSteps, undoSteps, current);
+    }
+
+    private static TasksListSnapshot step(ArrayDeque<Step> from, ArrayDeque<Step> to, TasksListSnapshot current) {
+        final Step step = from.poll();
+        if (step == null) {
+            return null;
+        }
+        to.push(new Step(current, step.bytes));
+        return step.version;
+    }
+
+    /** Drops the oldest undo steps first, then the furthest redo steps. */
+    private void trim() {
+        while (usedBytes > budgetBytes && !undoSteps.isEmpty()) {
+            usedBytes -= undoSteps.removeLast().bytes;
+        }
+        while (usedBytes > budgetBytes && !redoSteps.isEmpty()) {
+            usedBytes -= redoSteps.removeLast().bytes;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ruby.keyboardwarrior.data;
+
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable version of a {@link TasksList}. Taking a snapshot is O(1), and a snapshot never changes
+ * however the list it was taken from is modified afterwards, so readers can use it without copying or locking.
+ * Consecutive versions share all the structure that a mutation did not touch.
+ */
+public final class TasksListSnapshot implements ReadOnlyTasksList {
+
+    static final TasksListSnapshot EMPTY = new TasksListSnapshot(0, TaskTree.empty(), PersistentHashMap.empty(),
+            PersistentHashMap.empty(), KeywordIndex.empty(), IntervalTree.empty(), PersistentHashMap.empty(),
+            TodoTask.UNASSIGNED_ID + 1);
+
+    private final long version;
+    final TaskTree tree;
+    /** ID of every stored task, by task equality. */
+    final PersistentHashMap<TodoTask, Long> keys;
+    final PersistentHashMap<Long, TodoTask> tasksById;
+    final KeywordIndex keywordIndex;
+    final IntervalTree timeIndex;
+    /**
+     * Tasks moved to the archive by {@link TasksList#moveToArchive(TodoTask)}, by ID, so that undoing or redoing
+     * the move can be carried over to the archive. Not stored, as the undo history is not either.
+     */
+    final PersistentHashMap<Long, TodoTask> archived;
+    private final long nextId;
+
+    /** Positional view handed out by {@link #getAllTasks()}, built on first use. */
+    private volatile List<TodoTask> allTasksView;
+
+    TasksListSnapshot(long version, TaskTree tree, PersistentHashMap<TodoTask, Long> keys,
+                      PersistentHashMap<Long, TodoTask> tasksById, KeywordIndex keywordIndex,
+                      IntervalTree timeIndex, PersistentHashMap<Long, TodoTask> archived, long nextId) {
+        this.version = version;
+        this.tree = tree;
+        this.keys = keys;
+        this.tasksById = tasksById;
+        this.keywordIndex = keywordIndex;
+        this.timeIndex = timeIndex;
+        this.archived = archived;
+        this.nextId = nextId;
+    }
+
+    /**
+     * Returns a snapshot with the same tasks as this one under a new version number.
+     */
+    TasksListSnapshot asVersion(long newVersion, long newNextId) {
+        return new TasksListSnapshot(newVersion, tree, keys, tasksById, keywordIndex, timeIndex, archived,
+                newNextId);
+    }
+
+    /**
+     * Returns the version number of this snapshot. Every mutation of a {@link TasksList} produces a new version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Calls {@code changed} with the ID of every task added, edited or removed between {@code older} and this
+     * snapshot, along with the task as it is in this snapshot, or null if it was removed. Structure the two
+     * snapshots share is skipped, so this costs O(changes log n) between nearby versions of the same list.
+     */
+    public void forEachChangeSince(TasksListSnapshot older, BiConsumer<Long, TodoTask> changed) {
+        tasksById.forEachChangeSince(older.tasksById, changed);
+    }
+
+    /**
+     * Calls {@code changed} with the ID of every task moved to the archive, or moved back, between {@code older}
+     * and this snapshot, along with the task as it was archived, or null if it was moved back, as undoing and
+     * redoing do. Costs O(changes log n) like {@link #forEachChangeSince}.
+     */
+    public void forEachArchivedChangeSince(TasksListSnapshot older, BiConsumer<Long, TodoTask> changed) {
+        archived.forEachChangeSince(older.archived, changed);
+    }
+
+    /**
+     * Returns a snapshot holding the tasks of this one with {@code changes} applied: each task is put under its
+     * ID, replacing any task there, and an ID mapped to null has its task removed. The next ID is the greater of
+     * this snapshot's and {@code nextId}. Structure the changes do not touch is shared, so this costs
+     * O(changes log n).
+     */
+    public TasksListSnapshot withChanges(Map<Long, TodoTask> changes, long nextId) {
+        TaskTree newTree = tree;
+        PersistentHashMap<TodoTask, Long> newKeys = keys;
+        PersistentHashMap<Long, TodoTask> newTasksById = tasksById;
+        KeywordIndex newKeywordIndex = keywordIndex;
+        IntervalTree newTimeIndex = timeIndex;
+        for (Map.Entry<Long, TodoTask> change : changes.entrySet()) {
+            final long id = change.getKey();
+            final TodoTask old = newTasksById.get(id);
+            if (old != null) {
+                newTree = newTree.remove(id);
+                newKeys = newKeys.remove(old);
+                newTasksById = newTasksById.remove(id);
+                newKeywordIndex = newKeywordIndex.remove(old);
+                newTimeIndex = newTimeIndex.remove(old);
+            }
+            final TodoTask task = change.getValue();
+            if (task != null) {
+                newTree = newTree.insert(id, task);
+                newKeys = newKeys.put(task, id);
+                newTasksById = newTasksById.put(id, task);
+                newKeywordIndex = newKeywordIndex.add(task);
+                newTimeIndex = newTimeIndex.add(task);
+            }
+        }
+        return new TasksListSnapshot(version + 1, newTree, newKeys, newTasksById, newKeywordIndex, newTimeIndex,
+                archived, Math.max(this.nextId, nextId));
+    }
+
+    @Override
+    public List<TodoTask> getAllTasks() {
+        List<TodoTask> view = allTasksView;
+        if (view == null) {
+            view = Collections.unmodifiableList(tree.toList());
+            allTasksView = view;
+        }
+        return view;
+    }
+
+    @Override
+    public boolean containsTask(TodoTask key) {
+        return keys.containsKey(key);
+    }
+
+    @Override
+    public TodoTask getTaskById(long id) {
+        return tasksById.get(id);
+    }
+
+    @Override
+    public int indexOf(TodoTask task) {
+        final Long key = keys.get(task);
+        return key == null ? -1 : tree.rank(key);
+    }
+
+    @Override
+    public TodoTask getTask(int index) {
+        return tree.get(index);
+    }
+
+    @Override
+    public List<TodoTask> findTasksContainingAnyKeyword(Collection<String> keywords) {
+        return keywordIndex.findAny(keywords);
+    }
+
+    @Override
+    public List<TodoTask> findTasksOverlapping(int fromMinutes, int toMinutes) {
+        return timeIndex.findOverlapping(fromMinutes, toMinutes);
+    }
+
+    @Override
+    public int size() {
+        return tree.size();
+    }
+
+    @Override
+    public long getNextId() {
+        return nextId;
+    }
+}
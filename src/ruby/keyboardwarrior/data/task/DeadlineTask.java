@@ -7,32 +7,57 @@ import java.util.StringJoiner;
  * Represents a Deadline Task in the Keyboard Warrior.
  * Guarantees: field values are validated.
  */
-public class DeadlineTask {
+public class DeadlineTask extends TodoTask implements TimedTask {
 
-    private TaskDetails details;
     private EndTime endtime;
 
     public DeadlineTask(TaskDetails details, EndTime endtime) {
-        this.details = details;
+        super(details);
         this.endtime = endtime;
     }
 
-    public TaskDetails getDetails() {
-        return details;
+    public DeadlineTask(long id, TaskDetails details, EndTime endtime) {
+        super(id, details);
+        this.endtime = endtime;
     }
 
     public EndTime getEndTime() {
         return endtime;
     }
 
+    /**
+     * A deadline occupies the single moment it is due.
+     */
+    @Override
+    public int getStartMinutes() {
+        return endtime.toMinutes();
+    }
+
+    @Override
+    public int getEndMinutes() {
+        return endtime.toMinutes();
+    }
+
+    @Override
+    public DeadlineTask withId(long id) {
+        return new DeadlineTask(id, getDetails(), endtime);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return super.equals(other) && this.endtime.equals(((DeadlineTask) other).endtime);
+    }
+
+    @Override
     public int hashCode() {
         // use this method for custom fields hashing instead of implementing your own
-        return Objects.hash(details, endtime);
+        return Objects.hash(getDetails(), endtime);
     }
 
+    @Override
     public String toString() {
         final StringJoiner joiner = new StringJoiner(" ");
-        joiner.add(details.toString()).add("by").add(endtime.toString());
+        joiner.add(getDetails().toString()).add("by").add(endtime.toString());
         
         return joiner.toString();
     }
@@ -4,15 +4,9 @@ import ruby.keyboardwarrior.data.exception.IllegalValueException;
 
 /**
  * Represents end time for deadline and event tasks.
- * Guarantees: immutable; is valid as declared in {@link #isValidTime(Integer)}
+ * Guarantees: immutable; is valid as declared in {@link #isValidTime(String)}
  */
-public class EndTime {
-
-    public static final String EXAMPLE = "130816/2310";
-    public static final String MESSAGE_TIME_CONSTRAINTS = "Time must be in the proper format DDMMYY/HHMM";
-    public static final String TIME_VALIDATION_REGEX = "[0-3][0-9][0-1][0-9][/][0-2][0-9][0-5][0-9]";
-
-    public final String endtime;
+public class EndTime extends TaskTime {
 
     /**
      * Validates given time.
@@ -20,34 +14,41 @@ public class EndTime {
      * @throws IllegalValueException if given time is invalid.
      */
     public EndTime(String endtime) throws IllegalValueException {
-        if (!isValidTime(endtime)) {
-            throw new IllegalValueException(MESSAGE_TIME_CONSTRAINTS);
-        }
-        this.endtime = endtime;
+        super(endtime);
+    }
+
+    private EndTime(long minutes) throws IllegalValueException {
+        super(minutes);
     }
 
     /**
-     * Returns true if a given integer is a valid date.
+     * Returns the end time at the given number of minutes since 1 Jan 2000 00:00.
+     *
+     * @throws IllegalValueException if the time is outside the supported years.
      */
-    public static boolean isValidTime(String test) {
-        return test.matches(TIME_VALIDATION_REGEX);
+    public static EndTime ofMinutes(long minutes) throws IllegalValueException {
+        return new EndTime(minutes);
     }
 
-    @Override
-    public String toString() {
-        return endtime;
+    /**
+     * Returns the end time the given number of minutes later, or earlier if negative.
+     *
+     * @throws IllegalValueException if the result is outside the supported years.
+     */
+    public EndTime plusMinutes(long minutes) throws IllegalValueException {
+        return new EndTime(toMinutes() + minutes);
     }
 
     @Override
     public boolean equals(Object other) {
         return other == this // short circuit if same object
                 || (other instanceof EndTime // instanceof handles nulls
-                && this.endtime.equals(((EndTime) other).endtime)); // state check
+                && this.toMinutes() == ((EndTime) other).toMinutes()); // state check
     }
 
     @Override
     public int hashCode() {
-        return endtime.hashCode();
+        return toMinutes();
     }
     
 }
@@ -7,20 +7,23 @@ import java.util.StringJoiner;
  * Represents a EventTask in the Keyboard Warrior.
  * Guarantees: field values are validated.
  */
-public class EventTask{
+public class EventTask extends TodoTask implements TimedTask {
+
+    public static final String MESSAGE_TIME_ORDER_CONSTRAINTS = "An event cannot end before it starts";
 
-    private TaskDetails details;
     private StartTime startTime;
     private EndTime endTime;
 
     public EventTask(TaskDetails details, StartTime startTime, EndTime endTime) {
+        super(details);
         this.startTime = startTime;
         this.endTime = endTime;
-        this.details = details;
     }
-    
-    public TaskDetails getDetails() {
-        return details;
+
+    public EventTask(long id, TaskDetails details, StartTime startTime, EndTime endTime) {
+        super(id, details);
+        this.startTime = startTime;
+        this.endTime = endTime;
     }
     
     public StartTime getStartTime() {
@@ -31,15 +34,38 @@ public class EventTask{
         return endTime;
     }
 
+    @Override
+    public int getStartMinutes() {
+        return startTime.toMinutes();
+    }
+
+    @Override
+    public int getEndMinutes() {
+        return endTime.toMinutes();
+    }
+
+    @Override
+    public EventTask withId(long id) {
+        return new EventTask(id, getDetails(), startTime, endTime);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return super.equals(other)
+                && this.startTime.equals(((EventTask) other).startTime)
+                && this.endTime.equals(((EventTask) other).endTime);
+    }
 
+    @Override
     public int hashCode() {
         // use this method for custom fields hashing instead of implementing your own
-        return Objects.hash(details, startTime, endTime);
+        return Objects.hash(getDetails(), startTime, endTime);
     }
 
+    @Override
     public String toString() {
         final StringJoiner joiner = new StringJoiner(" ");
-        joiner.add(details.toString()).add("from").add(startTime.toString()).add("to").add(endTime.toString());
+        joiner.add(getDetails().toString()).add("from").add(startTime.toString()).add("to").add(endTime.toString());
         
         return joiner.toString();
     }
@@ -4,15 +4,9 @@ import ruby.keyboardwarrior.data.exception.IllegalValueException;
 
 /**
  * Represents start time for event tasks.
- * Guarantees: immutable; is valid as declared in {@link #isValidTime(Integer)}
+ * Guarantees: immutable; is valid as declared in {@link #isValidTime(String)}
  */
-public class StartTime {
-
-    public static final String EXAMPLE = "130816/2310";
-    public static final String MESSAGE_TIME_CONSTRAINTS = "Time must be in the proper format DDMMYY/HHMM";
-    public static final String TIME_VALIDATION_REGEX = "[0-3][0-9][0-1][0-9][/][0-2][0-9][0-5][0-9]";
-
-    public final String starttime;
+public class StartTime extends TaskTime {
 
     /**
      * Validates given time.
@@ -20,34 +14,41 @@ public class StartTime {
      * @throws IllegalValueException if given time is invalid.
      */
     public StartTime(String starttime) throws IllegalValueException {
-        if (!isValidTime(starttime)) {
-            throw new IllegalValueException(MESSAGE_TIME_CONSTRAINTS);
-        }
-        this.starttime = starttime;
+        super(starttime);
+    }
+
+    private StartTime(long minutes) throws IllegalValueException {
+        super(minutes);
     }
 
     /**
-     * Returns true if a given integer is a valid date.
+     * Returns the start time at the given number of minutes since 1 Jan 2000 00:00.
+     *
+     * @throws IllegalValueException if the time is outside the supported years.
      */
-    public static boolean isValidTime(String test) {
-        return test.matches(TIME_VALIDATION_REGEX);
+    public static StartTime ofMinutes(long minutes) throws IllegalValueException {
+        return new StartTime(minutes);
     }
 
-    @Override
-    public String toString() {
-        return starttime;
+    /**
+     * Returns the start time the given number of minutes later, or earlier if negative.
+     *
+     * @throws IllegalValueException if the result is outside the supported years.
+     */
+    public StartTime plusMinutes(long minutes) throws IllegalValueException {
+        return new StartTime(toMinutes() + minutes);
     }
 
     @Override
     public boolean equals(Object other) {
         return other == this // short circuit if same object
                 || (other instanceof StartTime // instanceof handles nulls
-                && this.starttime.equals(((StartTime) other).starttime)); // state check
+                && this.toMinutes() == ((StartTime) other).toMinutes()); // state check
     }
 
     @Override
     public int hashCode() {
-        return starttime.hashCode();
+        return toMinutes();
     }
     
 }
@@ -2,12 +2,18 @@ package ruby.keyboardwarrior.data.task;
 
 import ruby.keyboardwarrior.data.exception.IllegalValueException;
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Represents the Task Details in the Keyboard Warrior.
  * Guarantees: immutable; is valid as declared in {@link #isValidDetails(String)}
+ *
+ * The details are stored as the IDs of their words in the shared {@link TokenDictionary} and are only
+ * turned back into text by {@link #toString()}, so a word used by many tasks is held once.
+ * A subclass can keep the word IDs elsewhere instead, such as in a mapped storage file, and only hold a handle.
  */
 public class TaskDetails {
 
@@ -15,7 +21,20 @@ public class TaskDetails {
     public static final String MESSAGE_DETAILS_CONSTRAINTS = "Invalid command format!";
     public static final String DETAILS_VALIDATION_REGEX = "[ {Alnum} ]+";
 
-    public final String details;
+    private static final int[] NO_WORDS = new int[0];
+
+    private final int[] wordIds;
+    /** The details as given, kept only if joining the words with single spaces would not reproduce them. */
+    private final String irregular;
+
+    /**
+     * For subclasses that keep the word IDs elsewhere and override {@link #getWordCount()},
+     * {@link #getWordId(int)} and {@link #getIrregularText()}.
+     */
+    protected TaskDetails() {
+        this.wordIds = null;
+        this.irregular = null;
+    }
 
     /**
      * Validates given details.
@@ -24,7 +43,30 @@ public class TaskDetails {
      */
     public TaskDetails(String taskdetails){
         taskdetails = taskdetails.trim();
-        this.details = taskdetails;
+        final TokenDictionary dictionary = TokenDictionary.shared();
+        int[] ids = new int[8];
+        int count = 0;
+        boolean regular = true;
+        int at = 0;
+        while (at < taskdetails.length()) {
+            final int wordStart = at;
+            while (at < taskdetails.length() && !isSeparator(taskdetails.charAt(at))) {
+                at++;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = dictionary.idOf(taskdetails.substring(wordStart, at));
+            final int separatorStart = at;
+            while (at < taskdetails.length() && isSeparator(taskdetails.charAt(at))) {
+                at++;
+            }
+            if (at - separatorStart > 1 || (at > separatorStart && taskdetails.charAt(separatorStart) != ' ')) {
+                regular = false;
+            }
+        }
+        this.wordIds = count == 0 ? NO_WORDS : Arrays.copyOf(ids, count);
+        this.irregular = regular ? null : taskdetails;
     }
 
     /**
@@ -38,24 +80,110 @@ public class TaskDetails {
      * Retrieves a listing of every word in the details, in order.
      */
     public List<String> getWordsInDetails() {
-        return Arrays.asList(details.split("\\s+"));
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return TokenDictionary.shared().wordOf(getWordId(index));
+            }
+
+            @Override
+            public int size() {
+                return getWordCount();
+            }
+        };
+    }
+
+    public int getWordCount() {
+        return wordIds.length;
+    }
+
+    /**
+     * Returns the details as given if joining the words with single spaces would not reproduce them,
+     * or null otherwise. Together with the word IDs, this is all a copy of the details needs to hold.
+     */
+    public String getIrregularText() {
+        return irregular;
+    }
+
+    /**
+     * Returns the {@link TokenDictionary} ID of the word at the given position.
+     */
+    public int getWordId(int index) {
+        return wordIds[index];
+    }
+
+    /**
+     * Whitespace as matched by {@code \s} in a regular expression.
+     */
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     @Override
     public String toString() {
-        return details;
+        final String irregularText = getIrregularText();
+        if (irregularText != null) {
+            return irregularText;
+        }
+        final TokenDictionary dictionary = TokenDictionary.shared();
+        final int count = getWordCount();
+        int length = Math.max(0, count - 1);
+        for (int i = 0; i < count; i++) {
+            length += dictionary.wordOf(getWordId(i)).length();
+        }
+        final char[] text = new char[length];
+        int at = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text[at++] = ' ';
+            }
+            final String word = dictionary.wordOf(getWordId(i));
+            word.getChars(0, word.length(), text, at);
+            at += word.length();
+        }
+        return new String(text);
     }
 
+    /**
+     * Details are equal if they have the same text, wherever their word IDs are kept.
+     */
     @Override
     public boolean equals(Object other) {
-        return other == this // short circuit if same object
-                || (other instanceof TaskDetails // instanceof handles nulls
-                && this.details.equals(((TaskDetails) other).details)); // state check
+        if (other == this) { // short circuit if same object
+            return true;
+        }
+        if (!(other instanceof TaskDetails)) { // instanceof handles nulls
+            return false;
+        }
+        final TaskDetails details = (TaskDetails) other;
+        if (wordIds != null && details.wordIds != null) {
+            return Arrays.equals(wordIds, details.wordIds) && Objects.equals(irregular, details.irregular);
+        }
+        final int count = getWordCount();
+        if (count != details.getWordCount()) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (getWordId(i) != details.getWordId(i)) {
+                return false;
+            }
+        }
+        return Objects.equals(getIrregularText(), details.getIrregularText());
     }
 
+    /**
+     * Same as {@link Arrays#hashCode(int[])} of the word IDs, wherever they are kept.
+     */
     @Override
     public int hashCode() {
-        return details.hashCode();
+        if (wordIds != null) {
+            return Arrays.hashCode(wordIds);
+        }
+        int hash = 1;
+        for (int i = 0; i < getWordCount(); i++) {
+            hash = 31 * hash + getWordId(i);
+        }
+        return hash;
     }
 
 }
@@ -0,0 +1,91 @@
+package ruby.keyboardwarrior.data.task;
+
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+
+/**
+ * Represents a time of a task, to the minute, from 1 Jan 2000 to the end of 2099.
+ * Guarantees: immutable; is valid as declared in {@link #isValidTime(String)}
+ *
+ * The time is held as a single {@code int} of minutes since 1 Jan 2000 00:00, so times compare, sort and
+ * are indexed as plain numbers; the DDMMYY/HHMM text is only produced by {@link #toString()}.
+ */
+public abstract class TaskTime implements Comparable<TaskTime> {
+
+    public static final String EXAMPLE = "130816/2310";
+    public static final String MESSAGE_TIME_CONSTRAINTS = "Time must be in the proper format DDMMYY/HHMM";
+    public static final String MESSAGE_TIME_RANGE_CONSTRAINTS = "Time must be between 2000 and 2099";
+
+    private final int minutes;
+
+    /**
+     * Validates and parses given time.
+     *
+     * @throws IllegalValueException if given time is invalid.
+     */
+    protected TaskTime(String time) throws IllegalValueException {
+        final int parsed = Times.parse(time);
+        if (parsed == Times.INVALID) {
+            throw new IllegalValueException(MESSAGE_TIME_CONSTRAINTS);
+        }
+        this.minutes = parsed;
+    }
+
+    /**
+     * @throws IllegalValueException if given minutes since 1 Jan 2000 00:00 are outside the supported years.
+     */
+    protected TaskTime(long minutes) throws IllegalValueException {
+        if (!Times.isInRange(minutes)) {
+            throw new IllegalValueException(MESSAGE_TIME_RANGE_CONSTRAINTS);
+        }
+        this.minutes = (int) minutes;
+    }
+
+    /**
+     * Returns true if a given string is a valid time in the DDMMYY/HHMM format that names an existing day.
+     */
+    public static boolean isValidTime(String test) {
+        return Times.parse(test) != Times.INVALID;
+    }
+
+    /**
+     * Returns this time as minutes since 1 Jan 2000 00:00.
+     */
+    public int toMinutes() {
+        return minutes;
+    }
+
+    public boolean isBefore(TaskTime other) {
+        return minutes < other.minutes;
+    }
+
+    public boolean isAfter(TaskTime other) {
+        return minutes > other.minutes;
+    }
+
+    /**
+     * Returns true if this time is within {@code [from, to]}, both ends inclusive.
+     */
+    public boolean isWithin(TaskTime from, TaskTime to) {
+        return minutes >= from.minutes && minutes <= to.minutes;
+    }
+
+    /**
+     * Returns the number of minutes from this time to {@code other}, negative if {@code other} is earlier.
+     */
+    public int minutesUntil(TaskTime other) {
+        return other.minutes - minutes;
+    }
+
+    /**
+     * Orders times chronologically, whichever kind of time they are.
+     */
+    @Override
+    public int compareTo(TaskTime other) {
+        return Integer.compare(minutes, other.minutes);
+    }
+
+    @Override
+    public String toString() {
+        return Times.format(minutes);
+    }
+}
@@ -0,0 +1,12 @@
+package ruby.keyboardwarrior.data.task;
+
+/**
+ * A task that occupies a span of time, used to index tasks by when they happen.
+ * Times are in minutes since 1 Jan 2000 00:00; a task that happens at a single moment starts when it ends.
+ */
+public interface TimedTask {
+
+    int getStartMinutes();
+
+    int getEndMinutes();
+}
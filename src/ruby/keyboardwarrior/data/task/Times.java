@@ -0,0 +1,115 @@
+package ruby.keyboardwarrior.data.task;
+
+/**
+ * Hand-written parser and formatter for times in the DDMMYY/HHMM format, shared by {@link StartTime} and
+ * {@link EndTime}. Times are packed into an {@code int} of minutes since 1 Jan 2000 00:00, which covers the
+ * years 2000 to 2099 that a two-digit year can name. Parsing and validating do not allocate.
+ */
+final class Times {
+
+    /** Returned by {@link #parse(String)} for a string that is not a valid time. */
+    static final int INVALID = Integer.MIN_VALUE;
+
+    static final int FIRST_YEAR = 2000;
+    static final int LAST_YEAR = 2099;
+
+    private static final int LENGTH = "DDMMYY/HHMM".length();
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private Times() {}
+
+    /**
+     * Returns the given DDMMYY/HHMM time as minutes since 1 Jan 2000 00:00, or {@link #INVALID} if it is not
+     * a time in that format or names a day that does not exist.
+     */
+    static int parse(String time) {
+        if (time == null || time.length() != LENGTH || time.charAt(6) != '/') {
+            return INVALID;
+        }
+        final int day = digits(time, 0);
+        final int month = digits(time, 2);
+        final int year = digits(time, 4);
+        final int hour = digits(time, 7);
+        final int minute = digits(time, 9);
+        if (day < 1 || month < 1 || month > 12 || year < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || day > daysInMonth(FIRST_YEAR + year, month)) {
+            return INVALID;
+        }
+        return daysSinceEpoch(FIRST_YEAR + year, month, day) * MINUTES_PER_DAY + hour * 60 + minute;
+    }
+
+    /**
+     * Returns true if the given minutes since 1 Jan 2000 00:00 can be written as a DDMMYY/HHMM time.
+     */
+    static boolean isInRange(long minutes) {
+        return minutes >= 0 && minutes < (daysSinceEpoch(LAST_YEAR + 1, 1, 1) * (long) MINUTES_PER_DAY);
+    }
+
+    /**
+     * Formats minutes since 1 Jan 2000 00:00 as a DDMMYY/HHMM time.
+     */
+    static String format(int minutes) {
+        final int days = Math.floorDiv(minutes, MINUTES_PER_DAY);
+        final int minuteOfDay = Math.floorMod(minutes, MINUTES_PER_DAY);
+
+        // Inverse of daysSinceEpoch, counting in 400-year eras that start on 1 March
+        final int shifted = days + 730425;
+        final int era = Math.floorDiv(shifted, 146097);
+        final int dayOfEra = shifted - era * 146097;
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        final char[] text = new char[LENGTH];
+        putDigits(text, 0, day);
+        putDigits(text, 2, month);
+        putDigits(text, 4, year % 100);
+        text[6] = '/';
+        putDigits(text, 7, minuteOfDay / 60);
+        putDigits(text, 9, minuteOfDay % 60);
+        return new String(text);
+    }
+
+    /**
+     * Returns the two-digit number at the given position, or -1 if either character is not a digit.
+     */
+    private static int digits(String time, int at) {
+        final int tens = time.charAt(at) - '0';
+        final int ones = time.charAt(at + 1) - '0';
+        if (tens < 0 || tens > 9 || ones < 0 || ones > 9) {
+            return -1;
+        }
+        return tens * 10 + ones;
+    }
+
+    private static void putDigits(char[] text, int at, int value) {
+        text[at] = (char) ('0' + value / 10);
+        text[at + 1] = (char) ('0' + value % 10);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4: case 6: case 9: case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns the number of days from 1 Jan 2000 to the given date in the proleptic Gregorian calendar.
+     */
+    private static int daysSinceEpoch(int year, int month, int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv(y, 400);
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 730425;
+    }
+}
@@ -5,21 +5,97 @@ import java.util.Objects;
 /**
  * Represents a Task in the address book.
  * Guarantees: field values are validated.
+ *
+ * Every task stored in a {@code TasksList} carries a 64-bit ID that stays the same for its whole life,
+ * including across edits and restarts. The ID does not take part in equality.
+ *
+ * A task is pending while it is in a {@code TasksList}; once marked done it is moved to the archive, whose
+ * copies of it report {@link Status#DONE}. The status does not take part in equality either.
  */
 public class TodoTask {
 
+    /** ID of a task that has not been stored in a {@code TasksList} yet. */
+    public static final long UNASSIGNED_ID = 0;
+
+    /**
+     * Whether a task is still to be done.
+     */
+    public enum Status { PENDING, DONE }
+
+    private long id = UNASSIGNED_ID;
     private TaskDetails details;
+    private Status status = Status.PENDING;
+
+    /**
+     * Signals that an operation targeting a specified task in the list would fail because
+     * there is no such matching task in the list.
+     */
+    public static class TaskNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
     
     public TodoTask(TaskDetails details) {
         this.details = details;
     }
 
+    public TodoTask(long id, TaskDetails details) {
+        this.id = id;
+        this.details = details;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean hasId() {
+        return id != UNASSIGNED_ID;
+    }
+
+    /**
+     * Gives this task its ID. Only called by {@code TasksList} when the task is first stored.
+     *
+     * @throws IllegalStateException if this task already has an ID.
+     */
+    public void assignId(long id) {
+        if (hasId()) {
+            throw new IllegalStateException("Task already has an ID");
+        }
+        this.id = id;
+    }
+
+    /**
+     * Returns a copy of this task under the given ID.
+     */
+    public TodoTask withId(long id) {
+        return new TodoTask(id, details);
+    }
+
     public TaskDetails getDetails() {
         return details;
     }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isDone() {
+        return status == Status.DONE;
+    }
+
+    /**
+     * Marks this task done. Only called on the copies the archive reads back, as the tasks in a
+     * {@code TasksList} are shared by its versions and are all pending.
+     */
+    public void markDone() {
+        status = Status.DONE;
+    }
     
+    /**
+     * Tasks are equal if they are of the same kind and have the same fields, so a to-do never equals an event
+     * with the same details.
+     */
     public boolean equals(Object other) {
-        if (other instanceof TodoTask){
+        if (other != null && other.getClass() == getClass()){
             TodoTask todotask = (TodoTask) other;
             return this.getDetails().equals(todotask.getDetails());
         }
@@ -0,0 +1,94 @@
+package ruby.keyboardwarrior.data.task;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the words used in task details, shared by all tasks, so that each distinct word is held once
+ * and a task's text can be stored as an array of small integer IDs.
+ *
+ * IDs are handed out in order from 0 and never reused; words are never removed, so the dictionary grows with
+ * the vocabulary rather than with the number of tasks. Looking up words is lock-free; adding new words is
+ * serialized.
+ */
+public final class TokenDictionary {
+
+    /** Returned by {@link #find(String)} for a word that is not in the dictionary. */
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final TokenDictionary SHARED = new TokenDictionary();
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /** Words by ID, and the ID of each word's lower case form. Replaced, never modified below {@link #size}. */
+    private volatile String[] words = new String[INITIAL_CAPACITY];
+    private volatile int[] foldedIds = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private TokenDictionary() {}
+
+    /**
+     * Returns the dictionary used by every {@link TaskDetails}.
+     */
+    public static TokenDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the ID of the given word, adding it to the dictionary if it is not there yet.
+     */
+    public int idOf(String word) {
+        final Integer id = ids.get(word);
+        return id != null ? id : add(word);
+    }
+
+    /**
+     * Returns the ID of the given word, or {@link #NOT_FOUND} if no task has ever used it.
+     */
+    public int find(String word) {
+        final Integer id = ids.get(word);
+        return id != null ? id : NOT_FOUND;
+    }
+
+    /**
+     * Returns the word with the given ID.
+     */
+    public String wordOf(int id) {
+        return words[id];
+    }
+
+    /**
+     * Returns the ID of the lower case form of the word with the given ID, for matching words regardless of case.
+     */
+    public int foldedIdOf(int id) {
+        return foldedIds[id];
+    }
+
+    /**
+     * Returns the number of distinct words in the dictionary.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String word) {
+        final Integer existing = ids.get(word);
+        if (existing != null) {
+            return existing;
+        }
+        final String lowerCase = word.toLowerCase();
+        final int foldedId = lowerCase.equals(word) ? size : idOf(lowerCase);
+        final int id = size;
+        if (id == words.length) {
+            words = Arrays.copyOf(words, id * 2);
+            foldedIds = Arrays.copyOf(foldedIds, id * 2);
+        }
+        words[id] = word;
+        foldedIds[id] = foldedId;
+        size = id + 1;
+        // Entered last, so that whoever learns the new ID from the map also sees its entries
+        ids.put(word, id);
+        return id;
+    }
+}
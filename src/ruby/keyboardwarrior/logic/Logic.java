@@ -2,13 +2,26 @@ package ruby.keyboardwarrior.logic;
 
 import ruby.keyboardwarrior.commands.Command;
 import ruby.keyboardwarrior.commands.CommandResult;
+import ruby.keyboardwarrior.common.Messages;
 import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
 import ruby.keyboardwarrior.data.task.TodoTask;
 import ruby.keyboardwarrior.parser.Parser;
+import ruby.keyboardwarrior.storage.DatabaseStorage;
+import ruby.keyboardwarrior.storage.MerkleSync;
+import ruby.keyboardwarrior.storage.PageFile;
+import ruby.keyboardwarrior.storage.ReplicationFollower;
+import ruby.keyboardwarrior.storage.ReplicationLeader;
+import ruby.keyboardwarrior.storage.Storage;
 import ruby.keyboardwarrior.storage.StorageFile;
+import ruby.keyboardwarrior.storage.StorageFile.Durability;
 import ruby.keyboardwarrior.storage.StorageFile.InvalidStorageFilePathException;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+import ruby.keyboardwarrior.storage.StorageFormat;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,24 +30,99 @@ import java.util.Optional;
  */
 public class Logic {
 
+    /**
+     * System properties choosing how saves reach the disk: {@code sync} (the default), {@code batched} or
+     * {@code async}, and in batched mode, how many milliseconds or saves a batch spans. See {@link Durability}.
+     */
+    public static final String DURABILITY_PROPERTY = "keyboardwarrior.durability";
+    public static final String BATCH_MILLIS_PROPERTY = "keyboardwarrior.batchMillis";
+    public static final String BATCH_RECORDS_PROPERTY = "keyboardwarrior.batchRecords";
+    private static final long DEFAULT_BATCH_MILLIS = 50;
+    private static final int DEFAULT_BATCH_RECORDS = 64;
+
+    /**
+     * System property choosing the format checkpoints are written in: {@code binary} (the default),
+     * {@code mapped} or {@code xml} (see {@link StorageFormat}), or {@code paged} to keep them in a
+     * {@link PageFile}, of which at most as many pages as the second property says are held in memory besides
+     * the tasks list, which is still loaded whole.
+     */
+    public static final String STORAGE_FORMAT_PROPERTY = "keyboardwarrior.storageFormat";
+    public static final String PAGE_POOL_PROPERTY = "keyboardwarrior.pagePool";
+    private static final String PAGED_FORMAT = "paged";
+    private static final int DEFAULT_PAGE_POOL = 1024;
+
+    /**
+     * System property that, when set to a positive number, splits checkpoints into segments of that many
+     * consecutive task IDs, so that writing one only rewrites the segments that changed. See {@link StorageFile}.
+     */
+    public static final String SEGMENT_TASKS_PROPERTY = "keyboardwarrior.segmentTasks";
+
+    /**
+     * System property that, when set, keeps the tasks in the database at that JDBC URL instead of the storage
+     * file, such as {@code jdbc:h2:./keyboardwarrior}. The driver must be on the class path. See {@link DatabaseStorage}.
+     */
+    public static final String DATABASE_URL_PROPERTY = "keyboardwarrior.databaseUrl";
+
+    /**
+     * System property that, when set to {@code true}, watches the storage file for being replaced from outside,
+     * such as by a file synchronization tool, and applies what changed to the tasks in memory.
+     * See {@link StorageFile#watchForExternalChanges(StorageFile.ExternalChangeListener)}.
+     */
+    public static final String WATCH_STORAGE_FILE_PROPERTY = "keyboardwarrior.watchStorageFile";
+
+    /**
+     * System properties that make this copy of Keyboard Warrior a replication leader, streaming every change
+     * to followers connecting to the given loopback port, or a read-only follower of the leader at the given
+     * {@code host:port} or loopback port. See {@link ReplicationLeader} and {@link ReplicationFollower}.
+     */
+    public static final String REPLICATION_LISTEN_PROPERTY = "keyboardwarrior.replicationListen";
+    public static final String REPLICATION_FOLLOW_PROPERTY = "keyboardwarrior.replicationFollow";
+
+    /**
+     * System properties that serve the tasks to copies of Keyboard Warrior syncing with this one at the given
+     * loopback port, and that sync the tasks with the copy at the given {@code host:port} or loopback port on
+     * start, fetching only the tasks that differ. A follower cannot sync on start, as its tasks are read-only.
+     * See {@link MerkleSync}.
+     */
+    public static final String SYNC_LISTEN_PROPERTY = "keyboardwarrior.syncListen";
+    public static final String SYNC_FROM_PROPERTY = "keyboardwarrior.syncFrom";
 
-    private StorageFile storage;
+    private Storage storage;
     private TasksList tasksList;
+    /** Serves syncs of the tasks to other copies, or null if they are not served. */
+    private MerkleSync.Server syncServer;
+
+    /**
+     * Held while the tasks are changed and saved, by commands and by changes made to the storage file from outside
+     * alike. Commands that only read the tasks do not take it, as they read a snapshot of the list.
+     */
+    private final Object changeLock = new Object();
 
-    /** The list of person shown to the user most recently.  */
-    private List<TodoTask> lastShownList = Collections.emptyList();
+    /** IDs of the tasks shown to the user most recently, in display order. */
+    private volatile long[] lastShownList = new long[0];
 
     public Logic() throws Exception{
-        setStorage(initializeStorage());
-        setTasksList(storage.load());
+        // Held until the list is loaded, as the storage file may report external changes from then on
+        synchronized (changeLock) {
+            setStorage(initializeStorage());
+            setTasksList(storage.load());
+            final String syncFrom = System.getProperty(SYNC_FROM_PROPERTY);
+            if (syncFrom != null) {
+                syncFrom(toAddress(syncFrom));
+            }
+            final Integer syncPort = Integer.getInteger(SYNC_LISTEN_PROPERTY);
+            if (syncPort != null) {
+                syncServer = new MerkleSync.Server(tasksList, syncPort);
+            }
+        }
     }
 
-    Logic(StorageFile storageFile, TasksList tasksList){
-        setStorage(storageFile);
+    Logic(Storage storage, TasksList tasksList){
+        setStorage(storage);
         setTasksList(tasksList);
     }
 
-    void setStorage(StorageFile storage){
+    void setStorage(Storage storage){
         this.storage = storage;
     }
 
@@ -42,12 +130,84 @@ public class Logic {
         this.tasksList = tasksList;
     }
 
+    /**
+     * Syncs the tasks with the copy at {@code source} and saves the result. Refused before connecting if the
+     * storage is read-only, as a follower's tasks only change through its leader, which is the copy to sync.
+     *
+     * @throws StorageOperationException if the storage is read-only, or the result could not be saved.
+     * @throws IOException if the copy could not be reached.
+     */
+    void syncFrom(InetSocketAddress source) throws StorageOperationException, IOException {
+        if (storage.isReadOnly()) {
+            throw new StorageOperationException("Cannot sync from " + source.getHostString() + ":" + source.getPort()
+                    + " while " + storage.getPath() + "; sync the leader instead");
+        }
+        try (final MerkleSync.RemoteSource remote = MerkleSync.connect(source)) {
+            MerkleSync.pull(tasksList, remote);
+        }
+        storage.save(tasksList);
+    }
+
+    /**
+     * Creates the storage: a follower of the leader if one is given, otherwise the database if a URL is given,
+     * otherwise the storage file, and either of them streamed to followers if a port to listen on is given.
+     * @throws StorageFile.InvalidStorageFilePathException if the target file path is incorrect.
+     * @throws StorageOperationException if the database cannot be reached, earlier changes to the storage
+     *         file could not be written, or the port cannot be listened on.
+     */
+    private Storage initializeStorage() throws InvalidStorageFilePathException, StorageOperationException {
+        final String leader = System.getProperty(REPLICATION_FOLLOW_PROPERTY);
+        if (leader != null) {
+            return new ReplicationFollower(toAddress(leader));
+        }
+        final Storage storage = initializeLocalStorage();
+        final Integer listenPort = Integer.getInteger(REPLICATION_LISTEN_PROPERTY);
+        return listenPort == null ? storage : new ReplicationLeader(storage, listenPort);
+    }
+
+    /**
+     * Returns the address {@code host:port}, or the loopback address if only a port is given.
+     */
+    private static InetSocketAddress toAddress(String hostAndPort) {
+        final int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(hostAndPort));
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon),
+                Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+    private Storage initializeLocalStorage() throws InvalidStorageFilePathException, StorageOperationException {
+        final String databaseUrl = System.getProperty(DATABASE_URL_PROPERTY);
+        if (databaseUrl != null) {
+            return new DatabaseStorage(databaseUrl);
+        }
+        final StorageFile storageFile = initializeStorageFile();
+        storageFile.setDurability(Durability.valueOf(System.getProperty(DURABILITY_PROPERTY, "sync").toUpperCase()),
+                Long.getLong(BATCH_MILLIS_PROPERTY, DEFAULT_BATCH_MILLIS),
+                Integer.getInteger(BATCH_RECORDS_PROPERTY, DEFAULT_BATCH_RECORDS));
+        if (Boolean.getBoolean(WATCH_STORAGE_FILE_PROPERTY)) {
+            storageFile.watchForExternalChanges(this::applyExternalChanges);
+        }
+        return storageFile;
+    }
+
     /**
      * Creates the StorageFile object based on the user specified path (if any) or the default storage path.
      * @throws StorageFile.InvalidStorageFilePathException if the target file path is incorrect.
      */
-    private StorageFile initializeStorage() throws InvalidStorageFilePathException {
-        return new StorageFile();
+    private StorageFile initializeStorageFile() throws InvalidStorageFilePathException {
+        final String formatName = System.getProperty(STORAGE_FORMAT_PROPERTY, "binary");
+        if (PAGED_FORMAT.equals(formatName)) {
+            return StorageFile.paged(StorageFile.DEFAULT_STORAGE_FILEPATH,
+                    Integer.getInteger(PAGE_POOL_PROPERTY, DEFAULT_PAGE_POOL));
+        }
+        final StorageFormat format = StorageFormat.named(formatName);
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown storage format: " + formatName);
+        }
+        return new StorageFile(StorageFile.DEFAULT_STORAGE_FILEPATH, format,
+                Integer.getInteger(SEGMENT_TASKS_PROPERTY, 0));
     }
 
     public String getStorageFilePath() {
@@ -55,15 +215,58 @@ public class Logic {
     }
 
     /**
-     * Unmodifiable view of the current last shown list.
+     * Writes every change not yet stored.
+     *
+     * @throws StorageOperationException if the changes could not be written.
      */
-    public List<TodoTask> getLastShownList() {
-        return Collections.unmodifiableList(lastShownList);
+    public void flush() throws StorageOperationException {
+        storage.flush();
+    }
+
+    /**
+     * Stops serving syncs, and writes every change not yet stored. Called before the application exits.
+     *
+     * @throws StorageOperationException if the changes could not be written.
+     */
+    public void close() throws StorageOperationException {
+        if (syncServer != null) {
+            syncServer.close();
+        }
+        flush();
+    }
+
+    /**
+     * Applies the changes made to the storage file from outside, from {@code before} to {@code after}, and saves
+     * the result. The last shown list holds IDs, which the changes keep, so it still refers to the same tasks;
+     * those removed are reported as missing when used.
+     *
+     * @throws StorageOperationException if the result could not be saved.
+     */
+    void applyExternalChanges(TasksListSnapshot before, TasksListSnapshot after) throws StorageOperationException {
+        synchronized (changeLock) {
+            tasksList.applyChanges(before, after);
+            storage.save(tasksList);
+        }
+    }
+
+    /**
+     * Copy of the IDs of the tasks in the current last shown list.
+     */
+    public long[] getLastShownList() {
+        return lastShownList.clone();
     }
     
 
     protected void setLastShownList(List<TodoTask> newList) {
-        lastShownList = newList;
+        lastShownList = toIds(newList);
+    }
+
+    private static long[] toIds(List<TodoTask> tasks) {
+        final long[] ids = new long[tasks.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = tasks.get(i).getId();
+        }
+        return ids;
     }
 
     /**
@@ -78,26 +281,33 @@ public class Logic {
     }
 
     /**
-     * Executes the command, updates storage, and returns the result.
+     * Executes the command, updates storage, and returns the result. Commands that change the tasks are
+     * refused if the storage is read-only, and otherwise run one at a time; the others run at once.
      *
      * @param command user command
      * @return result of the command
      * @throws Exception if there was any problem during command execution.
      */
     private CommandResult execute(Command command) throws Exception {
-        command.setData(tasksList, lastShownList);
-        CommandResult result = command.execute();
-        if (command.isMutating()) {
-        	 storage.save(tasksList);
+        if (command.isMutating() && storage.isReadOnly()) {
+            return new CommandResult(String.format(Messages.MESSAGE_READ_ONLY, storage.getPath()));
+        }
+        command.setData(tasksList, storage, lastShownList);
+        if (!command.isMutating()) {
+            return command.execute();
+        }
+        synchronized (changeLock) {
+            CommandResult result = command.execute();
+            storage.save(tasksList);
+            return result;
         }
-        return result;
     }
 
-    /** Updates the {@link #lastShownList} if the result contains a list of Persons. */
+    /** Updates the {@link #lastShownList} if the result contains a list of tasks. */
     private void recordResult(CommandResult result) {
-        final Optional<List<TodoTask>> personList = result.getRelevantTasks();
-        if (personList.isPresent()) {
-            lastShownList = personList.get();
+        final Optional<List<TodoTask>> taskList = result.getRelevantTasks();
+        if (taskList.isPresent()) {
+            lastShownList = toIds(taskList.get());
         }
     }
 }
@@ -2,6 +2,10 @@ package ruby.keyboardwarrior.parser;
 
 import ruby.keyboardwarrior.commands.*;
 import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.DeadlineTask;
+import ruby.keyboardwarrior.data.task.EndTime;
+import ruby.keyboardwarrior.data.task.EventTask;
+import ruby.keyboardwarrior.data.task.StartTime;
 import ruby.keyboardwarrior.data.task.TodoTask;
 import ruby.keyboardwarrior.data.task.TaskDetails;
 
@@ -24,7 +28,14 @@ public class Parser {
     public static final Pattern TASK_DATA_ARGS_FORMAT = // '/' forward slashes are reserved for delimiter prefixes
             Pattern.compile("(?<taskdetails>[^/]+)");                   
 
-    public static Stack<String> allInputs = new Stack<String>(); 
+    public static final Pattern EVENT_DATA_ARGS_FORMAT =
+            Pattern.compile("(?<taskdetails>[^/]+?)\\s+from\\s+(?<starttime>\\d{6}/\\d{4})"
+                    + "\\s+to\\s+(?<endtime>\\d{6}/\\d{4})");
+
+    public static final Pattern DEADLINE_DATA_ARGS_FORMAT =
+            Pattern.compile("(?<taskdetails>[^/]+?)\\s+by\\s+(?<endtime>\\d{6}/\\d{4})");
+
+    public static final Pattern AGENDA_ARGS_FORMAT = Pattern.compile("(?<from>\\S+)\\s+(?<to>\\S+)");
 
     /**
      * Signals that the user input could not be parsed.
@@ -54,8 +65,7 @@ public class Parser {
         if (!matcher.matches()) {
             return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT, HelpCommand.MESSAGE_USAGE));
         }
-        
-        allInputs.push(userInput);
+
         String commandWord = matcher.group("commandWord");
         String arguments = matcher.group("arguments");
         switch (commandWord) {
@@ -65,6 +75,9 @@ public class Parser {
 
             case DeleteCommand.COMMAND_WORD:
                 return prepareDelete(arguments);
+
+            case DoneCommand.COMMAND_WORD:
+                return prepareDone(arguments);
                 
             case EditCommand.COMMAND_WORD:
                 return prepareEdit(arguments);
@@ -75,6 +88,9 @@ public class Parser {
             case FindCommand.COMMAND_WORD:
                 return prepareFind(arguments);
 
+            case AgendaCommand.COMMAND_WORD:
+                return prepareAgenda(arguments);
+
             case ListCommand.COMMAND_WORD:
                 return new ListCommand();
 
@@ -88,7 +104,10 @@ public class Parser {
                 return new ExitCommand();
                 
             case UndoCommand.COMMAND_WORD:
-            	return prepareUndo();
+                return new UndoCommand();
+
+            case RedoCommand.COMMAND_WORD:
+                return new RedoCommand();
 
             case HelpCommand.COMMAND_WORD: // Fallthrough
             default:
@@ -103,18 +122,47 @@ public class Parser {
      * @return the prepared command
      */
     private Command prepareAdd(String args){
-        final Matcher matcher = TASK_DATA_ARGS_FORMAT.matcher(args.trim());
-        // Validate arg string format
-        if (!matcher.matches()) {
-            return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT, AddCommand.MESSAGE_USAGE));
-        }
         try {
+            final TodoTask timedTask = parseTimedTask(args);
+            if (timedTask != null) {
+                return new AddCommand(timedTask);
+            }
+            final Matcher matcher = TASK_DATA_ARGS_FORMAT.matcher(args.trim());
+            // Validate arg string format
+            if (!matcher.matches()) {
+                return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT, AddCommand.MESSAGE_USAGE));
+            }
             return new AddCommand(matcher.group("taskdetails"));
         } catch (IllegalValueException ive) {
             return new IncorrectCommand(ive.getMessage());
         }
     }
 
+    /**
+     * Parses task data ending in an event's start and end time or a deadline's due time.
+     *
+     * @param args task data string
+     * @return the event or deadline, or null if the task data has no times
+     * @throws IllegalValueException if the times are invalid
+     */
+    private TodoTask parseTimedTask(String args) throws IllegalValueException {
+        final Matcher eventMatcher = EVENT_DATA_ARGS_FORMAT.matcher(args.trim());
+        if (eventMatcher.matches()) {
+            final StartTime startTime = new StartTime(eventMatcher.group("starttime"));
+            final EndTime endTime = new EndTime(eventMatcher.group("endtime"));
+            if (startTime.isAfter(endTime)) {
+                throw new IllegalValueException(EventTask.MESSAGE_TIME_ORDER_CONSTRAINTS);
+            }
+            return new EventTask(new TaskDetails(eventMatcher.group("taskdetails")), startTime, endTime);
+        }
+        final Matcher deadlineMatcher = DEADLINE_DATA_ARGS_FORMAT.matcher(args.trim());
+        if (deadlineMatcher.matches()) {
+            return new DeadlineTask(new TaskDetails(deadlineMatcher.group("taskdetails")),
+                    new EndTime(deadlineMatcher.group("endtime")));
+        }
+        return null;
+    }
+
     /**
      * Parses arguments in the context of the delete person command.
      *
@@ -130,6 +178,21 @@ public class Parser {
         }
     }
     
+    /**
+     * Parses arguments in the context of the done command.
+     *
+     * @param args full command args string
+     * @return the prepared command
+     */
+    private Command prepareDone(String args) {
+        try {
+            final int targetIndex = parseArgsAsDisplayedIndex(args);
+            return new DoneCommand(targetIndex);
+        } catch (ParseException | NumberFormatException e) {
+            return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT, DoneCommand.MESSAGE_USAGE));
+        }
+    }
+
     /**
      * Parses arguments in the context of the edit task command.
      *
@@ -144,9 +207,13 @@ public class Parser {
         	String editTask = args.substring(args.indexOf(' '));
         	
             final int targetIndex = parseArgsAsDisplayedIndex(index);
-            return new EditCommand(targetIndex, new TodoTask(new TaskDetails(editTask)));
+            final TodoTask timedTask = parseTimedTask(editTask);
+            return new EditCommand(targetIndex,
+                    timedTask != null ? timedTask : new TodoTask(new TaskDetails(editTask)));
         } catch (ParseException | NumberFormatException e) {
             return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT, DeleteCommand.MESSAGE_USAGE));
+        } catch (IllegalValueException ive) {
+            return new IncorrectCommand(ive.getMessage());
         }
 	}
 
@@ -214,22 +281,40 @@ public class Parser {
                     FindCommand.MESSAGE_USAGE));
         }
 
-        // keywords delimited by whitespace
-        final String[] keywords = matcher.group("keywords").split("\\s+");
-        final Set<String> keywordSet = new HashSet<>(Arrays.asList(keywords));
-        return new FindCommand(keywordSet);
+        // keywords delimited by whitespace, after the flag to search the archive if it is given
+        final List<String> keywords = Arrays.asList(matcher.group("keywords").split("\\s+"));
+        final boolean archived = keywords.get(0).equals(FindCommand.ARCHIVED_FLAG);
+        if (archived && keywords.size() == 1) {
+            return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT,
+                    FindCommand.MESSAGE_USAGE));
+        }
+        final Set<String> keywordSet = new HashSet<>(archived ? keywords.subList(1, keywords.size()) : keywords);
+        return new FindCommand(keywordSet, archived);
     }
-    
+
     /**
-     * Parses arguments in the context of undoing the previous command.
+     * Parses arguments in the context of the agenda command.
      *
      * @param args full command args string
      * @return the prepared command
      */
-    private Command prepareUndo() {
-    	allInputs.pop();
-    	String previous = allInputs.pop();
-        return new UndoCommand(previous);
+    private Command prepareAgenda(String args) {
+        final Matcher matcher = AGENDA_ARGS_FORMAT.matcher(args.trim());
+        if (!matcher.matches()) {
+            return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT,
+                    AgendaCommand.MESSAGE_USAGE));
+        }
+        try {
+            final StartTime from = new StartTime(matcher.group("from"));
+            final EndTime to = new EndTime(matcher.group("to"));
+            if (from.isAfter(to)) {
+                return new IncorrectCommand(String.format(MESSAGE_INVALID_COMMAND_FORMAT,
+                        AgendaCommand.MESSAGE_USAGE));
+            }
+            return new AgendaCommand(from, to);
+        } catch (IllegalValueException ive) {
+            return new IncorrectCommand(ive.getMessage());
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,430 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Stores the tasks in a compact binary format:
+ * <pre>
+ *   header:  "KWBF" magic, format version byte, varint next ID, varint log sequence, varint task count
+ *   chunks:  varint chunk task count, varint chunk length, then the records of that many tasks
+ *   records: varint record length, then the record:
+ *            kind byte, varint ID, varint details length, UTF-8 details,
+ *            zigzag varint start minutes (events only), zigzag varint end minutes (events and deadlines)
+ * </pre>
+ * Every record is length-prefixed, so a reader can skip kinds it does not know. Files of version 1 hold the
+ * records straight after the header, without chunks.
+ *
+ * Writing streams through a fixed buffer and holds one chunk in memory at a time. Reading hands each chunk,
+ * which is decoded independently of the others, to a fork-join pool as soon as it is read, and joins the
+ * results in file order. Only decoding the records is spread over the pool; the {@link TasksList} and its
+ * indexes are then built from the joined tasks on the reading thread, so that part of a load does not get
+ * faster with more cores. Every chunk read is held until the tasks are all decoded.
+ */
+public final class BinaryStorageFormat implements StorageFormat {
+
+    /** Version written by this class; files of a later version are rejected rather than misread. */
+    public static final int VERSION = 2;
+
+    /** Number of tasks written to a chunk, the unit decoding is split into. */
+    public static final int CHUNK_TASKS = 4096;
+
+    private static final byte[] MAGIC = { 'K', 'W', 'B', 'F' };
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private static final byte TODO = 0;
+    private static final byte DEADLINE = 1;
+    private static final byte EVENT = 2;
+
+    /** Where chunks are decoded, or null for the common pool. */
+    private final ForkJoinPool pool;
+
+    BinaryStorageFormat() {
+        this(null);
+    }
+
+    private BinaryStorageFormat(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a binary format that decodes chunks on a pool of its own with {@code threads} threads, rather than
+     * on the common pool, whose size follows the number of cores.
+     */
+    public static BinaryStorageFormat withDecodeThreads(int threads) {
+        return new BinaryStorageFormat(new ForkJoinPool(threads));
+    }
+
+    @Override
+    public boolean recognizes(byte[] header, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void write(TasksListSnapshot snapshot, long logSequence, OutputStream out) throws IOException {
+        final Encoder encoder = new Encoder(out);
+        encoder.writeBytes(MAGIC, 0, MAGIC.length);
+        encoder.writeByte(VERSION);
+        encoder.writeVarLong(snapshot.getNextId());
+        encoder.writeVarLong(logSequence);
+        encoder.writeVarLong(snapshot.size());
+        final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        final Encoder chunkEncoder = new Encoder(chunk);
+        int chunkTasks = 0;
+        for (TodoTask task : snapshot.getAllTasks()) {
+            writeRecord(chunkEncoder, task);
+            if (++chunkTasks == CHUNK_TASKS) {
+                writeChunk(encoder, chunkEncoder, chunk, chunkTasks);
+                chunkTasks = 0;
+            }
+        }
+        if (chunkTasks > 0) {
+            writeChunk(encoder, chunkEncoder, chunk, chunkTasks);
+        }
+        encoder.flush();
+    }
+
+    private static void writeChunk(Encoder encoder, Encoder chunkEncoder, ByteArrayOutputStream chunk, int tasks)
+            throws IOException {
+        chunkEncoder.flush();
+        encoder.writeVarLong(tasks);
+        encoder.writeVarLong(chunk.size());
+        encoder.drain();
+        chunk.writeTo(encoder.out);
+        chunk.reset();
+    }
+
+    private static void writeRecord(Encoder encoder, TodoTask task) throws IOException {
+        final byte[] details = task.getDetails().toString().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + varLongBytes(task.getId()) + varLongBytes(details.length) + details.length;
+        if (task instanceof EventTask) {
+            length += varLongBytes(zigzag(((EventTask) task).getStartMinutes()));
+        }
+        if (task instanceof TimedTask) {
+            length += varLongBytes(zigzag(((TimedTask) task).getEndMinutes()));
+        }
+        encoder.writeVarLong(length);
+        encoder.writeByte(task instanceof EventTask ? EVENT : task instanceof DeadlineTask ? DEADLINE : TODO);
+        encoder.writeVarLong(task.getId());
+        encoder.writeVarLong(details.length);
+        encoder.writeBytes(details, 0, details.length);
+        if (task instanceof EventTask) {
+            encoder.writeVarLong(zigzag(((EventTask) task).getStartMinutes()));
+        }
+        if (task instanceof TimedTask) {
+            encoder.writeVarLong(zigzag(((TimedTask) task).getEndMinutes()));
+        }
+    }
+
+    @Override
+    public Checkpoint read(InputStream in) throws IOException, StorageOperationException {
+        final Decoder decoder = new Decoder(in);
+        final long nextId;
+        final long logSequence;
+        final ArrayList<TodoTask> tasks;
+        try {
+            decoder.require(MAGIC.length + 1);
+            for (byte expected : MAGIC) {
+                if (decoder.buffer[decoder.position++] != expected) {
+                    throw new StorageOperationException("Error parsing file data format");
+                }
+            }
+            final int version = decoder.buffer[decoder.position++];
+            if (version > VERSION) {
+                throw new StorageOperationException("File was written by a newer version of Keyboard Warrior");
+            }
+            nextId = decoder.readVarLong();
+            logSequence = decoder.readVarLong();
+            final long count = decoder.readVarLong();
+            tasks = new ArrayList<>((int) Math.min(count, Integer.MAX_VALUE - 8));
+            if (version < 2) {
+                readRecords(decoder, count, tasks);
+            } else {
+                readChunks(decoder, count, tasks);
+            }
+        } catch (EOFException | IndexOutOfBoundsException e) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+        return new Checkpoint(new TasksList(tasks, nextId), logSequence);
+    }
+
+    /**
+     * Reads the chunks holding {@code count} tasks, handing each to the pool to decode as soon as it is read,
+     * and adds the tasks to {@code tasks} in file order.
+     */
+    private void readChunks(Decoder decoder, long count, ArrayList<TodoTask> tasks)
+            throws IOException, StorageOperationException {
+        final ForkJoinPool decoders = pool != null ? pool : ForkJoinPool.commonPool();
+        final ArrayList<ForkJoinTask<List<TodoTask>>> chunks = new ArrayList<>();
+        try {
+            long remaining = count;
+            while (remaining > 0) {
+                final long chunkTasks = decoder.readVarLong();
+                final int chunkBytes = (int) decoder.readVarLong();
+                if (chunkTasks <= 0 || chunkTasks > remaining || chunkBytes < 0) {
+                    throw new StorageOperationException("Error parsing file data format");
+                }
+                decoder.require(chunkBytes);
+                final byte[] chunk = new byte[chunkBytes];
+                System.arraycopy(decoder.buffer, decoder.position, chunk, 0, chunkBytes);
+                decoder.position += chunkBytes;
+                chunks.add(decoders.submit(() -> readChunk(chunk, (int) chunkTasks)));
+                remaining -= chunkTasks;
+            }
+            for (ForkJoinTask<List<TodoTask>> chunk : chunks) {
+                tasks.addAll(chunk.get());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading tasks");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            // The pool wraps the checked exceptions a chunk throws, and wraps them again if thrown on another thread
+            while (cause instanceof RuntimeException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof StorageOperationException) {
+                throw (StorageOperationException) cause;
+            }
+            if (cause instanceof IOException || cause instanceof IndexOutOfBoundsException) {
+                throw new StorageOperationException("File data missing some elements");
+            }
+            throw new IOException(cause);
+        } finally {
+            for (ForkJoinTask<List<TodoTask>> chunk : chunks) {
+                chunk.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Decodes a chunk, which must hold exactly {@code count} records.
+     */
+    private static List<TodoTask> readChunk(byte[] chunk, int count) throws IOException, StorageOperationException {
+        final Decoder decoder = new Decoder(chunk);
+        final ArrayList<TodoTask> tasks = new ArrayList<>(count);
+        readRecords(decoder, count, tasks);
+        if (decoder.position != decoder.limit) {
+            throw new StorageOperationException("Error parsing file data format");
+        }
+        return tasks;
+    }
+
+    /**
+     * Reads {@code count} records, adding the tasks of the kinds known to {@code tasks}.
+     */
+    private static void readRecords(Decoder decoder, long count, ArrayList<TodoTask> tasks)
+            throws IOException, StorageOperationException {
+        try {
+            for (long i = 0; i < count; i++) {
+                final int length = (int) decoder.readVarLong();
+                decoder.require(length);
+                final int recordEnd = decoder.position + length;
+                final byte kind = decoder.buffer[decoder.position++];
+                if (kind != TODO && kind != DEADLINE && kind != EVENT) {
+                    decoder.position = recordEnd;
+                    continue;
+                }
+                final long id = decoder.readBufferedVarLong();
+                final int detailsLength = (int) decoder.readBufferedVarLong();
+                final TaskDetails details = new TaskDetails(
+                        new String(decoder.buffer, decoder.position, detailsLength, StandardCharsets.UTF_8));
+                decoder.position += detailsLength;
+                if (kind == EVENT) {
+                    final StartTime start = StartTime.ofMinutes(unzigzag(decoder.readBufferedVarLong()));
+                    final EndTime end = EndTime.ofMinutes(unzigzag(decoder.readBufferedVarLong()));
+                    tasks.add(new EventTask(id, details, start, end));
+                } else if (kind == DEADLINE) {
+                    final EndTime end = EndTime.ofMinutes(unzigzag(decoder.readBufferedVarLong()));
+                    tasks.add(new DeadlineTask(id, details, end));
+                } else {
+                    tasks.add(new TodoTask(id, details));
+                }
+                if (decoder.position > recordEnd) {
+                    throw new StorageOperationException("Error parsing file data format");
+                }
+                decoder.position = recordEnd;
+            }
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varLongBytes(long value) {
+        int bytes = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    /** Writes bytes and varints to a stream through a fixed buffer. */
+    private static final class Encoder {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_BYTES];
+        private int position;
+
+        private Encoder(OutputStream out) {
+            this.out = out;
+        }
+
+        private void writeByte(int value) throws IOException {
+            if (position == buffer.length) {
+                drain();
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            if (buffer.length - position < MAX_VARINT_BYTES) {
+                drain();
+            }
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.length - position) {
+                drain();
+                if (length > buffer.length) {
+                    out.write(bytes, offset, length);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+        }
+
+        private void drain() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        private void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads varints from a stream through a buffer that {@link #require(int)} refills, and grows if a record
+     * is larger than it, so that a whole record can be decoded straight from {@link #buffer}.
+     */
+    private static final class Decoder {
+        private final InputStream in;
+        private byte[] buffer;
+        private int position;
+        private int limit;
+
+        private Decoder(InputStream in) {
+            this.in = in;
+            this.buffer = new byte[BUFFER_BYTES];
+        }
+
+        /** Reads from {@code bytes} alone. */
+        private Decoder(byte[] bytes) {
+            this.in = new ByteArrayInputStream(bytes, 0, 0);
+            this.buffer = bytes;
+            this.limit = bytes.length;
+        }
+
+        /**
+         * Makes sure the next {@code bytes} bytes are in the buffer.
+         *
+         * @throws EOFException if the stream ends first.
+         */
+        private void require(int bytes) throws IOException {
+            if (limit - position >= bytes) {
+                return;
+            }
+            if (bytes > buffer.length) {
+                final byte[] grown = new byte[Math.max(bytes, buffer.length * 2)];
+                System.arraycopy(buffer, position, grown, 0, limit - position);
+                buffer = grown;
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+            }
+            limit -= position;
+            position = 0;
+            while (limit < bytes) {
+                final int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                limit += read;
+            }
+        }
+
+        private long readVarLong() throws IOException {
+            if (limit - position < MAX_VARINT_BYTES) {
+                fillUpTo(MAX_VARINT_BYTES);
+            }
+            return readBufferedVarLong();
+        }
+
+        /**
+         * Reads a varint that is already in the buffer, without refilling it, so positions within the
+         * buffer stay valid.
+         */
+        private long readBufferedVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                if (position == limit) {
+                    throw new EOFException();
+                }
+                final byte next = buffer[position++];
+                value |= (long) (next & 0x7F) << shift;
+                if (next >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /** Reads until at least {@code bytes} bytes are buffered or the stream ends. */
+        private void fillUpTo(int bytes) throws IOException {
+            try {
+                require(bytes);
+            } catch (EOFException eofe) {
+                // A varint near the end of the stream is shorter than the most it could take
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+
+/**
+ * Contents of a storage file as read by a {@link StorageFormat}: the tasks, and the sequence number of the
+ * last logged change they include.
+ */
+public final class Checkpoint {
+
+    private final TasksList tasksList;
+    private final long logSequence;
+
+    public Checkpoint(TasksList tasksList, long logSequence) {
+        this.tasksList = tasksList;
+        this.logSequence = logSequence;
+    }
+
+    public TasksList getTasksList() {
+        return tasksList;
+    }
+
+    public long getLogSequence() {
+        return logSequence;
+    }
+}
@@ -0,0 +1,450 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.ReadOnlyTasksList;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Keeps the tasks in a database reached through JDBC, such as an embedded H2 or SQLite database file, one row
+ * per task. The driver is not bundled: whichever is on the class path when the application runs handles the URL.
+ *
+ * Saving diffs the list against the version last saved and turns every task added, edited or removed into
+ * single-row statements, all committed as one transaction, so a save costs O(changes) and is atomic. Every word
+ * of every task is also kept, lower cased, in an indexed table, so that {@link #findTasksContainingAnyKeyword}
+ * answers the find command with an indexed query rather than by going through every task. Loading still reads
+ * every task into the list, which the other commands and undoing work on.
+ *
+ * The tasks marked done are archived in tables of their own, next to the tasks, so the archive goes wherever
+ * the database does.
+ *
+ * Only standard SQL is used, so that any database with a JDBC driver can hold the tasks:
+ * <pre>
+ *   kw_meta(meta_key, meta_value)                          next ID
+ *   kw_tasks(id, kind, details, start_minutes, end_minutes)
+ *   kw_task_words(word, task_id)                           primary key (word, task_id), index on task_id
+ *   kw_archive(id, kind, details, start_minutes, end_minutes, seq)
+ *   kw_archive_words(word, task_id)                        primary key (word, task_id), index on task_id
+ * </pre>
+ */
+public class DatabaseStorage implements Storage {
+
+    private static final String NEXT_ID = "nextId";
+    private static final int BATCH_ROWS = 1000;
+
+    private static final int TODO = 0;
+    private static final int DEADLINE = 1;
+    private static final int EVENT = 2;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS kw_meta (meta_key VARCHAR(32) PRIMARY KEY, meta_value BIGINT NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS kw_tasks (id BIGINT PRIMARY KEY, kind SMALLINT NOT NULL, "
+                + "details VARCHAR NOT NULL, start_minutes INTEGER, end_minutes INTEGER)",
+        "CREATE TABLE IF NOT EXISTS kw_task_words (word VARCHAR NOT NULL, task_id BIGINT NOT NULL, "
+                + "PRIMARY KEY (word, task_id))",
+        "CREATE INDEX IF NOT EXISTS kw_task_words_task ON kw_task_words (task_id)",
+        "CREATE TABLE IF NOT EXISTS kw_archive (id BIGINT PRIMARY KEY, kind SMALLINT NOT NULL, "
+                + "details VARCHAR NOT NULL, start_minutes INTEGER, end_minutes INTEGER, seq BIGINT NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS kw_archive_words (word VARCHAR NOT NULL, task_id BIGINT NOT NULL, "
+                + "PRIMARY KEY (word, task_id))",
+        "CREATE INDEX IF NOT EXISTS kw_archive_words_task ON kw_archive_words (task_id)"
+    };
+    private static final String TASK_COLUMNS = "t.id, t.kind, t.details, t.start_minutes, t.end_minutes";
+
+    private final String url;
+    private final Connection connection;
+    private final PreparedStatement insertTask;
+    private final PreparedStatement updateTask;
+    private final PreparedStatement deleteTask;
+    private final PreparedStatement insertWord;
+    private final PreparedStatement deleteWords;
+    private final PreparedStatement updateNextId;
+    private final PreparedStatement insertNextId;
+    private final TaskArchive archive = new Archive();
+
+    /** The version last saved or loaded, which the next save writes the changes since, or null if none was. */
+    private TasksListSnapshot saved;
+
+    /**
+     * Connects to the database at {@code url}, creating the tables if they are missing.
+     *
+     * @throws StorageOperationException if there is no driver for the URL, or the database cannot be reached.
+     */
+    public DatabaseStorage(String url) throws StorageOperationException {
+        this.url = url;
+        try {
+            connection = DriverManager.getConnection(url);
+            try (final Statement statement = connection.createStatement()) {
+                for (String table : SCHEMA) {
+                    statement.execute(table);
+                }
+            }
+            connection.setAutoCommit(false);
+            connection.commit();
+            insertTask = connection.prepareStatement(
+                    "INSERT INTO kw_tasks (kind, details, start_minutes, end_minutes, id) VALUES (?, ?, ?, ?, ?)");
+            updateTask = connection.prepareStatement(
+                    "UPDATE kw_tasks SET kind = ?, details = ?, start_minutes = ?, end_minutes = ? WHERE id = ?");
+            deleteTask = connection.prepareStatement("DELETE FROM kw_tasks WHERE id = ?");
+            insertWord = connection.prepareStatement("INSERT INTO kw_task_words (word, task_id) VALUES (?, ?)");
+            deleteWords = connection.prepareStatement("DELETE FROM kw_task_words WHERE task_id = ?");
+            updateNextId = connection.prepareStatement("UPDATE kw_meta SET meta_value = ? WHERE meta_key = ?");
+            insertNextId = connection.prepareStatement("INSERT INTO kw_meta (meta_value, meta_key) VALUES (?, ?)");
+        } catch (SQLException sqle) {
+            throw new StorageOperationException("Error connecting to database: " + url + " error: " + sqle.getMessage());
+        }
+    }
+
+    /**
+     * Reads every task into a new list.
+     */
+    @Override
+    public synchronized TasksList load() throws StorageOperationException {
+        try (final Statement statement = connection.createStatement()) {
+            long nextId = TodoTask.UNASSIGNED_ID + 1;
+            try (final ResultSet meta = statement.executeQuery(
+                    "SELECT meta_value FROM kw_meta WHERE meta_key = '" + NEXT_ID + "'")) {
+                if (meta.next()) {
+                    nextId = meta.getLong(1);
+                }
+            }
+            final ArrayList<TodoTask> tasks = new ArrayList<>();
+            try (final ResultSet rows = statement.executeQuery(
+                    "SELECT " + TASK_COLUMNS + " FROM kw_tasks t ORDER BY t.id")) {
+                while (rows.next()) {
+                    tasks.add(toTask(rows));
+                }
+            }
+            connection.commit();
+            final TasksList loaded = new TasksList(tasks, nextId);
+            saved = loaded.snapshot();
+            return loaded;
+        } catch (SQLException sqle) {
+            throw new StorageOperationException("Error reading from database: " + url + " error: " + sqle.getMessage());
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        }
+    }
+
+    /**
+     * Writes the changes since the last save or load as one transaction, or every task if there was neither.
+     * The single-row statements are sent in batches of each kind, in an order that keeps each task's rows
+     * consistent: its old words are deleted before its new ones are inserted.
+     */
+    @Override
+    public synchronized void save(TasksList tasksList) throws StorageOperationException {
+        final TasksListSnapshot current = tasksList.snapshot();
+        try {
+            final TasksListSnapshot base;
+            if (saved == null) {
+                try (final Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("DELETE FROM kw_task_words");
+                    statement.executeUpdate("DELETE FROM kw_tasks");
+                }
+                base = TasksList.empty().snapshot();
+            } else {
+                base = saved;
+            }
+            final List<Long> removed = new ArrayList<>();
+            final List<TodoTask> changed = new ArrayList<>();
+            current.forEachChangeSince(base, (id, task) -> {
+                if (task == null) {
+                    removed.add(id);
+                } else {
+                    changed.add(task);
+                }
+            });
+            int rows = 0;
+            for (long id : removed) {
+                deleteWords.setLong(1, id);
+                deleteWords.addBatch();
+                deleteTask.setLong(1, id);
+                deleteTask.addBatch();
+                if (++rows % BATCH_ROWS == 0) {
+                    executeBatches();
+                }
+            }
+            for (TodoTask task : changed) {
+                if (base.getTaskById(task.getId()) == null) {
+                    bind(insertTask, task);
+                    insertTask.addBatch();
+                } else {
+                    bind(updateTask, task);
+                    updateTask.addBatch();
+                    deleteWords.setLong(1, task.getId());
+                    deleteWords.addBatch();
+                }
+                bindWords(insertWord, task);
+                if (++rows % BATCH_ROWS == 0) {
+                    executeBatches();
+                }
+            }
+            executeBatches();
+            if (base.getNextId() != current.getNextId()) {
+                writeNextId(current.getNextId());
+            }
+            connection.commit();
+            saved = current;
+        } catch (SQLException sqle) {
+            rollback();
+            throw new StorageOperationException("Error writing to database: " + url + " error: " + sqle.getMessage());
+        }
+    }
+
+    private void executeBatches() throws SQLException {
+        deleteWords.executeBatch();
+        deleteTask.executeBatch();
+        updateTask.executeBatch();
+        insertTask.executeBatch();
+        insertWord.executeBatch();
+    }
+
+    /**
+     * Does nothing, as every save is committed before it returns.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Returns the archive kept in the database.
+     */
+    @Override
+    public TaskArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    public String getPath() {
+        return url;
+    }
+
+    /**
+     * Retrieves from the database, as of the last save, every task whose details contain any of the given
+     * keywords, in display order, through the index of words. Matching is not case sensitive and only matches
+     * whole words, as {@link TasksList#findTasksContainingAnyKeyword} does.
+     *
+     * @throws StorageOperationException if the database could not be read.
+     */
+    @Override
+    public synchronized Optional<List<TodoTask>> findTasksContainingAnyKeyword(Collection<String> keywords)
+            throws StorageOperationException {
+        return Optional.of(findTasks("kw_tasks", "kw_task_words", "t.id", keywords));
+    }
+
+    /**
+     * Closes the connection to the database.
+     */
+    public synchronized void close() throws StorageOperationException {
+        try {
+            connection.close();
+        } catch (SQLException sqle) {
+            throw new StorageOperationException("Error closing database: " + url + " error: " + sqle.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves the rows of {@code tasks} whose words in {@code words} include any of {@code keywords}, ordered
+     * by {@code order}.
+     */
+    private List<TodoTask> findTasks(String tasks, String words, String order, Collection<String> keywords)
+            throws StorageOperationException {
+        final Set<String> normalized = new LinkedHashSet<>();
+        for (String keyword : keywords) {
+            normalized.add(keyword.toLowerCase());
+        }
+        final List<TodoTask> found = new ArrayList<>();
+        if (normalized.isEmpty()) {
+            return found;
+        }
+        final StringBuilder query = new StringBuilder("SELECT ").append(TASK_COLUMNS).append(" FROM ").append(tasks)
+                .append(" t WHERE t.id IN (SELECT w.task_id FROM ").append(words).append(" w WHERE w.word IN (");
+        for (int i = 0; i < normalized.size(); i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(")) ORDER BY ").append(order);
+        try (final PreparedStatement statement = connection.prepareStatement(query.toString())) {
+            int parameter = 1;
+            for (String word : normalized) {
+                statement.setString(parameter++, word);
+            }
+            try (final ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    found.add(toTask(rows));
+                }
+            }
+            connection.commit();
+            return found;
+        } catch (SQLException sqle) {
+            throw new StorageOperationException("Error reading from database: " + url + " error: " + sqle.getMessage());
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        }
+    }
+
+    private void writeNextId(long nextId) throws SQLException {
+        updateNextId.setLong(1, nextId);
+        updateNextId.setString(2, NEXT_ID);
+        if (updateNextId.executeUpdate() == 0) {
+            insertNextId.setLong(1, nextId);
+            insertNextId.setString(2, NEXT_ID);
+            insertNextId.executeUpdate();
+        }
+    }
+
+    /**
+     * Binds the columns of {@code task} to an insert or update, which both take the ID last.
+     */
+    private static void bind(PreparedStatement statement, TodoTask task) throws SQLException {
+        statement.setInt(1, task instanceof EventTask ? EVENT : task instanceof DeadlineTask ? DEADLINE : TODO);
+        statement.setString(2, task.getDetails().toString());
+        if (task instanceof EventTask) {
+            statement.setInt(3, ((EventTask) task).getStartMinutes());
+        } else {
+            statement.setNull(3, Types.INTEGER);
+        }
+        if (task instanceof TimedTask) {
+            statement.setInt(4, ((TimedTask) task).getEndMinutes());
+        } else {
+            statement.setNull(4, Types.INTEGER);
+        }
+        statement.setLong(5, task.getId());
+    }
+
+    /**
+     * Adds a row for every distinct word of {@code task} to the batch of {@code insert}.
+     */
+    private static void bindWords(PreparedStatement insert, TodoTask task) throws SQLException {
+        final Set<String> words = new LinkedHashSet<>();
+        for (String word : task.getDetails().getWordsInDetails()) {
+            words.add(word.toLowerCase());
+        }
+        for (String word : words) {
+            insert.setString(1, word);
+            insert.setLong(2, task.getId());
+            insert.addBatch();
+        }
+    }
+
+    private static TodoTask toTask(ResultSet row) throws SQLException, IllegalValueException {
+        final long id = row.getLong(1);
+        final int kind = row.getInt(2);
+        final TaskDetails details = new TaskDetails(row.getString(3));
+        if (kind == EVENT) {
+            return new EventTask(id, details, StartTime.ofMinutes(row.getInt(4)), EndTime.ofMinutes(row.getInt(5)));
+        } else if (kind == DEADLINE) {
+            return new DeadlineTask(id, details, EndTime.ofMinutes(row.getInt(5)));
+        }
+        return new TodoTask(id, details);
+    }
+
+    private void rollback() {
+        try {
+            for (PreparedStatement statement : new PreparedStatement[] {
+                    deleteWords, deleteTask, updateTask, insertTask, insertWord }) {
+                statement.clearBatch();
+            }
+            connection.rollback();
+        } catch (SQLException sqle) {
+            // The transaction is abandoned either way; the next save writes the same changes again
+        }
+    }
+
+    /**
+     * The tasks marked done, in the archive tables. Each change is committed as one transaction of its own,
+     * taken under the lock of the storage, so it never mixes with a save.
+     */
+    private class Archive implements TaskArchive {
+
+        @Override
+        public void archive(TodoTask task) throws StorageOperationException {
+            synchronized (DatabaseStorage.this) {
+                try {
+                    deleteArchived(task.getId());
+                    long seq = 1;
+                    try (final Statement statement = connection.createStatement();
+                            final ResultSet last = statement.executeQuery("SELECT MAX(seq) FROM kw_archive")) {
+                        if (last.next()) {
+                            seq = last.getLong(1) + 1;
+                        }
+                    }
+                    try (final PreparedStatement insert = connection.prepareStatement("INSERT INTO kw_archive "
+                            + "(kind, details, start_minutes, end_minutes, id, seq) VALUES (?, ?, ?, ?, ?, ?)")) {
+                        bind(insert, task);
+                        insert.setLong(6, seq);
+                        insert.executeUpdate();
+                    }
+                    try (final PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO kw_archive_words (word, task_id) VALUES (?, ?)")) {
+                        bindWords(insert, task);
+                        insert.executeBatch();
+                    }
+                    connection.commit();
+                } catch (SQLException sqle) {
+                    rollback();
+                    throw new StorageOperationException("Error writing to database: " + url + " error: "
+                            + sqle.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void drop(long id) throws StorageOperationException {
+            synchronized (DatabaseStorage.this) {
+                try {
+                    deleteArchived(id);
+                    connection.commit();
+                } catch (SQLException sqle) {
+                    rollback();
+                    throw new StorageOperationException("Error writing to database: " + url + " error: "
+                            + sqle.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public List<TodoTask> find(Collection<String> keywords, ReadOnlyTasksList current)
+                throws StorageOperationException {
+            final List<TodoTask> found;
+            synchronized (DatabaseStorage.this) {
+                found = findTasks("kw_archive", "kw_archive_words", "t.seq", keywords);
+            }
+            final List<TodoTask> tasks = new ArrayList<>();
+            for (TodoTask task : found) {
+                if (current.getTaskById(task.getId()) == null) {
+                    task.markDone();
+                    tasks.add(task);
+                }
+            }
+            return tasks;
+        }
+
+        private void deleteArchived(long id) throws SQLException {
+            try (final PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM kw_archive_words WHERE task_id = ?")) {
+                delete.setLong(1, id);
+                delete.executeUpdate();
+            }
+            try (final PreparedStatement delete = connection.prepareStatement("DELETE FROM kw_archive WHERE id = ?")) {
+                delete.setLong(1, id);
+                delete.executeUpdate();
+            }
+        }
+    }
+}
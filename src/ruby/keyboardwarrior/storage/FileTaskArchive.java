@@ -0,0 +1,443 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.ReadOnlyTasksList;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archive kept in a file, for the storage that keeps the tasks in files. Of the archive, only the IDs of the
+ * tasks it holds and the entries not compressed yet are kept in memory; {@link #find(Collection, ReadOnlyTasksList)}
+ * reads the rest from the file when asked.
+ *
+ * Entries are appended to a tail file next to the archive, framed as [int length][int CRC32][entry], and forced,
+ * so marking a task done costs one small write. Once the tail holds {@link #BLOCK_ENTRIES} entries, they are
+ * deflated together into a block appended to the archive file, framed as
+ * <pre>
+ *   [int magic][int entry count][int raw length][int compressed length][int CRC32]
+ *   [long ID per entry][deflated entries, each as [int length][entry]]
+ * </pre>
+ * and the tail is emptied. The IDs, negated for an entry that drops a task, are kept outside the deflated
+ * entries so that opening the archive only reads the block headers. An entry is a change as {@link MutationLog}
+ * writes it: a task put under its ID, or the task under an ID removed. Replaying entries again, as a crash
+ * between appending a block and emptying the tail leaves them twice, changes nothing.
+ *
+ * Processes sharing the archive take turns through a lock on the tail file, and one that finds either file
+ * changed since its last turn reads what was added.
+ */
+public class FileTaskArchive implements TaskArchive {
+
+    /** How many entries the tail gathers before they are compressed into a block. */
+    public static final int BLOCK_ENTRIES = 256;
+
+    private static final int MAGIC = 0x4b574142; // "KWAB"
+    private static final int BLOCK_HEADER_BYTES = 5 * Integer.BYTES;
+    private static final int FRAME_BYTES = 2 * Integer.BYTES;
+
+    private static final ConcurrentHashMap<Path, FileTaskArchive> ARCHIVES = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final Path tailPath;
+
+    /** Open, for reading and writing, once the archive is first used. */
+    private FileChannel tail;
+    /** IDs of the tasks archived and not dropped since. */
+    private final Set<Long> archivedIds = new HashSet<>();
+    /** The entries in the tail file, in order. */
+    private final List<byte[]> tailEntries = new ArrayList<>();
+    /** How much of each file this process has read or written, or -1 before the archive is first used. */
+    private long archiveBytes = -1;
+    private long tailBytes;
+
+    private FileTaskArchive(Path path) {
+        this.path = path;
+        this.tailPath = path.resolveSibling(path.getFileName() + ".tail");
+    }
+
+    /**
+     * Returns the archive at {@code path}, shared by all storage of this process that archives there, as the
+     * lock it takes turns through is held per process.
+     */
+    static FileTaskArchive of(Path path) {
+        return ARCHIVES.computeIfAbsent(path.toAbsolutePath().normalize(), FileTaskArchive::new);
+    }
+
+    @Override
+    public synchronized void archive(TodoTask task) throws StorageOperationException {
+        try {
+            final FileLock turn = beginTurn();
+            try {
+                append(encode(task.getId(), task));
+            } finally {
+                turn.release();
+            }
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + path + " error: " + ioe.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void drop(long id) throws StorageOperationException {
+        try {
+            if (archiveBytes < 0) {
+                if (!Files.exists(path) && !Files.exists(tailPath)) {
+                    return;
+                }
+                // Reads the block headers, so that only dropping a task that is archived takes a turn
+                beginTurn().release();
+            }
+            if (!archivedIds.contains(id)) {
+                return;
+            }
+            final FileLock turn = beginTurn();
+            try {
+                if (archivedIds.contains(id)) {
+                    append(encode(id, null));
+                }
+            } finally {
+                turn.release();
+            }
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + path + " error: " + ioe.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized List<TodoTask> find(Collection<String> keywords, ReadOnlyTasksList current)
+            throws StorageOperationException {
+        final Set<String> normalized = new HashSet<>();
+        for (String keyword : keywords) {
+            normalized.add(keyword.toLowerCase());
+        }
+        final LinkedHashMap<Long, TodoTask> found = new LinkedHashMap<>();
+        try {
+            final FileLock turn = beginTurn();
+            try {
+                if (archiveBytes > 0) {
+                    try (final FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                        long offset = 0;
+                        while (offset < archiveBytes) {
+                            offset = findInBlock(in, offset, normalized, found);
+                        }
+                    }
+                }
+                for (byte[] entry : tailEntries) {
+                    findInEntry(entry, 0, entry.length, normalized, found);
+                }
+            } finally {
+                turn.release();
+            }
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        } catch (IOException | DataFormatException e) {
+            throw new StorageOperationException("Error reading from file: " + path + " error: " + e.getMessage());
+        }
+
+        final ArrayList<TodoTask> tasks = new ArrayList<>();
+        for (TodoTask task : found.values()) {
+            if (archivedIds.contains(task.getId()) && current.getTaskById(task.getId()) == null) {
+                task.markDone();
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Locks the archive for this process, and reads whatever other processes added to it since the last turn.
+     */
+    private FileLock beginTurn() throws IOException {
+        if (tail == null) {
+            tail = FileChannel.open(tailPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        final FileLock lock = tail.lock();
+        try {
+            final long archiveSize = Files.exists(path) ? Files.size(path) : 0;
+            final boolean archiveChanged = archiveSize != archiveBytes;
+            if (archiveSize < archiveBytes) {
+                archivedIds.clear();
+                archiveBytes = -1;
+            }
+            if (archiveChanged) {
+                readBlockHeaders(archiveSize);
+            }
+            if (archiveChanged || tail.size() != tailBytes) {
+                readTail();
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.release();
+            throw e;
+        }
+        return lock;
+    }
+
+    /**
+     * Applies the IDs of the blocks from where this process last read up to {@code archiveSize}, and cuts off
+     * a block that a crash left incomplete.
+     */
+    private void readBlockHeaders(long archiveSize) throws IOException {
+        long offset = Math.max(0, archiveBytes);
+        if (archiveSize > offset) {
+            try (final FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (archiveSize - offset >= BLOCK_HEADER_BYTES) {
+                    final ByteBuffer header = readFully(in, offset, BLOCK_HEADER_BYTES);
+                    final int count = header.getInt(Integer.BYTES);
+                    final int compressedBytes = header.getInt(3 * Integer.BYTES);
+                    final long blockBytes = BLOCK_HEADER_BYTES + (long) count * Long.BYTES + compressedBytes;
+                    if (header.getInt(0) != MAGIC || count < 0 || compressedBytes < 0
+                            || blockBytes > archiveSize - offset) {
+                        break;
+                    }
+                    final ByteBuffer ids = readFully(in, offset + BLOCK_HEADER_BYTES, count * Long.BYTES);
+                    // Only the last block can have been cut short, so it alone is checked in full
+                    if (offset + blockBytes == archiveSize) {
+                        final ByteBuffer compressed = readFully(in, offset + BLOCK_HEADER_BYTES + ids.capacity(),
+                                compressedBytes);
+                        if (checksum(ids, compressed) != header.getInt(4 * Integer.BYTES)) {
+                            break;
+                        }
+                    }
+                    for (int i = 0; i < count; i++) {
+                        final long id = ids.getLong(i * Long.BYTES);
+                        if (id < 0) {
+                            archivedIds.remove(-id);
+                        } else {
+                            archivedIds.add(id);
+                        }
+                    }
+                    offset += blockBytes;
+                }
+            }
+        }
+        if (offset < archiveSize) {
+            try (final FileChannel truncating = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncating.truncate(offset);
+            }
+        }
+        archiveBytes = offset;
+    }
+
+    /**
+     * Reads the entries of the tail, which stop at the first that is cut short or fails its checksum.
+     */
+    private void readTail() throws IOException {
+        final long tailSize = tail.size();
+        final ByteBuffer frames = readFully(tail, 0, (int) tailSize);
+        tailEntries.clear();
+        int offset = 0;
+        while (tailSize - offset >= FRAME_BYTES) {
+            final int length = frames.getInt(offset);
+            if (length < 0 || length > tailSize - offset - FRAME_BYTES) {
+                break;
+            }
+            final byte[] entry = new byte[length];
+            frames.position(offset + FRAME_BYTES);
+            frames.get(entry);
+            if (checksum(ByteBuffer.wrap(entry)) != frames.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+            tailEntries.add(entry);
+            apply(entry);
+            offset += FRAME_BYTES + length;
+        }
+        if (offset < tailSize) {
+            tail.truncate(offset);
+        }
+        tailBytes = offset;
+    }
+
+    /**
+     * Appends {@code entry} to the tail, and compresses the tail into a block once it is full.
+     */
+    private void append(byte[] entry) throws IOException {
+        final ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES + entry.length);
+        frame.putInt(entry.length).putInt(checksum(ByteBuffer.wrap(entry))).put(entry).flip();
+        writeFully(tail, tailBytes, frame);
+        tail.force(false);
+        tailBytes += frame.capacity();
+        tailEntries.add(entry);
+        apply(entry);
+        if (tailEntries.size() >= BLOCK_ENTRIES) {
+            seal();
+        }
+    }
+
+    /**
+     * Compresses the entries of the tail into a block appended to the archive, then empties the tail.
+     */
+    private void seal() throws IOException {
+        final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(raw);
+        final ByteBuffer ids = ByteBuffer.allocate(tailEntries.size() * Long.BYTES);
+        for (byte[] entry : tailEntries) {
+            out.writeInt(entry.length);
+            out.write(entry);
+            final long id = ByteBuffer.wrap(entry).getLong(1);
+            ids.putLong(entry[0] == MutationLog.REMOVE ? -id : id);
+        }
+        ids.flip();
+
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try {
+            deflater.setInput(raw.toByteArray());
+            deflater.finish();
+            final byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        final ByteBuffer data = ByteBuffer.wrap(compressed.toByteArray());
+
+        final ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + ids.capacity() + data.capacity());
+        block.putInt(MAGIC).putInt(tailEntries.size()).putInt(raw.size()).putInt(data.capacity())
+                .putInt(checksum(ids, data)).put(ids).put(data).flip();
+        try (final FileChannel archive = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            writeFully(archive, archiveBytes, block);
+            archive.force(false);
+        }
+        archiveBytes += block.capacity();
+
+        tail.truncate(0);
+        tail.force(false);
+        tailEntries.clear();
+        tailBytes = 0;
+    }
+
+    /**
+     * Adds the tasks of the block at {@code offset} that match {@code keywords} to {@code found}, and returns
+     * where the next block starts.
+     */
+    private long findInBlock(FileChannel in, long offset, Set<String> keywords, LinkedHashMap<Long, TodoTask> found)
+            throws IOException, DataFormatException, IllegalValueException {
+        final ByteBuffer header = readFully(in, offset, BLOCK_HEADER_BYTES);
+        final int count = header.getInt(Integer.BYTES);
+        final int rawBytes = header.getInt(2 * Integer.BYTES);
+        final ByteBuffer ids = readFully(in, offset + BLOCK_HEADER_BYTES, count * Long.BYTES);
+        final ByteBuffer compressed = readFully(in, offset + BLOCK_HEADER_BYTES + ids.capacity(),
+                header.getInt(3 * Integer.BYTES));
+        if (checksum(ids, compressed) != header.getInt(4 * Integer.BYTES)) {
+            throw new IOException("Archive block at " + offset + " fails its checksum");
+        }
+
+        final byte[] raw = new byte[rawBytes];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int inflated = 0;
+            while (inflated < rawBytes) {
+                final int read = inflater.inflate(raw, inflated, rawBytes - inflated);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Archive block at " + offset + " is cut short");
+                }
+                inflated += read;
+            }
+        } finally {
+            inflater.end();
+        }
+
+        final ByteBuffer entries = ByteBuffer.wrap(raw);
+        for (int i = 0; i < count; i++) {
+            final int length = entries.getInt();
+            findInEntry(raw, entries.position(), length, keywords, found);
+            entries.position(entries.position() + length);
+        }
+        return offset + BLOCK_HEADER_BYTES + ids.capacity() + compressed.capacity();
+    }
+
+    /**
+     * Applies the entry at {@code offset} to {@code found}: a task put that matches {@code keywords} goes last,
+     * replacing what was found under its ID before, and anything else only removes what was found under it.
+     * Only the tasks that match are decoded, so that searching does not add the words of every archived task
+     * to the shared dictionary.
+     */
+    private static void findInEntry(byte[] entries, int offset, int length, Set<String> keywords,
+            LinkedHashMap<Long, TodoTask> found) throws IOException, IllegalValueException {
+        final ByteBuffer entry = ByteBuffer.wrap(entries, offset, length);
+        final byte type = entry.get();
+        final long id = entry.getLong();
+        found.remove(id);
+        if (type == MutationLog.REMOVE) {
+            return;
+        }
+        final int detailsLength = entry.getInt();
+        final String details = new String(entries, entry.position(), detailsLength, StandardCharsets.UTF_8);
+        for (String word : details.split("\\s+")) {
+            if (keywords.contains(word.toLowerCase())) {
+                found.put(id, MutationLog.readTask(
+                        new DataInputStream(new ByteArrayInputStream(entries, offset, length))));
+                return;
+            }
+        }
+    }
+
+    private void apply(byte[] entry) {
+        final long id = ByteBuffer.wrap(entry).getLong(1);
+        if (entry[0] == MutationLog.REMOVE) {
+            archivedIds.remove(id);
+        } else {
+            archivedIds.add(id);
+        }
+    }
+
+    private static byte[] encode(long id, TodoTask task) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        MutationLog.writeChange(out, id, task);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static ByteBuffer readFully(FileChannel in, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel out, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static int checksum(ByteBuffer... parts) {
+        final CRC32 crc = new CRC32();
+        for (ByteBuffer part : parts) {
+            crc.update(part.array(), part.arrayOffset(), part.limit());
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,52 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Converts a storage file to another {@link StorageFormat}, such as a {@code keyboardwarrior.txt} written as
+ * XML by an earlier version to the binary format. The original is kept with {@code .bak} appended. The log
+ * next to the file needs no conversion, as the converted file includes the same logged changes.
+ * Run with {@code java ruby.keyboardwarrior.storage.FormatConverter FILE [binary|mapped|xml]}.
+ */
+public final class FormatConverter {
+
+    private FormatConverter() {}
+
+    public static void main(String[] args) throws Exception {
+        final String formatName = args.length == 2 ? args[1] : "binary";
+        final StorageFormat format = StorageFormat.named(formatName);
+        if (args.length < 1 || args.length > 2 || format == null) {
+            System.err.println("Usage: FormatConverter FILE [binary|mapped|xml]");
+            System.exit(2);
+        }
+        final Path file = Paths.get(args[0]);
+        final long before = Files.size(file);
+        final int tasks = convert(file, format);
+        System.out.println(String.format("Converted %d tasks in %s to %s: %,d bytes, was %,d bytes",
+                tasks, file, formatName.toLowerCase(), Files.size(file), before));
+    }
+
+    /**
+     * Rewrites {@code file} in the given format, keeping the original with {@code .bak} appended.
+     *
+     * @return the number of tasks converted
+     * @throws StorageOperationException if the file is in no known format or violates the task constraints.
+     */
+    public static int convert(Path file, StorageFormat to) throws IOException, StorageOperationException {
+        final Checkpoint checkpoint = StorageFile.readCheckpoint(file);
+        final Path temporary = file.resolveSibling(file.getFileName() + ".converting.tmp");
+        try (final OutputStream out = Files.newOutputStream(temporary)) {
+            to.write(checkpoint.getTasksList().snapshot(), checkpoint.getLogSequence(), out);
+        }
+        Files.copy(file, file.resolveSibling(file.getFileName() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return checkpoint.getTasksList().size();
+    }
+}
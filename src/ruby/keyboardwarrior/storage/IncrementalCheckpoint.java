@@ -0,0 +1,31 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.IOException;
+
+/**
+ * Checkpoint of a {@link StorageFile} laid out so that writing one only writes what changed since the
+ * previous one, rather than the whole list in a {@link StorageFormat}.
+ */
+interface IncrementalCheckpoint {
+
+    /**
+     * Reads the checkpoint, and remembers what it holds so that the next write only writes what changed.
+     * A storage file in a single-file {@link StorageFormat} is read as such, and is replaced at the next write.
+     *
+     * @throws java.nio.file.NoSuchFileException if there is no checkpoint.
+     * @throws StorageOperationException if the data is in no known format or violates the task constraints.
+     */
+    Checkpoint read() throws IOException, StorageOperationException;
+
+    /**
+     * Writes {@code snapshot}, which holds every change up to {@code sequence}, unless a later version has been
+     * written meanwhile.
+     *
+     * @return false if a later version had been written, and nothing was.
+     * @throws StorageOperationException if data already written is not in the expected format.
+     */
+    boolean write(TasksListSnapshot snapshot, long sequence) throws IOException, StorageOperationException;
+}
@@ -0,0 +1,308 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Stores the tasks in a layout that is read by mapping the file into memory rather than parsing it:
+ * <pre>
+ *   header:     "KWMS" magic, format version byte, 3 reserved bytes, long next ID, long log sequence, int task count
+ *   records:    byte kind, long ID, int start minutes, int end minutes, int word count, int file word IDs,
+ *               int irregular text length, UTF-8 irregular text
+ *   offsets:    int offset of every record, in ID order
+ *   dictionary: int word length, UTF-8 word, for every word the records use, numbered from 0
+ *   footer:     long offsets offset, long dictionary offset, int word count, "KWMS" magic
+ * </pre>
+ * Reading decodes the header, the times of each record and the dictionary, whose words are entered into the
+ * shared {@link TokenDictionary}; the details of each task stay in the mapping behind a handle to the record's
+ * slot in the offset table, and are only decoded when the task is displayed or compared. The details of a large
+ * list therefore take no heap, and loading does not decode or tokenize any text.
+ *
+ * The mapping lives as long as any task read from it, so the file must not be changed in place meanwhile.
+ * {@link StorageFile} never does, as it renames new checkpoints over the old one, but renaming over a mapped
+ * file fails on Windows, which is why this format is not the default. A single mapping holds at most 2 GB.
+ */
+public final class MappedStorageFormat implements StorageFormat {
+
+    /** Version written by this class; files of a later version are rejected rather than misread. */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = { 'K', 'W', 'M', 'S' };
+    private static final int HEADER_BYTES = MAGIC.length + 4 + 2 * Long.BYTES + Integer.BYTES;
+    private static final int FOOTER_BYTES = 2 * Long.BYTES + Integer.BYTES + MAGIC.length;
+
+    private static final byte TODO = 0;
+    private static final byte DEADLINE = 1;
+    private static final byte EVENT = 2;
+
+    /* Positions of the fields of a record, from its start. */
+    private static final int KIND = 0;
+    private static final int ID = 1;
+    private static final int START = ID + Long.BYTES;
+    private static final int END = START + Integer.BYTES;
+    private static final int WORD_COUNT = END + Integer.BYTES;
+    private static final int WORDS = WORD_COUNT + Integer.BYTES;
+
+    /**
+     * A mapped file, with the ID in the shared {@link TokenDictionary} of every word in its dictionary.
+     */
+    private static final class Mapping {
+        private final ByteBuffer buffer;
+        private final int offsetsStart;
+        private final int[] wordIds;
+
+        private Mapping(ByteBuffer buffer, int offsetsStart, int[] wordIds) {
+            this.buffer = buffer;
+            this.offsetsStart = offsetsStart;
+            this.wordIds = wordIds;
+        }
+
+        private int recordOffset(int slot) {
+            return buffer.getInt(offsetsStart + slot * Integer.BYTES);
+        }
+    }
+
+    /** Details decoded from a record of a {@link Mapping} whenever they are read. */
+    private static final class MappedTaskDetails extends TaskDetails {
+        private final Mapping mapping;
+        private final int slot;
+
+        private MappedTaskDetails(Mapping mapping, int slot) {
+            this.mapping = mapping;
+            this.slot = slot;
+        }
+
+        @Override
+        public int getWordCount() {
+            return mapping.buffer.getInt(mapping.recordOffset(slot) + WORD_COUNT);
+        }
+
+        @Override
+        public int getWordId(int index) {
+            final int offset = mapping.recordOffset(slot);
+            final int count = mapping.buffer.getInt(offset + WORD_COUNT);
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Words: " + count);
+            }
+            return mapping.wordIds[mapping.buffer.getInt(offset + WORDS + index * Integer.BYTES)];
+        }
+
+        @Override
+        public String getIrregularText() {
+            final int offset = mapping.recordOffset(slot);
+            final int textStart = offset + WORDS + mapping.buffer.getInt(offset + WORD_COUNT) * Integer.BYTES;
+            final int textLength = mapping.buffer.getInt(textStart);
+            if (textLength == 0) {
+                return null;
+            }
+            return decode(mapping.buffer, textStart + Integer.BYTES, textLength);
+        }
+    }
+
+    MappedStorageFormat() {}
+
+    @Override
+    public boolean recognizes(byte[] header, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void write(TasksListSnapshot snapshot, long logSequence, OutputStream out)
+            throws IOException, StorageOperationException {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        data.write(new byte[3]);
+        data.writeLong(snapshot.getNextId());
+        data.writeLong(logSequence);
+        data.writeInt(snapshot.size());
+
+        final int[] offsets = new int[snapshot.size()];
+        int[] fileWordIds = new int[TokenDictionary.shared().size()];
+        Arrays.fill(fileWordIds, -1);
+        int[] words = new int[1024];
+        int wordCount = 0;
+        int slot = 0;
+        for (TodoTask task : snapshot.getAllTasks()) {
+            offsets[slot++] = checkedPosition(data);
+            final TaskDetails details = task.getDetails();
+            data.writeByte(task instanceof EventTask ? EVENT : task instanceof DeadlineTask ? DEADLINE : TODO);
+            data.writeLong(task.getId());
+            data.writeInt(task instanceof EventTask ? ((EventTask) task).getStartMinutes() : 0);
+            data.writeInt(task instanceof TimedTask ? ((TimedTask) task).getEndMinutes() : 0);
+            final int count = details.getWordCount();
+            data.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                final int id = details.getWordId(i);
+                if (id >= fileWordIds.length) {
+                    final int grown = fileWordIds.length;
+                    fileWordIds = Arrays.copyOf(fileWordIds, Math.max(id + 1, grown * 2));
+                    Arrays.fill(fileWordIds, grown, fileWordIds.length, -1);
+                }
+                if (fileWordIds[id] < 0) {
+                    if (wordCount == words.length) {
+                        words = Arrays.copyOf(words, wordCount * 2);
+                    }
+                    fileWordIds[id] = wordCount;
+                    words[wordCount++] = id;
+                }
+                data.writeInt(fileWordIds[id]);
+            }
+            final String irregular = details.getIrregularText();
+            final byte[] text = irregular == null ? new byte[0] : irregular.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(text.length);
+            data.write(text);
+        }
+
+        final long offsetsStart = checkedPosition(data);
+        for (int offset : offsets) {
+            data.writeInt(offset);
+        }
+        final long dictionaryStart = checkedPosition(data);
+        final TokenDictionary dictionary = TokenDictionary.shared();
+        for (int i = 0; i < wordCount; i++) {
+            final byte[] word = dictionary.wordOf(words[i]).getBytes(StandardCharsets.UTF_8);
+            data.writeInt(word.length);
+            data.write(word);
+        }
+        data.writeLong(offsetsStart);
+        data.writeLong(dictionaryStart);
+        data.writeInt(wordCount);
+        data.write(MAGIC);
+        checkedPosition(data);
+        data.flush();
+    }
+
+    /**
+     * Maps the file and reads it; see the class description for what is decoded at once.
+     */
+    @Override
+    public Checkpoint read(Path file) throws IOException, StorageOperationException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new StorageOperationException("File data missing some elements");
+            }
+            // The mapping stays valid after the channel is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads the whole stream into the heap, for when there is no file to map, and reads it from there.
+     */
+    @Override
+    public Checkpoint read(InputStream in) throws IOException, StorageOperationException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[1 << 16];
+        int read;
+        while ((read = in.read(chunk)) >= 0) {
+            bytes.write(chunk, 0, read);
+        }
+        return read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private static Checkpoint read(ByteBuffer buffer) throws StorageOperationException {
+        try {
+            if (buffer.capacity() < HEADER_BYTES + FOOTER_BYTES) {
+                throw new StorageOperationException("File data missing some elements");
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(i) != MAGIC[i] || buffer.get(buffer.capacity() - MAGIC.length + i) != MAGIC[i]) {
+                    throw new StorageOperationException("File data missing some elements");
+                }
+            }
+            if (buffer.get(MAGIC.length) > VERSION) {
+                throw new StorageOperationException("File was written by a newer version of Keyboard Warrior");
+            }
+            final long nextId = buffer.getLong(MAGIC.length + 4);
+            final long logSequence = buffer.getLong(MAGIC.length + 4 + Long.BYTES);
+            final int count = buffer.getInt(MAGIC.length + 4 + 2 * Long.BYTES);
+            final int footer = buffer.capacity() - FOOTER_BYTES;
+            final int offsetsStart = (int) buffer.getLong(footer);
+            final int dictionaryStart = (int) buffer.getLong(footer + Long.BYTES);
+            final int wordCount = buffer.getInt(footer + 2 * Long.BYTES);
+            if (count < 0 || offsetsStart < HEADER_BYTES || (long) offsetsStart + (long) count * Integer.BYTES
+                    != dictionaryStart || dictionaryStart > footer || wordCount < 0) {
+                throw new StorageOperationException("Error parsing file data format");
+            }
+
+            final TokenDictionary dictionary = TokenDictionary.shared();
+            final int[] wordIds = new int[wordCount];
+            int at = dictionaryStart;
+            for (int i = 0; i < wordCount; i++) {
+                final int length = buffer.getInt(at);
+                if (length < 0) {
+                    throw new StorageOperationException("Error parsing file data format");
+                }
+                wordIds[i] = dictionary.idOf(decode(buffer, at + Integer.BYTES, length));
+                at += Integer.BYTES + length;
+            }
+            final Mapping mapping = new Mapping(buffer, offsetsStart, wordIds);
+
+            final ArrayList<TodoTask> tasks = new ArrayList<>(count);
+            for (int slot = 0; slot < count; slot++) {
+                final int offset = mapping.recordOffset(slot);
+                final byte kind = buffer.get(offset + KIND);
+                final long id = buffer.getLong(offset + ID);
+                final TaskDetails details = new MappedTaskDetails(mapping, slot);
+                if (kind == EVENT) {
+                    tasks.add(new EventTask(id, details, StartTime.ofMinutes(buffer.getInt(offset + START)),
+                            EndTime.ofMinutes(buffer.getInt(offset + END))));
+                } else if (kind == DEADLINE) {
+                    tasks.add(new DeadlineTask(id, details, EndTime.ofMinutes(buffer.getInt(offset + END))));
+                } else if (kind == TODO) {
+                    tasks.add(new TodoTask(id, details));
+                } else {
+                    throw new StorageOperationException("Error parsing file data format");
+                }
+            }
+            return new Checkpoint(new TasksList(tasks, nextId), logSequence);
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer reader = buffer.duplicate();
+        reader.position(offset);
+        reader.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @throws StorageOperationException if that is more than a single mapping can hold.
+     */
+    private static int checkedPosition(DataOutputStream data) throws StorageOperationException {
+        // DataOutputStream stops counting at Integer.MAX_VALUE
+        if (data.size() == Integer.MAX_VALUE) {
+            throw new StorageOperationException("Keyboard Warrior is too large for the mapped storage format");
+        }
+        return data.size();
+    }
+}
@@ -0,0 +1,533 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.MerkleTree;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.InvalidStorageFilePathException;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Brings a list up to date with another copy of it, such as another storage file or another running copy of
+ * Keyboard Warrior, by comparing their {@link MerkleTree}s rather than their tasks.
+ *
+ * The roots are compared first. Where the hashes differ, the hashes of the children are fetched and compared,
+ * all the nodes of one level at a time, and only the children that differ are descended into; a node holding at
+ * most {@link MerkleTree#LEAF_TASKS} tasks on either side has its task IDs and hashes compared instead. Only the
+ * tasks that then differ are fetched, so a sync costs O(differences log n) hashes and tasks, in O(log n) round
+ * trips, rather than every task.
+ *
+ * The other copy is a {@link Source}: a tree in the same process, or a {@link Server} reached over a loopback
+ * socket, which answers from the tree of the list it serves as it was when the connection was made:
+ * <pre>
+ *   ROOT                                    long hash, long task count, long next task ID
+ *   CHILDREN int depth, int n, n prefixes   n times FANOUT pairs of long hash, long task count
+ *   ENTRIES  int depth, int n, n prefixes   n times: int k, k pairs of long ID, long hash
+ *   TASKS    int n, n IDs                   int m, m tasks as written to the mutation log
+ * </pre>
+ * Run with {@code java ruby.keyboardwarrior.storage.MerkleSync FROM TO}, where {@code FROM} is a storage file or
+ * the {@code [host:]port} of a running copy, to sync the storage file {@code TO} with it.
+ */
+public final class MerkleSync {
+
+    private static final byte ROOT = 0;
+    private static final byte CHILDREN = 1;
+    private static final byte ENTRIES = 2;
+    private static final byte TASKS = 3;
+
+    /**
+     * What a sync did.
+     */
+    public static final class Result {
+        /** Number of requests made of the source. */
+        public final int roundTrips;
+        /** Number of node hashes and task hashes fetched from the source. */
+        public final long hashesCompared;
+        /** Number of tasks fetched from the source, and removed as the source does not hold them. */
+        public final int tasksFetched;
+        public final int tasksRemoved;
+
+        private Result(int roundTrips, long hashesCompared, int tasksFetched, int tasksRemoved) {
+            this.roundTrips = roundTrips;
+            this.hashesCompared = hashesCompared;
+            this.tasksFetched = tasksFetched;
+            this.tasksRemoved = tasksRemoved;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d tasks fetched, %d removed, %d hashes compared in %d round trips",
+                    tasksFetched, tasksRemoved, hashesCompared, roundTrips);
+        }
+    }
+
+    /**
+     * Copy of a list that another is synced with.
+     */
+    public interface Source {
+
+        /**
+         * Returns the hash of the whole tree, its number of tasks and the next task ID of the list.
+         */
+        long[] root() throws IOException;
+
+        /**
+         * Returns {@link MerkleTree#childDigests(int, long)} of each of the nodes at {@code depth} with
+         * {@code prefixes}.
+         */
+        long[][] childDigests(int depth, long[] prefixes) throws IOException;
+
+        /**
+         * Returns {@link MerkleTree#entries(int, long)} of each of the nodes at {@code depth} with {@code prefixes}.
+         */
+        long[][] entries(int depth, long[] prefixes) throws IOException;
+
+        /**
+         * Returns the tasks with the given IDs.
+         */
+        List<TodoTask> tasks(long[] ids) throws IOException;
+    }
+
+    private MerkleSync() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: MerkleSync FROM TO");
+            System.exit(2);
+        }
+        final StorageFile to = new StorageFile(args[1]);
+        final TasksList tasksList = to.load();
+        final Result result;
+        if (args[0].matches("([^:]+:)?[0-9]+")) {
+            try (final RemoteSource source = connect(toAddress(args[0]))) {
+                result = pull(tasksList, source);
+            }
+        } else {
+            result = pull(tasksList, source(new StorageFile(args[0]).load().merkleTree()));
+        }
+        to.save(tasksList);
+        to.flush();
+        System.out.println("Synced " + to.getPath() + " with " + args[0] + ": " + result);
+    }
+
+    /**
+     * Syncs the storage file {@code to} with the storage file {@code from}, saving only the tasks that differ.
+     */
+    public static Result syncFiles(Path from, Path to)
+            throws InvalidStorageFilePathException, StorageOperationException, IOException {
+        final StorageFile target = new StorageFile(to.toString());
+        final TasksList tasksList = target.load();
+        final Result result = pull(tasksList, source(new StorageFile(from.toString()).load().merkleTree()));
+        target.save(tasksList);
+        target.flush();
+        return result;
+    }
+
+    /**
+     * Makes {@code target} hold the tasks {@code source} holds, under the same IDs, as one change. Tasks changed
+     * in {@code target} while the sync runs keep those changes, as in {@link TasksList#applyChanges}.
+     */
+    public static Result pull(TasksList target, Source source) throws IOException {
+        final MerkleTree ours = target.merkleTree();
+        final long[] root = source.root();
+        int roundTrips = 1;
+        long hashesCompared = 1;
+        if (root[0] == ours.getHash() && root[1] == ours.size()) {
+            return new Result(roundTrips, hashesCompared, 0, 0);
+        }
+
+        final ArrayList<Long> toFetch = new ArrayList<>();
+        final ArrayList<Long> toRemove = new ArrayList<>();
+        // Nodes that differ at the current depth, with their number of tasks in the source and in the target
+        long[] prefixes = { 0 };
+        long[] theirCounts = { root[1] };
+        long[] ourCounts = { ours.size() };
+        for (int depth = 0; prefixes.length > 0; depth++) {
+            final ArrayList<Long> leaves = new ArrayList<>();
+            final ArrayList<Long> inner = new ArrayList<>();
+            for (int i = 0; i < prefixes.length; i++) {
+                final boolean small = theirCounts[i] <= MerkleTree.LEAF_TASKS
+                        || ourCounts[i] <= MerkleTree.LEAF_TASKS || depth == MerkleTree.MAX_DEPTH;
+                (small ? leaves : inner).add(prefixes[i]);
+            }
+            if (!leaves.isEmpty()) {
+                final long[] leafPrefixes = toArray(leaves);
+                final long[][] theirs = source.entries(depth, leafPrefixes);
+                roundTrips++;
+                for (int i = 0; i < leafPrefixes.length; i++) {
+                    hashesCompared += theirs[i].length / 2;
+                    compareEntries(ours.entries(depth, leafPrefixes[i]), theirs[i], toFetch, toRemove);
+                }
+            }
+            final ArrayList<Long> nextPrefixes = new ArrayList<>();
+            final ArrayList<Long> nextTheirCounts = new ArrayList<>();
+            final ArrayList<Long> nextOurCounts = new ArrayList<>();
+            if (!inner.isEmpty()) {
+                final long[] innerPrefixes = toArray(inner);
+                final long[][] theirs = source.childDigests(depth, innerPrefixes);
+                roundTrips++;
+                for (int i = 0; i < innerPrefixes.length; i++) {
+                    final long[] mine = ours.childDigests(depth, innerPrefixes[i]);
+                    hashesCompared += MerkleTree.FANOUT;
+                    for (int child = 0; child < MerkleTree.FANOUT; child++) {
+                        if (mine[2 * child] != theirs[i][2 * child]
+                                || mine[2 * child + 1] != theirs[i][2 * child + 1]) {
+                            nextPrefixes.add(innerPrefixes[i] * MerkleTree.FANOUT + child);
+                            nextTheirCounts.add(theirs[i][2 * child + 1]);
+                            nextOurCounts.add(mine[2 * child + 1]);
+                        }
+                    }
+                }
+            }
+            prefixes = toArray(nextPrefixes);
+            theirCounts = toArray(nextTheirCounts);
+            ourCounts = toArray(nextOurCounts);
+        }
+
+        final HashMap<Long, TodoTask> changes = new HashMap<>();
+        for (long id : toRemove) {
+            changes.put(id, null);
+        }
+        if (!toFetch.isEmpty()) {
+            for (TodoTask task : source.tasks(toArray(toFetch))) {
+                changes.put(task.getId(), task);
+            }
+            roundTrips++;
+        }
+        final TasksListSnapshot base = ours.getSnapshot();
+        target.applyChanges(base, base.withChanges(changes, root[2]));
+        return new Result(roundTrips, hashesCompared, toFetch.size(), toRemove.size());
+    }
+
+    /**
+     * Adds the IDs the source holds a different task under than the target to {@code toFetch}, and those only
+     * the target holds to {@code toRemove}. Both lists of pairs are in increasing order of ID.
+     */
+    private static void compareEntries(long[] ours, long[] theirs, List<Long> toFetch, List<Long> toRemove) {
+        int mine = 0;
+        int other = 0;
+        while (mine < ours.length || other < theirs.length) {
+            if (other == theirs.length || mine < ours.length && ours[mine] < theirs[other]) {
+                toRemove.add(ours[mine]);
+                mine += 2;
+            } else if (mine == ours.length || theirs[other] < ours[mine]) {
+                toFetch.add(theirs[other]);
+                other += 2;
+            } else {
+                if (ours[mine + 1] != theirs[other + 1]) {
+                    toFetch.add(theirs[other]);
+                }
+                mine += 2;
+                other += 2;
+            }
+        }
+    }
+
+    /**
+     * Returns a source answering from {@code tree}, such as that of another list loaded in the same process.
+     */
+    public static Source source(MerkleTree tree) {
+        return new Source() {
+            @Override
+            public long[] root() {
+                return new long[] { tree.getHash(), tree.size(), tree.getSnapshot().getNextId() };
+            }
+
+            @Override
+            public long[][] childDigests(int depth, long[] prefixes) {
+                final long[][] digests = new long[prefixes.length][];
+                for (int i = 0; i < prefixes.length; i++) {
+                    digests[i] = tree.childDigests(depth, prefixes[i]);
+                }
+                return digests;
+            }
+
+            @Override
+            public long[][] entries(int depth, long[] prefixes) {
+                final long[][] entries = new long[prefixes.length][];
+                for (int i = 0; i < prefixes.length; i++) {
+                    entries[i] = tree.entries(depth, prefixes[i]);
+                }
+                return entries;
+            }
+
+            @Override
+            public List<TodoTask> tasks(long[] ids) {
+                final ArrayList<TodoTask> tasks = new ArrayList<>(ids.length);
+                for (long id : ids) {
+                    final TodoTask task = tree.getSnapshot().getTaskById(id);
+                    if (task != null) {
+                        tasks.add(task);
+                    }
+                }
+                return tasks;
+            }
+        };
+    }
+
+    /**
+     * Connects to the {@link Server} at {@code address}.
+     */
+    public static RemoteSource connect(InetSocketAddress address) throws IOException {
+        return new RemoteSource(address);
+    }
+
+    /**
+     * Source reached over a socket; one connection answers one sync.
+     */
+    public static final class RemoteSource implements Source, Closeable {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private RemoteSource(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public long[] root() throws IOException {
+            out.writeByte(ROOT);
+            out.flush();
+            return new long[] { in.readLong(), in.readLong(), in.readLong() };
+        }
+
+        @Override
+        public long[][] childDigests(int depth, long[] prefixes) throws IOException {
+            writeRequest(CHILDREN, depth, prefixes);
+            final long[][] digests = new long[prefixes.length][2 * MerkleTree.FANOUT];
+            for (long[] digest : digests) {
+                for (int i = 0; i < digest.length; i++) {
+                    digest[i] = in.readLong();
+                }
+            }
+            return digests;
+        }
+
+        @Override
+        public long[][] entries(int depth, long[] prefixes) throws IOException {
+            writeRequest(ENTRIES, depth, prefixes);
+            final long[][] entries = new long[prefixes.length][];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = new long[2 * in.readInt()];
+                for (int at = 0; at < entries[i].length; at++) {
+                    entries[i][at] = in.readLong();
+                }
+            }
+            return entries;
+        }
+
+        @Override
+        public List<TodoTask> tasks(long[] ids) throws IOException {
+            out.writeByte(TASKS);
+            writeLongs(out, ids);
+            out.flush();
+            final int count = in.readInt();
+            final ArrayList<TodoTask> tasks = new ArrayList<>(count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    tasks.add(MutationLog.readTask(in));
+                }
+            } catch (IllegalValueException ive) {
+                throw new IOException("Source sent an invalid task: " + ive.getMessage());
+            }
+            return tasks;
+        }
+
+        private void writeRequest(byte type, int depth, long[] prefixes) throws IOException {
+            out.writeByte(type);
+            out.writeInt(depth);
+            writeLongs(out, prefixes);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Answers syncs with a list from other copies of Keyboard Warrior connecting to a loopback port.
+     */
+    public static final class Server implements Closeable {
+
+        private final TasksList tasksList;
+        private final ServerSocket serverSocket;
+        private final Set<Socket> clients = Collections.synchronizedSet(new HashSet<>());
+
+        /**
+         * Serves {@code tasksList} at {@code port} on the loopback interface, or at a free port if it is 0, until
+         * closed.
+         *
+         * @throws StorageOperationException if the port cannot be listened on.
+         */
+        public Server(TasksList tasksList, int port) throws StorageOperationException {
+            this.tasksList = tasksList;
+            try {
+                serverSocket = new ServerSocket();
+            } catch (IOException ioe) {
+                throw new StorageOperationException("Could not listen for syncs: " + ioe.getMessage());
+            }
+            try {
+                serverSocket.setReuseAddress(true);
+                serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            } catch (IOException ioe) {
+                closeQuietly(serverSocket);
+                throw new StorageOperationException("Could not listen for syncs on port " + port + ": "
+                        + ioe.getMessage());
+            }
+            final Thread acceptor = new Thread(this::accept, "sync-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        public InetSocketAddress getAddress() {
+            return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        }
+
+        /**
+         * Stops accepting syncs and disconnects the clients connected.
+         */
+        @Override
+        public void close() {
+            closeQuietly(serverSocket);
+            synchronized (clients) {
+                for (Socket client : clients) {
+                    closeQuietly(client);
+                }
+            }
+        }
+
+        private void accept() {
+            while (true) {
+                final Socket client;
+                try {
+                    client = serverSocket.accept();
+                } catch (IOException ioe) {
+                    return;
+                }
+                clients.add(client);
+                final Thread server = new Thread(() -> serve(client), "sync-server");
+                server.setDaemon(true);
+                server.start();
+            }
+        }
+
+        /**
+         * Answers the requests of one sync from the tree of the list as it is now, until the client disconnects.
+         */
+        private void serve(Socket client) {
+            final Source source = source(tasksList.merkleTree());
+            try (final Socket closing = client) {
+                closing.setTcpNoDelay(true);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(closing.getInputStream()));
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        closing.getOutputStream()));
+                while (true) {
+                    final int type = in.read();
+                    if (type < 0) {
+                        return;
+                    }
+                    if (type == ROOT) {
+                        for (long value : source.root()) {
+                            out.writeLong(value);
+                        }
+                    } else if (type == CHILDREN) {
+                        final int depth = in.readInt();
+                        for (long[] digest : source.childDigests(depth, readLongs(in))) {
+                            for (long value : digest) {
+                                out.writeLong(value);
+                            }
+                        }
+                    } else if (type == ENTRIES) {
+                        final int depth = in.readInt();
+                        for (long[] entries : source.entries(depth, readLongs(in))) {
+                            out.writeInt(entries.length / 2);
+                            for (long value : entries) {
+                                out.writeLong(value);
+                            }
+                        }
+                    } else if (type == TASKS) {
+                        final List<TodoTask> tasks = source.tasks(readLongs(in));
+                        out.writeInt(tasks.size());
+                        for (TodoTask task : tasks) {
+                            MutationLog.writeTask(out, task);
+                        }
+                    } else {
+                        return;
+                    }
+                    out.flush();
+                }
+            } catch (IOException ioe) {
+                // The client syncs again if it still needs to
+            } finally {
+                clients.remove(client);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ioe) {
+            // Nothing left to do with it
+        }
+    }
+
+    /**
+     * Returns the address {@code host:port}, or the loopback address if only a port is given.
+     */
+    private static InetSocketAddress toAddress(String hostAndPort) {
+        final int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(hostAndPort));
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon),
+                Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static long[] readLongs(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Malformed request");
+        }
+        final long[] values = new long[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    private static long[] toArray(List<Long> values) {
+        final long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,452 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes saved to a {@link StorageFile} since its last checkpoint.
+ * Forcing the log to the storage device may proceed while the next record is prepared.
+ *
+ * Each save appends one record holding everything that changed, framed as [int length][int CRC32][payload].
+ * The payload is the record's sequence number, the next task ID, and the tasks put or removed.
+ * Replay stops at the first record that is cut short or fails its checksum, which is what a crash in the
+ * middle of an append leaves behind, so a change is either applied whole or not at all.
+ */
+final class MutationLog {
+
+    private static final int FRAME_BYTES = 2 * Integer.BYTES;
+
+    private static final byte CLEAR = 0;
+    static final byte REMOVE = 1;
+    private static final byte PUT_TODO = 2;
+    private static final byte PUT_DEADLINE = 3;
+    private static final byte PUT_EVENT = 4;
+
+    /**
+     * Tasks by ID, the next task ID and the sequence number of the last change applied,
+     * rebuilt from a checkpoint and the log after it.
+     */
+    static final class State {
+        /** The checkpoint's tasks, until the first change is applied and they are copied into {@link #tasks}. */
+        private TasksList checkpoint;
+        /**
+         * Version the changes are applied over, if only the changes are collected; {@link #tasks} then maps the ID
+         * of each task removed to null.
+         */
+        private TasksListSnapshot base;
+        private HashMap<Long, TodoTask> tasks;
+        long nextId = TodoTask.UNASSIGNED_ID + 1;
+        long sequence;
+
+        State() {
+            tasks = new HashMap<>();
+        }
+
+        /**
+         * Collects the changes made after {@code sequence} over {@code base}, which holds the changes up to it,
+         * rather than every task, so that catching up with the log costs O(changes).
+         */
+        State(TasksListSnapshot base, long sequence) {
+            this.base = base;
+            this.tasks = new HashMap<>();
+            this.nextId = base.getNextId();
+            this.sequence = sequence;
+        }
+
+        /**
+         * Starts from the tasks of a checkpoint holding the changes up to {@code sequence}. They are only
+         * copied out if a change is applied, so loading a checkpoint with an empty log does not touch them.
+         */
+        State(TasksList checkpoint, long sequence) {
+            this.checkpoint = checkpoint;
+            this.nextId = checkpoint.getNextId();
+            this.sequence = sequence;
+        }
+
+        HashMap<Long, TodoTask> tasks() {
+            if (tasks == null) {
+                tasks = new HashMap<>(checkpoint.size() * 2);
+                for (TodoTask task : checkpoint.getAllTasks()) {
+                    tasks.put(task.getId(), task);
+                }
+                checkpoint = null;
+            }
+            return tasks;
+        }
+
+        TasksList toModelType() {
+            return new TasksList(new ArrayList<>(tasks().values()), nextId);
+        }
+
+        /**
+         * Returns the base version with the changes collected applied.
+         */
+        TasksListSnapshot toSnapshot() {
+            return base.withChanges(tasks, nextId);
+        }
+
+        private void remove(long id) {
+            if (base != null) {
+                tasks.put(id, null);
+            } else {
+                tasks().remove(id);
+            }
+        }
+
+        private void clear() {
+            if (base == null) {
+                tasks().clear();
+                return;
+            }
+            tasks.replaceAll((id, task) -> null);
+            for (TodoTask task : base.getAllTasks()) {
+                tasks.put(task.getId(), null);
+            }
+        }
+    }
+
+    private final Path path;
+    /** Open for appending once the first record is appended. */
+    private FileChannel channel;
+
+    MutationLog(Path path) {
+        this.path = path;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Encodes the changes from {@code before} to {@code after} as a record with the given sequence number,
+     * or returns null if nothing changed.
+     */
+    static byte[] encode(long sequence, TasksListSnapshot before, TasksListSnapshot after) throws IOException {
+        final ArrayList<Long> ids = new ArrayList<>();
+        final ArrayList<TodoTask> tasks = new ArrayList<>();
+        final boolean cleared = after.size() == 0 && before.size() > 0;
+        if (!cleared) {
+            after.forEachChangeSince(before, (id, task) -> {
+                ids.add(id);
+                tasks.add(task);
+            });
+        }
+        if (!cleared && ids.isEmpty() && after.getNextId() == before.getNextId()) {
+            return null;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(sequence);
+        payload.writeLong(after.getNextId());
+        payload.writeInt(cleared ? 1 : ids.size());
+        if (cleared) {
+            payload.writeByte(CLEAR);
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            writeChange(payload, ids.get(i), tasks.get(i));
+        }
+        payload.flush();
+        return frame(bytes.toByteArray());
+    }
+
+    /**
+     * Encodes every task of {@code snapshot} as a record with the given sequence number that replaces whatever
+     * tasks it is applied to. Used by {@link ReplicationLeader} to bring a follower up to date at once.
+     */
+    static byte[] encodeAll(long sequence, TasksListSnapshot snapshot) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(sequence);
+        payload.writeLong(snapshot.getNextId());
+        payload.writeInt(1 + snapshot.size());
+        payload.writeByte(CLEAR);
+        for (TodoTask task : snapshot.getAllTasks()) {
+            writeTask(payload, task);
+        }
+        payload.flush();
+        return frame(bytes.toByteArray());
+    }
+
+    /**
+     * Reads a record written by {@link #encode(long, TasksListSnapshot, TasksListSnapshot)} from a stream,
+     * and returns its payload.
+     *
+     * @throws IOException if the record is cut short or fails its checksum.
+     */
+    static byte[] readRecord(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        final int checksum = in.readInt();
+        if (length < Long.BYTES) {
+            throw new IOException("Malformed record");
+        }
+        final byte[] payload = new byte[length];
+        in.readFully(payload);
+        if (checksum(payload) != checksum) {
+            throw new IOException("Record fails its checksum");
+        }
+        return payload;
+    }
+
+    /**
+     * Applies to {@code state} every intact record with a higher sequence number than {@code state.sequence},
+     * and cuts off anything after the last intact record.
+     *
+     * @return the number of records applied
+     * @throws IllegalValueException if an intact record holds data that violates the task constraints
+     */
+    int replay(State state) throws IOException, IllegalValueException {
+        return replay(state, 0);
+    }
+
+    /**
+     * Does what {@link #replay(State)} does, reading only the records from byte {@code offset} onwards, which
+     * must be where a record starts.
+     */
+    synchronized int replay(State state, long offset) throws IOException, IllegalValueException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int applied = 0;
+        final long fileBytes = Files.size(path);
+        long validBytes = Math.min(offset, fileBytes);
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(Files.newByteChannel(path).position(validBytes))))) {
+            while (fileBytes - validBytes >= FRAME_BYTES) {
+                final int length = in.readInt();
+                final int checksum = in.readInt();
+                if (length < 0 || length > fileBytes - validBytes - FRAME_BYTES) {
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    break;
+                }
+                if (apply(payload, state)) {
+                    applied++;
+                }
+                validBytes += FRAME_BYTES + length;
+            }
+        }
+        if (validBytes < fileBytes) {
+            close();
+            try (final FileChannel truncating = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncating.truncate(validBytes);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Returns the sequence number of the last intact record, or 0 if there is none.
+     */
+    long lastSequence() throws IOException {
+        final State state = new State();
+        state.sequence = Long.MIN_VALUE;
+        try {
+            replay(state);
+        } catch (IllegalValueException ive) {
+            // Only the sequence numbers are wanted; the record that failed was intact, so it counts
+        }
+        return Math.max(0, state.sequence);
+    }
+
+    /**
+     * Returns the offset of the first record with a higher sequence number than {@code sequence}, or the end of
+     * the intact records if there is none.
+     */
+    synchronized long offsetAfter(long sequence) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long offset = 0;
+        final long fileBytes = Files.size(path);
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (fileBytes - offset >= FRAME_BYTES + Long.BYTES) {
+                final int length = in.readInt();
+                in.readInt();
+                if (length < Long.BYTES || length > fileBytes - offset - FRAME_BYTES || in.readLong() > sequence) {
+                    break;
+                }
+                int toSkip = length - Long.BYTES;
+                while (toSkip > 0) {
+                    final int skipped = in.skipBytes(toSkip);
+                    if (skipped <= 0) {
+                        throw new EOFException();
+                    }
+                    toSkip -= skipped;
+                }
+                offset += FRAME_BYTES + length;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the size of the log in bytes, or 0 if there is no log yet.
+     */
+    long size() throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    synchronized void append(byte[] record) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Forces every record appended so far to the storage device.
+     */
+    synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Replaces the log with the records from byte {@code offset} onwards, which a new checkpoint does not hold.
+     */
+    synchronized void dropBefore(long offset) throws IOException {
+        close();
+        if (!Files.exists(path)) {
+            return;
+        }
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (final FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+             final FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long size = source.size();
+            long copied = 0;
+            while (offset + copied < size) {
+                copied += source.transferTo(offset + copied, size - offset - copied, target);
+            }
+            target.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes a change that puts {@code task} under {@code id}, or that removes the task under it if {@code task}
+     * is null. Also used by {@link FileTaskArchive}.
+     */
+    static void writeChange(DataOutputStream out, long id, TodoTask task) throws IOException {
+        if (task == null) {
+            out.writeByte(REMOVE);
+            out.writeLong(id);
+            return;
+        }
+        writeTask(out, task);
+    }
+
+    /**
+     * Writes {@code task} as a change that puts it under its ID. Also used by {@link SegmentedCheckpoint}.
+     */
+    static void writeTask(DataOutputStream out, TodoTask task) throws IOException {
+        out.writeByte(task instanceof EventTask ? PUT_EVENT : task instanceof DeadlineTask ? PUT_DEADLINE : PUT_TODO);
+        out.writeLong(task.getId());
+        final byte[] details = task.getDetails().toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(details.length);
+        out.write(details);
+        if (task instanceof EventTask) {
+            out.writeInt(((EventTask) task).getStartMinutes());
+        }
+        if (task instanceof TimedTask) {
+            out.writeInt(((TimedTask) task).getEndMinutes());
+        }
+    }
+
+    /**
+     * Reads a task written by {@link #writeTask(DataOutputStream, TodoTask)}.
+     *
+     * @throws IOException if the change read does not put a task.
+     */
+    static TodoTask readTask(DataInputStream in) throws IOException, IllegalValueException {
+        return readTask(in, in.readByte(), in.readLong());
+    }
+
+    private static TodoTask readTask(DataInputStream in, byte type, long id) throws IOException, IllegalValueException {
+        final byte[] details = new byte[in.readInt()];
+        in.readFully(details);
+        final TaskDetails taskDetails = new TaskDetails(new String(details, StandardCharsets.UTF_8));
+        if (type == PUT_EVENT) {
+            final StartTime start = StartTime.ofMinutes(in.readInt());
+            return new EventTask(id, taskDetails, start, EndTime.ofMinutes(in.readInt()));
+        } else if (type == PUT_DEADLINE) {
+            return new DeadlineTask(id, taskDetails, EndTime.ofMinutes(in.readInt()));
+        } else if (type == PUT_TODO) {
+            return new TodoTask(id, taskDetails);
+        }
+        throw new IOException("Unknown change type " + type);
+    }
+
+    /**
+     * Applies one record to {@code state} unless the state already holds it. Returns true if it was applied.
+     */
+    static boolean apply(byte[] record, State state) throws IOException, IllegalValueException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        final long sequence = in.readLong();
+        if (sequence <= state.sequence) {
+            return false;
+        }
+        state.sequence = sequence;
+        state.nextId = in.readLong();
+        final int changes = in.readInt();
+        for (int i = 0; i < changes; i++) {
+            final byte type = in.readByte();
+            if (type == CLEAR) {
+                state.clear();
+                continue;
+            }
+            final long id = in.readLong();
+            if (type == REMOVE) {
+                state.remove(id);
+                continue;
+            }
+            state.tasks().put(id, readTask(in, type, id));
+        }
+        return true;
+    }
+
+    private static byte[] frame(byte[] payload) {
+        return ByteBuffer.allocate(FRAME_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt(checksum(payload))
+                .put(payload)
+                .array();
+    }
+
+    private static int checksum(byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,1043 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Tasks kept on disk in a B+tree keyed by task ID, of which only a fixed number of pages is held in memory at
+ * once, evicting the least recently used, so the store can be far larger than the heap. Looking up, adding,
+ * replacing and removing a task by ID each touch O(log n) pages, and tasks can be visited in ID order over a
+ * range of IDs without reading the rest of the file.
+ *
+ * The file is a sequence of {@value #PAGE_BYTES}-byte pages:
+ * <pre>
+ *   page 0:    two header slots, each "KWPF" magic, version byte, 3 reserved bytes, long commit number,
+ *              long root page, long page count, long first free-list page, long next ID, long log sequence,
+ *              long task count, int CRC32 of the preceding bytes
+ *   leaf:      kind byte, reserved byte, short entry count, then per entry: long ID, short record length and
+ *              the record, or a length of -1, int record length and long first overflow page
+ *   internal:  kind byte, reserved byte, short key count n, n + 1 long child pages, n long keys
+ *   overflow:  kind byte, reserved byte, short bytes used, long next overflow page, part of a record
+ *   free list: kind byte, reserved byte, short page count, long next free-list page, the free pages
+ * </pre>
+ * A record is the task's kind byte, its start and end minutes if it has them, and its details in UTF-8.
+ *
+ * Pages the last commit refers to are never written over: changing one moves it to a free page, which means
+ * pointing its parent at the new page, and so on up to the root, while a page written since the last commit
+ * is changed where it is. {@link #commit(long, long)} writes every changed page and forces them, then writes
+ * and forces the header slot the previous commit did not use, so a crash at any point leaves the file as of
+ * the last commit whose header landed. Pages only the old tree used become free at that point.
+ *
+ * A leaf that removals leave less than a quarter full is merged with a neighbour under the same parent if the
+ * two fit in one page, and dropped once empty. Internal nodes are not merged, only dropped once the last of
+ * their children is. Not thread safe.
+ */
+public final class PageFile implements Closeable {
+
+    public static final int PAGE_BYTES = 4096;
+    /** Fewest pages the buffer pool may hold: enough for a path from the root and the pages splits add to it. */
+    public static final int MIN_POOL_PAGES = 16;
+
+    /** Version written by this class; files of a later version are rejected rather than misread. */
+    static final int VERSION = 1;
+
+    private static final byte[] MAGIC = { 'K', 'W', 'P', 'F' };
+    private static final int SLOT_BYTES = 4 + 4 + 7 * Long.BYTES + Integer.BYTES;
+    private static final int SECOND_SLOT = PAGE_BYTES / 2;
+
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+    private static final byte OVERFLOW = 3;
+    private static final byte FREE_LIST = 4;
+    private static final int NODE_HEADER_BYTES = 4;
+    private static final int CHAIN_HEADER_BYTES = 4 + Long.BYTES;
+    private static final int MAX_KEYS = (PAGE_BYTES - NODE_HEADER_BYTES - Long.BYTES) / (2 * Long.BYTES);
+    private static final int FREE_PAGES_PER_PAGE = (PAGE_BYTES - CHAIN_HEADER_BYTES) / Long.BYTES;
+    /** Leaves taking up fewer bytes than this after a removal are merged with a neighbour if they fit. */
+    private static final int MERGE_BYTES = PAGE_BYTES / 4;
+    /** Records longer than this go to overflow pages, so that every leaf holds at least a few entries. */
+    private static final int MAX_INLINE_BYTES = 1024;
+    private static final int INLINE_ENTRY_BYTES = Long.BYTES + Short.BYTES;
+    private static final int OVERFLOW_ENTRY_BYTES = Long.BYTES + Short.BYTES + Integer.BYTES + Long.BYTES;
+
+    private static final byte TODO = 0;
+    private static final byte DEADLINE = 1;
+    private static final byte EVENT = 2;
+
+    private final FileChannel channel;
+    private final int poolPages;
+    /** Pages held in memory, least recently used first. */
+    private final LinkedHashMap<Long, Node> pool = new LinkedHashMap<>(16, 0.75f, true);
+    private final ByteBuffer page = ByteBuffer.allocate(PAGE_BYTES);
+
+    private long commit;
+    private long root;
+    private long pageCount;
+    private long nextId;
+    private long logSequence;
+    private long size;
+    /** First page of the free list the last commit wrote, or 0 if it wrote none. */
+    private long freeListHead;
+
+    /** Pages the last commit does not refer to, which may be written over. */
+    private LongStack free = new LongStack();
+    /** Pages the last commit keeps its free list in, which are free once the next commit lands. */
+    private LongStack freeListPages = new LongStack();
+    /** Pages the last commit refers to that the tree no longer does, which are free once the next commit lands. */
+    private final LongStack released = new LongStack();
+    /** Pages taken from {@link #free} since the last commit, which may be written over until the next one. */
+    private final HashSet<Long> reused = new HashSet<>();
+    /** Page count as of the last commit; every page from here on was allocated since. */
+    private long committedPageCount;
+
+    /** The path from the root to the leaf the last descent reached: pages, nodes and the child taken. */
+    private long[] pathPages = new long[8];
+    private Node[] pathNodes = new Node[8];
+    private int[] pathSlots = new int[8];
+    private int depth;
+
+    private long hits;
+    private long misses;
+
+    private PageFile(FileChannel channel, int poolPages) throws IOException, StorageOperationException {
+        this.channel = channel;
+        this.poolPages = poolPages;
+        if (channel.size() == 0) {
+            pageCount = 1;
+            committedPageCount = 1;
+            nextId = TodoTask.UNASSIGNED_ID + 1;
+            page.clear();
+            writePage(0);
+            writeHeader();
+            channel.force(true);
+            return;
+        }
+        readHeader();
+        committedPageCount = pageCount;
+        for (long listPage = freeListHead; listPage != 0; ) {
+            readPage(listPage, FREE_LIST);
+            final int count = page.getShort(2);
+            final long next = page.getLong(4);
+            for (int i = 0; i < count; i++) {
+                free.push(page.getLong(CHAIN_HEADER_BYTES + i * Long.BYTES));
+            }
+            freeListPages.push(listPage);
+            listPage = next;
+        }
+    }
+
+    /**
+     * Opens the page file at {@code file}, creating an empty one if there is none, as of its last commit.
+     *
+     * @param poolPages how many pages to hold in memory at most, at least {@link #MIN_POOL_PAGES}
+     * @throws StorageOperationException if the file is not a page file, or was written by a newer version.
+     */
+    public static PageFile open(Path file, int poolPages) throws IOException, StorageOperationException {
+        if (poolPages < MIN_POOL_PAGES) {
+            throw new IllegalArgumentException("A page file needs a pool of at least " + MIN_POOL_PAGES + " pages");
+        }
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new PageFile(channel, poolPages);
+        } catch (IOException | StorageOperationException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if a file beginning with the first {@code length} bytes of {@code header} is a page file.
+     */
+    static boolean recognizes(byte[] header, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the task with the given ID, or null if there is none.
+     *
+     * @throws StorageOperationException if a page read is not in the expected format.
+     */
+    public TodoTask get(long id) throws IOException, StorageOperationException {
+        if (root == 0) {
+            return null;
+        }
+        Node node = node(root);
+        while (!node.leaf) {
+            node = node(node.children[childIndex(node, id)]);
+        }
+        final int at = Arrays.binarySearch(node.keys, 0, node.count, id);
+        final TodoTask task = at < 0 ? null : task(node, at);
+        evict();
+        return task;
+    }
+
+    /**
+     * Adds {@code task}, or replaces the task with the same ID.
+     *
+     * @throws StorageOperationException if a page read is not in the expected format.
+     */
+    public void put(TodoTask task) throws IOException, StorageOperationException {
+        final byte[] record = encode(task);
+        final long id = task.getId();
+        if (root == 0) {
+            root = allocate();
+            markDirty(root, new Node(true));
+        }
+        descend(id);
+        final Node leaf = writable(depth - 1);
+        int at = Arrays.binarySearch(leaf.keys, 0, leaf.count, id);
+        if (at >= 0) {
+            releaseRecord(leaf, at);
+            leaf.removeEntry(at);
+        } else {
+            at = -at - 1;
+            size++;
+        }
+        if (record.length > MAX_INLINE_BYTES) {
+            leaf.insertEntry(at, id, null, record.length, writeOverflow(record));
+        } else {
+            leaf.insertEntry(at, id, record, 0, 0);
+        }
+        if (leaf.bytes > PAGE_BYTES) {
+            split(depth - 1, at);
+        } else {
+            markDirty(pathPages[depth - 1], leaf);
+        }
+        evict();
+    }
+
+    /**
+     * Removes the task with the given ID. Returns false if there was none.
+     *
+     * @throws StorageOperationException if a page read is not in the expected format.
+     */
+    public boolean remove(long id) throws IOException, StorageOperationException {
+        if (root == 0) {
+            return false;
+        }
+        descend(id);
+        final int at = Arrays.binarySearch(pathNodes[depth - 1].keys, 0, pathNodes[depth - 1].count, id);
+        if (at < 0) {
+            evict();
+            return false;
+        }
+        final Node leaf = writable(depth - 1);
+        releaseRecord(leaf, at);
+        leaf.removeEntry(at);
+        size--;
+        if (leaf.count == 0) {
+            drop(depth - 1);
+        } else if (leaf.bytes >= MERGE_BYTES || !merge(depth - 1)) {
+            markDirty(pathPages[depth - 1], leaf);
+        }
+        while (root != 0) {
+            final Node rootNode = node(root);
+            if (rootNode.leaf || rootNode.count > 0) {
+                break;
+            }
+            // A root left with a single child is replaced by it
+            release(root);
+            pool.remove(root);
+            root = rootNode.children[0];
+        }
+        evict();
+        return true;
+    }
+
+    /**
+     * Calls {@code visitor} with every task whose ID is from {@code fromId} to {@code toId}, both inclusive,
+     * in ID order. The visitor must not change this file.
+     *
+     * @throws StorageOperationException if a page read is not in the expected format.
+     */
+    public void scan(long fromId, long toId, Consumer<TodoTask> visitor) throws IOException, StorageOperationException {
+        if (root != 0 && fromId <= toId) {
+            scan(root, fromId, toId, visitor);
+        }
+    }
+
+    private void scan(long pageNumber, long fromId, long toId, Consumer<TodoTask> visitor)
+            throws IOException, StorageOperationException {
+        final Node node = node(pageNumber);
+        if (node.leaf) {
+            int at = Arrays.binarySearch(node.keys, 0, node.count, fromId);
+            for (at = at < 0 ? -at - 1 : at; at < node.count && node.keys[at] <= toId; at++) {
+                visitor.accept(task(node, at));
+            }
+            evict();
+            return;
+        }
+        final long[] children = node.children;
+        final int last = childIndex(node, toId);
+        for (int child = childIndex(node, fromId); child <= last; child++) {
+            scan(children[child], fromId, toId, visitor);
+        }
+    }
+
+    /**
+     * Makes every change since the last commit durable, along with the given next ID and the sequence number
+     * of the last logged change the tasks include. Until then, reopening the file finds it as it was.
+     */
+    public void commit(long nextId, long logSequence) throws IOException {
+        for (Map.Entry<Long, Node> entry : pool.entrySet()) {
+            if (entry.getValue().dirty) {
+                writeNode(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Once the header lands, pages the last commit used and the tree no longer does are free as well
+        final LongStack nowFree = new LongStack();
+        nowFree.pushAll(free);
+        nowFree.pushAll(released);
+        nowFree.pushAll(freeListPages);
+        final int listPageCount = (nowFree.size + FREE_PAGES_PER_PAGE - 1) / FREE_PAGES_PER_PAGE;
+        final LongStack listPages = new LongStack();
+        for (int i = 0; i < listPageCount; i++) {
+            // Only pages free before this commit may hold its free list; the others are still in use until then
+            listPages.push(free.size > 0 ? free.pop() : pageCount++);
+        }
+        final LongStack newFree = new LongStack();
+        final HashSet<Long> holdingList = new HashSet<>();
+        for (int i = 0; i < listPages.size; i++) {
+            holdingList.add(listPages.values[i]);
+        }
+        for (int i = 0; i < nowFree.size; i++) {
+            if (!holdingList.contains(nowFree.values[i])) {
+                newFree.push(nowFree.values[i]);
+            }
+        }
+        for (int i = 0; i < listPages.size; i++) {
+            page.clear();
+            page.put(FREE_LIST).put((byte) 0);
+            final int from = i * FREE_PAGES_PER_PAGE;
+            final int count = Math.max(0, Math.min(FREE_PAGES_PER_PAGE, newFree.size - from));
+            page.putShort((short) count);
+            page.putLong(i + 1 < listPages.size ? listPages.values[i + 1] : 0);
+            for (int j = 0; j < count; j++) {
+                page.putLong(newFree.values[from + j]);
+            }
+            writePage(listPages.values[i]);
+        }
+        channel.force(true);
+
+        this.nextId = nextId;
+        this.logSequence = logSequence;
+        commit++;
+        freeListHead = listPages.size > 0 ? listPages.values[0] : 0;
+        writeHeader();
+        channel.force(true);
+
+        free = newFree;
+        freeListPages = listPages;
+        released.size = 0;
+        reused.clear();
+        committedPageCount = pageCount;
+    }
+
+    /**
+     * Closes the file. Changes since the last commit are lost.
+     */
+    @Override
+    public void close() throws IOException {
+        pool.clear();
+        channel.close();
+    }
+
+    /**
+     * Returns the number of tasks held.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the next ID stored by the last commit.
+     */
+    public long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Returns the sequence number of the last logged change the last commit includes.
+     */
+    public long getLogSequence() {
+        return logSequence;
+    }
+
+    /**
+     * Returns how many times a page was found in the buffer pool, and how many times it had to be read.
+     */
+    public long getPoolHits() {
+        return hits;
+    }
+
+    public long getPoolMisses() {
+        return misses;
+    }
+
+    /**
+     * Fills the path from the root to the leaf that holds, or would hold, {@code id}.
+     */
+    private void descend(long id) throws IOException, StorageOperationException {
+        depth = 0;
+        long pageNumber = root;
+        while (true) {
+            final Node node = node(pageNumber);
+            if (depth == pathPages.length) {
+                pathPages = Arrays.copyOf(pathPages, depth * 2);
+                pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+                pathSlots = Arrays.copyOf(pathSlots, depth * 2);
+            }
+            pathPages[depth] = pageNumber;
+            pathNodes[depth] = node;
+            depth++;
+            if (node.leaf) {
+                return;
+            }
+            final int slot = childIndex(node, id);
+            pathSlots[depth - 1] = slot;
+            pageNumber = node.children[slot];
+        }
+    }
+
+    /**
+     * Returns the node at {@code level} of the path, first moving it to a page allocated since the last commit,
+     * along with its ancestors, if it is on a page the last commit refers to.
+     */
+    private Node writable(int level) throws IOException, StorageOperationException {
+        final long pageNumber = pathPages[level];
+        final Node node = pathNodes[level];
+        if (isFresh(pageNumber)) {
+            return node;
+        }
+        final long moved = allocate();
+        release(pageNumber);
+        pool.remove(pageNumber);
+        pathPages[level] = moved;
+        markDirty(moved, node);
+        if (level == 0) {
+            root = moved;
+        } else {
+            final Node parent = writable(level - 1);
+            parent.children[pathSlots[level - 1]] = moved;
+            markDirty(pathPages[level - 1], parent);
+        }
+        return node;
+    }
+
+    /**
+     * Splits the writable node at {@code level} of the path, which has grown too large after an entry was put at
+     * {@code inserted}, and adds the new node to its parent, splitting that in turn if need be.
+     */
+    private void split(int level, int inserted) throws IOException, StorageOperationException {
+        final Node node = pathNodes[level];
+        final Node right;
+        final long separator;
+        if (node.leaf) {
+            // Adding past the end, as new tasks do, leaves the old leaf full rather than half full
+            final int at = inserted == node.count - 1 ? inserted : node.bytesSplitPoint();
+            right = node.splitLeaf(at);
+            separator = right.keys[0];
+        } else {
+            final int at = inserted == node.count - 1 ? inserted : node.count / 2;
+            separator = node.keys[at];
+            right = node.splitInternal(at);
+        }
+        final long rightPage = allocate();
+        markDirty(pathPages[level], node);
+        markDirty(rightPage, right);
+        if (level == 0) {
+            final Node newRoot = new Node(false);
+            newRoot.children = new long[] { pathPages[0], rightPage, 0, 0 };
+            newRoot.keys = new long[] { separator, 0, 0 };
+            newRoot.count = 1;
+            newRoot.bytes += 2 * Long.BYTES;
+            root = allocate();
+            markDirty(root, newRoot);
+            return;
+        }
+        final Node parent = writable(level - 1);
+        final int slot = pathSlots[level - 1];
+        parent.insertChild(slot, separator, rightPage);
+        if (parent.count > MAX_KEYS) {
+            split(level - 1, slot);
+        } else {
+            markDirty(pathPages[level - 1], parent);
+        }
+    }
+
+    /**
+     * Removes the empty node at {@code level} of the path from its parent, dropping the parent in turn if that
+     * was its only child.
+     */
+    private void drop(int level) throws IOException, StorageOperationException {
+        release(pathPages[level]);
+        pool.remove(pathPages[level]);
+        if (level == 0) {
+            root = 0;
+            return;
+        }
+        final Node parent = writable(level - 1);
+        if (parent.count == 0) {
+            drop(level - 1);
+            return;
+        }
+        parent.removeChild(pathSlots[level - 1]);
+        markDirty(pathPages[level - 1], parent);
+    }
+
+    /**
+     * Merges the writable leaf at {@code level} of the path with the leaf just after it under the same parent,
+     * or just before it if there is none after it, into the left one of the two. Returns false, changing
+     * nothing, if the parent has no other child or the two would not fit in one page.
+     */
+    private boolean merge(int level) throws IOException, StorageOperationException {
+        if (level == 0 || pathNodes[level - 1].count == 0) {
+            return false;
+        }
+        final int slot = pathSlots[level - 1];
+        final int leftSlot = slot < pathNodes[level - 1].count ? slot : slot - 1;
+        final long[] children = pathNodes[level - 1].children;
+        final Node left = leftSlot == slot ? pathNodes[level] : node(children[leftSlot]);
+        final Node right = leftSlot == slot ? node(children[slot + 1]) : pathNodes[level];
+        if (left.bytes + right.bytes - NODE_HEADER_BYTES > PAGE_BYTES) {
+            return false;
+        }
+        final Node parent = writable(level - 1);
+        long leftPage = parent.children[leftSlot];
+        final long rightPage = parent.children[leftSlot + 1];
+        if (!isFresh(leftPage)) {
+            final long moved = allocate();
+            release(leftPage);
+            pool.remove(leftPage);
+            parent.children[leftSlot] = moved;
+            leftPage = moved;
+        }
+        left.absorb(right);
+        markDirty(leftPage, left);
+        release(rightPage);
+        pool.remove(rightPage);
+        parent.removeChild(leftSlot + 1);
+        markDirty(pathPages[level - 1], parent);
+        return true;
+    }
+
+    private static int childIndex(Node node, long id) {
+        final int at = Arrays.binarySearch(node.keys, 0, node.count, id);
+        return at >= 0 ? at + 1 : -at - 1;
+    }
+
+    /**
+     * Returns the node on the given page, reading it into the pool if it is not there.
+     */
+    private Node node(long pageNumber) throws IOException, StorageOperationException {
+        Node node = pool.get(pageNumber);
+        if (node != null) {
+            hits++;
+            return node;
+        }
+        misses++;
+        readPage(pageNumber, (byte) 0);
+        node = Node.read(page);
+        pool.put(pageNumber, node);
+        return node;
+    }
+
+    private void markDirty(long pageNumber, Node node) {
+        node.dirty = true;
+        pool.put(pageNumber, node);
+    }
+
+    /**
+     * Writes out and drops the least recently used pages until the pool is within its size. Only called between
+     * changes, so no page a change is still working on is dropped.
+     */
+    private void evict() throws IOException {
+        final Iterator<Map.Entry<Long, Node>> eldest = pool.entrySet().iterator();
+        while (pool.size() > poolPages) {
+            final Map.Entry<Long, Node> entry = eldest.next();
+            if (entry.getValue().dirty) {
+                writeNode(entry.getKey(), entry.getValue());
+            }
+            eldest.remove();
+        }
+    }
+
+    private boolean isFresh(long pageNumber) {
+        return pageNumber >= committedPageCount || reused.contains(pageNumber);
+    }
+
+    private long allocate() {
+        if (free.size > 0) {
+            final long pageNumber = free.pop();
+            reused.add(pageNumber);
+            return pageNumber;
+        }
+        return pageCount++;
+    }
+
+    /**
+     * Gives up a page the tree no longer uses. It can be reused at once unless the last commit refers to it.
+     */
+    private void release(long pageNumber) {
+        if (isFresh(pageNumber)) {
+            reused.remove(pageNumber);
+            free.push(pageNumber);
+        } else {
+            released.push(pageNumber);
+        }
+    }
+
+    private void releaseRecord(Node leaf, int at) throws IOException, StorageOperationException {
+        for (long pageNumber = leaf.records[at] == null ? leaf.overflowPages[at] : 0; pageNumber != 0; ) {
+            readPage(pageNumber, OVERFLOW);
+            release(pageNumber);
+            pageNumber = page.getLong(4);
+        }
+    }
+
+    private long writeOverflow(byte[] record) throws IOException {
+        final int perPage = PAGE_BYTES - CHAIN_HEADER_BYTES;
+        final long[] pages = new long[(record.length + perPage - 1) / perPage];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = allocate();
+        }
+        for (int i = 0; i < pages.length; i++) {
+            final int from = i * perPage;
+            final int length = Math.min(perPage, record.length - from);
+            page.clear();
+            page.put(OVERFLOW).put((byte) 0).putShort((short) length);
+            page.putLong(i + 1 < pages.length ? pages[i + 1] : 0);
+            page.put(record, from, length);
+            writePage(pages[i]);
+        }
+        return pages[0];
+    }
+
+    private TodoTask task(Node leaf, int at) throws IOException, StorageOperationException {
+        byte[] record = leaf.records[at];
+        if (record == null) {
+            record = new byte[leaf.overflowLengths[at]];
+            int from = 0;
+            for (long pageNumber = leaf.overflowPages[at]; from < record.length; ) {
+                if (pageNumber == 0) {
+                    throw new StorageOperationException("File data missing some elements");
+                }
+                readPage(pageNumber, OVERFLOW);
+                final int length = page.getShort(2);
+                page.position(CHAIN_HEADER_BYTES);
+                page.get(record, from, Math.min(length, record.length - from));
+                from += length;
+                pageNumber = page.getLong(4);
+            }
+        }
+        return decode(leaf.keys[at], record);
+    }
+
+    private static byte[] encode(TodoTask task) {
+        final byte[] details = task.getDetails().toString().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer record;
+        if (task instanceof EventTask) {
+            record = ByteBuffer.allocate(1 + 2 * Integer.BYTES + details.length).put(EVENT)
+                    .putInt(((EventTask) task).getStartMinutes()).putInt(((EventTask) task).getEndMinutes());
+        } else if (task instanceof DeadlineTask) {
+            record = ByteBuffer.allocate(1 + Integer.BYTES + details.length).put(DEADLINE)
+                    .putInt(((DeadlineTask) task).getEndMinutes());
+        } else {
+            record = ByteBuffer.allocate(1 + details.length).put(TODO);
+        }
+        return record.put(details).array();
+    }
+
+    private static TodoTask decode(long id, byte[] record) throws StorageOperationException {
+        final ByteBuffer in = ByteBuffer.wrap(record);
+        try {
+            final byte kind = in.get();
+            if (kind == EVENT) {
+                final StartTime start = StartTime.ofMinutes(in.getInt());
+                final EndTime end = EndTime.ofMinutes(in.getInt());
+                return new EventTask(id, details(in), start, end);
+            } else if (kind == DEADLINE) {
+                final EndTime end = EndTime.ofMinutes(in.getInt());
+                return new DeadlineTask(id, details(in), end);
+            } else if (kind == TODO) {
+                return new TodoTask(id, details(in));
+            }
+            throw new StorageOperationException("Error parsing file data format");
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        } catch (RuntimeException re) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+    }
+
+    private static TaskDetails details(ByteBuffer in) {
+        return new TaskDetails(new String(in.array(), in.position(), in.remaining(), StandardCharsets.UTF_8));
+    }
+
+    private void writeNode(long pageNumber, Node node) throws IOException {
+        page.clear();
+        node.write(page);
+        writePage(pageNumber);
+        node.dirty = false;
+    }
+
+    /**
+     * Reads a page into {@link #page}, checking that it is of the given kind unless that is 0.
+     */
+    private void readPage(long pageNumber, byte kind) throws IOException, StorageOperationException {
+        page.clear();
+        final long position = pageNumber * PAGE_BYTES;
+        while (page.hasRemaining()) {
+            if (channel.read(page, position + page.position()) < 0) {
+                throw new StorageOperationException("File data missing some elements");
+            }
+        }
+        page.clear();
+        if (kind != 0 && page.get(0) != kind) {
+            throw new StorageOperationException("Error parsing file data format");
+        }
+    }
+
+    /**
+     * Writes the whole of {@link #page}, whatever its position, to the given page.
+     */
+    private void writePage(long pageNumber) throws IOException {
+        page.clear();
+        final long position = pageNumber * PAGE_BYTES;
+        while (page.hasRemaining()) {
+            channel.write(page, position + page.position());
+        }
+    }
+
+    /**
+     * Writes the header into the slot for the current commit number, leaving the other slot as it was.
+     */
+    private void writeHeader() throws IOException {
+        final ByteBuffer slot = ByteBuffer.allocate(SLOT_BYTES)
+                .put(MAGIC)
+                .put((byte) VERSION)
+                .put(new byte[3])
+                .putLong(commit)
+                .putLong(root)
+                .putLong(pageCount)
+                .putLong(freeListHead)
+                .putLong(nextId)
+                .putLong(logSequence)
+                .putLong(size);
+        slot.putInt(checksum(slot.array(), SLOT_BYTES - Integer.BYTES));
+        slot.flip();
+        final long position = commit % 2 == 0 ? 0 : SECOND_SLOT;
+        while (slot.hasRemaining()) {
+            channel.write(slot, position + slot.position());
+        }
+    }
+
+    /**
+     * Reads whichever header slot holds the later commit, skipping a slot a crash left half written.
+     */
+    private void readHeader() throws IOException, StorageOperationException {
+        readPage(0, (byte) 0);
+        ByteBuffer latest = null;
+        for (int offset : new int[] { 0, SECOND_SLOT }) {
+            final byte[] bytes = new byte[SLOT_BYTES];
+            page.position(offset);
+            page.get(bytes);
+            final ByteBuffer slot = ByteBuffer.wrap(bytes);
+            if (!recognizes(bytes, bytes.length)
+                    || checksum(bytes, SLOT_BYTES - Integer.BYTES) != slot.getInt(SLOT_BYTES - Integer.BYTES)) {
+                continue;
+            }
+            if (latest == null || slot.getLong(8) > latest.getLong(8)) {
+                latest = slot;
+            }
+        }
+        if (latest == null) {
+            throw new StorageOperationException("Error parsing file data format");
+        }
+        if (latest.get(MAGIC.length) > VERSION) {
+            throw new StorageOperationException("File was written by a newer version of Keyboard Warrior");
+        }
+        latest.position(8);
+        commit = latest.getLong();
+        root = latest.getLong();
+        pageCount = latest.getLong();
+        freeListHead = latest.getLong();
+        nextId = latest.getLong();
+        logSequence = latest.getLong();
+        size = latest.getLong();
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A leaf or internal node as held in the buffer pool.
+     */
+    private static final class Node {
+        final boolean leaf;
+        int count;
+        /** Leaves: the IDs of the entries. Internal nodes: the smallest ID under each child but the first. */
+        long[] keys = new long[4];
+        /** Internal nodes: the count + 1 child pages. */
+        long[] children;
+        /** Leaves: each entry's record, or null if it is in overflow pages. */
+        byte[][] records;
+        /** Leaves: the length and first overflow page of each record in overflow pages. */
+        int[] overflowLengths;
+        long[] overflowPages;
+        /** Bytes the node takes up in its page. */
+        int bytes = NODE_HEADER_BYTES;
+        boolean dirty;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+            if (leaf) {
+                records = new byte[4][];
+                overflowLengths = new int[4];
+                overflowPages = new long[4];
+            } else {
+                children = new long[5];
+                bytes += Long.BYTES;
+            }
+        }
+
+        static Node read(ByteBuffer page) throws StorageOperationException {
+            final byte kind = page.get(0);
+            if (kind != LEAF && kind != INTERNAL) {
+                throw new StorageOperationException("Error parsing file data format");
+            }
+            final Node node = new Node(kind == LEAF);
+            final int count = page.getShort(2);
+            page.position(NODE_HEADER_BYTES);
+            try {
+                if (node.leaf) {
+                    node.grow(count);
+                    for (int i = 0; i < count; i++) {
+                        final long id = page.getLong();
+                        final short length = page.getShort();
+                        if (length < 0) {
+                            node.append(id, null, page.getInt(), page.getLong());
+                        } else {
+                            final byte[] record = new byte[length];
+                            page.get(record);
+                            node.append(id, record, 0, 0);
+                        }
+                    }
+                } else {
+                    node.keys = new long[count + 1];
+                    node.children = new long[count + 2];
+                    for (int i = 0; i <= count; i++) {
+                        node.children[i] = page.getLong();
+                    }
+                    for (int i = 0; i < count; i++) {
+                        node.keys[i] = page.getLong();
+                    }
+                    node.count = count;
+                    node.bytes += count * 2 * Long.BYTES;
+                }
+            } catch (RuntimeException re) {
+                throw new StorageOperationException("File data missing some elements");
+            }
+            return node;
+        }
+
+        void write(ByteBuffer page) {
+            page.put(leaf ? LEAF : INTERNAL).put((byte) 0).putShort((short) count);
+            if (leaf) {
+                for (int i = 0; i < count; i++) {
+                    page.putLong(keys[i]);
+                    if (records[i] == null) {
+                        page.putShort((short) -1).putInt(overflowLengths[i]).putLong(overflowPages[i]);
+                    } else {
+                        page.putShort((short) records[i].length).put(records[i]);
+                    }
+                }
+            } else {
+                for (int i = 0; i <= count; i++) {
+                    page.putLong(children[i]);
+                }
+                for (int i = 0; i < count; i++) {
+                    page.putLong(keys[i]);
+                }
+            }
+        }
+
+        private int entryBytes(int at) {
+            return records[at] == null ? OVERFLOW_ENTRY_BYTES : INLINE_ENTRY_BYTES + records[at].length;
+        }
+
+        private void grow(int capacity) {
+            if (capacity > keys.length) {
+                final int grown = Math.max(capacity, keys.length * 2);
+                keys = Arrays.copyOf(keys, grown);
+                records = Arrays.copyOf(records, grown);
+                overflowLengths = Arrays.copyOf(overflowLengths, grown);
+                overflowPages = Arrays.copyOf(overflowPages, grown);
+            }
+        }
+
+        private void append(long id, byte[] record, int overflowLength, long overflowPage) {
+            insertEntry(count, id, record, overflowLength, overflowPage);
+        }
+
+        void insertEntry(int at, long id, byte[] record, int overflowLength, long overflowPage) {
+            grow(count + 1);
+            final int moved = count - at;
+            System.arraycopy(keys, at, keys, at + 1, moved);
+            System.arraycopy(records, at, records, at + 1, moved);
+            System.arraycopy(overflowLengths, at, overflowLengths, at + 1, moved);
+            System.arraycopy(overflowPages, at, overflowPages, at + 1, moved);
+            keys[at] = id;
+            records[at] = record;
+            overflowLengths[at] = overflowLength;
+            overflowPages[at] = overflowPage;
+            count++;
+            bytes += entryBytes(at);
+        }
+
+        void removeEntry(int at) {
+            bytes -= entryBytes(at);
+            final int moved = count - at - 1;
+            System.arraycopy(keys, at + 1, keys, at, moved);
+            System.arraycopy(records, at + 1, records, at, moved);
+            System.arraycopy(overflowLengths, at + 1, overflowLengths, at, moved);
+            System.arraycopy(overflowPages, at + 1, overflowPages, at, moved);
+            count--;
+            records[count] = null;
+        }
+
+        /**
+         * Returns the first entry to move to a new right-hand leaf so that the two halves take up about as many
+         * bytes as each other.
+         */
+        int bytesSplitPoint() {
+            int left = NODE_HEADER_BYTES;
+            for (int at = 0; at < count - 1; at++) {
+                left += entryBytes(at);
+                if (left * 2 >= bytes) {
+                    return at + 1;
+                }
+            }
+            return count - 1;
+        }
+
+        /**
+         * Appends the entries of {@code right}, the leaf just after this one, to this one.
+         */
+        void absorb(Node right) {
+            for (int i = 0; i < right.count; i++) {
+                append(right.keys[i], right.records[i], right.overflowLengths[i], right.overflowPages[i]);
+            }
+        }
+
+        /**
+         * Moves the entries from {@code at} on to a new leaf, and returns it.
+         */
+        Node splitLeaf(int at) {
+            final Node right = new Node(true);
+            for (int i = at; i < count; i++) {
+                right.append(keys[i], records[i], overflowLengths[i], overflowPages[i]);
+            }
+            while (count > at) {
+                removeEntry(count - 1);
+            }
+            return right;
+        }
+
+        /**
+         * Moves the keys after {@code at} and the children after it on to a new internal node, and returns it.
+         * The key at {@code at} is dropped; the caller moves it up to the parent.
+         */
+        Node splitInternal(int at) {
+            final Node right = new Node(false);
+            right.count = count - at - 1;
+            right.keys = Arrays.copyOfRange(keys, at + 1, Math.max(count, at + 1 + 4));
+            right.children = Arrays.copyOfRange(children, at + 1, Math.max(count + 1, at + 1 + 5));
+            right.bytes += right.count * 2 * Long.BYTES;
+            count = at;
+            bytes = NODE_HEADER_BYTES + Long.BYTES + count * 2 * Long.BYTES;
+            return right;
+        }
+
+        /**
+         * Adds {@code child} just after the child at {@code slot}, with {@code key} the smallest ID under it.
+         */
+        void insertChild(int slot, long key, long child) {
+            if (count + 1 >= keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(count + 2, keys.length * 2));
+            }
+            if (count + 2 >= children.length) {
+                children = Arrays.copyOf(children, Math.max(count + 3, children.length * 2));
+            }
+            System.arraycopy(keys, slot, keys, slot + 1, count - slot);
+            System.arraycopy(children, slot + 1, children, slot + 2, count - slot);
+            keys[slot] = key;
+            children[slot + 1] = child;
+            count++;
+            bytes += 2 * Long.BYTES;
+        }
+
+        /**
+         * Removes the child at {@code slot}, and the key bounding it on one side. The node must have a key.
+         */
+        void removeChild(int slot) {
+            final int key = slot > 0 ? slot - 1 : 0;
+            System.arraycopy(keys, key + 1, keys, key, count - key - 1);
+            System.arraycopy(children, slot + 1, children, slot, count - slot);
+            count--;
+            bytes -= 2 * Long.BYTES;
+        }
+    }
+
+    /** A growable stack of page numbers. */
+    private static final class LongStack {
+        long[] values = new long[16];
+        int size;
+
+        void push(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long pop() {
+            return values[--size];
+        }
+
+        void pushAll(LongStack other) {
+            for (int i = 0; i < other.size; i++) {
+                push(other.values[i]);
+            }
+        }
+    }
+}
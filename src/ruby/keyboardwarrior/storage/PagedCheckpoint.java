@@ -0,0 +1,152 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checkpoint of a {@link StorageFile} kept in a {@link PageFile}, the storage file itself, so that a checkpoint
+ * only puts and removes the tasks that changed since the previous one, found by diffing the version being
+ * written against the one last written, and commits them.
+ *
+ * When what the page file holds is not known, as for the first checkpoint, every task is put into a new page
+ * file next to it, which then replaces the old checkpoint, whatever its format, in one rename.
+ *
+ * Only writing is incremental. Reading the checkpoint scans every task into a {@link TasksList}, which the
+ * commands work on, so the tasks are held in the heap as with any other format; the pool bounds only the pages
+ * held besides them.
+ */
+final class PagedCheckpoint implements IncrementalCheckpoint {
+
+    private final Path file;
+    private final int poolPages;
+
+    /** The page file, open since it was last read or written, or null. */
+    private PageFile pages;
+    /** The version the page file holds, or null if that is not known. */
+    private TasksListSnapshot written;
+
+    /**
+     * @param file the storage file, which holds the page file
+     * @param poolPages how many pages of it to hold in memory at most
+     */
+    PagedCheckpoint(Path file, int poolPages) {
+        this.file = file;
+        this.poolPages = poolPages;
+    }
+
+    /**
+     * Reads the whole of the page file at {@code file}.
+     *
+     * @throws StorageOperationException if a page is not in the expected format, or the data violates the task
+     *         constraints.
+     */
+    static Checkpoint readAll(Path file) throws IOException, StorageOperationException {
+        try (final PageFile pageFile = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            return readAll(pageFile);
+        }
+    }
+
+    @Override
+    public synchronized Checkpoint read() throws IOException, StorageOperationException {
+        close();
+        written = null;
+        if (!isPageFile(file)) {
+            return StorageFile.readCheckpoint(file);
+        }
+        pages = PageFile.open(file, poolPages);
+        final Checkpoint checkpoint = readAll(pages);
+        written = checkpoint.getTasksList().snapshot();
+        return checkpoint;
+    }
+
+    @Override
+    public synchronized boolean write(TasksListSnapshot snapshot, long sequence)
+            throws IOException, StorageOperationException {
+        if (written == null) {
+            writeAll(snapshot, sequence);
+            written = snapshot;
+            return true;
+        }
+        if (sequence <= pages.getLogSequence()) {
+            return false;
+        }
+        final ArrayList<Long> removed = new ArrayList<>();
+        final ArrayList<TodoTask> put = new ArrayList<>();
+        snapshot.forEachChangeSince(written, (id, task) -> {
+            if (task == null) {
+                removed.add(id);
+            } else {
+                put.add(task);
+            }
+        });
+        for (long id : removed) {
+            pages.remove(id);
+        }
+        for (TodoTask task : put) {
+            pages.put(task);
+        }
+        pages.commit(snapshot.getNextId(), sequence);
+        written = snapshot;
+        return true;
+    }
+
+    /**
+     * Puts every task, in ID order so that leaves fill up, into a new page file, and renames it over the old
+     * checkpoint.
+     */
+    private void writeAll(TasksListSnapshot snapshot, long sequence) throws IOException, StorageOperationException {
+        final Path temporary = file.resolveSibling(file.getFileName() + "." + sequence + ".tmp");
+        Files.deleteIfExists(temporary);
+        final long[] ids = new long[snapshot.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = snapshot.getTask(i).getId();
+        }
+        Arrays.sort(ids);
+        try (final PageFile created = PageFile.open(temporary, poolPages)) {
+            for (long id : ids) {
+                created.put(snapshot.getTaskById(id));
+            }
+            created.commit(snapshot.getNextId(), sequence);
+        }
+        close();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Segments of an earlier checkpoint that was split, which the file no longer refers to
+        SegmentedCheckpoint.deleteSegments(file);
+        pages = PageFile.open(file, poolPages);
+    }
+
+    private void close() throws IOException {
+        if (pages != null) {
+            pages.close();
+            pages = null;
+        }
+    }
+
+    private static Checkpoint readAll(PageFile pageFile) throws IOException, StorageOperationException {
+        final ArrayList<TodoTask> tasks = new ArrayList<>((int) Math.min(pageFile.size(), Integer.MAX_VALUE - 8));
+        pageFile.scan(Long.MIN_VALUE, Long.MAX_VALUE, tasks::add);
+        return new Checkpoint(new TasksList(tasks, pageFile.getNextId()), pageFile.getLogSequence());
+    }
+
+    private static boolean isPageFile(Path file) throws IOException {
+        final byte[] header = new byte[StorageFormat.HEADER_BYTES];
+        int length = 0;
+        try (final InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) >= 0) {
+                length += read;
+            }
+        }
+        return PageFile.recognizes(header, length);
+    }
+}
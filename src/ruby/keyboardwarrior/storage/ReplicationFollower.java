@@ -0,0 +1,242 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.ReadOnlyTasksList;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Storage that holds the tasks of a {@link ReplicationLeader} rather than storing any, for a standby copy of
+ * Keyboard Warrior. A background thread stays connected to the leader, reconnecting whenever the connection is
+ * lost, and applies every record it is sent to the list {@link #load()} returned, in sequence order. On
+ * reconnecting it asks for the records after the last one it applied, so it catches up with what it missed.
+ *
+ * The list is only changed by the leader: the storage is read-only, and the commands that change tasks are
+ * refused. See {@link #isReadOnly()}. The leader only sends the tasks list, not its archive, so the follower's
+ * archive is empty and read-only: finding tasks on a follower leaves out those the leader has archived.
+ */
+public class ReplicationFollower implements Storage {
+
+    /** Milliseconds waited between attempts to reach the leader. */
+    public static final long RECONNECT_MILLIS = 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private final InetSocketAddress leader;
+    private final TaskArchive archive = new EmptyArchive();
+    private final TasksList tasksList = new TasksList();
+
+    /** Epoch of the leader last followed, and the sequence number of the last record applied from it. */
+    private long epoch;
+    private long sequence = -1;
+    private boolean closed;
+    /** Connection to the leader, or null while there is none. */
+    private Socket socket;
+
+    /**
+     * Starts following the leader at {@code leader}.
+     */
+    public ReplicationFollower(InetSocketAddress leader) {
+        this.leader = leader;
+        final Thread receiver = new Thread(this::receive, "replication-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Returns the list the leader's changes are applied to, after waiting for up to {@code timeoutMillis} for
+     * the tasks the leader holds. If the leader cannot be reached by then, the list fills in once it is.
+     */
+    public TasksList load(long timeoutMillis) {
+        awaitSequence(0, timeoutMillis);
+        return tasksList;
+    }
+
+    @Override
+    public TasksList load() {
+        return load(RECONNECT_MILLIS + CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Waits for up to {@code timeoutMillis} for the record with sequence number {@code sequence}, or a later one,
+     * to be applied. Returns true if it was.
+     */
+    public synchronized boolean awaitSequence(long sequence, long timeoutMillis) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (long left = timeoutMillis; this.sequence < sequence && left > 0;
+                    left = deadline - System.currentTimeMillis()) {
+                wait(left);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return this.sequence >= sequence;
+    }
+
+    /**
+     * Returns the sequence number of the last record applied, or -1 if none was.
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Refuses, as only the leader changes the tasks.
+     *
+     * @throws StorageOperationException always.
+     */
+    @Override
+    public void save(TasksList tasksList) throws StorageOperationException {
+        throw new StorageOperationException("Cannot save while " + getPath());
+    }
+
+    @Override
+    public void flush() {
+        // Nothing is stored here
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public TaskArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    public String getPath() {
+        return "following " + leader.getHostString() + ":" + leader.getPort();
+    }
+
+    /**
+     * Drops the connection to the leader; the receiver reconnects after {@link #RECONNECT_MILLIS}.
+     */
+    public void disconnect() {
+        final Socket toClose;
+        synchronized (this) {
+            toClose = socket;
+        }
+        closeQuietly(toClose);
+    }
+
+    /**
+     * Stops following the leader. The list keeps the tasks it holds.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        disconnect();
+    }
+
+    private void receive() {
+        while (true) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+            }
+            try (final Socket connection = new Socket()) {
+                connection.connect(leader, CONNECT_TIMEOUT_MILLIS);
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    socket = connection;
+                }
+                follow(connection);
+            } catch (IOException | IllegalValueException e) {
+                // Reconnected to below
+            } finally {
+                synchronized (this) {
+                    socket = null;
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Asks the leader for the records after the last one applied, and applies them as they arrive until the
+     * connection is lost.
+     */
+    private void follow(Socket connection) throws IOException, IllegalValueException {
+        connection.setTcpNoDelay(true);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        synchronized (this) {
+            out.writeLong(epoch);
+            out.writeLong(sequence);
+        }
+        out.flush();
+        final long leaderEpoch = in.readLong();
+        synchronized (this) {
+            if (leaderEpoch != epoch) {
+                // A new run of the leader numbers its records from the start again
+                epoch = leaderEpoch;
+                sequence = -1;
+            }
+        }
+        while (true) {
+            final byte[] record = MutationLog.readRecord(in);
+            final TasksListSnapshot base = tasksList.snapshot();
+            final MutationLog.State state = new MutationLog.State(base, getSequence());
+            if (MutationLog.apply(record, state)) {
+                tasksList.applyChanges(base, state.toSnapshot());
+                synchronized (this) {
+                    sequence = state.sequence;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ioe) {
+            // Nothing left to do with it
+        }
+    }
+
+    /**
+     * The archive of a follower, which holds nothing, as the leader does not send its archive. Archiving and
+     * dropping are refused like saving is, though the commands doing so are refused before reaching it.
+     */
+    private class EmptyArchive implements TaskArchive {
+
+        @Override
+        public void archive(TodoTask task) throws StorageOperationException {
+            throw new StorageOperationException("Cannot archive while " + getPath());
+        }
+
+        @Override
+        public void drop(long id) throws StorageOperationException {
+            throw new StorageOperationException("Cannot drop from the archive while " + getPath());
+        }
+
+        @Override
+        public List<TodoTask> find(Collection<String> keywords, ReadOnlyTasksList current) {
+            return Collections.emptyList();
+        }
+    }
+}
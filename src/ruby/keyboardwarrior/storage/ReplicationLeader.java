@@ -0,0 +1,244 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Storage that saves to another storage and streams every change saved to {@link ReplicationFollower}s connected
+ * over a loopback socket, so that a standby copy of Keyboard Warrior holds the same tasks without reading the
+ * storage file. Each save becomes one {@link MutationLog} record with the next sequence number.
+ *
+ * A follower connects by sending the epoch of the leader it last followed and the sequence number of the last
+ * record it applied, and is sent the epoch of this leader and then every record after that one as it is saved.
+ * The last {@link #BACKLOG_RECORDS} records are kept for followers that reconnect; one further behind, or that
+ * followed another run of the leader, is sent a single record replacing all its tasks with the current ones.
+ * <pre>
+ *   follower: long epoch, long last sequence applied
+ *   leader:   long epoch, then records framed as in the log, for as long as the connection lasts
+ * </pre>
+ */
+public class ReplicationLeader implements Storage {
+
+    /** Number of records kept for followers catching up. */
+    public static final int BACKLOG_RECORDS = 4096;
+
+    private final Storage storage;
+    private final ServerSocket serverSocket;
+    /** Picked at random on start, as sequence numbers start over with every run. */
+    private final long epoch = new Random().nextLong();
+
+    /** Records by sequence number, modulo the length; those from {@link #firstKept()} up to {@link #sequence}. */
+    private final byte[][] backlog = new byte[BACKLOG_RECORDS][];
+    /** Version the record with the latest sequence number leads to. */
+    private TasksListSnapshot published = TasksList.empty().snapshot();
+    private long sequence;
+    private boolean closed;
+    private final Set<Socket> followers = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Saves to {@code storage} and accepts followers on the loopback interface at {@code port}, or at a free
+     * port if it is 0.
+     *
+     * @throws StorageOperationException if the port cannot be listened on.
+     */
+    public ReplicationLeader(Storage storage, int port) throws StorageOperationException {
+        this.storage = storage;
+        try {
+            serverSocket = new ServerSocket();
+            // So that a leader restarted at once can listen on the port again
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Could not listen for followers on port " + port + ": "
+                    + ioe.getMessage());
+        }
+        final Thread acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the address followers connect to.
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    /**
+     * Returns the sequence number of the last record sent to followers.
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public TasksList load() throws StorageOperationException {
+        final TasksList tasksList = storage.load();
+        synchronized (this) {
+            published = tasksList.snapshot();
+            notifyAll();
+        }
+        return tasksList;
+    }
+
+    @Override
+    public void save(TasksList tasksList) throws StorageOperationException {
+        storage.save(tasksList);
+        publish(tasksList.snapshot());
+    }
+
+    @Override
+    public void flush() throws StorageOperationException {
+        storage.flush();
+    }
+
+    @Override
+    public Optional<List<TodoTask>> findTasksContainingAnyKeyword(Collection<String> keywords)
+            throws StorageOperationException {
+        return storage.findTasksContainingAnyKeyword(keywords);
+    }
+
+    @Override
+    public TaskArchive getArchive() {
+        return storage.getArchive();
+    }
+
+    @Override
+    public String getPath() {
+        return storage.getPath();
+    }
+
+    /**
+     * Stops accepting followers and disconnects those connected.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        closeQuietly(serverSocket);
+        synchronized (followers) {
+            for (Socket follower : followers) {
+                closeQuietly(follower);
+            }
+        }
+    }
+
+    /**
+     * Appends the changes from the version last published to {@code snapshot} to the backlog, and wakes the
+     * threads sending to followers.
+     */
+    private synchronized void publish(TasksListSnapshot snapshot) throws StorageOperationException {
+        final byte[] record;
+        try {
+            record = MutationLog.encode(sequence + 1, published, snapshot);
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error encoding changes for followers: " + ioe.getMessage());
+        }
+        published = snapshot;
+        if (record == null) {
+            return;
+        }
+        sequence++;
+        backlog[(int) (sequence % BACKLOG_RECORDS)] = record;
+        notifyAll();
+    }
+
+    private long firstKept() {
+        return Math.max(1, sequence - BACKLOG_RECORDS + 1);
+    }
+
+    private void accept() {
+        while (true) {
+            final Socket follower;
+            try {
+                follower = serverSocket.accept();
+            } catch (IOException ioe) {
+                return;
+            }
+            followers.add(follower);
+            final Thread sender = new Thread(() -> serve(follower), "replication-sender");
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    /**
+     * Sends {@code follower} the records it is missing, then every record as it is published, until either side
+     * disconnects.
+     */
+    private void serve(Socket follower) {
+        try {
+            follower.setTcpNoDelay(true);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(follower.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(follower.getOutputStream()));
+            final long followerEpoch = in.readLong();
+            long sent = in.readLong();
+            out.writeLong(epoch);
+            out.flush();
+            if (followerEpoch != epoch) {
+                sent = -1;
+            }
+            while (true) {
+                final ArrayList<byte[]> records = new ArrayList<>();
+                final TasksListSnapshot all;
+                final long upTo;
+                synchronized (this) {
+                    while (sent == sequence && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    upTo = sequence;
+                    if (sent >= firstKept() - 1 && sent < sequence) {
+                        for (long next = sent + 1; next <= sequence; next++) {
+                            records.add(backlog[(int) (next % BACKLOG_RECORDS)]);
+                        }
+                        all = null;
+                    } else {
+                        all = published;
+                    }
+                }
+                if (all != null) {
+                    // Encoded outside the lock, as it holds every task
+                    out.write(MutationLog.encodeAll(upTo, all));
+                }
+                for (byte[] record : records) {
+                    out.write(record);
+                }
+                out.flush();
+                sent = upTo;
+            }
+        } catch (IOException | InterruptedException e) {
+            // The follower reconnects, and is sent what it missed then
+        } finally {
+            followers.remove(follower);
+            closeQuietly(follower);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ioe) {
+            // Nothing left to do with it
+        }
+    }
+}
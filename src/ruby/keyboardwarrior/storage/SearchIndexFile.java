@@ -0,0 +1,241 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.StoredKeywordIndex;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.data.task.TokenDictionary;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keyword index of the tasks a {@link StorageFile} held at some point, kept in a file next to it so that a list
+ * just loaded can be searched at once rather than after its keyword index is built:
+ * <pre>
+ *   header:    "KWIX" magic, int version, long checksum of the checkpoint, long log sequence, int word count
+ *   directory: int word offset, int postings offset, int task count, for every word, ordered by word
+ *   words:     varint length, UTF-8 word, for every word in lower case
+ *   postings:  varint ID, then varint difference from the previous ID, for the tasks of every word, in ID order
+ *   footer:    "KWIX" magic
+ * </pre>
+ * The index holds the tasks the checkpoint with the given checksum and the log up to the given sequence number
+ * hold together, and is only used if both still match. It is mapped into memory, and a search only decodes the
+ * words it compares on the way down the directory and the postings of the words it finds.
+ *
+ * The file is written to a temporary file and renamed over the old one, so it is either whole or missing. It is
+ * only ever renamed over, never changed in place, as the mapping stays in use until the list's own keyword index
+ * is built; renaming over a mapped file fails on Windows, which leaves the old index there, to be found stale.
+ */
+final class SearchIndexFile implements StoredKeywordIndex {
+
+    /** Version written by this class; files of another version are rebuilt rather than misread. */
+    static final int VERSION = 1;
+
+    private static final int MAGIC = 0x4b574958; // "KWIX"
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+    private static final int DIRECTORY_ENTRY_BYTES = 3 * Integer.BYTES;
+
+    private static final long[] NO_IDS = new long[0];
+
+    private final ByteBuffer buffer;
+    private final int wordCount;
+
+    private SearchIndexFile(ByteBuffer buffer, int wordCount) {
+        this.buffer = buffer;
+        this.wordCount = wordCount;
+    }
+
+    /**
+     * Maps the index at {@code file} if it holds the tasks of the checkpoint with checksum {@code checkpointChecksum}
+     * and the log up to {@code logSequence}, or returns null if it is missing, of another version, cut short, or
+     * holds other tasks.
+     */
+    static SearchIndexFile open(Path file, long checkpointChecksum, long logSequence) throws IOException {
+        final ByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_BYTES + Integer.BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (NoSuchFileException nsfe) {
+            return null;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(buffer.capacity() - Integer.BYTES) != MAGIC
+                || buffer.getInt(Integer.BYTES) != VERSION
+                || buffer.getLong(2 * Integer.BYTES) != checkpointChecksum
+                || buffer.getLong(2 * Integer.BYTES + Long.BYTES) != logSequence) {
+            return null;
+        }
+        final int wordCount = buffer.getInt(2 * Integer.BYTES + 2 * Long.BYTES);
+        if (wordCount < 0 || (long) wordCount * DIRECTORY_ENTRY_BYTES > buffer.capacity() - HEADER_BYTES) {
+            return null;
+        }
+        return new SearchIndexFile(buffer, wordCount);
+    }
+
+    /**
+     * Finds {@code word} by binary search over the directory, and decodes its postings.
+     */
+    @Override
+    public long[] findIds(String word) {
+        int low = 0;
+        int high = wordCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int entry = HEADER_BYTES + middle * DIRECTORY_ENTRY_BYTES;
+            final int comparison = wordAt(buffer.getInt(entry)).compareTo(word);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return postingsAt(buffer.getInt(entry + Integer.BYTES), buffer.getInt(entry + 2 * Integer.BYTES));
+            }
+        }
+        return NO_IDS;
+    }
+
+    private String wordAt(int offset) {
+        final ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        final byte[] bytes = new byte[(int) readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long[] postingsAt(int offset, int count) {
+        final ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        final long[] ids = new long[count];
+        long id = 0;
+        for (int i = 0; i < count; i++) {
+            id += readVarint(in);
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the index of {@code snapshot}, which the checkpoint with checksum {@code checkpointChecksum} and the
+     * log up to {@code logSequence} hold, to {@code file}. The occurrences of all words are grouped by the
+     * dictionary ID of their lower case form with a counting sort, as the tasks are visited in ID order the IDs of
+     * each group come out sorted.
+     */
+    static void write(Path file, TasksListSnapshot snapshot, long checkpointChecksum, long logSequence)
+            throws IOException {
+        final TokenDictionary dictionary = TokenDictionary.shared();
+        final List<TodoTask> tasks = snapshot.getAllTasks();
+        final int[] starts = new int[dictionary.size() + 1];
+        int occurrences = 0;
+        for (TodoTask task : tasks) {
+            final TaskDetails details = task.getDetails();
+            for (int i = 0; i < details.getWordCount(); i++) {
+                starts[dictionary.foldedIdOf(details.getWordId(i)) + 1]++;
+                occurrences++;
+            }
+        }
+        for (int key = 0; key < starts.length - 1; key++) {
+            starts[key + 1] += starts[key];
+        }
+        final int[] next = Arrays.copyOf(starts, starts.length - 1);
+        final long[] ids = new long[occurrences];
+        for (TodoTask task : tasks) {
+            final TaskDetails details = task.getDetails();
+            for (int i = 0; i < details.getWordCount(); i++) {
+                final int key = dictionary.foldedIdOf(details.getWordId(i));
+                // A word repeated within a task is only listed once
+                if (next[key] > starts[key] && ids[next[key] - 1] == task.getId()) {
+                    continue;
+                }
+                ids[next[key]++] = task.getId();
+            }
+        }
+
+        final ArrayList<Integer> keys = new ArrayList<>();
+        for (int key = 0; key < next.length; key++) {
+            if (next[key] > starts[key]) {
+                keys.add(key);
+            }
+        }
+        keys.sort((first, second) -> dictionary.wordOf(first).compareTo(dictionary.wordOf(second)));
+
+        final ByteArrayOutputStream words = new ByteArrayOutputStream();
+        final ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        final int[] wordOffsets = new int[keys.size()];
+        final int[] postingOffsets = new int[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            final int key = keys.get(i);
+            final byte[] word = dictionary.wordOf(key).getBytes(StandardCharsets.UTF_8);
+            wordOffsets[i] = words.size();
+            writeVarint(words, word.length);
+            words.write(word);
+            postingOffsets[i] = postings.size();
+            long previous = 0;
+            for (int at = starts[key]; at < next[key]; at++) {
+                writeVarint(postings, ids[at] - previous);
+                previous = ids[at];
+            }
+        }
+        final long wordsStart = HEADER_BYTES + (long) keys.size() * DIRECTORY_ENTRY_BYTES;
+        final long postingsStart = wordsStart + words.size();
+        if (postingsStart + postings.size() + Integer.BYTES > Integer.MAX_VALUE) {
+            throw new IOException("Search index would exceed 2 GB");
+        }
+
+        final Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".",
+                ".tmp");
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(checkpointChecksum);
+                out.writeLong(logSequence);
+                out.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    out.writeInt((int) wordsStart + wordOffsets[i]);
+                    out.writeInt((int) postingsStart + postingOffsets[i]);
+                    out.writeInt(next[keys.get(i)] - starts[keys.get(i)]);
+                }
+                words.writeTo(out);
+                postings.writeTo(out);
+                out.writeInt(MAGIC);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint of a {@link StorageFile} split into segment files, each holding the tasks whose IDs fall in one
+ * fixed range, so that a checkpoint only rewrites the segments whose tasks changed since the previous one.
+ * The segments to rewrite are found by diffing the version being written against the one last written.
+ *
+ * The storage file itself becomes a manifest, and the segments live in a directory next to it:
+ * <pre>
+ *   manifest: "KWSM" magic, version byte, 3 reserved bytes, long epoch, int IDs per segment, long next ID,
+ *             long log sequence, int CRC32 of the preceding bytes
+ *   segment:  "KWSG" magic, version byte, 3 reserved bytes, int task count, int payload length,
+ *             int CRC32 of the payload, then each task as the change {@link MutationLog} logs to put it
+ * </pre>
+ * Segment {@code i} of epoch {@code e} holds IDs {@code i * n + 1} to {@code (i + 1) * n} in the file
+ * {@code e-i.seg}. Every file is written to a temporary file, forced, and renamed into place, the manifest last.
+ *
+ * A crash while segments are rewritten leaves some at the new version and some at the old, with the old
+ * manifest; the log still holds every change since the old manifest's sequence number, and since each logged
+ * change puts or removes a whole task, replaying them brings every segment up to date. When the segments on
+ * disk are not known, as for the first checkpoint, every segment is written under a new epoch instead, and the
+ * new manifest then replaces the old checkpoint, whatever its format, in one rename.
+ */
+final class SegmentedCheckpoint implements IncrementalCheckpoint {
+
+    /** Version written by this class; files of a later version are rejected rather than misread. */
+    static final int VERSION = 1;
+
+    private static final byte[] MANIFEST_MAGIC = { 'K', 'W', 'S', 'M' };
+    private static final byte[] SEGMENT_MAGIC = { 'K', 'W', 'S', 'G' };
+    private static final int MANIFEST_BYTES = 4 + 4 + Long.BYTES + Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+    private static final int SEGMENT_HEADER_BYTES = 4 + 4 + 3 * Integer.BYTES;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path manifest;
+    private final Path directory;
+    private final int segmentIds;
+
+    /** Epoch of the segments on disk, or 0 if there are none. */
+    private long epoch;
+    /** The version the segments on disk hold, or null if that is not known. */
+    private TasksListSnapshot written;
+    private long writtenSequence;
+
+    /**
+     * @param manifest the storage file, which holds the manifest
+     * @param segmentIds how many consecutive IDs each segment covers; only needed for writing
+     */
+    SegmentedCheckpoint(Path manifest, int segmentIds) {
+        this.manifest = manifest;
+        this.directory = directoryOf(manifest);
+        this.segmentIds = segmentIds;
+    }
+
+    /**
+     * Returns the directory the segments of the storage file at {@code manifest} are kept in.
+     */
+    static Path directoryOf(Path manifest) {
+        final String fileName = manifest.getFileName().toString();
+        final int extension = fileName.lastIndexOf('.');
+        return manifest.resolveSibling((extension > 0 ? fileName.substring(0, extension) : fileName) + ".segments");
+    }
+
+    /**
+     * Returns true if a file beginning with the first {@code length} bytes of {@code header} is a manifest.
+     */
+    static boolean recognizes(byte[] header, int length) {
+        if (length < MANIFEST_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MANIFEST_MAGIC.length; i++) {
+            if (header[i] != MANIFEST_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Checkpoint read() throws IOException, StorageOperationException {
+        if (!isManifest(manifest)) {
+            written = null;
+            return StorageFile.readCheckpoint(manifest);
+        }
+        final ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(manifest));
+        if (header.capacity() != MANIFEST_BYTES || checksum(header.array(), 0, MANIFEST_BYTES - Integer.BYTES)
+                != header.getInt(MANIFEST_BYTES - Integer.BYTES)) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+        if (header.get(MANIFEST_MAGIC.length) > VERSION) {
+            throw new StorageOperationException("File was written by a newer version of Keyboard Warrior");
+        }
+        header.position(MANIFEST_MAGIC.length + 4);
+        final long manifestEpoch = header.getLong();
+        final int manifestSegmentIds = header.getInt();
+        final long nextId = header.getLong();
+        final long logSequence = header.getLong();
+
+        final ArrayList<TodoTask> tasks = new ArrayList<>();
+        for (Path segment : segmentsOf(manifestEpoch).values()) {
+            readSegment(segment, tasks);
+        }
+        final TasksList tasksList = new TasksList(tasks, nextId);
+        epoch = manifestEpoch;
+        writtenSequence = logSequence;
+        written = manifestSegmentIds == segmentIds ? tasksList.snapshot() : null;
+        return new Checkpoint(tasksList, logSequence);
+    }
+
+    @Override
+    public synchronized boolean write(TasksListSnapshot snapshot, long sequence) throws IOException {
+        if (sequence <= writtenSequence && written != null) {
+            return false;
+        }
+        Files.createDirectories(directory);
+        if (written == null) {
+            writeAll(snapshot, sequence);
+        } else {
+            final TreeSet<Long> dirty = new TreeSet<>();
+            snapshot.forEachChangeSince(written, (id, task) -> dirty.add(segmentOf(id)));
+            for (long segment : dirty) {
+                writeSegment(epoch, segment, snapshot);
+            }
+            writeManifest(epoch, snapshot.getNextId(), sequence);
+        }
+        written = snapshot;
+        writtenSequence = sequence;
+        return true;
+    }
+
+    /**
+     * Deletes the segments kept for the storage file at {@code manifest}, once it no longer is a manifest.
+     */
+    static void deleteSegments(Path manifest) throws IOException {
+        final Path directory = directoryOf(manifest);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Writes every segment under a new epoch, then the manifest naming it, then deletes every other segment.
+     */
+    private void writeAll(TasksListSnapshot snapshot, long sequence) throws IOException {
+        final long newEpoch = epoch + 1;
+        // Left behind by a write of all segments that did not finish
+        for (Path leftover : segmentsOf(newEpoch).values()) {
+            Files.delete(leftover);
+        }
+        long segment = -1;
+        for (TodoTask task : snapshot.getAllTasks()) {
+            if (segmentOf(task.getId()) != segment) {
+                segment = segmentOf(task.getId());
+                writeSegment(newEpoch, segment, snapshot);
+            }
+        }
+        writeManifest(newEpoch, snapshot.getNextId(), sequence);
+        epoch = newEpoch;
+        final String prefix = newEpoch + "-";
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().startsWith(prefix)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the tasks of {@code snapshot} in the given segment, or deletes the segment if it has none.
+     */
+    private void writeSegment(long segmentEpoch, long segment, TasksListSnapshot snapshot) throws IOException {
+        final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(payloadBytes);
+        int count = 0;
+        final long firstId = segment * segmentIds + 1;
+        for (long id = firstId; id < firstId + segmentIds; id++) {
+            final TodoTask task = snapshot.getTaskById(id);
+            if (task != null) {
+                MutationLog.writeTask(payload, task);
+                count++;
+            }
+        }
+        final Path file = directory.resolve(segmentEpoch + "-" + segment + SEGMENT_SUFFIX);
+        if (count == 0) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        payload.flush();
+        final byte[] bytes = payloadBytes.toByteArray();
+        final ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES)
+                .put(SEGMENT_MAGIC)
+                .put((byte) VERSION)
+                .put(new byte[3])
+                .putInt(count)
+                .putInt(bytes.length)
+                .putInt(checksum(bytes, 0, bytes.length));
+        header.flip();
+        writeAtomically(file, header, ByteBuffer.wrap(bytes));
+    }
+
+    private void writeManifest(long manifestEpoch, long nextId, long sequence) throws IOException {
+        final ByteBuffer contents = ByteBuffer.allocate(MANIFEST_BYTES)
+                .put(MANIFEST_MAGIC)
+                .put((byte) VERSION)
+                .put(new byte[3])
+                .putLong(manifestEpoch)
+                .putInt(segmentIds)
+                .putLong(nextId)
+                .putLong(sequence);
+        contents.putInt(checksum(contents.array(), 0, contents.position()));
+        contents.flip();
+        writeAtomically(manifest, contents);
+    }
+
+    private static void writeAtomically(Path file, ByteBuffer... contents) throws IOException {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ByteBuffer buffer : contents) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void readSegment(Path segment, ArrayList<TodoTask> tasks)
+            throws IOException, StorageOperationException {
+        final byte[] bytes = Files.readAllBytes(segment);
+        final ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (bytes.length < SEGMENT_HEADER_BYTES) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+        for (byte expected : SEGMENT_MAGIC) {
+            if (header.get() != expected) {
+                throw new StorageOperationException("Error parsing file data format");
+            }
+        }
+        if (header.get() > VERSION) {
+            throw new StorageOperationException("File was written by a newer version of Keyboard Warrior");
+        }
+        header.position(header.position() + 3);
+        final int count = header.getInt();
+        final int length = header.getInt();
+        final int checksum = header.getInt();
+        if (length != bytes.length - SEGMENT_HEADER_BYTES
+                || checksum(bytes, SEGMENT_HEADER_BYTES, length) != checksum) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, SEGMENT_HEADER_BYTES, length));
+        try {
+            for (int i = 0; i < count; i++) {
+                tasks.add(MutationLog.readTask(in));
+            }
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        } catch (EOFException eofe) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+    }
+
+    /**
+     * Returns the segment files of the given epoch by segment number.
+     */
+    private TreeMap<Long, Path> segmentsOf(long segmentEpoch) throws IOException {
+        final TreeMap<Long, Path> segments = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        final String prefix = segmentEpoch + "-";
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                prefix + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(prefix.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException nfe) {
+                    // Not a segment
+                }
+            }
+        }
+        return segments;
+    }
+
+    private long segmentOf(long id) {
+        return (id - 1) / segmentIds;
+    }
+
+    private static boolean isManifest(Path file) throws IOException {
+        final byte[] header = new byte[MANIFEST_MAGIC.length];
+        int length = 0;
+        try (final InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) >= 0) {
+                length += read;
+            }
+        }
+        return recognizes(header, length);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,66 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where the tasks are kept between runs of Keyboard Warrior.
+ */
+public interface Storage {
+
+    /**
+     * Loads the tasks last saved.
+     *
+     * @throws StorageOperationException if there were errors reading and/or converting the stored data.
+     */
+    TasksList load() throws StorageOperationException;
+
+    /**
+     * Saves {@code tasksList}, which the storage may only write the changes of since the last save or load.
+     *
+     * @throws StorageOperationException if there were errors converting and/or storing the data.
+     */
+    void save(TasksList tasksList) throws StorageOperationException;
+
+    /**
+     * Makes sure every change saved so far is stored. Called before the application exits.
+     *
+     * @throws StorageOperationException if the changes could not be stored.
+     */
+    void flush() throws StorageOperationException;
+
+    /**
+     * Returns true if the tasks are only ever changed from elsewhere, so that the commands changing them
+     * must be refused. See {@link ReplicationFollower}.
+     */
+    default boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Retrieves, as of the last save, every task whose details contain any of {@code keywords}, as
+     * {@link TasksList#findTasksContainingAnyKeyword} would, if the storage can search the stored tasks itself.
+     * Returns empty if it cannot, so that the tasks list is searched instead.
+     *
+     * @throws StorageOperationException if the stored tasks could not be read.
+     */
+    default Optional<List<TodoTask>> findTasksContainingAnyKeyword(Collection<String> keywords)
+            throws StorageOperationException {
+        return Optional.empty();
+    }
+
+    /**
+     * Returns where the tasks marked done are moved to.
+     */
+    TaskArchive getArchive();
+
+    /**
+     * Returns where the tasks are stored, as shown to the user.
+     */
+    String getPath();
+}
@@ -1,21 +1,63 @@
 package ruby.keyboardwarrior.storage;
 
 import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
 import ruby.keyboardwarrior.data.exception.IllegalValueException;
-import ruby.keyboardwarrior.storage.jaxb.AdaptedTasksList;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import java.io.*;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * Represents the file used to store address book data.
+ *
+ * The file is a checkpoint of the whole list; changes saved since then are appended to a {@link MutationLog}
+ * next to it, so saving after a command costs O(changes) rather than O(tasks). Loading replays the log onto
+ * the checkpoint. Once the log has grown as large as the checkpoint, a background thread folds it into a new
+ * checkpoint, written to a temporary file and renamed over the old one, so a crash at any point leaves a
+ * checkpoint and a log that together hold every saved change.
+ *
+ * Checkpoints are written in the {@link StorageFormat} the storage file is created with, and read in whichever
+ * known format the file is in, so a file in an older format is migrated by the first checkpoint written.
+ * A checkpoint can also be split into segments by task ID (see {@link SegmentedCheckpoint}), so that writing
+ * one only rewrites the segments whose tasks changed, or kept in a {@link PageFile} (see {@link PagedCheckpoint}),
+ * so that writing one only writes the pages those tasks are on; the log is then folded in as soon as it reaches
+ * a fixed size, however large the checkpoint is.
+ *
+ * Several processes may share a storage file written whole. They take turns through a {@link StoreLock} for each
+ * write only, and a write is a compare-and-swap on the store version the lock file records: a process that finds
+ * other processes wrote since it last did first reads their changes from the log and merges them into its list
+ * (see {@link TasksList#applyChanges(TasksListSnapshot, TasksListSnapshot)}), then logs its own on top. Storage
+ * files whose checkpoints are written in place are instead locked for as long as the process using them runs.
+ *
+ * A storage file written whole can also be watched for being replaced from outside, such as by a file
+ * synchronization tool bringing in the file another copy of Keyboard Warrior wrote (see
+ * {@link #watchForExternalChanges(ExternalChangeListener)}). Its own checkpoints are told apart by a checksum
+ * of their content.
+ *
+ * A {@link SearchIndexFile} next to the storage file, named like it with the extension '.idx', holds the keyword
+ * index of the tasks as of some checkpoint and log sequence number. Loading maps it if it still holds the tasks
+ * loaded, which the list then searches until its own keyword index is built in the background; otherwise it is
+ * rebuilt in the background. It is brought up to date by {@link #flush()}, before the application exits, and never
+ * by saving.
  */
-public class StorageFile {
+public class StorageFile implements Storage {
 
     /** Default file path used if the user doesn't provide the file name. */
     public static final String DEFAULT_STORAGE_FILEPATH = "keyboardwarrior.txt";
@@ -43,10 +85,92 @@ public class StorageFile {
         }
     }
 
-    private final JAXBContext jaxbContext;
+    /**
+     * How saving waits for changes to reach the storage device. In every mode, changes reach the log in the
+     * order they were saved, and {@link #flush()} waits for all of them.
+     */
+    public enum Durability {
+        /** Every save writes its changes and forces them to the storage device before returning. */
+        SYNC,
+        /**
+         * Saves return at once; a background writer writes the changes of all saves made meanwhile as one
+         * record, and forces it to the storage device, once a number of saves or an amount of time has passed.
+         */
+        BATCHED,
+        /** Saves return at once; a background writer writes their changes as soon as it can, without forcing. */
+        ASYNC
+    }
+
+    /**
+     * Told when the checkpoint of a watched storage file is replaced from outside.
+     */
+    public interface ExternalChangeListener {
+        /**
+         * Called on the watcher thread with the tasks the checkpoint held before and holds now. The storage file
+         * writes a whole new checkpoint on the next save, so whatever the list is then is what the file holds.
+         *
+         * @throws StorageOperationException if saving the list failed; reported by the next save or flush.
+         */
+        void onExternalChange(TasksListSnapshot before, TasksListSnapshot after) throws StorageOperationException;
+    }
+
+    /** The log is not folded into a new checkpoint before it reaches this size. */
+    private static final long MIN_COMPACTION_LOG_BYTES = 1 << 20;
+
+    /** How long a watched file must stay unchanged before it is read, so that it is not read half written. */
+    private static final long WATCH_QUIET_MILLIS = 200;
+
+    /** Writes checkpoints for every storage file, one at a time, off the thread that saves. */
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "storage-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public final Path path;
 
+    private final StorageFormat format;
+    /** Where checkpoints are written if only their changes are written, or null if they are written whole. */
+    private final IncrementalCheckpoint incremental;
+
+    private final MutationLog log;
+    private final StoreLock store;
+    private final TaskArchive archive;
+    private final Path searchIndexPath;
+    /** The list saved, into which changes other processes saved are merged. */
+    private TasksList tasksList;
+    /** The version last saved, which the next save logs the changes since, or null if nothing was saved yet. */
+    private TasksListSnapshot saved;
+    /** Sequence number of the last change saved, and of the last change the checkpoint holds. */
+    private long sequence;
+    private long checkpointSequence;
+    private long checkpointBytes;
+    private long logBytes;
+    private boolean compacting;
+
+    private Durability durability = Durability.SYNC;
+    private long batchNanos;
+    private int batchRecords = 1;
+    private Thread writer;
+    /** Latest version saved but not yet written by the background writer, or null if there is none. */
+    private TasksListSnapshot pending;
+    private int pendingSaves;
+    private long pendingSinceNanos;
+    private boolean writing;
+    private boolean flushRequested;
+    /** Error the background writer met, reported by the next save or flush. */
+    private StorageOperationException writeFailure;
+
+    /** Told about external changes, or null if the file is not watched. */
+    private ExternalChangeListener externalChangeListener;
+    /** Tasks the checkpoint holds, kept only while the file is watched, and the checksum of its content. */
+    private TasksListSnapshot checkpointed;
+    private long checkpointChecksum;
+
+    /** Sequence number of the changes, and of the checkpoint, the search index file holds, or -1 if unknown. */
+    private long indexedSequence = -1;
+    private long indexedCheckpointSequence = -1;
+
     /**
      * @throws InvalidStorageFilePathException if the default path is invalid
      */
@@ -58,16 +182,58 @@ public class StorageFile {
      * @throws InvalidStorageFilePathException if the given file path is invalid
      */
     public StorageFile(String filePath) throws InvalidStorageFilePathException {
-        try {
-            jaxbContext = JAXBContext.newInstance(AdaptedTasksList.class);
-        } catch (JAXBException jaxbe) {
-            throw new RuntimeException("jaxb initialisation error");
-        }
+        this(filePath, StorageFormat.BINARY);
+    }
 
+    /**
+     * @param format the format checkpoints are written in
+     * @throws InvalidStorageFilePathException if the given file path is invalid
+     */
+    public StorageFile(String filePath, StorageFormat format) throws InvalidStorageFilePathException {
+        this(filePath, format, 0);
+    }
+
+    /**
+     * @param format the format checkpoints are written in, if they are written whole
+     * @param segmentTasks if positive, checkpoints are split into segments of this many consecutive task IDs
+     * @throws InvalidStorageFilePathException if the given file path is invalid
+     */
+    public StorageFile(String filePath, StorageFormat format, int segmentTasks)
+            throws InvalidStorageFilePathException {
+        this(filePath, format, segmentTasks, 0);
+    }
+
+    private StorageFile(String filePath, StorageFormat format, int segmentTasks, int poolPages)
+            throws InvalidStorageFilePathException {
+        this.format = format;
         path = Paths.get(filePath);
         if (!isValidPath(path)) {
             throw new InvalidStorageFilePathException("Storage file should end with '.txt'");
         }
+        final String fileName = path.getFileName().toString();
+        log = new MutationLog(path.resolveSibling(fileName.substring(0, fileName.length() - 4) + ".log"));
+        archive = FileTaskArchive.of(path.resolveSibling(fileName.substring(0, fileName.length() - 4) + ".archive"));
+        searchIndexPath = path.resolveSibling(fileName.substring(0, fileName.length() - 4) + ".idx");
+        store = StoreLock.of(path);
+        incremental = poolPages > 0 ? new PagedCheckpoint(path, poolPages)
+                : segmentTasks > 0 ? new SegmentedCheckpoint(path, segmentTasks)
+                : null;
+    }
+
+    /**
+     * Returns a storage file whose checkpoints are kept in a {@link PageFile}, so that writing one only writes
+     * the pages of the tasks that changed. Loading still reads every task into the list.
+     *
+     * @param poolPages how many pages of the page file to hold in memory at most,
+     *        at least {@link PageFile#MIN_POOL_PAGES}
+     * @throws InvalidStorageFilePathException if the given file path is invalid
+     */
+    public static StorageFile paged(String filePath, int poolPages) throws InvalidStorageFilePathException {
+        if (poolPages < PageFile.MIN_POOL_PAGES) {
+            throw new IllegalArgumentException("A page file needs a pool of at least " + PageFile.MIN_POOL_PAGES
+                    + " pages");
+        }
+        return new StorageFile(filePath, StorageFormat.BINARY, 0, poolPages);
     }
 
     /**
@@ -85,66 +251,809 @@ public class StorageFile {
     }
 
     /**
-     * Saves all data to this storage file.
+     * Chooses how saves are written from now on; see {@link Durability}. Changes saved so far are written first.
+     *
+     * @param batchMillis longest a change waits before it is written in {@link Durability#BATCHED} mode
+     * @param batchRecords number of saves that are written at once without waiting in that mode
+     * @throws StorageOperationException if changes saved earlier could not be written
+     */
+    public void setDurability(Durability durability, long batchMillis, int batchRecords)
+            throws StorageOperationException {
+        flushChanges();
+        synchronized (this) {
+            this.durability = durability;
+            this.batchNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, batchMillis));
+            this.batchRecords = Math.max(1, batchRecords);
+            if (durability != Durability.SYNC && writer == null) {
+                writer = new Thread(this::writePending, "storage-writer");
+                writer.setDaemon(true);
+                writer.start();
+            }
+        }
+    }
+
+    public synchronized Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Saves all data to this storage file, by logging the changes since the last save or load, or by writing
+     * a whole checkpoint if there was none. Unless saves are {@link Durability#SYNC}, the changes are only
+     * handed to a background writer, which folds the changes of all saves made meanwhile into one record.
+     *
+     * @throws StorageOperationException if there were errors converting and/or storing data to file,
+     *         including errors the background writer met since the previous save.
+     */
+    public synchronized void save(TasksList tasksList) throws StorageOperationException {
+        throwWriteFailure();
+        this.tasksList = tasksList;
+        final TasksListSnapshot current = tasksList.snapshot();
+        if (durability == Durability.SYNC || saved == null) {
+            // Any version still waiting for the background writer is older than this one
+            pending = null;
+            pendingSaves = 0;
+            notifyAll();
+            writeChanges(current);
+            force();
+            return;
+        }
+        pending = current;
+        final boolean first = pendingSaves++ == 0;
+        if (first) {
+            pendingSinceNanos = System.nanoTime();
+        }
+        // The writer waits for the first save of a batch to start timing it
+        if (first || durability == Durability.ASYNC || pendingSaves >= batchRecords) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes every change saved so far and forces it to the storage device, whatever the durability, then brings
+     * the search index file up to date. Called before the application exits.
+     *
+     * @throws StorageOperationException if the changes could not be written.
+     */
+    public void flush() throws StorageOperationException {
+        flushChanges();
+        updateSearchIndex();
+    }
+
+    /**
+     * Writes every change saved so far and forces it to the storage device, whatever the durability.
+     *
+     * @throws StorageOperationException if the changes could not be written.
+     */
+    private void flushChanges() throws StorageOperationException {
+        synchronized (this) {
+            flushRequested = true;
+            notifyAll();
+            boolean interrupted = false;
+            while (pending != null || writing) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            flushRequested = false;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            throwWriteFailure();
+        }
+        force();
+    }
+
+    /**
+     * Logs the changes from the version last saved to {@code current}, or writes a whole checkpoint if nothing
+     * was saved yet, and starts a compaction if the log has grown large enough. Changes other processes logged
+     * meanwhile are merged in first. Must hold the lock.
+     */
+    private void writeChanges(TasksListSnapshot current) throws StorageOperationException {
+        lockStore();
+        try {
+            if (saved == null) {
+                // Whatever the log holds from earlier runs, or from other processes, is superseded by this checkpoint
+                sequence = Math.max(Math.max(sequence, log.lastSequence()), isShared() ? store.getVersion() : 0) + 1;
+                writeCheckpoint(current, sequence);
+                log.dropBefore(log.size());
+                logBytes = 0;
+                saved = current;
+                updateStore();
+                return;
+            }
+            if (isShared()) {
+                current = catchUp(current);
+            }
+            final byte[] record = MutationLog.encode(sequence + 1, saved, current);
+            if (record == null) {
+                return;
+            }
+            log.append(record);
+            sequence++;
+            logBytes += record.length;
+            saved = current;
+            updateStore();
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + log.getPath() + " error: " + ioe.getMessage());
+        } finally {
+            unlockStore();
+        }
+        final long compactionBytes = incremental != null
+                ? MIN_COMPACTION_LOG_BYTES : Math.max(MIN_COMPACTION_LOG_BYTES, checkpointBytes);
+        if (logBytes >= compactionBytes && !compacting) {
+            compacting = true;
+            final TasksListSnapshot toCheckpoint = saved;
+            final long upToSequence = sequence;
+            final long logOffset = logBytes;
+            COMPACTOR.execute(() -> compact(toCheckpoint, upToSequence, logOffset));
+        }
+    }
+
+    /**
+     * Brings the version last saved up to date with the changes other processes logged since this one last
+     * looked, and merges them into the list being saved, this list's own changes winning where both changed a
+     * task. Only the records after the last one seen are read, unless the log no longer holds all of them, as
+     * after a crash or a checkpoint written meanwhile, when the whole store is read instead.
+     * Must hold the lock and the store lock.
+     *
+     * @return the version to log the changes up to, which holds the changes of the other processes too
+     */
+    private TasksListSnapshot catchUp(TasksListSnapshot current) throws IOException, StorageOperationException {
+        final long actualLogBytes = log.size();
+        final boolean valid = store.isValid(actualLogBytes);
+        if (valid && store.getVersion() == sequence) {
+            if (store.getCheckpointVersion() != checkpointSequence) {
+                // Another process wrote a checkpoint and trimmed the log, which may be a new file now
+                log.close();
+                checkpointSequence = store.getCheckpointVersion();
+                logBytes = actualLogBytes;
+            }
+            return current;
+        }
+        log.close();
+        final TasksListSnapshot theirs;
+        try {
+            if (valid && store.getVersion() > sequence && store.getCheckpointVersion() <= sequence) {
+                final MutationLog.State state = new MutationLog.State(saved, sequence);
+                log.replay(state, store.getCheckpointVersion() == checkpointSequence ? logBytes : 0);
+                theirs = state.toSnapshot();
+                checkpointSequence = store.getCheckpointVersion();
+                sequence = state.sequence;
+            } else {
+                final Checkpoint checkpoint = readCheckpoint(path);
+                final MutationLog.State state = new MutationLog.State(checkpoint.getTasksList(),
+                        checkpoint.getLogSequence());
+                log.replay(state);
+                theirs = state.toModelType().snapshot();
+                checkpointSequence = checkpoint.getLogSequence();
+                checkpointBytes = Files.size(path);
+                sequence = state.sequence;
+            }
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        }
+        logBytes = log.size();
+        tasksList.applyChanges(saved, theirs);
+        saved = theirs;
+        return tasksList.snapshot();
+    }
+
+    /**
+     * Whether other processes may write this storage file too, which they may unless checkpoints are written
+     * in place.
+     */
+    private boolean isShared() {
+        return incremental == null;
+    }
+
+    private void lockStore() throws StorageOperationException {
+        try {
+            store.acquire();
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error locking file: " + store.getPath() + " error: " + ioe.getMessage());
+        }
+    }
+
+    private void unlockStore() throws StorageOperationException {
+        try {
+            store.release();
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error unlocking file: " + store.getPath() + " error: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Records in the lock file that the store is at the version last saved. Must hold the store lock.
+     */
+    private void updateStore() throws IOException {
+        if (isShared()) {
+            store.update(sequence, checkpointSequence, logBytes);
+        }
+    }
+
+    private void force() throws StorageOperationException {
+        try {
+            log.force();
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + log.getPath() + " error: " + ioe.getMessage());
+        }
+    }
+
+    private void throwWriteFailure() throws StorageOperationException {
+        final StorageOperationException failure = writeFailure;
+        writeFailure = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Body of the background writer: waits for saves, then writes the latest saved version as one record, and
+     * forces it to the storage device unless saves are {@link Durability#ASYNC}. Forcing happens outside the
+     * lock, so saving never waits for the storage device.
+     */
+    private void writePending() {
+        while (true) {
+            final boolean forcing;
+            synchronized (this) {
+                try {
+                    waitForPending();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                writing = true;
+                forcing = durability != Durability.ASYNC || flushRequested;
+                final TasksListSnapshot toWrite = pending;
+                pending = null;
+                pendingSaves = 0;
+                try {
+                    writeChanges(toWrite);
+                } catch (StorageOperationException soe) {
+                    writeFailure = soe;
+                }
+            }
+            try {
+                if (forcing) {
+                    force();
+                }
+            } catch (StorageOperationException soe) {
+                synchronized (this) {
+                    writeFailure = soe;
+                }
+            }
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until there is a pending version to write and, in {@link Durability#BATCHED} mode, until enough
+     * saves have piled up, the oldest has waited long enough, or a flush is requested. Must hold the lock.
+     */
+    private void waitForPending() throws InterruptedException {
+        while (true) {
+            if (pending != null) {
+                if (durability != Durability.BATCHED || flushRequested || pendingSaves >= batchRecords) {
+                    return;
+                }
+                final long waitedNanos = System.nanoTime() - pendingSinceNanos;
+                if (waitedNanos >= batchNanos) {
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, batchNanos - waitedNanos);
+            } else {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Writes a checkpoint of every change saved so far, and empties the log, rather than waiting for the log
+     * to grow large enough. Waits for any compaction in progress first.
      *
-     * @throws StorageOperationException if there were errors converting and/or storing data to file.
+     * @throws StorageOperationException if the changes or the checkpoint could not be written.
      */
-    public void save(TasksList tasksList) throws StorageOperationException {
+    public void checkpoint() throws StorageOperationException {
+        flushChanges();
+        final Future<?> done = COMPACTOR.submit(() -> {
+            final TasksListSnapshot toCheckpoint;
+            final long upToSequence;
+            final long logOffset;
+            synchronized (this) {
+                if (saved == null) {
+                    return null;
+                }
+                toCheckpoint = saved;
+                upToSequence = sequence;
+                logOffset = logBytes;
+            }
+            checkpointAndTrimLog(toCheckpoint, upToSequence, logOffset);
+            return null;
+        });
+        try {
+            done.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof StorageOperationException) {
+                throw (StorageOperationException) ee.getCause();
+            }
+            throw new StorageOperationException("Error writing to file: " + path + " error: " + ee.getCause());
+        }
+    }
+
+    /**
+     * Body of a compaction: writes a checkpoint and trims the log, giving up quietly on failure.
+     */
+    private void compact(TasksListSnapshot snapshot, long upToSequence, long logOffset) {
+        try {
+            checkpointAndTrimLog(snapshot, upToSequence, logOffset);
+        } catch (StorageOperationException | IOException e) {
+            // The log still holds every change, so nothing is lost; compaction is tried again on a later save
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Writes a checkpoint of {@code snapshot}, which holds every change up to {@code upToSequence}, and drops
+     * the first {@code logOffset} bytes of the log, which hold those changes. Only run on the compactor thread,
+     * which keeps log offsets valid from when they are taken until they are dropped. The log of a shared
+     * storage file is trimmed along with writing the checkpoint instead.
+     */
+    private void checkpointAndTrimLog(TasksListSnapshot snapshot, long upToSequence, long logOffset)
+            throws StorageOperationException, IOException {
+        writeCheckpoint(snapshot, upToSequence);
+        synchronized (this) {
+            if (!isShared() && checkpointSequence == upToSequence) {
+                log.dropBefore(logOffset);
+                logBytes -= logOffset;
+            }
+        }
+    }
+
+    /**
+     * Writes {@code snapshot} as the checkpoint of this storage file, unless a checkpoint holding later changes
+     * has been written meanwhile.
+     */
+    private void writeCheckpoint(TasksListSnapshot snapshot, long upToSequence) throws StorageOperationException {
+        if (incremental != null) {
+            writeIncrementally(snapshot, upToSequence);
+            return;
+        }
+        // Named uniquely, as another process sharing the file may be writing a checkpoint of the same version
+        final Path temporary;
+        try {
+            temporary = Files.createTempFile(path.toAbsolutePath().getParent(),
+                    path.getFileName() + "." + upToSequence + ".", ".tmp");
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + path + " error: " + ioe.getMessage());
+        }
 
         /* Note: Note the 'try with resource' statement below.
          * More info: https://docs.oracle.com/javase/tutorial/essential/exceptions/tryResourceClose.html
          */
-        try (final Writer fileWriter =
-                     new BufferedWriter(new FileWriter(path.toFile()))) {
+        final CRC32 checksum = new CRC32();
+        try (final OutputStream out = new CheckedOutputStream(Files.newOutputStream(temporary), checksum)) {
+            format.write(snapshot, upToSequence, out);
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + path + " error: " + ioe.getMessage());
+        }
 
-            final AdaptedTasksList toSave = new AdaptedTasksList(tasksList);
-            final Marshaller marshaller = jaxbContext.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            marshaller.marshal(toSave, fileWriter);
+        try {
+            synchronized (this) {
+                lockStore();
+                try {
+                    final boolean storeValid = store.isValid(log.size());
+                    if (upToSequence <= checkpointSequence
+                            || (storeValid && store.getCheckpointVersion() >= upToSequence)) {
+                        Files.delete(temporary);
+                        return;
+                    }
+                    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    checkpointSequence = upToSequence;
+                    checkpointBytes = Files.size(path);
+                    checkpointChecksum = checksum.getValue();
+                    if (externalChangeListener != null) {
+                        checkpointed = snapshot;
+                    }
+                    if (isShared() && storeValid) {
+                        trimSharedLog(upToSequence);
+                    }
+                } finally {
+                    unlockStore();
+                }
+            }
+            // Segments of an earlier checkpoint that was split, which the file no longer refers to
+            SegmentedCheckpoint.deleteSegments(path);
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + path + " error: " + ioe.getMessage());
+        }
+    }
 
+    /**
+     * Drops the records up to {@code upToSequence} from the log of a shared storage file, once the checkpoint
+     * holding them is in place. Other processes tell that their offsets into the log are no longer valid by
+     * the checkpoint version changing, so this must be done in the same turn as writing it.
+     * Must hold the lock and the store lock.
+     */
+    private void trimSharedLog(long upToSequence) throws IOException {
+        log.dropBefore(log.offsetAfter(upToSequence));
+        logBytes = log.offsetAfter(sequence);
+        store.update(store.getVersion(), upToSequence, log.size());
+    }
+
+    /**
+     * Writes what changed in {@code snapshot} since the last checkpoint, unless a checkpoint holding later
+     * changes has been written meanwhile.
+     */
+    private void writeIncrementally(TasksListSnapshot snapshot, long upToSequence) throws StorageOperationException {
+        try {
+            if (incremental.write(snapshot, upToSequence)) {
+                synchronized (this) {
+                    checkpointSequence = Math.max(checkpointSequence, upToSequence);
+                }
+            }
         } catch (IOException ioe) {
             throw new StorageOperationException("Error writing to file: " + path + " error: " + ioe.getMessage());
-        } catch (JAXBException jaxbe) {
-            throw new StorageOperationException("Error converting Keyboard Warrior into storage format");
         }
     }
 
     /**
-     * Loads data from this storage file.
+     * Watches this storage file, from the next {@link #load()} on, for its checkpoint being replaced from outside,
+     * and tells {@code listener} about every such change. Changes the file's own checkpoints make are not told.
+     * The watcher reads a changed file only once it has stayed unchanged for a moment, and gives up on a file it
+     * cannot read, waiting for the next change instead.
      *
-     * @throws StorageOperationException if there were errors reading and/or converting data from file.
+     * @throws IllegalStateException if checkpoints are split into segments or kept in a page file, which are
+     *         written in place, or if the file is already watched.
+     * @throws StorageOperationException if the file system cannot watch the file.
+     */
+    public synchronized void watchForExternalChanges(ExternalChangeListener listener)
+            throws StorageOperationException {
+        if (incremental != null) {
+            throw new IllegalStateException("Only a storage file written whole can be watched");
+        }
+        if (externalChangeListener != null) {
+            throw new IllegalStateException("Storage file is already watched");
+        }
+        final Path directory = path.toAbsolutePath().getParent();
+        final WatchService watchService;
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error watching file: " + path + " error: " + ioe.getMessage());
+        }
+        externalChangeListener = listener;
+        final Thread watcher = new Thread(() -> watch(watchService), "storage-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Body of the watcher: waits for the file to be created or modified, then for it to stay unchanged for
+     * {@link #WATCH_QUIET_MILLIS}, and reads it if it changed.
+     */
+    private void watch(WatchService watchService) {
+        final Path fileName = path.getFileName();
+        try {
+            while (true) {
+                if (!isTouched(watchService.take(), fileName)) {
+                    continue;
+                }
+                WatchKey key;
+                while ((key = watchService.poll(WATCH_QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    isTouched(key, fileName);
+                }
+                readExternalChange();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The file is no longer watched; saving carries on as before
+        } finally {
+            try {
+                watchService.close();
+            } catch (IOException ioe) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    /**
+     * Returns whether the events of {@code key} concern the file, or may have, events having been lost.
      */
-    public TasksList load() throws StorageOperationException {
-        try (final Reader fileReader =
-                     new BufferedReader(new FileReader(path.toFile()))) {
+    private static boolean isTouched(WatchKey key, Path fileName) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            touched |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+        }
+        key.reset();
+        return touched;
+    }
 
-            final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-            final AdaptedTasksList loaded = (AdaptedTasksList) unmarshaller.unmarshal(fileReader);
-            // manual check for missing elements
-            if (loaded.isAnyRequiredFieldMissing()) {
-                throw new StorageOperationException("File data missing some elements");
+    /**
+     * Reads the checkpoint if its content is not that of the checkpoint last written or read, makes the next save
+     * write a whole checkpoint, and tells the listener what changed.
+     */
+    private void readExternalChange() {
+        final TasksListSnapshot before;
+        final TasksListSnapshot after;
+        try {
+            final long checksum = checksum(path);
+            final long readAfterSequence;
+            synchronized (this) {
+                if (checkpointed == null || checksum == checkpointChecksum) {
+                    return;
+                }
+                readAfterSequence = checkpointSequence;
             }
-            return loaded.toModelType();
+            final Checkpoint checkpoint = readCheckpoint(path);
+            after = checkpoint.getTasksList().snapshot();
+            synchronized (this) {
+                if (checkpointSequence != readAfterSequence) {
+                    // A checkpoint of this file's own replaced the file meanwhile
+                    return;
+                }
+                if (isWrittenByOtherProcess(checkpoint)) {
+                    // Its changes are in the log too, and are merged in by the next save
+                    checkpointed = after;
+                    checkpointChecksum = checksum;
+                    return;
+                }
+                before = checkpointed;
+                checkpointed = after;
+                checkpointChecksum = checksum;
+                // Changes are logged against a checkpoint this file no longer holds
+                saved = null;
+            }
+        } catch (IOException | StorageOperationException e) {
+            return;
+        }
+        try {
+            externalChangeListener.onExternalChange(before, after);
+        } catch (StorageOperationException soe) {
+            synchronized (this) {
+                writeFailure = soe;
+            }
+        }
+    }
+
+    /**
+     * Returns whether {@code checkpoint} was written by another process sharing the storage file, rather than
+     * brought in from outside. Must hold the lock.
+     */
+    private boolean isWrittenByOtherProcess(Checkpoint checkpoint) throws IOException, StorageOperationException {
+        lockStore();
+        try {
+            return store.isValid(log.size()) && checkpoint.getLogSequence() == store.getCheckpointVersion();
+        } finally {
+            unlockStore();
+        }
+    }
+
+    /**
+     * Returns the checksum of the content of {@code file}.
+     */
+    private static long checksum(Path file) throws IOException {
+        final CRC32 checksum = new CRC32();
+        try (final InputStream in = new CheckedInputStream(Files.newInputStream(file), checksum)) {
+            final byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) >= 0) {
+                // Only read for the checksum
+            }
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Loads data from this storage file. A storage file written in place is locked against other processes
+     * from now on.
+     *
+     * @throws StorageOperationException if there were errors reading and/or converting data from file, or
+     *         another process is using a storage file written in place.
+     */
+    public synchronized TasksList load() throws StorageOperationException {
+        try {
+            if (!isShared() && !store.acquireForSession()) {
+                throw new StorageOperationException("Storage file is in use by another process: " + path);
+            }
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error locking file: " + store.getPath() + " error: " + ioe.getMessage());
+        }
+        lockStore();
+        try {
+            tasksList = read();
+            updateStore();
+            return tasksList;
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error writing to file: " + store.getPath() + " error: " + ioe.getMessage());
+        } finally {
+            unlockStore();
+        }
+    }
+
+    /**
+     * Reads the checkpoint and replays the log onto it, writing a checkpoint if there was none.
+     * Must hold the lock and the store lock.
+     */
+    private TasksList read() throws StorageOperationException {
+        MutationLog.State state = new MutationLog.State();
+        TasksList loaded = null;
+        long checksum = 0;
+        boolean indexed = false;
+        try {
+
+            indexed = Files.exists(searchIndexPath);
+            checksum = (externalChangeListener != null || indexed) && Files.exists(path) ? checksum(path) : 0;
+            final Checkpoint checkpoint = incremental != null ? incremental.read() : readCheckpoint(path);
+            loaded = checkpoint.getTasksList();
+            if (externalChangeListener != null) {
+                checkpointed = loaded.snapshot();
+                checkpointChecksum = checksum;
+            }
+            state = new MutationLog.State(loaded, checkpoint.getLogSequence());
+            checkpointBytes = Files.size(path);
 
         /* Note: Here, we are using an exception to create the file if it is missing. However, we should minimize
          * using exceptions to facilitate normal paths of execution. If we consider the missing file as a 'normal'
          * situation (i.e. not truly exceptional) we should not use an exception to handle it.
          */
 
-        // create empty file if not found
-        } catch (FileNotFoundException fnfe) {
-            final TasksList empty = new TasksList();
-            save(empty);
-            return empty;
+        // start from an empty list if not found; the log may still hold changes
+        } catch (NoSuchFileException nsfe) {
+            loaded = null;
 
         // other errors
         } catch (IOException ioe) {
             throw new StorageOperationException("Error writing to file: " + path);
-        } catch (JAXBException jaxbe) {
-            throw new StorageOperationException("Error parsing file data format");
+        }
+
+        final boolean hasCheckpoint = loaded != null;
+        try {
+            checkpointSequence = state.sequence;
+            if (log.replay(state) > 0 || !hasCheckpoint) {
+                loaded = state.toModelType();
+            }
+            logBytes = log.size();
+        } catch (IOException ioe) {
+            throw new StorageOperationException("Error reading from file: " + log.getPath());
         } catch (IllegalValueException ive) {
             throw new StorageOperationException("File contains illegal data values; data type constraints not met");
         }
+        sequence = state.sequence;
+        saved = loaded.snapshot();
+        if (!hasCheckpoint) {
+            writeCheckpoint(saved, sequence);
+        }
+        useSearchIndex(loaded, indexed, checksum);
+        return loaded;
+    }
+
+    /**
+     * Lets {@code loaded} search the search index file if it holds the tasks loaded, or has the file rebuilt in the
+     * background otherwise. Must hold the lock.
+     *
+     * @param checked whether the file exists and {@code checkpointChecksum} is the checksum of the checkpoint,
+     *        or 0 if there is none
+     */
+    private void useSearchIndex(TasksList loaded, boolean checked, long checkpointChecksum) {
+        if (checked) {
+            try {
+                final SearchIndexFile index = SearchIndexFile.open(searchIndexPath, checkpointChecksum, sequence);
+                if (index != null) {
+                    loaded.useStoredKeywordIndex(index);
+                    indexedSequence = sequence;
+                    indexedCheckpointSequence = checkpointSequence;
+                    return;
+                }
+            } catch (IOException ioe) {
+                // Rebuilt like an index that is out of date
+            }
+        }
+        if (loaded.size() > 0) {
+            final TasksListSnapshot toIndex = saved;
+            final long upToSequence = sequence;
+            final long atCheckpointSequence = checkpointSequence;
+            COMPACTOR.execute(() -> writeSearchIndex(toIndex, upToSequence, atCheckpointSequence));
+        }
+    }
+
+    /**
+     * Writes the search index file for the version last saved, unless it already holds it, and waits until it is
+     * written. Failing to write it is not reported, as the next load rebuilds it.
+     */
+    private void updateSearchIndex() {
+        final Future<?> done = COMPACTOR.submit(() -> {
+            final TasksListSnapshot toIndex;
+            final long upToSequence;
+            final long atCheckpointSequence;
+            synchronized (this) {
+                if (saved == null) {
+                    return;
+                }
+                toIndex = saved;
+                upToSequence = sequence;
+                atCheckpointSequence = checkpointSequence;
+            }
+            writeSearchIndex(toIndex, upToSequence, atCheckpointSequence);
+        });
+        try {
+            done.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            // Rebuilt by the next load
+        }
+    }
+
+    /**
+     * Writes the search index file for {@code snapshot}, which holds every change up to {@code upToSequence} over
+     * the checkpoint of {@code atCheckpointSequence}, if there is one, unless the file already holds it or a checkpoint has been
+     * written since. Gives up quietly on failure. Only run on the compactor thread, so that the checkpoint is not
+     * replaced by this process while its checksum is taken.
+     */
+    private void writeSearchIndex(TasksListSnapshot snapshot, long upToSequence, long atCheckpointSequence) {
+        synchronized (this) {
+            if ((indexedSequence == upToSequence && indexedCheckpointSequence == atCheckpointSequence)
+                    || checkpointSequence != atCheckpointSequence) {
+                return;
+            }
+        }
+        try {
+            final long checkpointChecksum = Files.exists(path) ? checksum(path) : 0;
+            SearchIndexFile.write(searchIndexPath, snapshot, checkpointChecksum, upToSequence);
+        } catch (IOException ioe) {
+            // The file still holds an older version, or none, which the next load finds out of date
+            return;
+        }
+        synchronized (this) {
+            indexedSequence = upToSequence;
+            indexedCheckpointSequence = atCheckpointSequence;
+        }
+    }
+
+    /**
+     * Reads a checkpoint in whichever known format it is in, whole, split into segments or in a page file.
+     *
+     * @throws NoSuchFileException if there is no checkpoint.
+     * @throws StorageOperationException if the data is in no known format or violates the task constraints.
+     */
+    static Checkpoint readCheckpoint(Path file) throws IOException, StorageOperationException {
+        final byte[] header = new byte[StorageFormat.HEADER_BYTES];
+        int length = 0;
+        try (final InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) >= 0) {
+                length += read;
+            }
+        }
+        if (SegmentedCheckpoint.recognizes(header, length)) {
+            return new SegmentedCheckpoint(file, 0).read();
+        }
+        if (PageFile.recognizes(header, length)) {
+            return PagedCheckpoint.readAll(file);
+        }
+        final StorageFormat detected = StorageFormat.detect(header, length);
+        if (detected == null) {
+            throw new StorageOperationException("Error parsing file data format");
+        }
+        return detected.read(file);
+    }
+
+    /**
+     * Returns the archive next to the storage file, named like it with the extension '.archive'.
+     */
+    @Override
+    public TaskArchive getArchive() {
+        return archive;
     }
 
     public String getPath() {
@@ -0,0 +1,90 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Encoding of the checkpoint a {@link StorageFile} keeps. A storage file is read in whichever known format
+ * its first bytes are recognized as, so files written in an older format keep loading, and are rewritten in
+ * the storage file's own format at the next checkpoint.
+ */
+public interface StorageFormat {
+
+    /** Compact binary format; see {@link BinaryStorageFormat}. */
+    StorageFormat BINARY = new BinaryStorageFormat();
+    /** Formatted XML, as every storage file was written before the binary format. */
+    StorageFormat XML = new XmlStorageFormat();
+    /** Layout read by mapping the file, decoding task details only when used; see {@link MappedStorageFormat}. */
+    StorageFormat MAPPED = new MappedStorageFormat();
+
+    /** Number of leading bytes of a file {@link #recognizes(byte[], int)} is given. */
+    int HEADER_BYTES = 16;
+
+    /**
+     * Returns true if a file beginning with the first {@code length} bytes of {@code header} is in this format.
+     */
+    boolean recognizes(byte[] header, int length);
+
+    /**
+     * Writes {@code snapshot}, noting that it includes every logged change up to {@code logSequence}.
+     *
+     * @throws StorageOperationException if the tasks cannot be converted into this format.
+     */
+    void write(TasksListSnapshot snapshot, long logSequence, OutputStream out)
+            throws IOException, StorageOperationException;
+
+    /**
+     * Reads the tasks written by {@link #write(TasksListSnapshot, long, OutputStream)}.
+     *
+     * @throws StorageOperationException if the data is not in this format or violates the task constraints.
+     */
+    Checkpoint read(InputStream in) throws IOException, StorageOperationException;
+
+    /**
+     * Reads the tasks from {@code file}; by default, through {@link #read(InputStream)}.
+     *
+     * @throws StorageOperationException if the data is not in this format or violates the task constraints.
+     */
+    default Checkpoint read(Path file) throws IOException, StorageOperationException {
+        try (final InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Returns the known format a file beginning with the first {@code length} bytes of {@code header} is in,
+     * or null if there is none.
+     */
+    static StorageFormat detect(byte[] header, int length) {
+        for (StorageFormat format : new StorageFormat[] { BINARY, MAPPED, XML }) {
+            if (format.recognizes(header, length)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the format called {@code name}, ignoring case: {@code binary}, {@code mapped} or {@code xml};
+     * or null if there is none.
+     */
+    static StorageFormat named(String name) {
+        switch (name.toLowerCase()) {
+            case "binary":
+                return BINARY;
+            case "mapped":
+                return MAPPED;
+            case "xml":
+                return XML;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ruby.keyboardwarrior.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Lock file that lets several processes share a {@link StorageFile}. A process holds it, through
+ * {@link FileChannel#lock()}, only while it changes the storage file or its log, so processes take turns per
+ * write rather than per session.
+ *
+ * The header of the lock file holds the store version: the sequence number of the last change logged, along
+ * with that of the last change the checkpoint holds and the size of the log, framed as
+ * [int magic][long version][long checkpoint version][long log bytes][int CRC32]. A process that finds the
+ * version it last saw there knows no other process wrote since, without reading the log. The header is only
+ * trusted while the log is the size it says, since a process that stops between appending to the log and
+ * updating the header leaves it behind.
+ *
+ * Threads of one process take turns through the same instance, as the operating system lock is held per
+ * process rather than per thread.
+ */
+final class StoreLock {
+
+    private static final int MAGIC = 0x4b574c4b; // "KWLK"
+    private static final int HEADER_BYTES = Integer.BYTES + 3 * Long.BYTES + Integer.BYTES;
+
+    private static final ConcurrentHashMap<Path, StoreLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final ReentrantLock threads = new ReentrantLock();
+    private FileChannel channel;
+    /** Lock held for the current turn, or for as long as the process runs if it is held for the session. */
+    private FileLock fileLock;
+    private boolean heldForSession;
+
+    /** The header as last read or written while holding the lock; see {@link #isValid(long)}. */
+    private boolean headerRead;
+    private long version;
+    private long checkpointVersion;
+    private long logBytes;
+
+    private StoreLock(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns the lock of the storage file at {@code storagePath}, shared by every storage file of this process
+     * on that path.
+     */
+    static StoreLock of(Path storagePath) {
+        final Path absolute = storagePath.toAbsolutePath().normalize();
+        final String fileName = absolute.getFileName().toString();
+        final Path lockPath = absolute.resolveSibling(fileName.substring(0, fileName.length() - 4) + ".lock");
+        return LOCKS.computeIfAbsent(lockPath, StoreLock::new);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Waits for the turn of this thread, and of this process, then reads the header. Turns may nest within a
+     * thread; only the outermost one locks and unlocks the file.
+     */
+    void acquire() throws IOException {
+        threads.lock();
+        if (threads.getHoldCount() > 1 || heldForSession) {
+            return;
+        }
+        try {
+            fileLock = open().lock();
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            threads.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Ends the turn taken by the matching {@link #acquire()}.
+     */
+    void release() throws IOException {
+        try {
+            if (threads.getHoldCount() == 1 && !heldForSession && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } finally {
+            threads.unlock();
+        }
+    }
+
+    /**
+     * Locks the file for as long as this process runs, for storage that other processes cannot safely share.
+     * Turns taken afterwards no longer lock the file.
+     *
+     * @return false if another process holds the lock
+     */
+    boolean acquireForSession() throws IOException {
+        threads.lock();
+        try {
+            if (heldForSession) {
+                return true;
+            }
+            final FileLock locked = open().tryLock();
+            if (locked == null) {
+                return false;
+            }
+            fileLock = locked;
+            heldForSession = true;
+            readHeader();
+            return true;
+        } finally {
+            threads.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the header is intact and the log is {@code actualLogBytes} long, as it says.
+     * Must hold the lock.
+     */
+    boolean isValid(long actualLogBytes) {
+        return headerRead && logBytes == actualLogBytes;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    long getCheckpointVersion() {
+        return checkpointVersion;
+    }
+
+    long getLogBytes() {
+        return logBytes;
+    }
+
+    /**
+     * Writes the header. Must hold the lock. The header is not forced to the storage device, since a header
+     * that was lost or cut short is recognized as out of date and rebuilt from the log.
+     */
+    void update(long version, long checkpointVersion, long logBytes) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putLong(version).putLong(checkpointVersion).putLong(logBytes);
+        header.putInt(checksum(header.array(), HEADER_BYTES - Integer.BYTES));
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        this.version = version;
+        this.checkpointVersion = checkpointVersion;
+        this.logBytes = logBytes;
+        headerRead = true;
+    }
+
+    private FileChannel open() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    private void readHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Read until the header is full or the file ends
+        }
+        headerRead = !header.hasRemaining() && header.getInt(0) == MAGIC
+                && header.getInt(HEADER_BYTES - Integer.BYTES) == checksum(header.array(), HEADER_BYTES - Integer.BYTES);
+        if (headerRead) {
+            version = header.getLong(Integer.BYTES);
+            checkpointVersion = header.getLong(Integer.BYTES + Long.BYTES);
+            logBytes = header.getLong(Integer.BYTES + 2 * Long.BYTES);
+        }
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,42 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.ReadOnlyTasksList;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Cold tier holding the tasks marked done, moved out of the {@code TasksList} so that listing, searching and
+ * saving the tasks still to be done no longer pay for them. Each {@link Storage} keeps its archive alongside the
+ * tasks: {@link FileTaskArchive} next to a storage file, or in tables of the database for {@link DatabaseStorage}.
+ *
+ * Undoing the command that marked a task done drops it from the archive again, and redoing it archives it again.
+ * A task whose ID is in the tasks list, as a crash between archiving it and removing it from the list leaves it,
+ * is not reported as archived; deleting it from the list drops it from the archive.
+ */
+public interface TaskArchive {
+
+    /**
+     * Archives {@code task}, which must have its ID, as done. Returns once the task is stored.
+     *
+     * @throws StorageOperationException if the task could not be written.
+     */
+    void archive(TodoTask task) throws StorageOperationException;
+
+    /**
+     * Drops the task archived under {@code id}, if there is one.
+     *
+     * @throws StorageOperationException if the archive could not be read or written.
+     */
+    void drop(long id) throws StorageOperationException;
+
+    /**
+     * Retrieves the archived tasks whose details contain any of {@code keywords}, not case sensitive, in the
+     * order they were archived, leaving out those back in {@code current}. The tasks returned are marked done.
+     *
+     * @throws StorageOperationException if the archive could not be read.
+     */
+    List<TodoTask> find(Collection<String> keywords, ReadOnlyTasksList current) throws StorageOperationException;
+}
@@ -0,0 +1,184 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.exception.IllegalValueException;
+import ruby.keyboardwarrior.data.task.DeadlineTask;
+import ruby.keyboardwarrior.data.task.EventTask;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+import ruby.keyboardwarrior.storage.jaxb.AdaptedTask;
+import ruby.keyboardwarrior.storage.jaxb.AdaptedTasksList;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * Stores the tasks as XML in the layout JAXB gives {@link AdaptedTasksList}.
+ *
+ * The document is streamed with StAX in both directions rather than bound through JAXB, which needs an
+ * adapted copy of the whole list on either side: writing goes straight from the snapshot, and reading builds
+ * each task as soon as its element ends, through {@link AdaptedTask} so the conversion rules stay in one place.
+ * Elements this version does not know are skipped, as JAXB did.
+ */
+public final class XmlStorageFormat implements StorageFormat {
+
+    private static final String ROOT = "KeyboardWarrior";
+    private static final String NEXT_ID = "nextId";
+    private static final String LOG_SEQUENCE = "logSequence";
+    private static final String TASK = "tasks";
+    private static final String ID = "id";
+    private static final String DETAILS = "taskdetails";
+    private static final String START = "starttime";
+    private static final String END = "endtime";
+    private static final String INDENT = "\n    ";
+
+    /** Factories are costly to look up and safe to share once configured, so every file uses these. */
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    XmlStorageFormat() {}
+
+    @Override
+    public boolean recognizes(byte[] header, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(header[i])) {
+                return header[i] == '<';
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void write(TasksListSnapshot snapshot, long logSequence, OutputStream out)
+            throws IOException, StorageOperationException {
+        try {
+            final XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement(ROOT);
+            writer.writeCharacters(INDENT);
+            writeElement(writer, NEXT_ID, Long.toString(snapshot.getNextId()));
+            writer.writeCharacters(INDENT);
+            writeElement(writer, LOG_SEQUENCE, Long.toString(logSequence));
+            for (TodoTask task : snapshot.getAllTasks()) {
+                writer.writeCharacters(INDENT);
+                writer.writeStartElement(TASK);
+                writeElement(writer, ID, Long.toString(task.getId()));
+                writeElement(writer, DETAILS, task.getDetails().toString());
+                if (task instanceof EventTask) {
+                    writeElement(writer, START, ((EventTask) task).getStartTime().toString());
+                    writeElement(writer, END, ((EventTask) task).getEndTime().toString());
+                } else if (task instanceof DeadlineTask) {
+                    writeElement(writer, END, ((DeadlineTask) task).getEndTime().toString());
+                }
+                writer.writeEndElement();
+            }
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndDocument();
+            writer.close();
+            out.flush();
+        } catch (XMLStreamException xmlse) {
+            throw new StorageOperationException("Error converting Keyboard Warrior into storage format");
+        }
+    }
+
+    @Override
+    public Checkpoint read(InputStream in) throws IOException, StorageOperationException {
+        try {
+            final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !ROOT.equals(reader.getLocalName())) {
+                throw new StorageOperationException("Error parsing file data format");
+            }
+            final ArrayList<TodoTask> tasks = new ArrayList<>();
+            Long nextId = null;
+            long logSequence = 0;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                final String name = reader.getLocalName();
+                if (TASK.equals(name)) {
+                    tasks.add(readTask(reader));
+                } else if (NEXT_ID.equals(name)) {
+                    nextId = Long.parseLong(reader.getElementText().trim());
+                } else if (LOG_SEQUENCE.equals(name)) {
+                    logSequence = Long.parseLong(reader.getElementText().trim());
+                } else {
+                    skipElement(reader);
+                }
+            }
+            reader.close();
+            final TasksList tasksList = nextId == null ? new TasksList(tasks) : new TasksList(tasks, nextId);
+            return new Checkpoint(tasksList, logSequence);
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new StorageOperationException("Error parsing file data format");
+        } catch (IllegalValueException ive) {
+            throw new StorageOperationException("File contains illegal data values; data type constraints not met");
+        }
+    }
+
+    /**
+     * Reads the task element the reader is on, leaving the reader on its end tag.
+     */
+    private static TodoTask readTask(XMLStreamReader reader)
+            throws XMLStreamException, IllegalValueException, StorageOperationException {
+        Long id = null;
+        String details = null;
+        String start = null;
+        String end = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            final String name = reader.getLocalName();
+            if (ID.equals(name)) {
+                id = Long.parseLong(reader.getElementText().trim());
+            } else if (DETAILS.equals(name)) {
+                details = reader.getElementText();
+            } else if (START.equals(name)) {
+                start = reader.getElementText();
+            } else if (END.equals(name)) {
+                end = reader.getElementText();
+            } else {
+                skipElement(reader);
+            }
+        }
+        final AdaptedTask task = new AdaptedTask(id, details, start, end);
+        // manual check for missing elements
+        if (task.isAnyRequiredFieldMissing()) {
+            throw new StorageOperationException("File data missing some elements");
+        }
+        return task.toModelType();
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Skips an element this version does not know, leaving the reader on its end tag.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
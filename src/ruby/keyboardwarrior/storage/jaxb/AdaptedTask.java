@@ -13,14 +13,29 @@ import javax.xml.bind.annotation.XmlElement;
  */
 public class AdaptedTask {
 
+    @XmlElement
+    private Long id;
     @XmlElement(required = true)
     private String taskdetails;
+    @XmlElement
+    private String starttime;
+    @XmlElement
+    private String endtime;
  
     /**
      * No-arg constructor for JAXB use.
      */
     public AdaptedTask() {}
 
+    /**
+     * Holds the fields of a task element read without JAXB; any of them may be null if the element lacks it.
+     */
+    public AdaptedTask(Long id, String taskdetails, String starttime, String endtime) {
+        this.id = id;
+        this.taskdetails = taskdetails;
+        this.starttime = starttime;
+        this.endtime = endtime;
+    }
 
     /**
      * Converts a given Person into this class for JAXB use.
@@ -28,7 +43,14 @@ public class AdaptedTask {
      * @param source future changes to this will not affect the created AdaptedPerson
      */
     public AdaptedTask(TodoTask source) {
-        taskdetails = source.getDetails().details;
+        id = source.getId();
+        taskdetails = source.getDetails().toString();
+        if (source instanceof EventTask) {
+            starttime = ((EventTask) source).getStartTime().toString();
+            endtime = ((EventTask) source).getEndTime().toString();
+        } else if (source instanceof DeadlineTask) {
+            endtime = ((DeadlineTask) source).getEndTime().toString();
+        }
     }
 
     /**
@@ -45,11 +67,20 @@ public class AdaptedTask {
 
     /**
      * Converts this jaxb-friendly adapted person object into the Person object.
+     * Tasks saved before IDs existed have no ID and are given a new one when stored in a {@code TasksList}.
+     * A task with both a start and an end time is an event, and one with only an end time a deadline.
      *
      * @throws IllegalValueException if there were any data constraints violated in the adapted person
      */
     public TodoTask toModelType() throws IllegalValueException {
         final TaskDetails task = new TaskDetails(this.taskdetails);
-        return new TodoTask(task);
+        final long taskId = id == null ? TodoTask.UNASSIGNED_ID : id;
+        if (starttime != null && endtime != null) {
+            return new EventTask(taskId, task, new StartTime(starttime), new EndTime(endtime));
+        }
+        if (endtime != null) {
+            return new DeadlineTask(taskId, task, new EndTime(endtime));
+        }
+        return new TodoTask(taskId, task);
     }
 }
@@ -1,6 +1,7 @@
 package ruby.keyboardwarrior.storage.jaxb;
 
 import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
 import ruby.keyboardwarrior.data.exception.IllegalValueException;
 import ruby.keyboardwarrior.data.task.TodoTask;
 
@@ -14,6 +15,11 @@ import java.util.ArrayList;
 @XmlRootElement(name = "KeyboardWarrior")
 public class AdaptedTasksList {
 
+    @XmlElement
+    private Long nextId;
+    /** Sequence number of the last logged change this file holds; see {@code MutationLog}. */
+    @XmlElement
+    private Long logSequence;
     @XmlElement
     private ArrayList<AdaptedTask> tasks = new ArrayList<>();
 
@@ -28,12 +34,30 @@ public class AdaptedTasksList {
      * @param source future changes to this will not affect the created AdaptedAddressBook
      */
     public AdaptedTasksList(TasksList source) {
+        this(source.snapshot(), 0);
+    }
+
+    /**
+     * Converts a given version of a Keyboard Warrior into this class for JAXB use, noting the sequence number
+     * of the last logged change it holds.
+     */
+    public AdaptedTasksList(TasksListSnapshot source, long logSequence) {
+        nextId = source.getNextId();
+        this.logSequence = logSequence;
         tasks = new ArrayList<>();
         for (TodoTask task : source.getAllTasks()) {
             tasks.add(new AdaptedTask(task));
         }
     }
 
+    /**
+     * Returns the sequence number of the last logged change this file holds, or 0 for files written before
+     * changes were logged.
+     */
+    public long getLogSequence() {
+        return logSequence == null ? 0 : logSequence;
+    }
+
 
     /**
      * Returns true if any required field is missing.
@@ -62,6 +86,9 @@ public class AdaptedTasksList {
         for (AdaptedTask task : tasks) {
             tasksList.add(task.toModelType());
         }
-        return new TasksList(tasksList);
+        if (nextId == null) {
+            return new TasksList(tasksList);
+        }
+        return new TasksList(tasksList, nextId);
     }
 }
@@ -2,7 +2,6 @@ package ruby.keyboardwarrior.ui;
 
 import ruby.keyboardwarrior.data.task.TodoTask;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -10,13 +9,12 @@ import java.util.List;
  */
 public class Formatter {
 
-    /** Format of indexed list item */
-    private static final String MESSAGE_INDEXED_LIST_ITEM = "\t%1$d. %2$s";
-
-
     /** Offset required to convert between 1-indexing and 0-indexing.  */
     private static final int DISPLAYED_INDEX_OFFSET = 1;
 
+    /** Put before the tasks marked done in a listing. */
+    private static final String DONE_PREFIX = "[done] ";
+
 
     /** Formats the given strings for displaying to the user. */
     public String format(String... messages) {
@@ -30,31 +28,23 @@ public class Formatter {
 
     /** Formats the given list of persons for displaying to the user. */
     public String format(List<TodoTask> todoTasks) {
-        final List<String> formattedTasks = new ArrayList<>();
-        for (TodoTask todoTask : todoTasks) {
-            formattedTasks.add(todoTask.toString());
-        }
-        return format(asIndexedList(formattedTasks));
-    }
-
-    /** Formats a list of strings as an indexed list. */
-    private static String asIndexedList(List<String> listItems) {
         final StringBuilder formatted = new StringBuilder();
         int displayIndex = 0 + DISPLAYED_INDEX_OFFSET;
-        for (String listItem : listItems) {
-            formatted.append(getIndexedListItem(displayIndex, listItem)).append("\n");
+        for (TodoTask todoTask : todoTasks) {
+            final String listItem = todoTask.isDone() ? DONE_PREFIX + todoTask : todoTask.toString();
+            appendIndexedListItem(formatted, displayIndex, listItem).append("\n");
             displayIndex++;
         }
-        return formatted.toString();
+        return formatted.append("\n").toString();
     }
 
     /**
-     * Formats a string as an indexed list item.
+     * Appends a string as an indexed list item, in the form {@code "\t1. item"}.
      *
      * @param visibleIndex index for this listing
      */
-    private static String getIndexedListItem(int visibleIndex, String listItem) {
-        return String.format(MESSAGE_INDEXED_LIST_ITEM, visibleIndex, listItem);
+    private static StringBuilder appendIndexedListItem(StringBuilder formatted, int visibleIndex, String listItem) {
+        return formatted.append('\t').append(visibleIndex).append(". ").append(listItem);
     }
 
 }
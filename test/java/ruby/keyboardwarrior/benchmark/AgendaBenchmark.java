@@ -0,0 +1,97 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.EndTime;
+import ruby.keyboardwarrior.data.task.EventTask;
+import ruby.keyboardwarrior.data.task.StartTime;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TimedTask;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the cost of a one-day agenda query and of checking a new event for overlaps as the number of
+ * events grows, against scanning every task.
+ * Run with {@code java ruby.keyboardwarrior.benchmark.AgendaBenchmark}; the indexed cost should depend on
+ * the number of matches rather than on the number of tasks.
+ */
+public class AgendaBenchmark {
+
+    private static final int[] SIZES = { 1000, 10000, 100000, 1000000 };
+    private static final int QUERIES = 10000;
+    private static final int SCAN_QUERIES = 20;
+    /** Events are spread over about ten years, so a day holds a few hundred of the 1M events. */
+    private static final int SPAN_MINUTES = 10 * 365 * 24 * 60;
+    private static final int DAY_MINUTES = 24 * 60;
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("ddMMyy/HHmm");
+
+    public static void main(String[] args) throws Exception {
+        for (int size : SIZES) {
+            run(size);
+        }
+    }
+
+    private static void run(int size) throws Exception {
+        final Random random = new Random(size);
+        final TasksList tasksList = new TasksList();
+        for (int i = 0; i < size; i++) {
+            tasksList.addTask(event(i, random));
+        }
+        final TasksListSnapshot snapshot = tasksList.snapshot();
+
+        long matches = 0;
+        final long agendaStart = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            final int from = random.nextInt(SPAN_MINUTES);
+            matches += snapshot.findTasksOverlapping(from, from + DAY_MINUTES).size();
+        }
+        final long agendaNanos = System.nanoTime() - agendaStart;
+
+        final EventTask[] candidates = new EventTask[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            candidates[i] = event(size + i, random);
+        }
+        final long overlapStart = System.nanoTime();
+        for (EventTask candidate : candidates) {
+            snapshot.findTasksOverlapping(candidate.getStartMinutes(), candidate.getEndMinutes());
+        }
+        final long overlapNanos = System.nanoTime() - overlapStart;
+
+        final long scanStart = System.nanoTime();
+        for (int i = 0; i < SCAN_QUERIES; i++) {
+            final int from = random.nextInt(SPAN_MINUTES);
+            scan(snapshot, from, from + DAY_MINUTES);
+        }
+        final long scanNanos = System.nanoTime() - scanStart;
+
+        System.out.println(String.format(
+                "%8d events: agenda %8d ns/op (%4d matches), overlap check %6d ns/op, full scan %10d ns/op",
+                size, agendaNanos / QUERIES, matches / QUERIES, overlapNanos / QUERIES, scanNanos / SCAN_QUERIES));
+    }
+
+    private static ArrayList<TodoTask> scan(TasksListSnapshot snapshot, int from, int to) {
+        final ArrayList<TodoTask> found = new ArrayList<>();
+        for (TodoTask task : snapshot.getAllTasks()) {
+            if (task instanceof TimedTask && ((TimedTask) task).getStartMinutes() <= to
+                    && ((TimedTask) task).getEndMinutes() >= from) {
+                found.add(task);
+            }
+        }
+        return found;
+    }
+
+    private static EventTask event(int seed, Random random) throws Exception {
+        final int start = random.nextInt(SPAN_MINUTES);
+        final int length = 30 + random.nextInt(180);
+        return new EventTask(new TaskDetails("Event " + seed),
+                new StartTime(EPOCH.plusMinutes(start).format(FORMAT)),
+                new EndTime(EPOCH.plusMinutes(start + length).format(FORMAT)));
+    }
+}
@@ -0,0 +1,99 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.DatabaseStorage;
+import ruby.keyboardwarrior.storage.Storage;
+import ruby.keyboardwarrior.storage.StorageFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link DatabaseStorage} with a {@link StorageFile} saving every command synchronously: the time to
+ * save a 200k-task list the first time, to save after each add, edit or delete, to load the list, and to
+ * search it from a cold start, which the storage file answers by loading the list and the database by a query.
+ * Run with {@code java -cp <classes>:h2.jar ruby.keyboardwarrior.benchmark.DatabaseBenchmark [jdbc-url-prefix]},
+ * where the driver for the URL must be on the class path; the prefix defaults to {@code jdbc:h2:}.
+ */
+public class DatabaseBenchmark {
+
+    private static final int TASKS = 200000;
+    private static final int COMMANDS = 2000;
+    private static final int FINDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        final String urlPrefix = args.length > 0 ? args[0] : "jdbc:h2:";
+        final Path directory = Files.createTempDirectory("database-benchmark");
+
+        final StorageFile file = new StorageFile(directory.resolve("tasks.txt").toString());
+        run("file", file, () -> new StorageFile(file.getPath()), null);
+
+        final String url = urlPrefix + directory.resolve("tasks");
+        final DatabaseStorage database = new DatabaseStorage(url);
+        run("database", database, () -> new DatabaseStorage(url), database);
+        database.close();
+    }
+
+    /** Opens the storage afresh, as at start-up. */
+    private interface Opener {
+        Storage open() throws Exception;
+    }
+
+    private static void run(String name, Storage storage, Opener reopen, DatabaseStorage pushDown)
+            throws Exception {
+        final Random random = new Random(0);
+        final TasksList tasksList = storage.load();
+        for (int i = 0; i < TASKS; i++) {
+            tasksList.addTask(task(random));
+        }
+        long start = System.nanoTime();
+        storage.save(tasksList);
+        report(name, "first save", 1, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < COMMANDS; i++) {
+            final int command = random.nextInt(3);
+            if (command == 0) {
+                tasksList.addTask(task(random));
+            } else if (command == 1) {
+                tasksList.setTask(random.nextInt(tasksList.size()), task(random));
+            } else {
+                tasksList.removeTask(random.nextInt(tasksList.size()));
+            }
+            storage.save(tasksList);
+        }
+        storage.flush();
+        report(name, "save per command", COMMANDS, start);
+
+        start = System.nanoTime();
+        final TasksList loaded = reopen.open().load();
+        report(name, "load", 1, start);
+        if (!loaded.getAllTasks().equals(tasksList.getAllTasks())) {
+            throw new AssertionError(name + " loaded a different list");
+        }
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < FINDS; i++) {
+            final List<String> keyword = Collections.singletonList("project" + random.nextInt(1000));
+            found += pushDown != null
+                    ? pushDown.findTasksContainingAnyKeyword(keyword).get().size()
+                    : reopen.open().load().findTasksContainingAnyKeyword(keyword).size();
+        }
+        report(name, "find from cold (" + found / FINDS + " found)", FINDS, start);
+    }
+
+    private static void report(String name, String operation, int count, long startNanos) {
+        System.out.println(String.format("%-8s %-28s %10.3f ms", name, operation,
+                (System.nanoTime() - startNanos) / 1e6 / count));
+    }
+
+    private static TodoTask task(Random random) {
+        return new TodoTask(new TaskDetails("Review project" + random.nextInt(1000) + " item " + random.nextInt()));
+    }
+}
@@ -0,0 +1,61 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile;
+import ruby.keyboardwarrior.storage.StorageFile.Durability;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Measures how many mutating commands per second a burst sustains when each is saved in every
+ * {@link Durability} mode, and how long the final flush then takes.
+ * Run with {@code java ruby.keyboardwarrior.benchmark.DurabilityBenchmark}, preferably against a real disk
+ * (pass a directory as the first argument), since forcing to a memory-backed file system costs nothing.
+ */
+public class DurabilityBenchmark {
+
+    private static final int INITIAL_TASKS = 10000;
+    private static final int BURST = 20000;
+    private static final int SYNC_BURST = 2000;
+    private static final long BATCH_MILLIS = 10;
+    private static final int BATCH_RECORDS = 64;
+
+    public static void main(String[] args) throws Exception {
+        final Path directory = args.length > 0
+                ? Files.createTempDirectory(Paths.get(args[0]), "durability-benchmark")
+                : Files.createTempDirectory("durability-benchmark");
+        for (Durability durability : Durability.values()) {
+            final StorageFile storage = new StorageFile(directory.resolve(durability + ".txt").toString());
+            final TasksList tasksList = storage.load();
+            for (int i = 0; i < INITIAL_TASKS; i++) {
+                tasksList.addTask(task(i));
+            }
+            storage.save(tasksList);
+            storage.setDurability(durability, BATCH_MILLIS, BATCH_RECORDS);
+
+            final int burst = durability == Durability.SYNC ? SYNC_BURST : BURST;
+            final long start = System.nanoTime();
+            for (int i = 0; i < burst; i++) {
+                tasksList.addTask(task(INITIAL_TASKS + i));
+                storage.save(tasksList);
+            }
+            final long burstNanos = System.nanoTime() - start;
+            final long flushStart = System.nanoTime();
+            storage.flush();
+            final long flushNanos = System.nanoTime() - flushStart;
+
+            final int reloaded = new StorageFile(storage.getPath()).load().size();
+            System.out.println(String.format("%-7s %,9.0f commands/s, flush %4d ms, %s", durability,
+                    burst / (burstNanos / 1e9), flushNanos / 1000000,
+                    reloaded == INITIAL_TASKS + burst ? "all saved" : "LOST " + (INITIAL_TASKS + burst - reloaded)));
+        }
+    }
+
+    private static TodoTask task(int seed) {
+        return new TodoTask(new TaskDetails("Task " + seed));
+    }
+}
@@ -0,0 +1,90 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.Checkpoint;
+import ruby.keyboardwarrior.storage.StorageFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Compares the size of a 1M-task storage file in each {@link StorageFormat}, the time to write it, to read it
+ * back into a {@link TasksList} and until that list can be searched, which waits for its keyword index to be
+ * built in the background, and the heap the list read back takes up.
+ * Run with {@code java -Xmx4g ruby.keyboardwarrior.benchmark.FormatBenchmark}.
+ */
+public class FormatBenchmark {
+
+    private static final int TASKS = 1000000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        final TasksListSnapshot snapshot = tasks(new Random(0)).snapshot();
+        final Path directory = Files.createTempDirectory("format-benchmark");
+        for (int round = 0; round < ROUNDS; round++) {
+            final long buildStart = System.nanoTime();
+            final TasksList rebuilt = new TasksList(new ArrayList<>(snapshot.getAllTasks()), snapshot.getNextId());
+            System.out.println(String.format("building the list alone takes %d ms (%d tasks)",
+                    (System.nanoTime() - buildStart) / 1000000, rebuilt.size()));
+            for (String name : new String[] { "xml", "binary", "mapped" }) {
+                final StorageFormat format = StorageFormat.named(name);
+                final Path file = directory.resolve(name + ".txt");
+
+                final long writeStart = System.nanoTime();
+                try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    format.write(snapshot, 0, out);
+                }
+                final long writeNanos = System.nanoTime() - writeStart;
+
+                final long heapBefore = usedHeap();
+                final long readStart = System.nanoTime();
+                final Checkpoint checkpoint = format.read(file);
+                final long readNanos = System.nanoTime() - readStart;
+                checkpoint.getTasksList().findTasksContainingAnyKeyword(Collections.singletonList("project"));
+                final long searchableNanos = System.nanoTime() - readStart;
+                final long heapBytes = usedHeap() - heapBefore;
+
+                System.out.println(String.format("%-6s %,12d bytes, save %5d ms, load %5d ms, searchable after "
+                        + "%5d ms, %,5d MB of heap (%d tasks)", name, Files.size(file), writeNanos / 1000000,
+                        readNanos / 1000000, searchableNanos / 1000000, heapBytes / 1000000,
+                        checkpoint.getTasksList().size()));
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Makes up a list of mostly to-dos, with one in five tasks a deadline and one in ten an event.
+     */
+    private static TasksList tasks(Random random) throws Exception {
+        final TasksList tasksList = new TasksList();
+        final int base = new StartTime("010120/0000").toMinutes();
+        for (int i = 0; i < TASKS; i++) {
+            final TaskDetails details = new TaskDetails("Task " + i + " for project " + random.nextInt(1000));
+            final int kind = random.nextInt(10);
+            final int start = base + random.nextInt(10000000);
+            if (kind < 2) {
+                tasksList.addTask(new DeadlineTask(details, EndTime.ofMinutes(start)));
+            } else if (kind < 3) {
+                tasksList.addTask(new EventTask(details, StartTime.ofMinutes(start), EndTime.ofMinutes(start + 60)));
+            } else {
+                tasksList.addTask(new TodoTask(details));
+            }
+        }
+        return tasksList;
+    }
+}
@@ -0,0 +1,105 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.PageFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Builds a 10M-task {@link PageFile} and measures, with a pool far smaller than the file, how fast tasks are
+ * looked up, replaced and scanned by ID, and how much heap that takes.
+ * Run with {@code java -Xmx64m ruby.keyboardwarrior.benchmark.PageFileBenchmark}, optionally passing the
+ * directory to put the file in.
+ */
+public class PageFileBenchmark {
+
+    private static final int TASKS = 10000000;
+    private static final int POOL_PAGES = 2048;
+    private static final int LOOKUPS = 200000;
+    private static final int UPDATES = 100000;
+    private static final int SCANS = 2000;
+    private static final int SCAN_IDS = 100;
+
+    public static void main(String[] args) throws Exception {
+        final Path directory = args.length > 0
+                ? Files.createTempDirectory(Paths.get(args[0]), "page-file-benchmark")
+                : Files.createTempDirectory("page-file-benchmark");
+        final Path file = directory.resolve("tasks.txt");
+        final Random random = new Random(0);
+
+        long start = System.nanoTime();
+        try (final PageFile pages = PageFile.open(file, POOL_PAGES)) {
+            for (int id = 1; id <= TASKS; id++) {
+                pages.put(task(id, random));
+            }
+            pages.commit(TASKS + 1, 0);
+        }
+        report("build", TASKS, start);
+        System.out.println(String.format("file %,d bytes, pool %,d bytes", Files.size(file),
+                (long) POOL_PAGES * PageFile.PAGE_BYTES));
+
+        try (final PageFile pages = PageFile.open(file, POOL_PAGES)) {
+            start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < LOOKUPS; i++) {
+                found += pages.get(1 + random.nextInt(TASKS)) != null ? 1 : 0;
+            }
+            report("lookup", found, start);
+            reportPool(pages);
+
+            start = System.nanoTime();
+            for (int i = 0; i < UPDATES; i++) {
+                pages.put(task(1 + random.nextInt(TASKS), random));
+            }
+            pages.commit(TASKS + 1, 1);
+            report("update", UPDATES, start);
+
+            start = System.nanoTime();
+            final int[] scanned = new int[1];
+            for (int i = 0; i < SCANS; i++) {
+                final long from = 1 + random.nextInt(TASKS - SCAN_IDS);
+                pages.scan(from, from + SCAN_IDS - 1, task -> scanned[0]++);
+            }
+            report("scan " + SCAN_IDS, scanned[0], start);
+
+            start = System.nanoTime();
+            scanned[0] = 0;
+            pages.scan(Long.MIN_VALUE, Long.MAX_VALUE, task -> scanned[0]++);
+            report("scan all", scanned[0], start);
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        System.out.println(String.format("heap used %,d of at most %,d bytes",
+                runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory()));
+    }
+
+    private static void report(String name, int tasks, long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        System.out.println(String.format("%-9s %,11d tasks in %6d ms, %,10.0f tasks/s", name, tasks,
+                nanos / 1000000, tasks / (nanos / 1e9)));
+    }
+
+    private static void reportPool(PageFile pages) {
+        final long hits = pages.getPoolHits();
+        final long misses = pages.getPoolMisses();
+        System.out.println(String.format("pool hit rate %.1f%%", 100.0 * hits / Math.max(1, hits + misses)));
+    }
+
+    /**
+     * Makes up a task, with one in five a deadline and one in ten an event, from a small vocabulary so that
+     * the shared word dictionary stays small however many tasks there are.
+     */
+    private static TodoTask task(long id, Random random) throws Exception {
+        final TaskDetails details = new TaskDetails("Review project " + random.nextInt(1000) + " notes");
+        final int kind = random.nextInt(10);
+        final int start = random.nextInt(10000000);
+        if (kind < 2) {
+            return new DeadlineTask(id, details, EndTime.ofMinutes(start));
+        } else if (kind < 3) {
+            return new EventTask(id, details, StartTime.ofMinutes(start), EndTime.ofMinutes(start + 60));
+        }
+        return new TodoTask(id, details);
+    }
+}
@@ -0,0 +1,80 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.BinaryStorageFormat;
+import ruby.keyboardwarrior.storage.Checkpoint;
+import ruby.keyboardwarrior.storage.StorageFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures how long reading a 1M-task storage file in the binary format takes when its chunks are decoded
+ * on 1, 2, 4 and 8 threads, and the speedup over 1 thread. The file is read once beforehand so that it is
+ * in the file system cache, and the best of a few rounds is reported.
+ * The time is that of the whole load, including building the list from the decoded tasks, which is done on one
+ * thread; and threads beyond the number of cores, which is printed first, cannot speed anything up, so the
+ * results say nothing about scaling unless run on a machine with several cores.
+ * Run with {@code java -Xmx4g ruby.keyboardwarrior.benchmark.ParallelLoadBenchmark}.
+ */
+public class ParallelLoadBenchmark {
+
+    private static final int TASKS = 1000000;
+    private static final int ROUNDS = 5;
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    public static void main(String[] args) throws Exception {
+        final TasksListSnapshot snapshot = tasks(new Random(0)).snapshot();
+        final Path file = Files.createTempFile("parallel-load-benchmark", ".txt");
+        try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            StorageFormat.BINARY.write(snapshot, 0, out);
+        }
+        StorageFormat.BINARY.read(file);
+
+        System.out.println(String.format("%d cores, %,d bytes, %d tasks per chunk",
+                Runtime.getRuntime().availableProcessors(), Files.size(file), BinaryStorageFormat.CHUNK_TASKS));
+        long singleThreadNanos = 0;
+        for (int threads : THREADS) {
+            final BinaryStorageFormat format = BinaryStorageFormat.withDecodeThreads(threads);
+            long bestNanos = Long.MAX_VALUE;
+            int size = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                final long start = System.nanoTime();
+                final Checkpoint checkpoint = format.read(file);
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                size = checkpoint.getTasksList().size();
+            }
+            if (threads == 1) {
+                singleThreadNanos = bestNanos;
+            }
+            System.out.println(String.format("%d threads: load %5d ms, speedup %.2fx (%d tasks)", threads,
+                    bestNanos / 1000000, (double) singleThreadNanos / bestNanos, size));
+        }
+    }
+
+    /**
+     * Makes up a list of mostly to-dos, with one in five tasks a deadline and one in ten an event.
+     */
+    private static TasksList tasks(Random random) throws Exception {
+        final TasksList tasksList = new TasksList();
+        final int base = new StartTime("010120/0000").toMinutes();
+        for (int i = 0; i < TASKS; i++) {
+            final TaskDetails details = new TaskDetails("Task " + i + " for project " + random.nextInt(1000));
+            final int kind = random.nextInt(10);
+            final int start = base + random.nextInt(10000000);
+            if (kind < 2) {
+                tasksList.addTask(new DeadlineTask(details, EndTime.ofMinutes(start)));
+            } else if (kind < 3) {
+                tasksList.addTask(new EventTask(details, StartTime.ofMinutes(start), EndTime.ofMinutes(start + 60)));
+            } else {
+                tasksList.addTask(new TodoTask(details));
+            }
+        }
+        return tasksList;
+    }
+}
@@ -0,0 +1,87 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile;
+import ruby.keyboardwarrior.storage.StorageFormat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a checkpoint of 1M tasks takes after a few of them are edited, and how many bytes it
+ * writes, when the checkpoint is written whole and when it is split into segments.
+ * Run with {@code java -Xmx4g ruby.keyboardwarrior.benchmark.SegmentBenchmark}.
+ */
+public class SegmentBenchmark {
+
+    private static final int TASKS = 1000000;
+    private static final int SEGMENT_TASKS = 4096;
+    private static final int EDITS = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        final Path directory = Files.createTempDirectory("segment-benchmark");
+        for (int segmentTasks : new int[] { 0, SEGMENT_TASKS }) {
+            final String name = segmentTasks == 0 ? "whole" : "segmented";
+            final StorageFile storage = new StorageFile(directory.resolve(name + ".txt").toString(),
+                    StorageFormat.BINARY, segmentTasks);
+            final TasksList tasksList = storage.load();
+            for (int i = 0; i < TASKS; i++) {
+                tasksList.addTask(new TodoTask(new TaskDetails("Task " + i)));
+            }
+            storage.save(tasksList);
+            storage.checkpoint();
+
+            final Random random = new Random(0);
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < EDITS; i++) {
+                    tasksList.setTask(random.nextInt(tasksList.size()),
+                            new TodoTask(new TaskDetails("Edited " + round + " " + i)));
+                }
+                storage.save(tasksList);
+                final Map<Path, FileTime> before = modified(directory);
+                final long start = System.nanoTime();
+                storage.checkpoint();
+                final long nanos = System.nanoTime() - start;
+                System.out.println(String.format("%-9s checkpoint after %d edits %5d ms, %,11d bytes written",
+                        name, EDITS, nanos / 1000000, bytesWrittenSince(directory, before)));
+            }
+
+            final long loadStart = System.nanoTime();
+            final int loaded = new StorageFile(storage.getPath(), StorageFormat.BINARY, segmentTasks).load().size();
+            System.out.println(String.format("%-9s load %5d ms (%d tasks)", name,
+                    (System.nanoTime() - loadStart) / 1000000, loaded));
+        }
+    }
+
+    private static Map<Path, FileTime> modified(Path directory) throws Exception {
+        final Map<Path, FileTime> times = new HashMap<>();
+        try (final Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                times.put(file, Files.getLastModifiedTime(file));
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Adds up the sizes of the files that were created or modified since {@code before} was taken, which
+     * counts the whole of every file rewritten but not the bytes appended to the log.
+     */
+    private static long bytesWrittenSince(Path directory, Map<Path, FileTime> before) throws Exception {
+        long bytes = 0;
+        for (Map.Entry<Path, FileTime> file : modified(directory).entrySet()) {
+            if (!file.getValue().equals(before.get(file.getKey())) && !file.getKey().toString().endsWith(".log")) {
+                bytes += Files.size(file.getKey());
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,84 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures read and write throughput when reader threads query snapshots of a Keyboard Warrior
+ * while a single writer keeps adding and removing tasks.
+ * Run with {@code java ruby.keyboardwarrior.benchmark.SnapshotBenchmark}.
+ */
+public class SnapshotBenchmark {
+
+    private static final int SIZE = 100000;
+    private static final int[] READER_THREADS = { 1, 2, 4, 8 };
+    private static final long RUN_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        for (int readers : READER_THREADS) {
+            run(readers);
+        }
+    }
+
+    private static void run(int readers) throws Exception {
+        final TasksList tasksList = new TasksList();
+        for (int i = 0; i < SIZE; i++) {
+            tasksList.addTask(task(i));
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder reads = new LongAdder();
+        final LongAdder writes = new LongAdder();
+
+        final Thread[] threads = new Thread[readers + 1];
+        for (int t = 0; t < readers; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread(() -> {
+                while (running.get()) {
+                    final TasksListSnapshot snapshot = tasksList.snapshot();
+                    final TodoTask task = snapshot.getTask(random.nextInt(snapshot.size()));
+                    snapshot.getTaskById(task.getId());
+                    snapshot.findTasksContainingAnyKeyword(Collections.singleton("w" + random.nextInt(SIZE)));
+                    reads.increment();
+                }
+            });
+        }
+        threads[readers] = new Thread(() -> {
+            int seed = SIZE;
+            try {
+                while (running.get()) {
+                    final TodoTask toAdd = task(seed++);
+                    tasksList.addTask(toAdd);
+                    tasksList.removeTask(toAdd);
+                    writes.add(2);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final double seconds = RUN_MILLIS / 1000.0;
+        System.out.println(String.format("%d reader(s): %,12.0f reads/s, %,10.0f writes/s",
+                readers, reads.sum() / seconds, writes.sum() / seconds));
+    }
+
+    private static TodoTask task(int seed) {
+        return new TodoTask(new TaskDetails("Task w" + seed));
+    }
+}
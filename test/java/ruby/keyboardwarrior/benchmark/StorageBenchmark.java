@@ -0,0 +1,56 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures what saving after a command costs as the Keyboard Warrior grows: writing the whole file, as every
+ * save used to, against logging the change, and how long loading a checkpoint with its log takes.
+ * Run with {@code java -Xmx2g ruby.keyboardwarrior.benchmark.StorageBenchmark}; the cost of a logged save
+ * should stay flat from 1k to 1M tasks.
+ */
+public class StorageBenchmark {
+
+    private static final int[] SIZES = { 1000, 10000, 100000, 1000000 };
+    private static final int OPERATIONS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        final Path directory = Files.createTempDirectory("storage-benchmark");
+        for (int size : SIZES) {
+            final String file = directory.resolve("tasks" + size + ".txt").toString();
+            final TasksList tasksList = new TasksList();
+            for (int i = 0; i < size; i++) {
+                tasksList.addTask(task(i));
+            }
+
+            final StorageFile storage = new StorageFile(file);
+            final long fullStart = System.nanoTime();
+            storage.save(tasksList);
+            final long fullNanos = System.nanoTime() - fullStart;
+
+            final long loggedStart = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++) {
+                tasksList.addTask(task(size + i));
+                storage.save(tasksList);
+            }
+            final long loggedNanos = System.nanoTime() - loggedStart;
+
+            final long loadStart = System.nanoTime();
+            final int loaded = new StorageFile(file).load().size();
+            final long loadNanos = System.nanoTime() - loadStart;
+
+            System.out.println(String.format("%8d tasks: whole file %8d us/save, logged %5d us/save, "
+                    + "load %6d ms (%d tasks)", size, fullNanos / 1000, loggedNanos / OPERATIONS / 1000,
+                    loadNanos / 1000000, loaded));
+        }
+    }
+
+    private static TodoTask task(int seed) {
+        return new TodoTask(new TaskDetails("Task " + seed));
+    }
+}
@@ -0,0 +1,132 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.data.task.TokenDictionary;
+import ruby.keyboardwarrior.ui.Formatter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap taken by the details of 1M tasks drawn from a realistic vocabulary, stored as plain strings
+ * as they used to be and as dictionary-encoded {@link TaskDetails}, and the time to render a listing of each,
+ * both with the {@link Formatter} and with the per-line {@code String.format} it used to do.
+ * Run with {@code java -Xmx2g ruby.keyboardwarrior.benchmark.TaskTextBenchmark}.
+ */
+public class TaskTextBenchmark {
+
+    private static final int TASKS = 1000000;
+    private static final int VOCABULARY = 20000;
+    private static final int LISTING = 100000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        final String[] vocabulary = vocabulary(new Random(0));
+        final Random random = new Random(1);
+
+        final long baseline = usedHeap();
+        final String[] texts = new String[TASKS];
+        for (int i = 0; i < TASKS; i++) {
+            texts[i] = text(vocabulary, random);
+        }
+        // A task used to hold a TaskDetails object holding one of these strings
+        final long stringBytes = usedHeap() - baseline + (long) TASKS * 16;
+
+        final long beforeEncoding = usedHeap();
+        final TaskDetails[] details = new TaskDetails[TASKS];
+        for (int i = 0; i < TASKS; i++) {
+            details[i] = new TaskDetails(texts[i]);
+        }
+        final long encodedBytes = usedHeap() - beforeEncoding;
+
+        System.out.println(String.format("details of %,d tasks: %,d bytes as strings, %,d bytes encoded "
+                + "(%,d distinct words), %.0f%% saved", TASKS, stringBytes, encodedBytes,
+                TokenDictionary.shared().size(), 100.0 * (stringBytes - encodedBytes) / stringBytes));
+
+        final List<TodoTask> plainTasks = new ArrayList<>();
+        final List<TodoTask> encodedTasks = new ArrayList<>();
+        for (int i = 0; i < LISTING; i++) {
+            final String text = texts[i];
+            plainTasks.add(new TodoTask(details[i]) {
+                @Override
+                public String toString() {
+                    return text;
+                }
+            });
+            encodedTasks.add(new TodoTask(details[i]));
+        }
+        final Formatter formatter = new Formatter();
+        for (int round = 0; round < ROUNDS; round++) {
+            final long oldStart = System.nanoTime();
+            final int oldLength = formatAsBefore(plainTasks).length();
+            final long oldNanos = System.nanoTime() - oldStart;
+            final long plainStart = System.nanoTime();
+            final int plainLength = formatter.format(plainTasks).length();
+            final long plainNanos = System.nanoTime() - plainStart;
+            final long encodedStart = System.nanoTime();
+            final int encodedLength = formatter.format(encodedTasks).length();
+            final long encodedNanos = System.nanoTime() - encodedStart;
+            System.out.println(String.format(
+                    "render %,d tasks: %4d ms as before, %4d ms from strings, %4d ms decoded (%s)",
+                    LISTING, oldNanos / 1000000, plainNanos / 1000000, encodedNanos / 1000000,
+                    oldLength == plainLength && plainLength == encodedLength ? "same output" : "OUTPUT DIFFERS"));
+        }
+    }
+
+    /**
+     * Renders a listing the way {@link Formatter} did before it stopped calling {@code String.format} per line.
+     */
+    private static String formatAsBefore(List<TodoTask> tasks) {
+        final StringBuilder formatted = new StringBuilder();
+        int displayIndex = 1;
+        for (TodoTask task : tasks) {
+            formatted.append(String.format("\t%1$d. %2$s", displayIndex, task.toString())).append("\n");
+            displayIndex++;
+        }
+        return formatted.append("\n").toString();
+    }
+
+    /**
+     * Makes up words of 3 to 10 letters; a few are capitalized variants of others.
+     */
+    private static String[] vocabulary(Random random) {
+        final String[] words = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            final char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            if (random.nextInt(10) == 0) {
+                word[0] = Character.toUpperCase(word[0]);
+            }
+            words[i] = new String(word);
+        }
+        return words;
+    }
+
+    /**
+     * Makes up task details of 3 to 8 words, picking common words far more often than rare ones.
+     */
+    private static String text(String[] vocabulary, Random random) {
+        final StringBuilder text = new StringBuilder();
+        final int words = 3 + random.nextInt(6);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            final double skewed = Math.pow(random.nextDouble(), 3);
+            text.append(vocabulary[(int) (skewed * vocabulary.length)]);
+        }
+        return text.toString();
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
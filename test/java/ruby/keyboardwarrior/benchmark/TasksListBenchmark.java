@@ -0,0 +1,71 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+/**
+ * Measures the cost of adding and removing a task as the Keyboard Warrior grows, and of repeatedly
+ * deleting the first displayed task of a 1M-task list.
+ * Run with {@code java ruby.keyboardwarrior.benchmark.TasksListBenchmark}; the per-operation
+ * cost should stay roughly flat from 1k to 1M tasks.
+ */
+public class TasksListBenchmark {
+
+    private static final int[] SIZES = { 1000, 10000, 100000, 1000000 };
+    private static final int OPERATIONS = 100000;
+    private static final int HEAD_DELETE_SIZE = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        benchmarkAddRemove();
+        benchmarkHeadDelete();
+    }
+
+    private static void benchmarkAddRemove() throws Exception {
+        for (int size : SIZES) {
+            final TasksList tasksList = new TasksList();
+            for (int i = 0; i < size; i++) {
+                tasksList.addTask(task(i));
+            }
+
+            final TodoTask[] extra = new TodoTask[OPERATIONS];
+            for (int i = 0; i < OPERATIONS; i++) {
+                extra[i] = task(size + i);
+            }
+
+            final long addStart = System.nanoTime();
+            for (TodoTask toAdd : extra) {
+                tasksList.addTask(toAdd);
+            }
+            final long addNanos = System.nanoTime() - addStart;
+
+            final long removeStart = System.nanoTime();
+            for (TodoTask toRemove : extra) {
+                tasksList.removeTask(toRemove);
+            }
+            final long removeNanos = System.nanoTime() - removeStart;
+
+            System.out.println(String.format("%8d tasks: add %6d ns/op, remove %6d ns/op",
+                    size, addNanos / OPERATIONS, removeNanos / OPERATIONS));
+        }
+    }
+
+    private static void benchmarkHeadDelete() throws Exception {
+        final TasksList tasksList = new TasksList();
+        for (int i = 0; i < HEAD_DELETE_SIZE; i++) {
+            tasksList.addTask(task(i));
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            tasksList.removeTask(0);
+        }
+        final long nanos = System.nanoTime() - start;
+
+        System.out.println(String.format("%8d tasks: delete 1 %6d ns/op", HEAD_DELETE_SIZE, nanos / OPERATIONS));
+    }
+
+    private static TodoTask task(int seed) {
+        return new TodoTask(new TaskDetails("Task " + seed));
+    }
+}
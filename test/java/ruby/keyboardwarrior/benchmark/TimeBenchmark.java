@@ -0,0 +1,57 @@
+package ruby.keyboardwarrior.benchmark;
+
+import ruby.keyboardwarrior.data.task.StartTime;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures parsing DDMMYY/HHMM times into {@link StartTime}s, against validating them with the regular
+ * expression that was used before, and sorting 1M parsed times.
+ * Run with {@code java ruby.keyboardwarrior.benchmark.TimeBenchmark}.
+ */
+public class TimeBenchmark {
+
+    private static final String OLD_VALIDATION_REGEX = "[0-3][0-9][0-1][0-9][0-9][0-9][/][0-2][0-9][0-5][0-9]";
+    private static final int COUNT = 1000000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        final Random random = new Random(0);
+        final DateTimeFormatter format = DateTimeFormatter.ofPattern("ddMMyy/HHmm");
+        final LocalDateTime epoch = LocalDateTime.of(2000, 1, 1, 0, 0);
+        final String[] texts = new String[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            texts[i] = epoch.plusMinutes(random.nextInt(50 * 365 * 24 * 60)).format(format);
+        }
+
+        final StartTime[] times = new StartTime[COUNT];
+        for (int round = 0; round < ROUNDS; round++) {
+            int valid = 0;
+            final long regexStart = System.nanoTime();
+            for (String text : texts) {
+                if (text.matches(OLD_VALIDATION_REGEX)) {
+                    valid++;
+                }
+            }
+            final long regexNanos = System.nanoTime() - regexStart;
+
+            final long parseStart = System.nanoTime();
+            for (int i = 0; i < COUNT; i++) {
+                times[i] = new StartTime(texts[i]);
+            }
+            final long parseNanos = System.nanoTime() - parseStart;
+
+            final StartTime[] sorted = times.clone();
+            final long sortStart = System.nanoTime();
+            Arrays.sort(sorted);
+            final long sortNanos = System.nanoTime() - sortStart;
+
+            System.out.println(String.format(
+                    "round %d: regex validate %4d ns/op, parse %3d ns/op, sort 1M %4d ms (%d valid)",
+                    round, regexNanos / COUNT, parseNanos / COUNT, sortNanos / 1000000, valid));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ruby.keyboardwarrior.data;
+
+import org.junit.Test;
+import ruby.keyboardwarrior.data.task.DeadlineTask;
+import ruby.keyboardwarrior.data.task.EndTime;
+import ruby.keyboardwarrior.data.task.EventTask;
+import ruby.keyboardwarrior.data.task.StartTime;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TimedTask;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class IntervalTreeTest {
+
+    @Test
+    public void findOverlapping_spansTouchingAtEitherEnd_overlap() throws Exception {
+        final IntervalTree tree = IntervalTree.of(Arrays.asList(event(1, 100, 200), deadline(2, 150)));
+        assertFound(tree.findOverlapping(200, 300), 1);
+        assertFound(tree.findOverlapping(0, 100), 1);
+        assertFound(tree.findOverlapping(150, 150), 1, 2);
+        assertFound(tree.findOverlapping(100, 200), 1, 2);
+    }
+
+    @Test
+    public void findOverlapping_spansOneMinuteApart_doNotOverlap() throws Exception {
+        final IntervalTree tree = IntervalTree.of(Arrays.asList(event(1, 100, 200), deadline(2, 150)));
+        assertFound(tree.findOverlapping(201, 300));
+        assertFound(tree.findOverlapping(0, 99));
+        assertFound(tree.findOverlapping(151, 199), 1);
+        assertFound(tree.findOverlapping(149, 149), 1);
+    }
+
+    @Test
+    public void findOverlapping_sameStart_orderedById() throws Exception {
+        final IntervalTree tree = IntervalTree.empty().add(event(3, 60, 90)).add(event(1, 60, 120))
+                .add(deadline(2, 60)).add(event(4, 30, 60));
+        assertFound(tree.findOverlapping(60, 60), 4, 1, 2, 3);
+        assertFound(tree.remove(deadline(2, 60)).findOverlapping(60, 60), 4, 1, 3);
+    }
+
+    @Test
+    public void findOverlapping_longSpanBeforeShortOnes_isFoundThroughMaxEnd() throws Exception {
+        // The first task starts before all others but ends after them, so only its subtree's latest end finds it
+        final List<TodoTask> tasks = new ArrayList<>();
+        tasks.add(event(1, 0, 10_000));
+        for (int id = 2; id <= 30; id++) {
+            tasks.add(event(id, id * 100, id * 100 + 10));
+        }
+        final IntervalTree tree = IntervalTree.of(tasks);
+        assertFound(tree.findOverlapping(9_990, 10_000), 1);
+        assertFound(tree.findOverlapping(10_001, 20_000));
+    }
+
+    @Test
+    public void findOverlapping_randomAddsAndRemoves_matchesEveryTaskChecked() throws Exception {
+        final Random random = new Random(11);
+        final List<TodoTask> expected = new ArrayList<>();
+        IntervalTree tree = IntervalTree.empty();
+        for (int id = 1; id <= 600; id++) {
+            if (!expected.isEmpty() && random.nextInt(4) == 0) {
+                final TodoTask removed = expected.remove(random.nextInt(expected.size()));
+                tree = tree.remove(removed);
+            }
+            final int start = random.nextInt(1000);
+            final TodoTask task = random.nextBoolean() ? deadline(id, start) : event(id, start,
+                    start + random.nextInt(100));
+            expected.add(task);
+            tree = tree.add(task);
+        }
+        for (int query = 0; query < 200; query++) {
+            final int from = random.nextInt(1100) - 50;
+            final int to = from + random.nextInt(30);
+            assertEquals(overlapping(expected, from, to), tree.findOverlapping(from, to));
+        }
+        assertEquals(overlapping(expected, 0, 1100), IntervalTree.of(expected).findOverlapping(0, 1100));
+    }
+
+    @Test
+    public void addAndRemove_untimedTask_returnsSameTree() throws Exception {
+        final IntervalTree tree = IntervalTree.of(Collections.singletonList(event(1, 0, 10)));
+        final TodoTask todo = new TodoTask(2, new TaskDetails("whenever"));
+        assertSame(tree, tree.add(todo));
+        assertSame(tree, tree.remove(todo));
+    }
+
+    private static void assertFound(List<TodoTask> found, long... ids) {
+        assertEquals(ids.length, found.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], found.get(i).getId());
+        }
+    }
+
+    /**
+     * Returns the tasks overlapping {@code [from, to]} found by checking each of {@code tasks}, in the order
+     * the tree returns them.
+     */
+    private static List<TodoTask> overlapping(List<TodoTask> tasks, int from, int to) {
+        final List<TodoTask> found = new ArrayList<>();
+        for (TodoTask task : tasks) {
+            final TimedTask timed = (TimedTask) task;
+            if (timed.getStartMinutes() <= to && timed.getEndMinutes() >= from) {
+                found.add(task);
+            }
+        }
+        found.sort(Comparator.comparingInt((TodoTask task) -> ((TimedTask) task).getStartMinutes())
+                .thenComparingLong(TodoTask::getId));
+        return found;
+    }
+
+    private static TodoTask event(long id, int start, int end) throws Exception {
+        return new EventTask(id, new TaskDetails("event " + id), StartTime.ofMinutes(start), EndTime.ofMinutes(end));
+    }
+
+    private static TodoTask deadline(long id, int end) throws Exception {
+        return new DeadlineTask(id, new TaskDetails("deadline " + id), EndTime.ofMinutes(end));
+    }
+}
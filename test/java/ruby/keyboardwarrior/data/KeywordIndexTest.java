@@ -0,0 +1,188 @@
+package ruby.keyboardwarrior.data;
+
+import org.junit.Test;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class KeywordIndexTest {
+
+    @Test
+    public void findAny_anyCase_findsWholeWordsOnceInIdOrder() throws Exception {
+        final KeywordIndex index = KeywordIndex.of(groceries());
+        assertFound(index, Collections.singleton("milk"), 1, 2);
+        assertFound(index, Collections.singleton("MiLk"), 1, 2);
+        assertFound(index, Arrays.asList("mum", "BREAD", "bread"), 2, 3);
+        assertFound(index, Collections.singleton("caf\u00c9"), 3);
+        assertFound(index, Collections.singleton("mil"), new long[0]);
+        assertFound(index, Collections.singleton("absent"), new long[0]);
+    }
+
+    @Test
+    public void addAndRemove_built_leaveEarlierIndexUnchanged() throws Exception {
+        final KeywordIndex index = KeywordIndex.of(groceries());
+        final KeywordIndex changed = index.add(task(4, "more MILK")).remove(task(1, "Buy milk"));
+
+        assertFound(changed, Collections.singleton("milk"), 2, 4);
+        assertFound(changed, Collections.singleton("buy"), 2);
+        assertFound(index, Collections.singleton("milk"), 1, 2);
+        assertFound(index, Collections.singleton("buy"), 1, 2);
+    }
+
+    @Test
+    public void remove_lastTaskWithWord_findsNothing() throws Exception {
+        final KeywordIndex index = KeywordIndex.empty().add(task(1, "walk the dog")).remove(task(1, "walk the dog"));
+        assertFound(index, Collections.singleton("dog"), new long[0]);
+    }
+
+    @Test
+    public void findAny_deferredWithoutStored_waitsForBuildAndAppliesQueuedChanges() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final KeywordIndex deferred = KeywordIndex.deferred(new Gated(groceries(), release));
+            // Changes made before the index is built are queued behind it
+            final KeywordIndex changed = deferred.add(task(4, "more milk")).remove(task(1, "Buy milk"));
+            final CompletableFuture<List<TodoTask>> search =
+                    CompletableFuture.supplyAsync(() -> changed.findAny(Collections.singleton("milk")));
+            Thread.sleep(200);
+            assertFalse(search.isDone());
+
+            release.countDown();
+            assertEquals(Arrays.asList(2L, 4L), ids(search.get(5, TimeUnit.SECONDS)));
+            assertFound(deferred, Collections.singleton("milk"), 1, 2);
+            assertFound(changed.add(task(5, "milk again")), Collections.singleton("milk"), 2, 4, 5);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void findAny_deferredWithStored_answersFromStoredUntilBuilt() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final List<TodoTask> tasks = groceries();
+            final KeywordIndex deferred = KeywordIndex.deferred(new Gated(tasks, release));
+            deferred.useStored(stored(tasks), byId(tasks));
+            final KeywordIndex added = deferred.add(task(4, "more MILK"));
+            final KeywordIndex changed = added.remove(task(1, "Buy milk"));
+
+            // Answered while the build is still held back
+            assertEquals(Arrays.asList(2L, 4L), within(changed, "milk"));
+            assertEquals(Collections.singletonList(2L), within(changed, "Buy"));
+            assertEquals(Arrays.asList(1L, 2L, 4L), within(added, "milk"));
+            assertEquals(Arrays.asList(1L, 2L), within(deferred, "milk"));
+
+            release.countDown();
+            assertFound(changed, Collections.singleton("milk"), 2, 4);
+            assertFound(added, Collections.singleton("milk"), 1, 2, 4);
+            assertFound(deferred, Collections.singleton("milk"), 1, 2);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void deferred_noTasks_isEmptyIndex() {
+        assertSame(KeywordIndex.empty(), KeywordIndex.deferred(Collections.emptyList()));
+    }
+
+    private static void assertFound(KeywordIndex index, Collection<String> keywords, long... ids) {
+        final List<Long> expected = new ArrayList<>();
+        for (long id : ids) {
+            expected.add(id);
+        }
+        assertEquals(expected, ids(index.findAny(keywords)));
+    }
+
+    /**
+     * Returns the IDs of the tasks {@code index} finds for {@code keyword}, failing if the search has to wait.
+     */
+    private static List<Long> within(KeywordIndex index, String keyword) throws Exception {
+        return ids(CompletableFuture.supplyAsync(() -> index.findAny(Collections.singleton(keyword)))
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    private static List<Long> ids(List<TodoTask> tasks) {
+        final List<Long> ids = new ArrayList<>();
+        for (TodoTask task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Returns tasks 1 to 3, the first two sharing words in different cases.
+     */
+    private static List<TodoTask> groceries() throws Exception {
+        return Arrays.asList(task(1, "Buy milk"), task(2, "buy BREAD and milk, more MILK"),
+                task(3, "call mum at the caf\u00e9"));
+    }
+
+    private static TodoTask task(long id, String details) throws Exception {
+        return new TodoTask(id, new TaskDetails(details));
+    }
+
+    private static PersistentHashMap<Long, TodoTask> byId(List<TodoTask> tasks) {
+        final Map<Long, TodoTask> byId = new HashMap<>();
+        for (TodoTask task : tasks) {
+            byId.put(task.getId(), task);
+        }
+        return PersistentHashMap.of(byId);
+    }
+
+    /**
+     * Returns a stored index of {@code tasks}, as a file written from them would hold.
+     */
+    private static StoredKeywordIndex stored(List<TodoTask> tasks) {
+        return word -> tasks.stream()
+                .filter(task -> task.getDetails().getWordsInDetails().stream()
+                        .anyMatch(other -> KeywordIndex.normalize(other).equals(word)))
+                .mapToLong(TodoTask::getId)
+                .toArray();
+    }
+
+    /**
+     * Tasks that cannot be gone through until {@code release} counts down, which holds back building an index
+     * deferred from them.
+     */
+    private static final class Gated extends AbstractCollection<TodoTask> {
+        private final List<TodoTask> tasks;
+        private final CountDownLatch release;
+
+        private Gated(List<TodoTask> tasks, CountDownLatch release) {
+            this.tasks = tasks;
+            this.release = release;
+        }
+
+        @Override
+        public Iterator<TodoTask> iterator() {
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return tasks.iterator();
+        }
+
+        @Override
+        public int size() {
+            return tasks.size();
+        }
+    }
+}
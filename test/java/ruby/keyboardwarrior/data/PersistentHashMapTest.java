@@ -0,0 +1,187 @@
+package ruby.keyboardwarrior.data;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentHashMapTest {
+
+    @Test
+    public void get_keysWithSameHash_findsEach() {
+        PersistentHashMap<Key, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 5; i++) {
+            map = map.put(new Key("k" + i, 42), "v" + i);
+        }
+        assertEquals(5, map.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("v" + i, map.get(new Key("k" + i, 42)));
+        }
+        assertNull(map.get(new Key("k5", 42)));
+        assertFalse(map.containsKey(new Key("k5", 43)));
+    }
+
+    @Test
+    public void remove_keysWithSameHash_keepsTheOthers() {
+        PersistentHashMap<Key, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 3; i++) {
+            map = map.put(new Key("k" + i, 42), "v" + i);
+        }
+        map = map.remove(new Key("k1", 42));
+        assertEquals(2, map.size());
+        assertEquals("v0", map.get(new Key("k0", 42)));
+        assertEquals("v2", map.get(new Key("k2", 42)));
+
+        // Down to a lone entry, which takes the place of the collision node
+        map = map.remove(new Key("k0", 42));
+        assertEquals(1, map.size());
+        assertEquals("v2", map.get(new Key("k2", 42)));
+        map = map.remove(new Key("k2", 42));
+        assertTrue(map.isEmpty());
+        assertNull(map.get(new Key("k2", 42)));
+    }
+
+    @Test
+    public void remove_hashesSharingLowBits_keepsTheOthers() {
+        // Hashes agreeing on their lowest 5 and 10 bits share a path of interior nodes that far
+        final int[] hashes = { 0x01, 0x21, 0x421, 0x8421 };
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        for (int hash : hashes) {
+            map = map.put(new Key("h" + hash, hash), hash);
+        }
+        for (int removed : hashes) {
+            final PersistentHashMap<Key, Integer> without = map.remove(new Key("h" + removed, removed));
+            assertEquals(hashes.length - 1, without.size());
+            for (int hash : hashes) {
+                assertEquals(hash == removed ? null : (Integer) hash, without.get(new Key("h" + hash, hash)));
+            }
+        }
+    }
+
+    @Test
+    public void putAndRemove_manyCollidingKeys_matchesHashMap() {
+        final Random random = new Random(7);
+        final Map<Key, Integer> expected = new HashMap<>();
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        for (int step = 0; step < 5000; step++) {
+            // Few hashes for many keys, so that entries collide fully or on their low bits
+            final int name = random.nextInt(300);
+            final Key key = new Key("k" + name, (name % 11) << (5 * (name % 4)));
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                expected.put(key, step);
+                map = map.put(key, step);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertSameEntries(expected, map);
+    }
+
+    @Test
+    public void putAndRemove_earlierVersion_isUnchanged() {
+        PersistentHashMap<Key, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 40; i++) {
+            map = map.put(new Key("k" + i, i % 4), "v" + i);
+        }
+        final PersistentHashMap<Key, String> earlier = map;
+        map = map.remove(new Key("k3", 3)).put(new Key("k7", 3), "changed").put(new Key("k40", 0), "added");
+
+        assertEquals(40, earlier.size());
+        assertEquals("v3", earlier.get(new Key("k3", 3)));
+        assertEquals("v7", earlier.get(new Key("k7", 3)));
+        assertNull(earlier.get(new Key("k40", 0)));
+        assertEquals(40, map.size());
+        assertNull(map.get(new Key("k3", 3)));
+    }
+
+    @Test
+    public void putAndRemove_nothingChanges_returnsSameMap() {
+        final String value = "v";
+        final PersistentHashMap<Key, String> map = PersistentHashMap.<Key, String>empty()
+                .put(new Key("a", 1), value).put(new Key("b", 1), value);
+        assertSame(map, map.put(new Key("a", 1), value));
+        assertSame(map, map.remove(new Key("c", 1)));
+        assertSame(map, map.remove(new Key("c", 2)));
+    }
+
+    @Test
+    public void of_map_sameEntriesAsPutOneByOne() {
+        final Map<Key, Integer> source = new HashMap<>();
+        PersistentHashMap<Key, Integer> put = PersistentHashMap.empty();
+        for (int i = 0; i < 500; i++) {
+            final Key key = new Key("k" + i, i % 97 * 31);
+            source.put(key, i);
+            put = put.put(key, i);
+        }
+        final PersistentHashMap<Key, Integer> built = PersistentHashMap.of(source);
+        assertSameEntries(source, built);
+        built.forEachChangeSince(put, (key, value) -> {
+            throw new AssertionError("changed " + key);
+        });
+    }
+
+    @Test
+    public void forEachChangeSince_collidingKeys_reportsEachChange() {
+        PersistentHashMap<Key, String> older = PersistentHashMap.empty();
+        for (int i = 0; i < 6; i++) {
+            older = older.put(new Key("k" + i, i % 2), "v" + i);
+        }
+        final PersistentHashMap<Key, String> newer = older.remove(new Key("k2", 0)).put(new Key("k3", 1), "changed")
+                .put(new Key("k6", 0), "added");
+
+        final Map<Key, String> changes = new HashMap<>();
+        newer.forEachChangeSince(older, changes::put);
+        final Map<Key, String> expected = new HashMap<>();
+        expected.put(new Key("k2", 0), null);
+        expected.put(new Key("k3", 1), "changed");
+        expected.put(new Key("k6", 0), "added");
+        assertEquals(expected, changes);
+    }
+
+    private static <V> void assertSameEntries(Map<Key, V> expected, PersistentHashMap<Key, V> map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Key, V> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        final Map<Key, V> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    /**
+     * Key with a hash code chosen by the test, so that keys that are not equal can share it.
+     */
+    private static final class Key {
+        private final String name;
+        private final int hash;
+
+        private Key(String name, int hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
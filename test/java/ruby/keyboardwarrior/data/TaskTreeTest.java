@@ -0,0 +1,149 @@
+package ruby.keyboardwarrior.data;
+
+import org.junit.Test;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TaskTreeTest {
+
+    @Test
+    public void rankAndGet_afterRemovingRootAndInnerNodes_followIdOrder() throws Exception {
+        TaskTree tree = TaskTree.fromSorted(tasks(1, 15));
+        // 8 is the root of the tree built, and 4 and 12 have two children each
+        for (long id : new long[] { 8, 4, 12, 1, 15 }) {
+            tree = tree.remove(id);
+        }
+        assertSameOrder(new long[] { 2, 3, 5, 6, 7, 9, 10, 11, 13, 14 }, tree);
+        for (long id : new long[] { 1, 4, 8, 12, 15, 16 }) {
+            assertEquals(-1, tree.rank(id));
+            assertNull(tree.find(id));
+        }
+    }
+
+    @Test
+    public void rankAndGet_randomInsertsAndRemoves_matchSortedIds() throws Exception {
+        final Random random = new Random(3);
+        final TreeMap<Long, TodoTask> expected = new TreeMap<>();
+        TaskTree tree = TaskTree.empty();
+        for (int step = 0; step < 2000; step++) {
+            final long id = random.nextInt(400) + 1;
+            if (expected.containsKey(id)) {
+                expected.remove(id);
+                tree = tree.remove(id);
+            } else {
+                final TodoTask task = task(id);
+                expected.put(id, task);
+                tree = tree.insert(id, task);
+            }
+            if (step % 100 == 99) {
+                assertSameOrder(expected, tree);
+            }
+        }
+        assertSameOrder(expected, tree);
+    }
+
+    @Test
+    public void removeAll_ascendingIds_leavesEmptyTree() throws Exception {
+        TaskTree tree = TaskTree.empty();
+        for (long id = 1; id <= 100; id++) {
+            tree = tree.insert(id, task(id));
+        }
+        for (long id = 1; id <= 100; id++) {
+            tree = tree.remove(id);
+            assertEquals(100 - id, tree.size());
+            if (tree.size() > 0) {
+                assertEquals(id + 1, tree.get(0).getId());
+                assertEquals(0, tree.rank(id + 1));
+            }
+        }
+        assertEquals(0, tree.toList().size());
+    }
+
+    @Test
+    public void set_existingId_keepsPosition() throws Exception {
+        final TaskTree tree = TaskTree.fromSorted(tasks(1, 10)).remove(3);
+        final TodoTask edited = new TodoTask(6, new TaskDetails("edited"));
+        final TaskTree set = tree.set(6, edited);
+        assertSame(edited, set.get(4));
+        assertEquals(4, set.rank(6));
+        assertEquals("task 6", tree.get(4).getDetails().toString());
+    }
+
+    @Test
+    public void remove_earlierVersion_isUnchanged() throws Exception {
+        final TaskTree earlier = TaskTree.fromSorted(tasks(1, 20));
+        TaskTree later = earlier;
+        for (long id = 2; id <= 20; id += 2) {
+            later = later.remove(id);
+        }
+        assertEquals(10, later.size());
+        assertSameOrder(ids(1, 20), earlier);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_pastRemovedEnd_throws() throws Exception {
+        TaskTree.fromSorted(tasks(1, 5)).remove(5).get(4);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_negativePosition_throws() throws Exception {
+        TaskTree.fromSorted(tasks(1, 5)).get(-1);
+    }
+
+    /**
+     * Asserts that the tasks of {@code tree}, by position, have exactly {@code ids} and are ranked accordingly.
+     */
+    private static void assertSameOrder(long[] ids, TaskTree tree) {
+        assertEquals(ids.length, tree.size());
+        for (int position = 0; position < ids.length; position++) {
+            assertEquals(ids[position], tree.get(position).getId());
+            assertEquals(position, tree.rank(ids[position]));
+            assertEquals(ids[position], tree.find(ids[position]).getId());
+        }
+        final List<TodoTask> listed = tree.toList();
+        for (int position = 0; position < ids.length; position++) {
+            assertEquals(ids[position], listed.get(position).getId());
+        }
+    }
+
+    private static void assertSameOrder(TreeMap<Long, TodoTask> expected, TaskTree tree) {
+        final long[] ids = new long[expected.size()];
+        int position = 0;
+        for (long id : expected.keySet()) {
+            ids[position++] = id;
+        }
+        assertSameOrder(ids, tree);
+        for (TodoTask task : expected.values()) {
+            assertSame(task, tree.find(task.getId()));
+        }
+    }
+
+    private static long[] ids(long first, long last) {
+        final long[] ids = new long[(int) (last - first + 1)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = first + i;
+        }
+        return ids;
+    }
+
+    private static List<TodoTask> tasks(long first, long last) throws Exception {
+        final List<TodoTask> tasks = new ArrayList<>();
+        for (long id = first; id <= last; id++) {
+            tasks.add(task(id));
+        }
+        return tasks;
+    }
+
+    private static TodoTask task(long id) throws Exception {
+        return new TodoTask(id, new TaskDetails("task " + id));
+    }
+}
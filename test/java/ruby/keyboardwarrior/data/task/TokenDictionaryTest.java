@@ -0,0 +1,100 @@
+package ruby.keyboardwarrior.data.task;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TokenDictionaryTest {
+
+    /* The dictionary is shared by every test, so each test uses words no other one does. */
+    private final TokenDictionary dictionary = TokenDictionary.shared();
+
+    @Test
+    public void idOf_sameWord_sameIdAndWord() {
+        final int id = dictionary.idOf("tokendictionarytest-same");
+        assertEquals(id, dictionary.idOf("tokendictionarytest-same"));
+        assertEquals(id, dictionary.find("tokendictionarytest-same"));
+        assertEquals("tokendictionarytest-same", dictionary.wordOf(id));
+    }
+
+    @Test
+    public void find_unknownWord_notFoundAndNotAdded() {
+        final int size = dictionary.size();
+        assertEquals(TokenDictionary.NOT_FOUND, dictionary.find("tokendictionarytest-never-added"));
+        assertEquals(size, dictionary.size());
+    }
+
+    @Test
+    public void foldedIdOf_anyCase_isIdOfLowerCaseForm() {
+        final int mixed = dictionary.idOf("TokenDictionaryTest-Folded");
+        final int upper = dictionary.idOf("TOKENDICTIONARYTEST-FOLDED");
+        final int lower = dictionary.find("tokendictionarytest-folded");
+
+        // The lower case form is added along with the first word folding to it
+        assertNotEquals(TokenDictionary.NOT_FOUND, lower);
+        assertNotEquals(mixed, upper);
+        assertEquals(lower, dictionary.foldedIdOf(mixed));
+        assertEquals(lower, dictionary.foldedIdOf(upper));
+        assertEquals(lower, dictionary.foldedIdOf(lower));
+        assertEquals("TokenDictionaryTest-Folded", dictionary.wordOf(mixed));
+    }
+
+    @Test
+    public void foldedIdOf_notAscii_foldsToo() {
+        final int upper = dictionary.idOf("TOKENDICTIONARYTEST-CAF\u00c9");
+        assertEquals("tokendictionarytest-caf\u00e9", dictionary.wordOf(dictionary.foldedIdOf(upper)));
+    }
+
+    @Test
+    public void find_isCaseSensitive() {
+        dictionary.idOf("tokendictionarytest-lower");
+        assertEquals(TokenDictionary.NOT_FOUND, dictionary.find("TokenDictionaryTest-Lower"));
+    }
+
+    @Test
+    public void taskDetails_wordsInAnyCase_keepTheirCaseAndShareFoldedId() throws Exception {
+        final TaskDetails details = new TaskDetails("Buy MILK and milk");
+        assertEquals("MILK", details.getWordsInDetails().get(1));
+        assertEquals(dictionary.foldedIdOf(details.getWordId(1)), dictionary.foldedIdOf(details.getWordId(3)));
+        assertEquals("Buy MILK and milk", details.toString());
+    }
+
+    @Test
+    public void idOf_pastInitialCapacity_keepsEveryWord() {
+        final List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            ids.add(dictionary.idOf("TokenDictionaryTest-Grow-" + i));
+        }
+        for (int i = 0; i < 3000; i++) {
+            assertEquals("TokenDictionaryTest-Grow-" + i, dictionary.wordOf(ids.get(i)));
+            assertEquals("tokendictionarytest-grow-" + i, dictionary.wordOf(dictionary.foldedIdOf(ids.get(i))));
+        }
+    }
+
+    @Test
+    public void idOf_manyThreadsAddingSameWords_agreeOnIds() throws Exception {
+        final List<CompletableFuture<int[]>> adders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            adders.add(CompletableFuture.supplyAsync(() -> {
+                final int[] ids = new int[500];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = dictionary.idOf("TokenDictionaryTest-Race-" + i);
+                }
+                return ids;
+            }));
+        }
+        final int[] first = adders.get(0).get();
+        for (CompletableFuture<int[]> adder : adders) {
+            final int[] ids = adder.get();
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(first[i], ids[i]);
+                assertEquals("TokenDictionaryTest-Race-" + i, dictionary.wordOf(ids[i]));
+            }
+        }
+    }
+}
@@ -10,11 +10,20 @@ import ruby.keyboardwarrior.commands.*;
 import ruby.keyboardwarrior.common.Messages;
 import ruby.keyboardwarrior.data.TasksList;
 import ruby.keyboardwarrior.data.task.*;
+import ruby.keyboardwarrior.storage.MerkleSync;
+import ruby.keyboardwarrior.storage.ReplicationFollower;
+import ruby.keyboardwarrior.storage.ReplicationLeader;
 import ruby.keyboardwarrior.storage.StorageFile;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static ruby.keyboardwarrior.common.Messages.*;
 
 
@@ -67,6 +76,8 @@ public class LogicTest {
                                       boolean isRelevantTasksExpected,
                                       List<TodoTask> lastShownList) throws Exception {
 
+        TestDataHelper helper = new TestDataHelper();
+
         //Execute the command
         CommandResult r = logic.execute(inputCommand);
 
@@ -79,7 +90,7 @@ public class LogicTest {
 
         //Confirm the state of data is as expected
         assertEquals(expectedTasksList, tasksList);
-        assertEquals(lastShownList, logic.getLastShownList());
+        assertArrayEquals(helper.idsOf(lastShownList), logic.getLastShownList());
 //        assertEquals(tasksList, saveFile.load());
     }
 
@@ -146,6 +157,42 @@ public class LogicTest {
 
     }
 
+    @Test
+    public void execute_undoRedo_stepsThroughMultipleChanges() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask p1 = helper.generateTask(1);
+        TodoTask p2 = helper.generateTask(2);
+        TasksList empty = new TasksList();
+        TasksList withP1 = helper.generateTasksList(helper.generateTaskList(p1));
+        TasksList withBoth = helper.generateTasksList(helper.generateTaskList(p1, p2));
+
+        logic.execute(helper.generateAddCommand(p1));
+        logic.execute(helper.generateAddCommand(p2));
+
+        assertCommandBehavior("undo", UndoCommand.MESSAGE_UNDO_SUCCESS, withP1, false, Collections.emptyList());
+        assertCommandBehavior("undo", UndoCommand.MESSAGE_UNDO_SUCCESS, empty, false, Collections.emptyList());
+        assertCommandBehavior("undo", UndoCommand.MESSAGE_NOTHING_TO_UNDO, empty, false, Collections.emptyList());
+        assertCommandBehavior("redo", RedoCommand.MESSAGE_REDO_SUCCESS, withP1, false, Collections.emptyList());
+        assertCommandBehavior("redo", RedoCommand.MESSAGE_REDO_SUCCESS, withBoth, false, Collections.emptyList());
+        assertCommandBehavior("redo", RedoCommand.MESSAGE_NOTHING_TO_REDO, withBoth, false, Collections.emptyList());
+    }
+
+    @Test
+    public void execute_undo_restoresDeletedTaskInPlace() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask p1 = helper.generateTask(1);
+        TodoTask p2 = helper.generateTask(2);
+        TodoTask p3 = helper.generateTask(3);
+
+        List<TodoTask> threeTasks = helper.generateTaskList(p1, p2, p3);
+        TasksList expectedAB = helper.generateTasksList(threeTasks);
+        helper.addToTasksList(tasksList, threeTasks);
+        logic.setLastShownList(threeTasks);
+        logic.execute("delete 2");
+
+        assertCommandBehavior("undo", UndoCommand.MESSAGE_UNDO_SUCCESS, expectedAB, false, threeTasks);
+    }
+
     /*@Test
     public void execute_view_invalidArgsFormat() throws Exception {
         String expectedMessage = String.format(MESSAGE_INVALID_COMMAND_FORMAT, ViewCommand.MESSAGE_USAGE);
@@ -314,6 +361,27 @@ public class LogicTest {
                                 threeTasks);
     }
 
+    @Test
+    public void execute_delete_targetsShownTaskAfterListChanged() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask p1 = helper.generateTask(1);
+        TodoTask p2 = helper.generateTask(2);
+        TodoTask p3 = helper.generateTask(3);
+
+        List<TodoTask> threeTasks = helper.generateTaskList(p1, p2, p3);
+        helper.addToTasksList(tasksList, threeTasks);
+        logic.setLastShownList(threeTasks);
+        tasksList.removeTask(p1);
+
+        TasksList expectedAB = helper.generateTasksList(helper.generateTaskList(p3));
+
+        assertCommandBehavior("delete 2",
+                String.format(DeleteCommand.MESSAGE_DELETE_ITEM_SUCCESS, p2),
+                                expectedAB,
+                                false,
+                                threeTasks);
+    }
+
     @Test
     public void execute_delete_missingInTasksList() throws Exception {
 
@@ -338,6 +406,234 @@ public class LogicTest {
                                 threeTasks);
     }
 
+    @Test
+    public void execute_done_movesTaskToArchive() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask pDone = helper.generateTaskWithDetails("bla KEY done");
+        TodoTask pPending = helper.generateTaskWithDetails("bla KEY pending");
+
+        List<TodoTask> twoTasks = helper.generateTaskList(pDone, pPending);
+        helper.addToTasksList(tasksList, twoTasks);
+        logic.setLastShownList(twoTasks);
+
+        TasksList expectedAB = helper.generateTasksList(helper.generateTaskList(pPending));
+        assertCommandBehavior("done 1",
+                                String.format(DoneCommand.MESSAGE_DONE_ITEM_SUCCESS, pDone),
+                                expectedAB,
+                                false,
+                                twoTasks);
+
+        List<TodoTask> pendingFound = helper.generateTaskList(pPending);
+        assertCommandBehavior("find key",
+                                Command.getMessageForTasksListShownSummary(pendingFound),
+                                expectedAB,
+                                true,
+                                pendingFound);
+
+        List<TodoTask> archivedFound = helper.generateTaskList(pDone);
+        assertCommandBehavior("find --archived key",
+                                Command.getMessageForTasksListShownSummary(archivedFound),
+                                expectedAB,
+                                true,
+                                archivedFound);
+        assertTrue(logic.execute("find --archived done").getRelevantTasks().get().get(0).isDone());
+    }
+
+    @Test
+    public void execute_undoDone_removesTaskFromArchive() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask p1 = helper.generateTaskWithDetails("bla KEY one");
+        TodoTask p2 = helper.generateTaskWithDetails("bla KEY two");
+
+        List<TodoTask> twoTasks = helper.generateTaskList(p1, p2);
+        TasksList expectedAB = helper.generateTasksList(twoTasks);
+        helper.addToTasksList(tasksList, twoTasks);
+        logic.setLastShownList(twoTasks);
+        logic.execute("done 2");
+        logic.execute("undo");
+
+        assertCommandBehavior("find --archived key",
+                                Command.getMessageForTasksListShownSummary(Collections.emptyList()),
+                                expectedAB,
+                                true,
+                                Collections.emptyList());
+    }
+
+    @Test
+    public void execute_undoDoneAndAdd_leavesNothingArchived() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask p1 = helper.generateTaskWithDetails("bla KEY one");
+        logic.execute("add bla KEY one");
+        logic.execute("list");
+        logic.execute("done 1");
+        logic.execute("undo");
+        logic.execute("undo");
+
+        assertCommandBehavior("find --archived key",
+                                Command.getMessageForTasksListShownSummary(Collections.emptyList()),
+                                TasksList.empty(),
+                                true,
+                                Collections.emptyList());
+
+        logic.execute("redo");
+        logic.execute("redo");
+        assertEquals(helper.generateTaskList(p1), logic.execute("find --archived key").getRelevantTasks().get());
+        assertEquals(TasksList.empty(), tasksList);
+    }
+
+    @Test
+    public void execute_replication_followerAppliesLeaderChangesAndRefusesItsOwn() throws Exception {
+        ReplicationLeader leader = new ReplicationLeader(saveFile, 0);
+        Logic leaderLogic = new Logic(leader, leader.load());
+        ReplicationFollower follower = new ReplicationFollower(leader.getAddress());
+        try {
+            Logic followerLogic = new Logic(follower, follower.load(5000));
+            leaderLogic.execute("add bla KEY one");
+            assertTrue(follower.awaitSequence(leader.getSequence(), 5000));
+            assertEquals(1, followerLogic.execute("find key").getRelevantTasks().get().size());
+            assertEquals(String.format(MESSAGE_READ_ONLY, follower.getPath()),
+                    followerLogic.execute("add bla KEY two").feedbackToUser);
+
+            // Catches up from the last record applied after reconnecting
+            follower.disconnect();
+            leaderLogic.execute("add bla KEY two");
+            leaderLogic.execute("add bla KEY three");
+            assertTrue(follower.awaitSequence(leader.getSequence(), 5000));
+            assertEquals(3, followerLogic.execute("find key").getRelevantTasks().get().size());
+        } finally {
+            follower.close();
+            leader.close();
+        }
+    }
+
+    @Test
+    public void execute_replication_followerArchiveIsEmptyAndReadOnly() throws Exception {
+        ReplicationLeader leader = new ReplicationLeader(saveFile, 0);
+        Logic leaderLogic = new Logic(leader, leader.load());
+        ReplicationFollower follower = new ReplicationFollower(leader.getAddress());
+        try {
+            Logic followerLogic = new Logic(follower, follower.load(5000));
+            leaderLogic.execute("add bla KEY one");
+            leaderLogic.execute("add bla KEY two");
+            leaderLogic.execute("list");
+            leaderLogic.execute("done 1");
+            assertEquals(1, leaderLogic.execute("find --archived key").getRelevantTasks().get().size());
+            assertTrue(follower.awaitSequence(leader.getSequence(), 5000));
+
+            // The leader's archive is not replicated
+            assertEquals(1, followerLogic.execute("find key").getRelevantTasks().get().size());
+            assertTrue(followerLogic.execute("find --archived key").getRelevantTasks().get().isEmpty());
+            try {
+                follower.getArchive().archive(follower.load().getTask(0));
+                fail();
+            } catch (StorageFile.StorageOperationException expected) {
+                // Only the leader changes tasks
+            }
+        } finally {
+            follower.close();
+            leader.close();
+        }
+    }
+
+    @Test
+    public void applyExternalChanges_storageFileReplacedFromOutside_mergesIntoLiveList() throws Exception {
+        // This copy's storage file, and another copy's, starting from the same task
+        Path path = saveFolder.newFolder("here").toPath().resolve("tasks.txt");
+        Path otherPath = saveFolder.newFolder("there").toPath().resolve("tasks.txt");
+        StorageFile seeded = new StorageFile(path.toString());
+        seeded.save(seedList());
+        seeded.checkpoint();
+        StorageFile other = new StorageFile(otherPath.toString());
+        other.save(seedList());
+
+        StorageFile watched = new StorageFile(path.toString());
+        Logic[] live = new Logic[1];
+        watched.watchForExternalChanges((before, after) -> live[0].applyExternalChanges(before, after));
+        TasksList liveList = watched.load();
+        live[0] = new Logic(watched, liveList);
+        live[0].execute("add bla KEY here");
+
+        // The other copy adds a task under the same ID and edits the first, saving a few times
+        TasksList otherList = other.load();
+        otherList.addTask(new TodoTask(new TaskDetails("bla KEY there")));
+        other.save(otherList);
+        otherList.setTask(otherList.getTaskById(1), new TodoTask(1, new TaskDetails("bla KEY seed edited")));
+        other.save(otherList);
+        other.checkpoint();
+        // As a file synchronization tool brings in the other copy's file
+        Path incoming = path.resolveSibling("incoming.tmp");
+        Files.copy(otherPath, incoming);
+        Files.move(incoming, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (liveList.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(3, liveList.size());
+        assertEquals("bla KEY seed edited", liveList.getTaskById(1).getDetails().toString());
+        assertEquals("bla KEY there", liveList.getTaskById(2).getDetails().toString());
+        // The task added here, under the ID the other copy also used, is moved to a new one
+        assertEquals("bla KEY here", liveList.getTaskById(3).getDetails().toString());
+
+        watched.flush();
+        TasksList reloaded = new StorageFile(path.toString()).load();
+        assertEquals(liveList.getAllTasks(), reloaded.getAllTasks());
+    }
+
+    private static TasksList seedList() throws Exception {
+        TasksList seed = new TasksList();
+        seed.addTask(new TodoTask(new TaskDetails("bla KEY seed")));
+        return seed;
+    }
+
+    @Test
+    public void execute_sync_fetchesOnlyTasksThatDiffer() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        for (int seed = 1; seed <= 100; seed++) {
+            logic.execute(helper.generateAddCommand(helper.generateTask(seed)));
+        }
+        TasksList copy = new TasksList();
+        try (MerkleSync.Server server = new MerkleSync.Server(tasksList, 0)) {
+            try (MerkleSync.RemoteSource source = MerkleSync.connect(server.getAddress())) {
+                assertEquals(100, MerkleSync.pull(copy, source).tasksFetched);
+            }
+            assertEquals(tasksList.getAllTasks(), copy.getAllTasks());
+
+            logic.execute("add bla KEY new");
+            logic.execute("list");
+            logic.execute("delete 1");
+            try (MerkleSync.RemoteSource source = MerkleSync.connect(server.getAddress())) {
+                MerkleSync.Result result = MerkleSync.pull(copy, source);
+                assertEquals(1, result.tasksFetched);
+                assertEquals(1, result.tasksRemoved);
+            }
+            assertEquals(tasksList.getAllTasks(), copy.getAllTasks());
+        }
+    }
+
+    @Test
+    public void syncFrom_follower_refusedWithoutChangingTasks() throws Exception {
+        logic.execute("add bla KEY one");
+        ReplicationLeader leader = new ReplicationLeader(saveFile, 0);
+        leader.load();
+        ReplicationFollower follower = new ReplicationFollower(leader.getAddress());
+        TasksList other = new TasksList();
+        other.addTask(new TodoTask(new TaskDetails("bla other")));
+        try (MerkleSync.Server server = new MerkleSync.Server(other, 0)) {
+            Logic followerLogic = new Logic(follower, follower.load(5000));
+            try {
+                followerLogic.syncFrom(server.getAddress());
+                fail();
+            } catch (StorageFile.StorageOperationException soe) {
+                assertTrue(soe.getMessage(), soe.getMessage().startsWith("Cannot sync from"));
+            }
+            assertEquals(1, followerLogic.execute("find key").getRelevantTasks().get().size());
+        } finally {
+            follower.close();
+            leader.close();
+        }
+    }
+
     @Test
     public void execute_find_invalidArgsFormat() throws Exception {
         String expectedMessage = String.format(MESSAGE_INVALID_COMMAND_FORMAT, FindCommand.MESSAGE_USAGE);
@@ -405,6 +701,83 @@ public class LogicTest {
                                 expectedList);
     }
 
+    @Test
+    public void execute_find_doesNotMatchRemovedOrEditedTasks() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask pTarget = helper.generateTaskWithDetails("bla KEY bla");
+        TodoTask pRemoved = helper.generateTaskWithDetails("KEY removed");
+        TodoTask pEdited = helper.generateTaskWithDetails("KEY edited");
+        TodoTask pEditedTo = helper.generateTaskWithDetails("nothing here");
+
+        helper.addToTasksList(tasksList, helper.generateTaskList(pRemoved, pEdited, pTarget));
+        tasksList.removeTask(pRemoved);
+        tasksList.setTask(pEdited, pEditedTo);
+
+        TasksList expectedAB = helper.generateTasksList(helper.generateTaskList(pEditedTo, pTarget));
+        List<TodoTask> expectedList = helper.generateTaskList(pTarget);
+
+        assertCommandBehavior("find key",
+                                Command.getMessageForTasksListShownSummary(expectedList),
+                                expectedAB,
+                                true,
+                                expectedList);
+    }
+
+    @Test
+    public void execute_find_usesSearchOfStorageIfItHasOne() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask pStored = helper.generateTaskWithDetails("KEY stored");
+        TodoTask pListed = helper.generateTaskWithDetails("KEY listed");
+        helper.addToTasksList(tasksList, helper.generateTaskList(pStored, pListed));
+
+        // Stands in for a database that only holds the first task
+        logic.setStorage(new StorageFile(saveFile.getPath()) {
+            @Override
+            public Optional<List<TodoTask>> findTasksContainingAnyKeyword(Collection<String> keywords) {
+                return Optional.of(tasksList.snapshot().findTasksContainingAnyKeyword(Collections.singleton("stored")));
+            }
+        });
+
+        assertEquals(helper.generateTaskList(pStored), logic.execute("find key").getRelevantTasks().get());
+    }
+
+    @Test
+    public void execute_agenda_listsTimedTasksInSpanByStartTime() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask late = helper.generateEvent("late meeting", "140816/1000", "140816/1200");
+        TodoTask untimed = helper.generateTaskWithDetails("no time");
+        TodoTask deadline = helper.generateDeadline("report", "130816/2359");
+        TodoTask early = helper.generateEvent("early meeting", "120816/2300", "130816/0100");
+        TodoTask outside = helper.generateEvent("next week", "200816/1000", "200816/1100");
+        List<TodoTask> allTasks = helper.generateTaskList(late, untimed, deadline, early, outside);
+        TasksList expectedAB = helper.generateTasksList(allTasks);
+        helper.addToTasksList(tasksList, allTasks);
+
+        List<TodoTask> expectedList = helper.generateTaskList(early, deadline, late);
+        assertCommandBehavior("agenda 130816/0000 140816/1000",
+                                Command.getMessageForTasksListShownSummary(expectedList),
+                                expectedAB,
+                                true,
+                                expectedList);
+    }
+
+    @Test
+    public void execute_add_eventOverlappingExistingEvent_warns() throws Exception {
+        TestDataHelper helper = new TestDataHelper();
+        TodoTask existing = helper.generateEvent("lecture", "130816/1000", "130816/1200");
+        TodoTask deadline = helper.generateDeadline("homework", "130816/1100");
+        TodoTask toBeAdded = helper.generateEvent("lunch", "130816/1130", "130816/1300");
+        TasksList expectedAB = helper.generateTasksList(helper.generateTaskList(existing, deadline, toBeAdded));
+        helper.addToTasksList(tasksList, helper.generateTaskList(existing, deadline));
+
+        assertCommandBehavior(helper.generateAddCommand(toBeAdded),
+                              String.format(AddCommand.MESSAGE_SUCCESS, toBeAdded)
+                                      + String.format(AddCommand.MESSAGE_OVERLAP_WARNING, 1) + "\n\t" + existing,
+                              expectedAB,
+                              false,
+                              Collections.emptyList());
+    }
+
     /**
      * A utility class to generate test data.
      */
@@ -432,7 +805,7 @@ public class LogicTest {
 
             cmd.add("add");
 
-            cmd.add(p.getDetails().toString());
+            cmd.add(p.toString());
             return cmd.toString();
         }
 
@@ -465,6 +838,17 @@ public class LogicTest {
             return taskList;
         }
 
+        /**
+         * Returns the IDs of the given tasks, in order.
+         */
+        long[] idsOf(List<TodoTask> tasks) {
+            long[] ids = new long[tasks.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = tasks.get(i).getId();
+            }
+            return ids;
+        }
+
         /**
          * Generates a Task object with given name. Other fields will have some dummy values.
          */
@@ -472,6 +856,20 @@ public class LogicTest {
             return new TodoTask(
                     new TaskDetails(taskdetails));
          }
+
+        /**
+         * Generates an event with the given details, start and end time.
+         */
+        TodoTask generateEvent(String taskdetails, String starttime, String endtime) throws Exception {
+            return new EventTask(new TaskDetails(taskdetails), new StartTime(starttime), new EndTime(endtime));
+        }
+
+        /**
+         * Generates a deadline with the given details and due time.
+         */
+        TodoTask generateDeadline(String taskdetails, String endtime) throws Exception {
+            return new DeadlineTask(new TaskDetails(taskdetails), new EndTime(endtime));
+        }
     }
 
 }
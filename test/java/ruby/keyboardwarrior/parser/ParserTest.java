@@ -63,6 +63,18 @@ public class ParserTest {
         parseAndAssertCommandType(input, ExitCommand.class);
     }
 
+    @Test
+    public void undoCommand_parsedCorrectly() {
+        final String input = "undo";
+        parseAndAssertCommandType(input, UndoCommand.class);
+    }
+
+    @Test
+    public void redoCommand_parsedCorrectly() {
+        final String input = "redo";
+        parseAndAssertCommandType(input, RedoCommand.class);
+    }
+
     /**
      * Test single index argument commands
      */
@@ -173,6 +185,20 @@ public class ParserTest {
         assertEquals(keySet, result.getKeywords());
     }
 
+    @Test
+    public void findCommand_archivedFlag_parsedCorrectly() {
+        final String[] keywords = { "key1", "key2" };
+        final Set<String> keySet = new HashSet<>(Arrays.asList(keywords));
+
+        final String input = "find " + FindCommand.ARCHIVED_FLAG + " " + String.join(" ", keySet);
+        final FindCommand result =
+                parseAndAssertCommandType(input, FindCommand.class);
+        assertEquals(keySet, result.getKeywords());
+        assertTrue(result.isArchived());
+        parseAndAssertIncorrectWithMessage(String.format(MESSAGE_INVALID_COMMAND_FORMAT, FindCommand.MESSAGE_USAGE),
+                "find " + FindCommand.ARCHIVED_FLAG);
+    }
+
     /**
      * Test add person command
      */
@@ -219,12 +245,49 @@ public class ParserTest {
         assertEquals(result.getTask(), testTask);
     }
 
+    @Test
+    public void addCommand_eventAndDeadline_parsedCorrectly() throws IllegalValueException {
+        final TodoTask event = new EventTask(new TaskDetails(TaskDetails.EXAMPLE),
+                new StartTime("130816/1400"), new EndTime("130816/1600"));
+        final TodoTask deadline = new DeadlineTask(new TaskDetails(TaskDetails.EXAMPLE), new EndTime(EndTime.EXAMPLE));
+        assertEquals(event, parseAndAssertCommandType("add " + event, AddCommand.class).getTask());
+        assertEquals(deadline, parseAndAssertCommandType("add " + deadline, AddCommand.class).getTask());
+    }
+
+    @Test
+    public void addCommand_eventEndingBeforeStart_returnsIncorrect() {
+        parseAndAssertIncorrectWithMessage(EventTask.MESSAGE_TIME_ORDER_CONSTRAINTS,
+                "add " + TaskDetails.EXAMPLE + " from 130816/1600 to 130816/1400");
+    }
+
+    @Test
+    public void addCommand_nonexistentTime_returnsIncorrect() {
+        parseAndAssertIncorrectWithMessage(TaskTime.MESSAGE_TIME_CONSTRAINTS,
+                "add " + TaskDetails.EXAMPLE + " by 300216/1200",
+                "add " + TaskDetails.EXAMPLE + " by 130816/2400",
+                "add " + TaskDetails.EXAMPLE + " from 130816/1000 to 131316/1200");
+    }
+
+    @Test
+    public void agendaCommand_invalidArgs() {
+        final String resultMessage = String.format(MESSAGE_INVALID_COMMAND_FORMAT, AgendaCommand.MESSAGE_USAGE);
+        parseAndAssertIncorrectWithMessage(resultMessage, "agenda", "agenda 130816/1400", "agenda 140816/0000 130816/0000");
+        parseAndAssertIncorrectWithMessage(StartTime.MESSAGE_TIME_CONSTRAINTS, "agenda tomorrow 130816/1400");
+    }
+
+    @Test
+    public void agendaCommand_validArgs_parsedCorrectly() {
+        final AgendaCommand result = parseAndAssertCommandType("agenda 130816/0000 140816/2359", AgendaCommand.class);
+        assertEquals("130816/0000", result.getFrom().toString());
+        assertEquals("140816/2359", result.getTo().toString());
+    }
+
     private static TodoTask generateTestTask() throws IllegalValueException {
         return new TodoTask(new TaskDetails(TaskDetails.EXAMPLE));
     }
 
     private static String convertTaskToAddCommandString(TodoTask todoTask) {
-        String addCommand = "add " + todoTask.getDetails().details;
+        String addCommand = "add " + todoTask.getDetails();
         return addCommand;
     }
 
@@ -0,0 +1,212 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.EventTask;
+import ruby.keyboardwarrior.data.task.TimedTask;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTasks;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.task;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.tasksList;
+
+public class BinaryStorageFormatTest {
+
+    /** Offset of the version byte, after the magic. */
+    private static final int VERSION_OFFSET = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_written_returnsSameTasksAndLogSequence() throws Exception {
+        final TasksList tasksList = tasksList(50);
+        tasksList.removeTask(tasksList.getTask(10));
+        tasksList.removeTask(tasksList.getTask(tasksList.size() - 1));
+
+        final Checkpoint checkpoint = StorageFormat.BINARY.read(new ByteArrayInputStream(write(tasksList, 9)));
+        assertSameTasks(tasksList, checkpoint.getTasksList());
+        assertEquals(9, checkpoint.getLogSequence());
+    }
+
+    @Test
+    public void read_manyChunks_returnsTasksInFileOrder() throws Exception {
+        final TasksList tasksList = tasksList(2 * BinaryStorageFormat.CHUNK_TASKS + 100);
+        final byte[] written = write(tasksList, 1);
+
+        for (StorageFormat format : Arrays.asList(StorageFormat.BINARY, BinaryStorageFormat.withDecodeThreads(3))) {
+            final Checkpoint checkpoint = format.read(new ByteArrayInputStream(written));
+            assertSameTasks(tasksList, checkpoint.getTasksList());
+            for (int i = 0; i < tasksList.size(); i++) {
+                assertEquals(tasksList.getTask(i).getId(), checkpoint.getTasksList().getTask(i).getId());
+            }
+        }
+    }
+
+    @Test
+    public void read_emptyList_returnsNoTasks() throws Exception {
+        final Checkpoint checkpoint = StorageFormat.BINARY.read(new ByteArrayInputStream(write(new TasksList(), 0)));
+        assertSameTasks(new TasksList(), checkpoint.getTasksList());
+    }
+
+    @Test
+    public void read_cutShortAnywhere_throws() throws Exception {
+        final byte[] written = write(tasksList(BinaryStorageFormat.CHUNK_TASKS + 10), 3);
+        // Every byte of the header and the first records, then a sample through the rest
+        for (int length = 0; length < written.length; length += length < 300 ? 1 : 997) {
+            assertUnreadable(Arrays.copyOf(written, length));
+        }
+        assertUnreadable(Arrays.copyOf(written, written.length - 1));
+    }
+
+    @Test
+    public void read_chunkLongerThanItsTasks_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        // The chunk length follows the header and the chunk task count, all single bytes here
+        written[VERSION_OFFSET + 5]++;
+        assertUnreadable(Arrays.copyOf(written, written.length + 1));
+    }
+
+    @Test
+    public void read_recordLongerThanItsChunk_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        written[VERSION_OFFSET + 6] = 0x7F;
+        assertUnreadable(written);
+    }
+
+    @Test
+    public void read_otherMagic_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        written[0] = 'X';
+        assertUnreadable(written);
+    }
+
+    @Test
+    public void read_newerVersion_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        written[VERSION_OFFSET] = BinaryStorageFormat.VERSION + 1;
+        try {
+            StorageFormat.BINARY.read(new ByteArrayInputStream(written));
+            fail();
+        } catch (StorageOperationException soe) {
+            assertEquals("File was written by a newer version of Keyboard Warrior", soe.getMessage());
+        }
+    }
+
+    @Test
+    public void read_version1_returnsSameTasksAndSkipsUnknownKinds() throws Exception {
+        final TasksList tasksList = tasksList(20);
+
+        final Checkpoint checkpoint = StorageFormat.BINARY.read(new ByteArrayInputStream(version1(tasksList, 4)));
+        assertSameTasks(tasksList, checkpoint.getTasksList());
+        assertEquals(4, checkpoint.getLogSequence());
+    }
+
+    @Test
+    public void convert_version1_rewritesAsCurrentVersionAndKeepsOriginal() throws Exception {
+        final TasksList tasksList = tasksList(20);
+        final Path file = folder.getRoot().toPath().resolve("tasks.txt");
+        final byte[] original = version1(tasksList, 4);
+        Files.write(file, original);
+
+        assertEquals(20, FormatConverter.convert(file, StorageFormat.BINARY));
+        assertEquals(BinaryStorageFormat.VERSION, Files.readAllBytes(file)[VERSION_OFFSET]);
+        assertArrayEquals(original, Files.readAllBytes(file.resolveSibling("tasks.txt.bak")));
+        final Checkpoint checkpoint = StorageFile.readCheckpoint(file);
+        assertSameTasks(tasksList, checkpoint.getTasksList());
+        assertEquals(4, checkpoint.getLogSequence());
+    }
+
+    @Test
+    public void checkpoint_version1File_isRewrittenAsCurrentVersion() throws Exception {
+        final TasksList tasksList = tasksList(20);
+        final Path file = folder.getRoot().toPath().resolve("tasks.txt");
+        Files.write(file, version1(tasksList, 0));
+
+        final StorageFile storage = new StorageFile(file.toString());
+        final TasksList loaded = storage.load();
+        assertSameTasks(tasksList, loaded);
+        loaded.addTask(task("added after the upgrade", 1));
+        storage.save(loaded);
+        storage.checkpoint();
+
+        assertEquals(BinaryStorageFormat.VERSION, Files.readAllBytes(file)[VERSION_OFFSET]);
+        assertSameTasks(loaded, new StorageFile(file.toString()).load());
+    }
+
+    @Test
+    public void detect_header_findsFormatWrittenIn() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        assertSame(StorageFormat.BINARY, StorageFormat.detect(written, StorageFormat.HEADER_BYTES));
+        assertSame(StorageFormat.BINARY, StorageFormat.detect(version1(tasksList(3), 0), StorageFormat.HEADER_BYTES));
+    }
+
+    private static byte[] write(TasksList tasksList, long logSequence) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StorageFormat.BINARY.write(tasksList.snapshot(), logSequence, out);
+        return out.toByteArray();
+    }
+
+    private static void assertUnreadable(byte[] file) throws Exception {
+        try {
+            StorageFormat.BINARY.read(new ByteArrayInputStream(file));
+            fail("read " + file.length + " bytes");
+        } catch (StorageOperationException expected) {
+            // The file was rejected rather than misread
+        }
+    }
+
+    /**
+     * Returns the tasks as version 1 wrote them, the records straight after the header, with a record of a kind
+     * added later before each task.
+     */
+    private static byte[] version1(TasksList tasksList, long logSequence) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 'K', 'W', 'B', 'F', 1 });
+        writeVarLong(out, tasksList.getNextId());
+        writeVarLong(out, logSequence);
+        writeVarLong(out, 2L * tasksList.size());
+        for (TodoTask task : tasksList.getAllTasks()) {
+            writeVarLong(out, 3);
+            out.write(new byte[] { 9, 1, 2 });
+
+            final ByteArrayOutputStream record = new ByteArrayOutputStream();
+            record.write(task instanceof EventTask ? 2 : task instanceof TimedTask ? 1 : 0);
+            writeVarLong(record, task.getId());
+            final byte[] details = task.getDetails().toString().getBytes(StandardCharsets.UTF_8);
+            writeVarLong(record, details.length);
+            record.write(details);
+            if (task instanceof EventTask) {
+                writeVarLong(record, ((EventTask) task).getStartMinutes() << 1);
+            }
+            if (task instanceof TimedTask) {
+                writeVarLong(record, ((TimedTask) task).getEndMinutes() << 1);
+            }
+            writeVarLong(out, record.size());
+            record.writeTo(out);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,224 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTask;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTasks;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.task;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.tasksList;
+
+/**
+ * Runs against an in-memory H2 database, which must be on the test class path. Each test opens a database of
+ * its own, kept until the test ends so that another {@code DatabaseStorage} can reopen it.
+ */
+public class DatabaseStorageTest {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private final List<DatabaseStorage> opened = new ArrayList<>();
+    private String url;
+
+    @Before
+    public void setup() throws Exception {
+        url = "jdbc:h2:mem:kw" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+    }
+
+    @After
+    public void teardown() throws Exception {
+        for (DatabaseStorage storage : opened) {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void load_saved_returnsSameTasks() throws Exception {
+        final TasksList tasksList = tasksList(30);
+        open().save(tasksList);
+        assertSameTasks(tasksList, open().load());
+    }
+
+    @Test
+    public void load_emptyDatabase_returnsNoTasks() throws Exception {
+        assertSameTasks(new TasksList(), open().load());
+    }
+
+    @Test
+    public void save_changesOverSeveralSaves_storesOnlyLatest() throws Exception {
+        final DatabaseStorage storage = open();
+        final TasksList tasksList = tasksList(20);
+        storage.save(tasksList);
+        tasksList.removeTask(tasksList.getTaskById(4));
+        tasksList.setTask(tasksList.getTaskById(8), new TodoTask(8, new TaskDetails("edited")));
+        storage.save(tasksList);
+        tasksList.addTask(task("added", 2));
+        tasksList.removeTask(tasksList.getTaskById(20));
+        storage.save(tasksList);
+
+        assertSameTasks(tasksList, open().load());
+        assertFound(Collections.singleton("edited"), storage, 8);
+        assertEquals(ids(tasksList.findTasksContainingAnyKeyword(Collections.singleton("task"))),
+                ids(storage.findTasksContainingAnyKeyword(Collections.singleton("task")).get()));
+    }
+
+    @Test
+    public void save_loadedThenSaved_continuesFromStoredTasks() throws Exception {
+        open().save(tasksList(10));
+        final DatabaseStorage storage = open();
+        final TasksList tasksList = storage.load();
+        tasksList.addTask(task("added", 1));
+        tasksList.removeTask(tasksList.getTaskById(1));
+        storage.save(tasksList);
+
+        assertSameTasks(tasksList, open().load());
+    }
+
+    @Test
+    public void save_notLoadedFirst_replacesStoredTasks() throws Exception {
+        open().save(tasksList(10));
+        final TasksList tasksList = new TasksList();
+        tasksList.addTask(task("replacement", 1));
+        final DatabaseStorage storage = open();
+        storage.save(tasksList);
+
+        assertSameTasks(tasksList, open().load());
+        assertFound(Collections.singleton("task"), storage);
+    }
+
+    @Test
+    public void findTasksContainingAnyKeyword_findsWhatTasksListFinds() throws Exception {
+        final TasksList tasksList = new TasksList();
+        for (String details : new String[] { "Buy MILK", "buy bread, and milk.", "milkshake with Bob",
+                "call bob (re: milk)", "milk-run", "Caf\u00e9 at noon", "nothing here" }) {
+            tasksList.addTask(new TodoTask(new TaskDetails(details)));
+        }
+        final DatabaseStorage storage = open();
+        storage.save(tasksList);
+
+        for (Collection<String> keywords : Arrays.<Collection<String>>asList(
+                Collections.singleton("milk"), Collections.singleton("MiLk"), Collections.singleton("milks"),
+                Collections.singleton("bob"), Arrays.asList("BREAD", "noon"), Collections.singleton("caf\u00c9"),
+                Arrays.asList("milk", "Milk", "milk"), Collections.singleton("absent"), Collections.emptyList())) {
+            assertEquals(keywords.toString(), ids(tasksList.findTasksContainingAnyKeyword(keywords)),
+                    ids(storage.findTasksContainingAnyKeyword(keywords).get()));
+        }
+        // Words are split at white space only, so punctuation stays part of the word it is next to
+        assertFound(Collections.singleton("milk"), storage, 1);
+        assertFound(Collections.singleton("milk."), storage, 2);
+        assertFound(Collections.singleton("BOB"), storage, 3, 4);
+    }
+
+    @Test
+    public void findTasksContainingAnyKeyword_afterEdits_findsAsOfLastSave() throws Exception {
+        final DatabaseStorage storage = open();
+        final TasksList tasksList = new TasksList();
+        tasksList.addTask(new TodoTask(new TaskDetails("buy milk")));
+        tasksList.addTask(new TodoTask(new TaskDetails("buy bread")));
+        storage.save(tasksList);
+
+        tasksList.setTask(tasksList.getTaskById(1), new TodoTask(1, new TaskDetails("buy eggs")));
+        tasksList.removeTask(tasksList.getTaskById(2));
+        assertFound(Collections.singleton("milk"), storage, 1);
+
+        storage.save(tasksList);
+        assertFound(Collections.singleton("milk"), storage);
+        assertFound(Collections.singleton("bread"), storage);
+        assertFound(Collections.singleton("eggs"), storage, 1);
+    }
+
+    @Test
+    public void archive_archivedTasks_foundInOrderArchivedAndDone() throws Exception {
+        final TaskArchive archive = open().getArchive();
+        final TasksList tasksList = tasksList(6);
+        for (long id : new long[] { 5, 2, 3 }) {
+            archive.archive(tasksList.getTaskById(id));
+        }
+
+        final List<TodoTask> found = archive.find(Collections.singleton("TASK"), new TasksList());
+        assertEquals(Arrays.asList(5L, 2L, 3L), ids(found));
+        for (TodoTask task : found) {
+            assertTrue(task.isDone());
+            assertSameTask(tasksList.getTaskById(task.getId()), task);
+        }
+        assertEquals(Arrays.asList(5L, 2L, 3L), ids(open().getArchive().find(Collections.singleton("task"),
+                new TasksList())));
+    }
+
+    @Test
+    public void archive_archivedAgain_movesToEnd() throws Exception {
+        final TaskArchive archive = open().getArchive();
+        final TasksList tasksList = tasksList(3);
+        for (long id : new long[] { 1, 2, 1 }) {
+            archive.archive(tasksList.getTaskById(id));
+        }
+        assertEquals(Arrays.asList(2L, 1L), ids(archive.find(Collections.singleton("task"), new TasksList())));
+    }
+
+    @Test
+    public void drop_archivedTask_isNoLongerFound() throws Exception {
+        final TaskArchive archive = open().getArchive();
+        final TasksList tasksList = tasksList(3);
+        for (TodoTask task : tasksList.getAllTasks()) {
+            archive.archive(task);
+        }
+        archive.drop(2);
+        archive.drop(42);
+
+        assertEquals(Arrays.asList(1L, 3L), ids(archive.find(Collections.singleton("task"), new TasksList())));
+        assertEquals(Collections.emptyList(), ids(archive.find(Collections.singleton("1"), new TasksList())));
+    }
+
+    @Test
+    public void find_archivedTaskBackInList_leavesItOut() throws Exception {
+        final DatabaseStorage storage = open();
+        final TasksList tasksList = tasksList(3);
+        storage.save(tasksList);
+        storage.getArchive().archive(tasksList.getTaskById(2));
+        storage.getArchive().archive(tasksList.getTaskById(3));
+        tasksList.removeTask(tasksList.getTaskById(3));
+
+        assertEquals(Collections.singletonList(3L),
+                ids(storage.getArchive().find(Collections.singleton("task"), tasksList)));
+        // The archive is kept apart from the tasks
+        assertSameTasks(tasksList(3), open().load());
+    }
+
+    private DatabaseStorage open() throws Exception {
+        final DatabaseStorage storage = new DatabaseStorage(url);
+        opened.add(storage);
+        return storage;
+    }
+
+    /**
+     * Asserts that {@code storage} finds exactly the tasks under {@code ids}, in order, for {@code keywords}.
+     */
+    private static void assertFound(Collection<String> keywords, DatabaseStorage storage, long... ids)
+            throws Exception {
+        final List<Long> expected = new ArrayList<>();
+        for (long id : ids) {
+            expected.add(id);
+        }
+        assertEquals(expected, ids(storage.findTasksContainingAnyKeyword(keywords).get()));
+    }
+
+    private static List<Long> ids(List<? extends TodoTask> tasks) {
+        final List<Long> ids = new ArrayList<>();
+        for (TodoTask task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,162 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTasks;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.task;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.tasksList;
+
+public class MappedStorageFormatTest {
+
+    /* Positions in the file, as laid out in MappedStorageFormat. */
+    private static final int VERSION_OFFSET = 4;
+    private static final int COUNT_OFFSET = 24;
+    private static final int FIRST_RECORD = 28;
+    private static final int RECORD_WORD_COUNT = 17;
+    private static final int FOOTER_BYTES = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_writtenFile_returnsSameTasksAndLogSequence() throws Exception {
+        final TasksList tasksList = tasksList(50);
+        tasksList.addTask(task("  spaced,   punctuated -- and (bracketed)!  ", 3));
+        tasksList.removeTask(tasksList.getTask(10));
+        final Path file = folder.getRoot().toPath().resolve("tasks.mapped");
+        Files.write(file, write(tasksList, 9));
+
+        final Checkpoint mapped = StorageFormat.MAPPED.read(file);
+        assertSameTasks(tasksList, mapped.getTasksList());
+        assertEquals(9, mapped.getLogSequence());
+
+        final Checkpoint streamed = StorageFormat.MAPPED.read(new ByteArrayInputStream(Files.readAllBytes(file)));
+        assertSameTasks(tasksList, streamed.getTasksList());
+        assertEquals(9, streamed.getLogSequence());
+    }
+
+    @Test
+    public void write_tasksReadFromMapping_writesSameFile() throws Exception {
+        final TasksList tasksList = tasksList(30);
+        final byte[] written = write(tasksList, 2);
+
+        final Checkpoint checkpoint = read(written);
+        assertArrayEquals(written, write(checkpoint.getTasksList(), 2));
+    }
+
+    @Test
+    public void read_emptyList_returnsNoTasks() throws Exception {
+        assertSameTasks(new TasksList(), read(write(new TasksList(), 0)).getTasksList());
+    }
+
+    @Test
+    public void read_cutShortAnywhere_throws() throws Exception {
+        final byte[] written = write(tasksList(40), 3);
+        for (int length = 0; length < written.length; length++) {
+            assertUnreadable(Arrays.copyOf(written, length));
+        }
+    }
+
+    @Test
+    public void read_newerVersion_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        written[VERSION_OFFSET] = MappedStorageFormat.VERSION + 1;
+        try {
+            read(written);
+            fail();
+        } catch (StorageOperationException soe) {
+            assertEquals("File was written by a newer version of Keyboard Warrior", soe.getMessage());
+        }
+    }
+
+    @Test
+    public void read_countNotMatchingOffsets_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        ByteBuffer.wrap(written).putInt(COUNT_OFFSET, 4);
+        assertUnreadable(written);
+    }
+
+    @Test
+    public void read_recordOffsetOutsideRecords_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        final ByteBuffer buffer = ByteBuffer.wrap(written);
+        final int offsetsStart = (int) buffer.getLong(written.length - FOOTER_BYTES);
+        buffer.putInt(offsetsStart + Integer.BYTES, offsetsStart);
+        assertUnreadable(written);
+    }
+
+    @Test
+    public void read_unknownKind_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        written[FIRST_RECORD] = 9;
+        assertUnreadable(written);
+    }
+
+    @Test
+    public void read_wordCountPastRecords_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        ByteBuffer.wrap(written).putInt(FIRST_RECORD + RECORD_WORD_COUNT, 1 << 20);
+        assertUnreadable(written);
+    }
+
+    @Test
+    public void read_negativeWordLength_throws() throws Exception {
+        final byte[] written = write(tasksList(3), 0);
+        final ByteBuffer buffer = ByteBuffer.wrap(written);
+        final int dictionaryStart = (int) buffer.getLong(written.length - FOOTER_BYTES + Long.BYTES);
+        buffer.putInt(dictionaryStart, -5);
+        assertUnreadable(written);
+    }
+
+    @Test
+    public void checkpoint_mappedStorage_isReadBackByMapping() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.txt");
+        final StorageFile storage = new StorageFile(file.toString(), StorageFormat.MAPPED);
+        final TasksList tasksList = tasksList(20);
+        storage.save(tasksList);
+        storage.checkpoint();
+        assertSame(StorageFormat.MAPPED, StorageFormat.detect(Files.readAllBytes(file), StorageFormat.HEADER_BYTES));
+
+        // A new checkpoint is renamed over the file the loaded tasks are still mapped from
+        final TasksList mapped = new StorageFile(file.toString(), StorageFormat.MAPPED).load();
+        tasksList.addTask(task("added", 1));
+        storage.save(tasksList);
+        storage.checkpoint();
+        assertSameTasks(tasksList(20), mapped);
+        assertSameTasks(tasksList, new StorageFile(file.toString()).load());
+    }
+
+    private static byte[] write(TasksList tasksList, long logSequence) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StorageFormat.MAPPED.write(tasksList.snapshot(), logSequence, out);
+        return out.toByteArray();
+    }
+
+    private static Checkpoint read(byte[] file) throws Exception {
+        return StorageFormat.MAPPED.read(new ByteArrayInputStream(file));
+    }
+
+    private static void assertUnreadable(byte[] file) throws Exception {
+        try {
+            read(file);
+            fail("read " + file.length + " bytes");
+        } catch (StorageOperationException expected) {
+            // The file was rejected rather than misread
+        }
+    }
+}
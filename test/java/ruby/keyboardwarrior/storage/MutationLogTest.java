@@ -0,0 +1,234 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTasks;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.task;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.tasksList;
+
+public class MutationLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private MutationLog log;
+    /** The versions saved, one per record appended, after the empty list. */
+    private List<TasksListSnapshot> versions;
+    /** The size of the log after each record. */
+    private List<Long> sizes;
+
+    @Before
+    public void setup() throws Exception {
+        path = folder.getRoot().toPath().resolve("tasks.log");
+        log = new MutationLog(path);
+        versions = new ArrayList<>();
+        sizes = new ArrayList<>();
+    }
+
+    @Test
+    public void replay_everyRecord_rebuildsTheTasks() throws Exception {
+        final TasksList tasksList = appendChanges();
+
+        final MutationLog.State state = new MutationLog.State();
+        assertEquals(versions.size(), log.replay(state));
+        assertEquals(versions.size(), state.sequence);
+        assertSameTasks(tasksList, state.toModelType());
+        assertEquals((long) sizes.get(sizes.size() - 1), log.size());
+    }
+
+    @Test
+    public void replay_recordsAlreadyHeld_appliesOnlyLaterOnes() throws Exception {
+        final TasksList tasksList = appendChanges();
+
+        final TasksList checkpoint = new TasksList(new ArrayList<>(versions.get(1).getAllTasks()),
+                versions.get(1).getNextId());
+        final MutationLog.State state = new MutationLog.State(checkpoint, 2);
+        assertEquals(versions.size() - 2, log.replay(state));
+        assertSameTasks(tasksList, state.toModelType());
+    }
+
+    @Test
+    public void replay_fromOffsetOverSnapshot_collectsOnlyTheChanges() throws Exception {
+        final TasksList tasksList = appendChanges();
+
+        final MutationLog.State state = new MutationLog.State(versions.get(1), 2);
+        assertEquals(versions.size() - 2, log.replay(state, log.offsetAfter(2)));
+        assertSameTasks(tasksList.snapshot(), state.toSnapshot());
+    }
+
+    @Test
+    public void replay_recordCutShort_stopsBeforeItAndCutsItOff() throws Exception {
+        appendChanges();
+        try (final RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+            raw.setLength(sizes.get(2) - 3);
+        }
+
+        final MutationLog.State state = new MutationLog.State();
+        assertEquals(2, log.replay(state));
+        assertSameTasks(versions.get(1), state.toModelType());
+        assertEquals((long) sizes.get(1), log.size());
+    }
+
+    @Test
+    public void replay_recordFailingChecksum_stopsBeforeItAndCutsOffTheRest() throws Exception {
+        appendChanges();
+        try (final RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+            // The last byte of the second record's payload
+            raw.seek(sizes.get(1) - 1);
+            final int flipped = raw.read() ^ 0x01;
+            raw.seek(sizes.get(1) - 1);
+            raw.write(flipped);
+        }
+
+        final MutationLog.State state = new MutationLog.State();
+        assertEquals(1, log.replay(state));
+        assertSameTasks(versions.get(0), state.toModelType());
+        assertEquals((long) sizes.get(0), log.size());
+    }
+
+    @Test
+    public void append_afterCuttingOffTornRecord_isReplayed() throws Exception {
+        appendChanges();
+        try (final RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+            raw.setLength(sizes.get(1) + 5);
+        }
+        log.replay(new MutationLog.State());
+
+        final TasksList tasksList = new TasksList(new ArrayList<>(versions.get(1).getAllTasks()),
+                versions.get(1).getNextId());
+        tasksList.addTask(task("after the crash", 2));
+        log.append(MutationLog.encode(3, versions.get(1), tasksList.snapshot()));
+
+        final MutationLog.State state = new MutationLog.State();
+        assertEquals(3, log.replay(state));
+        assertSameTasks(tasksList, state.toModelType());
+    }
+
+    @Test
+    public void dropBefore_offsetAfterSequence_keepsOnlyLaterRecords() throws Exception {
+        final TasksList tasksList = appendChanges();
+
+        log.dropBefore(log.offsetAfter(2));
+        assertEquals(sizes.get(sizes.size() - 1) - sizes.get(1), log.size());
+        assertEquals(versions.size(), log.lastSequence());
+
+        final MutationLog.State state = new MutationLog.State(versions.get(1), 2);
+        assertEquals(versions.size() - 2, log.replay(state));
+        assertSameTasks(tasksList.snapshot(), state.toSnapshot());
+    }
+
+    @Test
+    public void offsetAfter_eachSequence_isWhereTheNextRecordStarts() throws Exception {
+        appendChanges();
+
+        assertEquals(0, log.offsetAfter(0));
+        for (int sequence = 1; sequence <= sizes.size(); sequence++) {
+            assertEquals((long) sizes.get(sequence - 1), log.offsetAfter(sequence));
+        }
+    }
+
+    @Test
+    public void lastSequence_noLog_isZero() throws Exception {
+        assertEquals(0, log.lastSequence());
+        assertEquals(0, log.replay(new MutationLog.State()));
+    }
+
+    @Test
+    public void encode_nothingChanged_returnsNull() throws Exception {
+        final TasksList tasksList = tasksList(3);
+        assertNull(MutationLog.encode(1, tasksList.snapshot(), tasksList.snapshot()));
+    }
+
+    @Test
+    public void readRecord_framedRecord_returnsPayload() throws Exception {
+        final TasksList tasksList = tasksList(3);
+        final byte[] record = MutationLog.encode(7, TasksList.empty().snapshot(), tasksList.snapshot());
+
+        final byte[] payload = MutationLog.readRecord(new DataInputStream(new ByteArrayInputStream(record)));
+        assertEquals(record.length - 2 * Integer.BYTES, payload.length);
+        final MutationLog.State state = new MutationLog.State();
+        MutationLog.apply(payload, state);
+        assertEquals(7, state.sequence);
+        assertSameTasks(tasksList, state.toModelType());
+    }
+
+    @Test(expected = IOException.class)
+    public void readRecord_failingChecksum_throws() throws Exception {
+        final byte[] record = MutationLog.encode(7, TasksList.empty().snapshot(), tasksList(3).snapshot());
+        record[record.length - 1] ^= 0x01;
+        MutationLog.readRecord(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    @Test
+    public void encodeAll_appliedOverOtherTasks_replacesThem() throws Exception {
+        final TasksList tasksList = tasksList(5);
+        final byte[] record = MutationLog.encodeAll(4, tasksList.snapshot());
+
+        final MutationLog.State state = new MutationLog.State(tasksList(9), 1);
+        MutationLog.apply(MutationLog.readRecord(new DataInputStream(new ByteArrayInputStream(record))), state);
+        assertSameTasks(tasksList, state.toModelType());
+        assertArrayEquals(record, MutationLog.encodeAll(4, tasksList.snapshot()));
+    }
+
+    /**
+     * Appends one record for each of: adding tasks, removing one and editing another, adding more, clearing
+     * the list, and adding one again. Returns the list as the last record leaves it.
+     */
+    private TasksList appendChanges() throws Exception {
+        final TasksList tasksList = new TasksList();
+        TasksListSnapshot before = tasksList.snapshot();
+        for (int change = 1; change <= 5; change++) {
+            switch (change) {
+            case 1:
+                for (int i = 0; i < 10; i++) {
+                    tasksList.addTask(task("first " + i, i));
+                }
+                break;
+            case 2:
+                tasksList.removeTask(tasksList.getTask(3));
+                tasksList.setTask(tasksList.getTask(0),
+                        new TodoTask(tasksList.getTask(0).getId(), new TaskDetails("edited")));
+                break;
+            case 3:
+                for (int i = 0; i < 5; i++) {
+                    tasksList.addTask(task("third " + i, i));
+                }
+                break;
+            case 4:
+                tasksList.clear();
+                break;
+            default:
+                tasksList.addTask(task("last", 1));
+                break;
+            }
+            final TasksListSnapshot after = tasksList.snapshot();
+            log.append(MutationLog.encode(change, before, after));
+            versions.add(after);
+            sizes.add(Files.size(path));
+            before = after;
+        }
+        log.force();
+        log.close();
+        return tasksList;
+    }
+}
@@ -0,0 +1,301 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.task.*;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PageFileTest {
+
+    private static final int TASKS = 8000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void put_inAnyOrder_splitsNodesAndKeepsEveryTaskInIdOrder() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        final List<Long> ids = shuffledIds(TASKS);
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id : ids) {
+                pages.put(task(id));
+            }
+            assertEquals(TASKS, pages.size());
+            for (long id = 1; id <= TASKS; id++) {
+                assertSameTask(task(id), pages.get(id));
+            }
+            assertScansInOrder(pages, 1, TASKS);
+            assertNull(pages.get(TASKS + 1));
+        }
+    }
+
+    @Test
+    public void put_existingId_replacesTaskInPlace() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id = 1; id <= TASKS; id++) {
+                pages.put(task(id));
+            }
+            final TodoTask replaced = new TodoTask(42, new TaskDetails("replaced " + longText(300)));
+            pages.put(replaced);
+            assertEquals(TASKS, pages.size());
+            assertSameTask(replaced, pages.get(42));
+            assertSameTask(task(43), pages.get(43));
+        }
+    }
+
+    @Test
+    public void remove_mostTasks_mergesLeavesSoScanReadsFewerPages() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id = 1; id <= TASKS; id++) {
+                pages.put(task(id));
+            }
+            pages.commit(TASKS + 1, 1);
+        }
+        final long pagesBefore = pagesReadByScan(file);
+
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id : shuffledIds(TASKS)) {
+                if (id % 10 != 0) {
+                    assertTrue(pages.remove(id));
+                }
+            }
+            assertFalse(pages.remove(1));
+            pages.commit(TASKS + 1, 2);
+        }
+        final long pagesAfter = pagesReadByScan(file);
+
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            assertEquals(TASKS / 10, pages.size());
+            final List<TodoTask> left = new ArrayList<>();
+            pages.scan(Long.MIN_VALUE, Long.MAX_VALUE, left::add);
+            assertEquals(TASKS / 10, left.size());
+            for (int i = 0; i < left.size(); i++) {
+                assertSameTask(task(10L * (i + 1)), left.get(i));
+            }
+        }
+        assertTrue("scan read " + pagesAfter + " pages of " + pagesBefore, pagesAfter * 3 < pagesBefore);
+    }
+
+    @Test
+    public void remove_everyTask_leavesEmptyFileThatAcceptsTasksAgain() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id = 1; id <= TASKS; id++) {
+                pages.put(task(id));
+            }
+            for (long id : shuffledIds(TASKS)) {
+                assertTrue(pages.remove(id));
+            }
+            assertEquals(0, pages.size());
+            assertNull(pages.get(1));
+            pages.put(task(7));
+            pages.commit(8, 1);
+        }
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            assertEquals(1, pages.size());
+            assertSameTask(task(7), pages.get(7));
+        }
+    }
+
+    @Test
+    public void pool_smallerThanFile_evictsAndWritesBackChangedPages() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id : shuffledIds(TASKS)) {
+                pages.put(task(id));
+            }
+            // Every page was changed since it was last read, so each one dropped from the pool had to be written
+            final long missesBefore = pages.getPoolMisses();
+            for (long id : shuffledIds(TASKS)) {
+                assertSameTask(task(id), pages.get(id));
+            }
+            assertTrue(pages.getPoolMisses() - missesBefore > TASKS / 2);
+            assertTrue(pages.getPoolHits() > 0);
+        }
+    }
+
+    @Test
+    public void pool_largerThanFile_readsEachPageOnce() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id = 1; id <= TASKS; id++) {
+                pages.put(task(id));
+            }
+            pages.commit(TASKS + 1, 1);
+        }
+        try (final PageFile pages = PageFile.open(file, 1 << 16)) {
+            pages.scan(Long.MIN_VALUE, Long.MAX_VALUE, task -> { });
+            final long misses = pages.getPoolMisses();
+            for (long id = 1; id <= TASKS; id++) {
+                pages.get(id);
+            }
+            assertEquals(misses, pages.getPoolMisses());
+        }
+    }
+
+    @Test
+    public void reopen_findsLastCommitOnly() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id = 1; id <= TASKS; id++) {
+                pages.put(task(id));
+            }
+            pages.commit(TASKS + 1, 3);
+            pages.remove(1);
+            pages.put(task(TASKS + 1));
+            pages.put(new TodoTask(2, new TaskDetails("changed")));
+        }
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            assertEquals(TASKS, pages.size());
+            assertEquals(TASKS + 1, pages.getNextId());
+            assertEquals(3, pages.getLogSequence());
+            assertScansInOrder(pages, 1, TASKS);
+            assertNull(pages.get(TASKS + 1));
+        }
+    }
+
+    @Test
+    public void reopen_tornHeader_findsPreviousCommit() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            for (long id = 1; id <= TASKS; id++) {
+                pages.put(task(id));
+            }
+            // The first commit goes to the second header slot, and the second commit to the first
+            pages.commit(TASKS + 1, 1);
+            for (long id = 1; id <= TASKS; id += 2) {
+                pages.remove(id);
+            }
+            pages.commit(TASKS + 1, 2);
+        }
+        try (final RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(20);
+            final int flipped = raw.read() ^ 0xFF;
+            raw.seek(20);
+            raw.write(flipped);
+        }
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            assertEquals(1, pages.getLogSequence());
+            assertEquals(TASKS, pages.size());
+            assertScansInOrder(pages, 1, TASKS);
+        }
+    }
+
+    @Test
+    public void reopen_afterManyCommits_keepsChangesAndReusesFreedPages() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("tasks.pages");
+        final Random random = new Random(7);
+        final long[] details = new long[TASKS + 1];
+        for (int round = 1; round <= 20; round++) {
+            try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+                for (int change = 0; change < TASKS / 4; change++) {
+                    final long id = 1 + random.nextInt(TASKS);
+                    if (round > 1 && random.nextInt(3) == 0) {
+                        pages.remove(id);
+                        details[(int) id] = 0;
+                    } else {
+                        details[(int) id] = round;
+                        pages.put(new TodoTask(id, new TaskDetails("round " + round + " task " + id)));
+                    }
+                }
+                pages.commit(TASKS + 1, round);
+            }
+        }
+        final Path rebuilt = folder.getRoot().toPath().resolve("rebuilt.pages");
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES);
+                final PageFile fresh = PageFile.open(rebuilt, PageFile.MIN_POOL_PAGES)) {
+            long expectedSize = 0;
+            for (long id = 1; id <= TASKS; id++) {
+                final TodoTask found = pages.get(id);
+                if (details[(int) id] == 0) {
+                    assertNull(found);
+                } else {
+                    expectedSize++;
+                    assertEquals("round " + details[(int) id] + " task " + id, found.getDetails().toString());
+                    fresh.put(found);
+                }
+            }
+            assertEquals(expectedSize, pages.size());
+            fresh.commit(TASKS + 1, 20);
+        }
+        // Pages freed by each commit are reused by the next, rather than the file growing with every round
+        assertTrue(file.toFile().length() < 4 * rebuilt.toFile().length());
+    }
+
+    /**
+     * Returns how many pages a scan of the whole file, opened with the smallest pool, reads.
+     */
+    private static long pagesReadByScan(Path file) throws Exception {
+        try (final PageFile pages = PageFile.open(file, PageFile.MIN_POOL_PAGES)) {
+            pages.scan(Long.MIN_VALUE, Long.MAX_VALUE, task -> { });
+            return pages.getPoolMisses();
+        }
+    }
+
+    private static void assertScansInOrder(PageFile pages, long fromId, long toId) throws Exception {
+        final List<TodoTask> scanned = new ArrayList<>();
+        pages.scan(fromId, toId, scanned::add);
+        assertEquals(toId - fromId + 1, scanned.size());
+        for (int i = 0; i < scanned.size(); i++) {
+            assertSameTask(task(fromId + i), scanned.get(i));
+        }
+    }
+
+    private static void assertSameTask(TodoTask expected, TodoTask actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getDetails().toString(), actual.getDetails().toString());
+        if (expected instanceof TimedTask) {
+            assertEquals(((TimedTask) expected).getStartMinutes(), ((TimedTask) actual).getStartMinutes());
+            assertEquals(((TimedTask) expected).getEndMinutes(), ((TimedTask) actual).getEndMinutes());
+        }
+    }
+
+    /**
+     * Returns the task put under {@code id}: of every kind, long enough that a leaf holds about twenty, so that
+     * internal nodes split too, and every hundredth one too long to fit in a leaf.
+     */
+    private static TodoTask task(long id) throws Exception {
+        final TaskDetails details = new TaskDetails("task " + id + " " + longText(id % 100 == 0 ? 2000 : 150));
+        switch ((int) (id % 3)) {
+        case 0:
+            return new TodoTask(id, details);
+        case 1:
+            return new DeadlineTask(id, details, EndTime.ofMinutes((int) (id % 10000)));
+        default:
+            return new EventTask(id, details, StartTime.ofMinutes((int) (id % 10000)),
+                    EndTime.ofMinutes((int) (id % 10000) + 60));
+        }
+    }
+
+    private static String longText(int length) {
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("word").append(text.length()).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    private static List<Long> shuffledIds(int count) {
+        final List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            ids.add(id);
+        }
+        Collections.shuffle(ids, new Random(count));
+        return ids;
+    }
+}
@@ -0,0 +1,175 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexFileTest {
+
+    /* Positions of the header fields, as laid out in SearchIndexFile. */
+    private static final int VERSION_OFFSET = 4;
+    private static final int CHECKSUM_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path storagePath;
+    private Path indexPath;
+
+    @Before
+    public void setup() throws Exception {
+        storagePath = folder.getRoot().toPath().resolve("tasks.txt");
+        indexPath = folder.getRoot().toPath().resolve("tasks.idx");
+    }
+
+    @Test
+    public void findIds_written_findsEachWordOnceInIdOrderWhateverItsCase() throws Exception {
+        SearchIndexFile.write(indexPath, groceries().snapshot(), 11, 4);
+
+        final SearchIndexFile index = SearchIndexFile.open(indexPath, 11, 4);
+        assertNotNull(index);
+        assertArrayEquals(new long[] { 1, 2 }, index.findIds("milk"));
+        assertArrayEquals(new long[] { 1, 2 }, index.findIds("buy"));
+        assertArrayEquals(new long[] { 2 }, index.findIds("bread"));
+        assertArrayEquals(new long[] { 3 }, index.findIds("mum"));
+        assertArrayEquals(new long[0], index.findIds("eggs"));
+        assertArrayEquals(new long[0], index.findIds("Milk"));
+    }
+
+    @Test
+    public void findIds_noTasks_findsNothing() throws Exception {
+        SearchIndexFile.write(indexPath, new TasksList().snapshot(), 0, 0);
+        assertArrayEquals(new long[0], SearchIndexFile.open(indexPath, 0, 0).findIds("milk"));
+    }
+
+    @Test
+    public void open_otherCheckpointOrLogSequence_returnsNull() throws Exception {
+        SearchIndexFile.write(indexPath, groceries().snapshot(), 11, 4);
+        assertNull(SearchIndexFile.open(indexPath, 12, 4));
+        assertNull(SearchIndexFile.open(indexPath, 11, 5));
+        assertNull(SearchIndexFile.open(indexPath, 11, 3));
+    }
+
+    @Test
+    public void open_missing_returnsNull() throws Exception {
+        assertNull(SearchIndexFile.open(indexPath, 11, 4));
+    }
+
+    @Test
+    public void open_cutShort_returnsNull() throws Exception {
+        SearchIndexFile.write(indexPath, groceries().snapshot(), 11, 4);
+        final byte[] written = Files.readAllBytes(indexPath);
+        for (int length = 0; length < written.length; length++) {
+            Files.write(indexPath, Arrays.copyOf(written, length));
+            assertNull(SearchIndexFile.open(indexPath, 11, 4));
+        }
+    }
+
+    @Test
+    public void open_otherVersion_returnsNull() throws Exception {
+        SearchIndexFile.write(indexPath, groceries().snapshot(), 11, 4);
+        try (final RandomAccessFile raw = new RandomAccessFile(indexPath.toFile(), "rw")) {
+            raw.seek(VERSION_OFFSET);
+            raw.writeInt(SearchIndexFile.VERSION + 1);
+        }
+        assertNull(SearchIndexFile.open(indexPath, 11, 4));
+    }
+
+    @Test
+    public void flush_writesIndexOfTasksSaved() throws Exception {
+        final StorageFile storage = new StorageFile(storagePath.toString());
+        storage.save(groceries());
+        storage.flush();
+
+        final SearchIndexFile index = openAsWritten();
+        assertEquals(1, header().getLong(SEQUENCE_OFFSET));
+        assertArrayEquals(new long[] { 1, 2 }, index.findIds("milk"));
+    }
+
+    @Test
+    public void load_changesLoggedSinceIndexWritten_rebuildsIndex() throws Exception {
+        final StorageFile storage = new StorageFile(storagePath.toString());
+        final TasksList tasksList = groceries();
+        storage.save(tasksList);
+        storage.flush();
+        tasksList.addTask(new TodoTask(new TaskDetails("more milk")));
+        storage.save(tasksList);
+
+        final StorageFile reloaded = new StorageFile(storagePath.toString());
+        final TasksList loaded = reloaded.load();
+        assertEquals(3, loaded.findTasksContainingAnyKeyword(Collections.singleton("milk")).size());
+        reloaded.flush();
+        assertEquals(2, header().getLong(SEQUENCE_OFFSET));
+        assertArrayEquals(new long[] { 1, 2, 4 }, openAsWritten().findIds("milk"));
+    }
+
+    @Test
+    public void load_checkpointReplacedAtSameSequence_rebuildsIndex() throws Exception {
+        final StorageFile storage = new StorageFile(storagePath.toString());
+        storage.save(groceries());
+        storage.flush();
+        final long checksum = header().getLong(CHECKSUM_OFFSET);
+
+        // As a file synchronization tool brings in the checkpoint another copy wrote, holding other tasks
+        final TasksList replaced = new TasksList();
+        replaced.addTask(new TodoTask(new TaskDetails("walk the dog")));
+        try (final OutputStream out = Files.newOutputStream(storagePath)) {
+            StorageFormat.BINARY.write(replaced.snapshot(), header().getLong(SEQUENCE_OFFSET), out);
+        }
+
+        final StorageFile reloaded = new StorageFile(storagePath.toString());
+        final TasksList loaded = reloaded.load();
+        assertEquals(1, loaded.findTasksContainingAnyKeyword(Collections.singleton("dog")).size());
+        assertTrue(loaded.findTasksContainingAnyKeyword(Collections.singleton("milk")).isEmpty());
+        reloaded.flush();
+        assertNotEquals(checksum, header().getLong(CHECKSUM_OFFSET));
+        final SearchIndexFile index = openAsWritten();
+        assertArrayEquals(new long[0], index.findIds("milk"));
+        assertArrayEquals(new long[] { 1 }, index.findIds("dog"));
+    }
+
+    /**
+     * Returns tasks 1 to 3, the first two sharing words in different cases and the second repeating one.
+     */
+    private static TasksList groceries() throws Exception {
+        final TasksList tasksList = new TasksList();
+        tasksList.addTask(new TodoTask(new TaskDetails("Buy milk")));
+        tasksList.addTask(new TodoTask(new TaskDetails("buy BREAD and milk, more MILK")));
+        tasksList.addTask(new TodoTask(new TaskDetails("call mum")));
+        return tasksList;
+    }
+
+    private ByteBuffer header() throws Exception {
+        return ByteBuffer.wrap(Files.readAllBytes(indexPath));
+    }
+
+    /**
+     * Opens the index file as whatever checkpoint and log sequence its header names.
+     */
+    private SearchIndexFile openAsWritten() throws Exception {
+        final SearchIndexFile index = SearchIndexFile.open(indexPath, header().getLong(CHECKSUM_OFFSET),
+                header().getLong(SEQUENCE_OFFSET));
+        assertNotNull(index);
+        return index;
+    }
+}
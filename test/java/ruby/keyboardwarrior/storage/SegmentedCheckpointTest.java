@@ -0,0 +1,208 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.TasksListSnapshot;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTasks;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.task;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.tasksList;
+
+public class SegmentedCheckpointTest {
+
+    private static final int SEGMENT_IDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path manifest;
+    private Path directory;
+
+    @Before
+    public void setup() throws Exception {
+        manifest = folder.getRoot().toPath().resolve("tasks.txt");
+        directory = SegmentedCheckpoint.directoryOf(manifest);
+    }
+
+    @Test
+    public void read_written_returnsSameTasksAndLogSequence() throws Exception {
+        final TasksList tasksList = tasksList(95);
+        assertTrue(new SegmentedCheckpoint(manifest, SEGMENT_IDS).write(tasksList.snapshot(), 4));
+        assertEquals(10, segmentFiles().size());
+
+        final Checkpoint checkpoint = new SegmentedCheckpoint(manifest, SEGMENT_IDS).read();
+        assertSameTasks(tasksList, checkpoint.getTasksList());
+        assertEquals(4, checkpoint.getLogSequence());
+    }
+
+    @Test
+    public void write_afterRead_rewritesOnlySegmentsThatChanged() throws Exception {
+        final TasksList tasksList = tasksList(100);
+        new SegmentedCheckpoint(manifest, SEGMENT_IDS).write(tasksList.snapshot(), 1);
+        final Map<String, Object> before = segmentFiles();
+
+        final SegmentedCheckpoint checkpoint = new SegmentedCheckpoint(manifest, SEGMENT_IDS);
+        checkpoint.read();
+        // Empties the first segment, changes the third, and starts a new one past the last
+        for (long id = 1; id <= SEGMENT_IDS; id++) {
+            tasksList.removeTask(tasksList.getTaskById(id));
+        }
+        tasksList.setTask(tasksList.getTaskById(25), new TodoTask(25, new TaskDetails("edited")));
+        tasksList.addTask(task("added", 1));
+        assertTrue(checkpoint.write(tasksList.snapshot(), 2));
+
+        final Map<String, Object> after = segmentFiles();
+        assertFalse(after.containsKey("1-0.seg"));
+        assertNotNull(after.get("1-10.seg"));
+        assertNotEquals(before.get("1-2.seg"), after.get("1-2.seg"));
+        for (int segment = 1; segment < 10; segment++) {
+            if (segment != 2) {
+                assertEquals(before.get("1-" + segment + ".seg"), after.get("1-" + segment + ".seg"));
+            }
+        }
+        final Checkpoint read = new SegmentedCheckpoint(manifest, SEGMENT_IDS).read();
+        assertSameTasks(tasksList, read.getTasksList());
+        assertEquals(2, read.getLogSequence());
+    }
+
+    @Test
+    public void write_sequenceAlreadyWritten_writesNothing() throws Exception {
+        final SegmentedCheckpoint checkpoint = new SegmentedCheckpoint(manifest, SEGMENT_IDS);
+        final TasksList tasksList = tasksList(30);
+        checkpoint.write(tasksList.snapshot(), 3);
+
+        tasksList.addTask(task("late", 1));
+        assertFalse(checkpoint.write(tasksList.snapshot(), 3));
+        assertSameTasks(tasksList(30), new SegmentedCheckpoint(manifest, SEGMENT_IDS).read().getTasksList());
+    }
+
+    @Test
+    public void read_segmentsNewerThanManifest_replayingLogCatchesUp() throws Exception {
+        final TasksList tasksList = tasksList(50);
+        final TasksListSnapshot first = tasksList.snapshot();
+        final SegmentedCheckpoint checkpoint = new SegmentedCheckpoint(manifest, SEGMENT_IDS);
+        checkpoint.write(first, 1);
+        final byte[] firstManifest = Files.readAllBytes(manifest);
+
+        tasksList.removeTask(tasksList.getTaskById(3));
+        tasksList.setTask(tasksList.getTaskById(33), new TodoTask(33, new TaskDetails("edited")));
+        tasksList.addTask(task("added", 2));
+        checkpoint.write(tasksList.snapshot(), 2);
+        // As a crash after the segments were rewritten, but before the manifest was, leaves them
+        Files.write(manifest, firstManifest);
+
+        final Checkpoint read = new SegmentedCheckpoint(manifest, SEGMENT_IDS).read();
+        assertEquals(1, read.getLogSequence());
+        final MutationLog.State state = new MutationLog.State(read.getTasksList(), read.getLogSequence());
+        final byte[] record = MutationLog.encode(2, first, tasksList.snapshot());
+        assertTrue(MutationLog.apply(MutationLog.readRecord(
+                new DataInputStream(new ByteArrayInputStream(record))), state));
+        assertSameTasks(tasksList, state.toModelType());
+    }
+
+    @Test
+    public void write_otherSegmentSize_rewritesEverySegmentUnderNewEpoch() throws Exception {
+        final TasksList tasksList = tasksList(40);
+        new SegmentedCheckpoint(manifest, SEGMENT_IDS).write(tasksList.snapshot(), 1);
+
+        final SegmentedCheckpoint resized = new SegmentedCheckpoint(manifest, 2 * SEGMENT_IDS);
+        resized.read();
+        tasksList.addTask(task("added", 1));
+        resized.write(tasksList.snapshot(), 2);
+
+        final Map<String, Object> segments = segmentFiles();
+        assertEquals(3, segments.size());
+        for (String name : segments.keySet()) {
+            assertTrue(name, name.startsWith("2-"));
+        }
+        assertSameTasks(tasksList, new SegmentedCheckpoint(manifest, 2 * SEGMENT_IDS).read().getTasksList());
+    }
+
+    @Test
+    public void write_overSingleFile_replacesIt() throws Exception {
+        final TasksList tasksList = tasksList(20);
+        try (final OutputStream out = Files.newOutputStream(manifest)) {
+            StorageFormat.BINARY.write(tasksList.snapshot(), 1, out);
+        }
+        final SegmentedCheckpoint checkpoint = new SegmentedCheckpoint(manifest, SEGMENT_IDS);
+        assertSameTasks(tasksList, checkpoint.read().getTasksList());
+
+        tasksList.addTask(task("added", 1));
+        checkpoint.write(tasksList.snapshot(), 2);
+        assertTrue(SegmentedCheckpoint.recognizes(Files.readAllBytes(manifest), 4));
+        assertSameTasks(tasksList, new SegmentedCheckpoint(manifest, SEGMENT_IDS).read().getTasksList());
+    }
+
+    @Test(expected = StorageOperationException.class)
+    public void read_segmentFailingChecksum_throws() throws Exception {
+        new SegmentedCheckpoint(manifest, SEGMENT_IDS).write(tasksList(30).snapshot(), 1);
+        try (final RandomAccessFile raw = new RandomAccessFile(directory.resolve("1-1.seg").toFile(), "rw")) {
+            raw.seek(raw.length() - 1);
+            final int flipped = raw.read() ^ 0x01;
+            raw.seek(raw.length() - 1);
+            raw.write(flipped);
+        }
+        new SegmentedCheckpoint(manifest, SEGMENT_IDS).read();
+    }
+
+    @Test(expected = StorageOperationException.class)
+    public void read_manifestFailingChecksum_throws() throws Exception {
+        new SegmentedCheckpoint(manifest, SEGMENT_IDS).write(tasksList(30).snapshot(), 1);
+        final byte[] bytes = Files.readAllBytes(manifest);
+        bytes[10] ^= 0x01;
+        Files.write(manifest, bytes);
+        new SegmentedCheckpoint(manifest, SEGMENT_IDS).read();
+    }
+
+    @Test
+    public void storageFile_segmented_checkpointsAndLoads() throws Exception {
+        final StorageFile storage = new StorageFile(manifest.toString(), StorageFormat.BINARY, SEGMENT_IDS);
+        final TasksList tasksList = tasksList(35);
+        storage.save(tasksList);
+        storage.checkpoint();
+        tasksList.removeTask(tasksList.getTaskById(12));
+        storage.save(tasksList);
+        storage.checkpoint();
+
+        assertEquals(4, segmentFiles().size());
+        assertSameTasks(tasksList, new StorageFile(manifest.toString(), StorageFormat.BINARY, SEGMENT_IDS).load());
+    }
+
+    /**
+     * Returns what identifies each segment file on disk, by name, which changes when it is written again.
+     */
+    private Map<String, Object> segmentFiles() throws Exception {
+        final Map<String, Object> segments = new HashMap<>();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path file : files) {
+                final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                // Where there are no file keys, a file renamed into place is at least created anew
+                final Object key = attributes.fileKey();
+                segments.put(file.getFileName().toString(), key != null ? key : attributes.creationTime());
+            }
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,130 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.storage.StorageFile.Durability;
+
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTasks;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.task;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.tasksList;
+
+public class StorageFileTest {
+
+    /** Long enough that a batch is never written for having waited, within a test. */
+    private static final long NEVER_MILLIS = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String filePath;
+    private Path logPath;
+
+    @Before
+    public void setup() throws Exception {
+        filePath = folder.getRoot().toPath().resolve("tasks.txt").toString();
+        logPath = folder.getRoot().toPath().resolve("tasks.log");
+    }
+
+    @Test
+    public void save_sync_logsEachChangeBeforeReturning() throws Exception {
+        final StorageFile storage = new StorageFile(filePath);
+        final TasksList tasksList = tasksList(5);
+        storage.save(tasksList);
+
+        for (int i = 0; i < 3; i++) {
+            tasksList.addTask(task("added " + i, i));
+            storage.save(tasksList);
+            assertEquals(i + 1, loggedRecords());
+            assertSameTasks(tasksList, new StorageFile(filePath).load());
+        }
+    }
+
+    @Test
+    public void save_batched_writesSavesOfABatchAsOneRecord() throws Exception {
+        final StorageFile storage = new StorageFile(filePath);
+        storage.setDurability(Durability.BATCHED, NEVER_MILLIS, 3);
+        final TasksList tasksList = tasksList(5);
+        // The first save writes a whole checkpoint at once, whatever the durability
+        storage.save(tasksList);
+
+        tasksList.addTask(task("first", 0));
+        storage.save(tasksList);
+        tasksList.removeTask(tasksList.getTask(0));
+        storage.save(tasksList);
+        assertEquals(0, new MutationLog(logPath).size());
+
+        tasksList.addTask(task("third", 2));
+        storage.save(tasksList);
+        storage.flush();
+        assertEquals(1, loggedRecords());
+        assertSameTasks(tasksList, new StorageFile(filePath).load());
+    }
+
+    @Test
+    public void save_batched_writesBatchOnceItHasWaitedLongEnough() throws Exception {
+        final StorageFile storage = new StorageFile(filePath);
+        storage.setDurability(Durability.BATCHED, 20, 1000);
+        final TasksList tasksList = tasksList(5);
+        storage.save(tasksList);
+
+        tasksList.addTask(task("waits", 0));
+        storage.save(tasksList);
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (new MutationLog(logPath).size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(new MutationLog(logPath).size() > 0);
+        storage.flush();
+        assertEquals(1, loggedRecords());
+    }
+
+    @Test
+    public void save_async_writesEveryChangeByFlush() throws Exception {
+        final StorageFile storage = new StorageFile(filePath);
+        storage.setDurability(Durability.ASYNC, 0, 1);
+        final TasksList tasksList = tasksList(5);
+        storage.save(tasksList);
+
+        for (int i = 0; i < 50; i++) {
+            tasksList.addTask(task("added " + i, i));
+            storage.save(tasksList);
+        }
+        storage.flush();
+        final int records = loggedRecords();
+        assertTrue(records >= 1 && records <= 50);
+        assertSameTasks(tasksList, new StorageFile(filePath).load());
+    }
+
+    @Test
+    public void setDurability_writesChangesSavedEarlierFirst() throws Exception {
+        final StorageFile storage = new StorageFile(filePath);
+        storage.setDurability(Durability.BATCHED, NEVER_MILLIS, 1000);
+        final TasksList tasksList = tasksList(5);
+        storage.save(tasksList);
+        tasksList.addTask(task("pending", 0));
+        storage.save(tasksList);
+        assertEquals(0, new MutationLog(logPath).size());
+
+        storage.setDurability(Durability.SYNC, 0, 1);
+        assertEquals(Durability.SYNC, storage.getDurability());
+        assertEquals(1, loggedRecords());
+        assertSameTasks(tasksList, new StorageFile(filePath).load());
+    }
+
+    /**
+     * Returns how many intact records the log holds. Replaying cuts off a record being appended, so only called
+     * while nothing is written.
+     */
+    private int loggedRecords() throws Exception {
+        final MutationLog.State state = new MutationLog.State();
+        state.sequence = Long.MIN_VALUE;
+        return new MutationLog(logPath).replay(state);
+    }
+}
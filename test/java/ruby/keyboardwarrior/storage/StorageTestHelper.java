@@ -0,0 +1,69 @@
+package ruby.keyboardwarrior.storage;
+
+import ruby.keyboardwarrior.data.ReadOnlyTasksList;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Builds tasks lists for the storage tests, and compares tasks by everything that is stored of them, as
+ * {@link TodoTask#equals(Object)} only compares their details.
+ */
+final class StorageTestHelper {
+
+    private StorageTestHelper() {
+    }
+
+    /**
+     * Returns a list of {@code count} tasks of every kind, given IDs as they are added.
+     */
+    static TasksList tasksList(int count) throws Exception {
+        final TasksList tasksList = new TasksList();
+        for (int i = 0; i < count; i++) {
+            tasksList.addTask(task("task " + i, i));
+        }
+        return tasksList;
+    }
+
+    /**
+     * Returns a task without an ID whose kind and times follow from {@code seed}: a todo, a deadline or an event.
+     * Every seventh one has details that are not ASCII.
+     */
+    static TodoTask task(String details, int seed) throws Exception {
+        final TaskDetails taskDetails = new TaskDetails(seed % 7 == 0 ? details + " caf\u00e9 \u4efb\u52a1" : details);
+        switch (seed % 3) {
+        case 0:
+            return new TodoTask(taskDetails);
+        case 1:
+            return new DeadlineTask(taskDetails, EndTime.ofMinutes(seed * 15L));
+        default:
+            return new EventTask(taskDetails, StartTime.ofMinutes(seed * 15L), EndTime.ofMinutes(seed * 15L + 90));
+        }
+    }
+
+    /**
+     * Asserts that {@code actual} holds the same tasks as {@code expected}, under the same IDs, and the same
+     * next ID.
+     */
+    static void assertSameTasks(ReadOnlyTasksList expected, ReadOnlyTasksList actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getNextId(), actual.getNextId());
+        for (TodoTask task : expected.getAllTasks()) {
+            final TodoTask stored = actual.getTaskById(task.getId());
+            assertNotNull(stored);
+            assertSameTask(task, stored);
+        }
+    }
+
+    static void assertSameTask(TodoTask expected, TodoTask actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getDetails().toString(), actual.getDetails().toString());
+        if (expected instanceof TimedTask) {
+            assertEquals(((TimedTask) expected).getStartMinutes(), ((TimedTask) actual).getStartMinutes());
+            assertEquals(((TimedTask) expected).getEndMinutes(), ((TimedTask) actual).getEndMinutes());
+        }
+    }
+}
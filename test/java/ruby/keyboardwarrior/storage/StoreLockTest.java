@@ -0,0 +1,259 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.TaskDetails;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StoreLockTest {
+
+    private static final int WRITES = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path storagePath;
+    private StoreLock lock;
+
+    @Before
+    public void setup() throws Exception {
+        storagePath = folder.getRoot().toPath().resolve("tasks.txt");
+        lock = StoreLock.of(storagePath);
+    }
+
+    @Test
+    public void of_samePath_returnsSameLockNamedAfterStorageFile() throws Exception {
+        assertSame(lock, StoreLock.of(folder.getRoot().toPath().resolve("./tasks.txt")));
+        assertEquals("tasks.lock", lock.getPath().getFileName().toString());
+    }
+
+    @Test
+    public void acquire_manyThreads_oneTakesItsTurnAtATime() throws Exception {
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicInteger mostHolders = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        lock.acquire();
+                        try {
+                            mostHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                            Thread.yield();
+                            holders.decrementAndGet();
+                        } finally {
+                            lock.release();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(1, mostHolders.get());
+    }
+
+    @Test
+    public void acquire_nested_holdsFileLockUntilOutermostRelease() throws Exception {
+        lock.acquire();
+        lock.acquire();
+        assertFileLocked(true);
+        lock.release();
+        assertFileLocked(true);
+        lock.release();
+        assertFileLocked(false);
+    }
+
+    @Test
+    public void update_readBackOnNextTurn_isValidForLogOfSameSize() throws Exception {
+        lock.acquire();
+        try {
+            lock.update(7, 3, 1234);
+        } finally {
+            lock.release();
+        }
+        lock.acquire();
+        try {
+            assertTrue(lock.isValid(1234));
+            assertFalse(lock.isValid(1300));
+            assertEquals(7, lock.getVersion());
+            assertEquals(3, lock.getCheckpointVersion());
+            assertEquals(1234, lock.getLogBytes());
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Test
+    public void acquire_headerOverwritten_isNotValid() throws Exception {
+        lock.acquire();
+        try {
+            lock.update(7, 3, 1234);
+        } finally {
+            lock.release();
+        }
+        try (final RandomAccessFile raw = new RandomAccessFile(lock.getPath().toFile(), "rw")) {
+            raw.seek(8);
+            raw.write(0x55);
+        }
+        lock.acquire();
+        try {
+            assertFalse(lock.isValid(1234));
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Test
+    public void save_twoStorageFilesOnOnePath_mergeEachOthersChanges() throws Exception {
+        new StorageFile(storagePath.toString()).save(new TasksList());
+        final StorageFile first = new StorageFile(storagePath.toString());
+        final StorageFile second = new StorageFile(storagePath.toString());
+        final TasksList firstList = first.load();
+        final TasksList secondList = second.load();
+
+        for (int i = 0; i < WRITES; i++) {
+            firstList.addTask(new TodoTask(new TaskDetails("first " + i)));
+            first.save(firstList);
+            secondList.addTask(new TodoTask(new TaskDetails("second " + i)));
+            second.save(secondList);
+        }
+        assertEquals(2 * WRITES, secondList.size());
+        assertDetails(new StorageFile(storagePath.toString()).load(), "first", "second");
+    }
+
+    @Test
+    public void save_otherProcessesSavingAtOnce_keepsEveryonesTasks() throws Exception {
+        new StorageFile(storagePath.toString()).save(new TasksList());
+        final List<Process> writers = new ArrayList<>();
+        for (String name : new String[] { "left", "right" }) {
+            writers.add(start("write", storagePath.toString(), name));
+        }
+        write(storagePath.toString(), "here");
+        for (Process writer : writers) {
+            assertTrue(writer.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, writer.exitValue());
+        }
+        assertDetails(new StorageFile(storagePath.toString()).load(), "left", "right", "here");
+    }
+
+    @Test
+    public void load_writtenInPlaceAndLoadedByOtherProcess_throws() throws Exception {
+        final StorageFile paged = StorageFile.paged(storagePath.toString(), PageFile.MIN_POOL_PAGES);
+        paged.save(new TasksList());
+        paged.flush();
+        final Process holder = start("hold", storagePath.toString(), "");
+        try {
+            assertEquals("loaded", new BufferedReader(new InputStreamReader(holder.getInputStream())).readLine());
+            try {
+                StorageFile.paged(storagePath.toString(), PageFile.MIN_POOL_PAGES).load();
+                fail();
+            } catch (StorageOperationException soe) {
+                assertTrue(soe.getMessage(), soe.getMessage().startsWith("Storage file is in use by another"));
+            }
+        } finally {
+            holder.getOutputStream().close();
+            assertTrue(holder.waitFor(60, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Asserts whether the lock file is locked by this process, by trying to lock it through another channel.
+     */
+    private void assertFileLocked(boolean locked) throws Exception {
+        try (final FileChannel channel = FileChannel.open(lock.getPath(), StandardOpenOption.WRITE)) {
+            final FileLock other = channel.tryLock();
+            other.release();
+            assertFalse(locked);
+        } catch (OverlappingFileLockException ofle) {
+            assertTrue(locked);
+        }
+    }
+
+    private static void assertDetails(TasksList tasksList, String... writers) {
+        final Set<String> details = new HashSet<>();
+        for (TodoTask task : tasksList.getAllTasks()) {
+            details.add(task.getDetails().toString());
+        }
+        assertEquals(writers.length * WRITES, details.size());
+        for (String writer : writers) {
+            for (int i = 0; i < WRITES; i++) {
+                assertTrue(writer + " " + i, details.contains(writer + " " + i));
+            }
+        }
+    }
+
+    /**
+     * Adds tasks named after {@code writer} to the storage file at {@code path}, saving each one.
+     */
+    private static void write(String path, String writer) throws Exception {
+        final StorageFile storage = new StorageFile(path);
+        final TasksList tasksList = storage.load();
+        for (int i = 0; i < WRITES; i++) {
+            tasksList.addTask(new TodoTask(new TaskDetails(writer + " " + i)));
+            storage.save(tasksList);
+        }
+        storage.flush();
+    }
+
+    private static Process start(String action, String path, String writer) throws Exception {
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), OtherProcess.class.getName(),
+                action, path, writer).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /**
+     * Another process using the storage file: {@code write PATH NAME} saves tasks named after it one at a time,
+     * and {@code hold PATH} loads it as a page file and keeps it until its input ends.
+     */
+    public static final class OtherProcess {
+        public static void main(String[] args) throws Exception {
+            if ("write".equals(args[0])) {
+                write(args[1], args[2]);
+            } else {
+                StorageFile.paged(args[1], PageFile.MIN_POOL_PAGES).load();
+                System.out.println("loaded");
+                System.out.flush();
+                while (System.in.read() >= 0) {
+                    // Holds the storage file until the test is done with it
+                }
+            }
+            System.exit(0);
+        }
+    }
+}
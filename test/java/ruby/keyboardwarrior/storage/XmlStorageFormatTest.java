@@ -0,0 +1,174 @@
+package ruby.keyboardwarrior.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ruby.keyboardwarrior.data.TasksList;
+import ruby.keyboardwarrior.data.task.DeadlineTask;
+import ruby.keyboardwarrior.data.task.EndTime;
+import ruby.keyboardwarrior.data.task.EventTask;
+import ruby.keyboardwarrior.data.task.StartTime;
+import ruby.keyboardwarrior.data.task.TodoTask;
+import ruby.keyboardwarrior.storage.StorageFile.StorageOperationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.assertSameTasks;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.task;
+import static ruby.keyboardwarrior.storage.StorageTestHelper.tasksList;
+
+public class XmlStorageFormatTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_written_returnsSameTasksAndLogSequence() throws Exception {
+        final TasksList tasksList = tasksList(50);
+        tasksList.addTask(task("markup <b>&amp;</b> \"quoted\" 'too'", 3));
+        tasksList.removeTask(tasksList.getTask(10));
+
+        final Checkpoint checkpoint = read(write(tasksList, 9));
+        assertSameTasks(tasksList, checkpoint.getTasksList());
+        assertEquals(9, checkpoint.getLogSequence());
+    }
+
+    @Test
+    public void read_emptyList_returnsNoTasks() throws Exception {
+        assertSameTasks(new TasksList(), read(write(new TasksList(), 0)).getTasksList());
+    }
+
+    @Test
+    public void read_writtenBeforeIdsAndLog_givesTasksNewIds() throws Exception {
+        final String end = EndTime.ofMinutes(600).toString();
+        final String start = StartTime.ofMinutes(540).toString();
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<KeyboardWarrior>\n"
+                + "    <tasks><taskdetails>a todo</taskdetails></tasks>\n"
+                + "    <tasks><taskdetails>a deadline</taskdetails><endtime>" + end + "</endtime></tasks>\n"
+                + "    <tasks><taskdetails>an event</taskdetails><starttime>" + start + "</starttime>"
+                + "<endtime>" + end + "</endtime></tasks>\n"
+                + "</KeyboardWarrior>\n";
+
+        final Checkpoint checkpoint = read(xml.getBytes(StandardCharsets.UTF_8));
+        final TasksList tasksList = checkpoint.getTasksList();
+        assertEquals(0, checkpoint.getLogSequence());
+        assertEquals(3, tasksList.size());
+        assertEquals(TodoTask.class, tasksList.getTask(0).getClass());
+        assertEquals(DeadlineTask.class, tasksList.getTask(1).getClass());
+        assertEquals(EventTask.class, tasksList.getTask(2).getClass());
+        assertEquals(540, ((EventTask) tasksList.getTask(2)).getStartMinutes());
+        assertEquals(600, ((EventTask) tasksList.getTask(2)).getEndMinutes());
+        for (TodoTask task : tasksList.getAllTasks()) {
+            assertTrue(task.hasId());
+            assertTrue(task.getId() < tasksList.getNextId());
+        }
+    }
+
+    @Test
+    public void read_unknownElements_skipsThem() throws Exception {
+        final String xml = "<KeyboardWarrior><nextId>5</nextId><theme><colour>dark</colour></theme>"
+                + "<tasks><id>3</id><taskdetails>kept</taskdetails><priority><level>2</level></priority></tasks>"
+                + "</KeyboardWarrior>";
+
+        final TasksList tasksList = read(xml.getBytes(StandardCharsets.UTF_8)).getTasksList();
+        assertEquals(1, tasksList.size());
+        assertEquals("kept", tasksList.getTaskById(3).getDetails().toString());
+        assertEquals(5, tasksList.getNextId());
+    }
+
+    @Test
+    public void read_cutShortAnywhere_throws() throws Exception {
+        final byte[] written = write(tasksList(40), 3);
+        final int rootEnd = new String(written, StandardCharsets.UTF_8).lastIndexOf("</KeyboardWarrior>");
+        for (int length = 0; length < rootEnd + "</KeyboardWarrior>".length(); length += length < 400 ? 1 : 37) {
+            assertUnreadable(Arrays.copyOf(written, length));
+        }
+    }
+
+    @Test
+    public void read_taskWithoutDetails_throws() throws Exception {
+        assertUnreadable("<KeyboardWarrior><tasks><id>1</id></tasks></KeyboardWarrior>");
+    }
+
+    @Test
+    public void read_badTime_throws() throws Exception {
+        assertUnreadable("<KeyboardWarrior><tasks><taskdetails>x</taskdetails><endtime>soon</endtime></tasks>"
+                + "</KeyboardWarrior>");
+    }
+
+    @Test
+    public void read_badNumber_throws() throws Exception {
+        assertUnreadable("<KeyboardWarrior><nextId>many</nextId></KeyboardWarrior>");
+    }
+
+    @Test
+    public void read_otherRoot_throws() throws Exception {
+        assertUnreadable("<AddressBook><tasks><taskdetails>x</taskdetails></tasks></AddressBook>");
+    }
+
+    @Test
+    public void read_externalEntity_isNotResolved() throws Exception {
+        final Path secret = folder.newFile("secret.txt").toPath();
+        Files.write(secret, "secret".getBytes(StandardCharsets.UTF_8));
+        assertUnreadable("<?xml version=\"1.0\"?><!DOCTYPE KeyboardWarrior [<!ENTITY leak SYSTEM \""
+                + secret.toUri() + "\">]><KeyboardWarrior><tasks><taskdetails>&leak;</taskdetails></tasks>"
+                + "</KeyboardWarrior>");
+    }
+
+    @Test
+    public void checkpoint_xmlFile_isRewrittenInBinary() throws Exception {
+        final TasksList tasksList = tasksList(20);
+        final Path file = folder.getRoot().toPath().resolve("tasks.txt");
+        Files.write(file, write(tasksList, 0));
+
+        final StorageFile storage = new StorageFile(file.toString());
+        final TasksList loaded = storage.load();
+        assertSameTasks(tasksList, loaded);
+        loaded.addTask(task("added after the upgrade", 1));
+        storage.save(loaded);
+        storage.checkpoint();
+
+        assertSame(StorageFormat.BINARY, StorageFormat.detect(Files.readAllBytes(file), StorageFormat.HEADER_BYTES));
+        assertSameTasks(loaded, new StorageFile(file.toString()).load());
+    }
+
+    @Test
+    public void detect_header_findsXml() throws Exception {
+        assertSame(StorageFormat.XML, StorageFormat.detect(write(tasksList(1), 0), StorageFormat.HEADER_BYTES));
+        final byte[] indented = "\n  <KeyboardWarrior/>".getBytes(StandardCharsets.UTF_8);
+        assertSame(StorageFormat.XML, StorageFormat.detect(indented, indented.length));
+    }
+
+    private static byte[] write(TasksList tasksList, long logSequence) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StorageFormat.XML.write(tasksList.snapshot(), logSequence, out);
+        return out.toByteArray();
+    }
+
+    private static Checkpoint read(byte[] file) throws Exception {
+        return StorageFormat.XML.read(new ByteArrayInputStream(file));
+    }
+
+    private static void assertUnreadable(String xml) throws Exception {
+        assertUnreadable(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertUnreadable(byte[] file) throws Exception {
+        try {
+            read(file);
+            fail("read " + new String(file, StandardCharsets.UTF_8));
+        } catch (StorageOperationException expected) {
+            // The file was rejected rather than misread
+        }
+    }
+}